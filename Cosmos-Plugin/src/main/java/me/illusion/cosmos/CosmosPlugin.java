@@ -2,9 +2,13 @@ package me.illusion.cosmos;
 
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import lombok.AccessLevel;
 import lombok.Getter;
 import me.illusion.cosmos.cache.CosmosCache;
+import me.illusion.cosmos.cache.CosmosTemplateCache;
+import me.illusion.cosmos.codec.CosmosCodecRegistry;
+import me.illusion.cosmos.command.CosmosChunkSweepCommand;
 import me.illusion.cosmos.command.CosmosImportCommand;
 import me.illusion.cosmos.command.CosmosMigrateCommand;
 import me.illusion.cosmos.command.CosmosTemplateCreateCommand;
@@ -16,9 +20,11 @@ import me.illusion.cosmos.command.CosmosTemplateViewMenuCommand;
 import me.illusion.cosmos.command.CosmosTestLatencyCommand;
 import me.illusion.cosmos.database.CosmosContainerRegistry;
 import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.executor.CosmosExecutorRegistry;
 import me.illusion.cosmos.file.CosmosDatabasesFile;
 import me.illusion.cosmos.file.CosmosMetricsFile;
 import me.illusion.cosmos.grid.CosmosGridRegistry;
+import me.illusion.cosmos.listener.CosmosAreaChangeListener;
 import me.illusion.cosmos.listener.CosmosUnloadAreaListener;
 import me.illusion.cosmos.metrics.CosmosMetricsRegistry;
 import me.illusion.cosmos.serialization.CosmosSerializerRegistry;
@@ -38,14 +44,16 @@ import org.bukkit.plugin.java.JavaPlugin;
 public abstract class CosmosPlugin extends JavaPlugin {
 
     private CosmosSerializerRegistry serializerRegistry;
+    private CosmosCodecRegistry codecRegistry;
     private CosmosGridRegistry gridRegistry;
     private CosmosContainerRegistry containerRegistry;
+    private CosmosExecutorRegistry executorRegistry;
     private CosmosSessionHolderRegistry sessionHolderRegistry;
 
     private CosmosMetricsRegistry metricsRegistry;
 
     private CosmosCache<PastedArea> pasteCache;
-    private CosmosCache<TemplatedArea> templateCache;
+    private CosmosTemplateCache templateCache;
 
     private CommandManager commandManager;
     private MenuRegistry menuRegistry;
@@ -71,14 +79,16 @@ public abstract class CosmosPlugin extends JavaPlugin {
         databasesFile = new CosmosDatabasesFile(this);
         metricsFile = new CosmosMetricsFile(this);
 
+        codecRegistry = new CosmosCodecRegistry();
+        executorRegistry = new CosmosExecutorRegistry(this);
         containerRegistry = new CosmosContainerRegistry(this);
         sessionHolderRegistry = new CosmosSessionHolderRegistry();
-        serializerRegistry = new CosmosSerializerRegistry();
+        serializerRegistry = new CosmosSerializerRegistry(this);
         gridRegistry = new CosmosGridRegistry(this);
 
         metricsRegistry = new CosmosMetricsRegistry(this);
 
-        templateCache = new CosmosCache<>();
+        templateCache = new CosmosTemplateCache(this);
         pasteCache = new CosmosCache<>();
 
         messages = new MessagesFile(this);
@@ -111,7 +121,15 @@ public abstract class CosmosPlugin extends JavaPlugin {
             System.out.println("Flushing " + container.getName());
             container.flush().join();
             System.out.println("Flushed " + container.getName());
+
+            try {
+                container.close().join();
+            } catch (Exception e) {
+                getLogger().warning("Could not close container " + container.getName() + ": " + e.getMessage());
+            }
         }
+
+        executorRegistry.shutdown(30, TimeUnit.SECONDS);
     }
 
     /**
@@ -129,6 +147,7 @@ public abstract class CosmosPlugin extends JavaPlugin {
         );
 
         serializerRegistry.registerDefaultSerializers();
+        codecRegistry.registerDefaultCodecs();
         containerRegistry.registerDefaults().thenRun(() -> {
             Bukkit.getScheduler().runTask(this, () -> { // make sure we're running after all plugins enable, in case any external plugin registers a container
                 containerRegistry.initializeDefaultContainer().thenAccept(container -> {
@@ -154,6 +173,7 @@ public abstract class CosmosPlugin extends JavaPlugin {
      */
     public void registerListeners() {
         Bukkit.getPluginManager().registerEvents(new CosmosUnloadAreaListener(this), this);
+        Bukkit.getPluginManager().registerEvents(new CosmosAreaChangeListener(), this);
     }
 
     /**
@@ -162,6 +182,8 @@ public abstract class CosmosPlugin extends JavaPlugin {
     public void registerCommands() {
         commandManager.registerCommand(new CosmosImportCommand(this));
         commandManager.registerCommand(new CosmosMigrateCommand(this));
+        commandManager.registerCommand(new CosmosChunkSweepCommand(this, false));
+        commandManager.registerCommand(new CosmosChunkSweepCommand(this, true));
         commandManager.registerCommand(new CosmosTemplateSetCommand(this));
         commandManager.registerCommand(new CosmosTemplateListCommand(this));
         commandManager.registerCommand(new CosmosTemplateDeleteCommand(this));
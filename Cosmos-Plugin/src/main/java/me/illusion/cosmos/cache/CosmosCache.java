@@ -11,7 +11,7 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class CosmosCache<T> {
 
-    private final Map<String, T> cache = new ConcurrentHashMap<>();
+    protected final Map<String, T> cache = new ConcurrentHashMap<>();
 
     /**
      * Registers a value to the cache.
@@ -0,0 +1,49 @@
+package me.illusion.cosmos.cache;
+
+import java.util.concurrent.CompletableFuture;
+import me.illusion.cosmos.CosmosPlugin;
+import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.impl.lazy.LazyTemplatedArea;
+
+/**
+ * The template cache compresses every template registered to it, however it was registered, according to the template-cache section of the databases file.
+ * See {@link LazyTemplatedArea}.
+ */
+public class CosmosTemplateCache extends CosmosCache<TemplatedArea> {
+
+    private final CosmosPlugin plugin;
+
+    public CosmosTemplateCache(CosmosPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Registers a template to the cache. The template is available right away, and is replaced by its compressed form once it is compressed, unless another
+     * template was registered under the same identifier in the meantime.
+     *
+     * @param identifier The identifier to register the template under
+     * @param value      The template to register
+     */
+    @Override
+    public void register(String identifier, TemplatedArea value) {
+        super.register(identifier, value);
+
+        if (value == null || value instanceof LazyTemplatedArea) {
+            return;
+        }
+
+        LazyTemplatedArea.compress(plugin, value).thenAccept(compressed -> {
+            if (compressed != value) {
+                cache.replace(identifier, value, compressed);
+            }
+        }).exceptionally(throwable -> {
+            plugin.getLogger().warning("Could not compress template " + identifier + ", it is cached as is: " + throwable.getMessage());
+            return null;
+        });
+    }
+
+    @Override
+    public void register(String identifier, CompletableFuture<TemplatedArea> valueFuture) {
+        super.register(identifier, valueFuture.thenCompose(area -> LazyTemplatedArea.compress(plugin, area)));
+    }
+}
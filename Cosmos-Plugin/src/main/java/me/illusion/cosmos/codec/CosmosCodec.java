@@ -0,0 +1,42 @@
+package me.illusion.cosmos.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A codec is an object responsible for transforming stored template data, usually by compressing it. Codecs are applied by containers, after the serializer
+ * has produced the data, and are identified by name in the header of every encoded payload.
+ * <p>
+ *
+ * @author Illusion
+ * @see CosmosCodecRegistry
+ */
+public interface CosmosCodec {
+
+    /**
+     * Wraps a stream so that everything written to it is encoded. Closing the returned stream must finish the encoding and close the wrapped stream.
+     *
+     * @param output The stream to write the encoded data to
+     * @return The stream to write the plain data to
+     * @throws IOException If the codec could not be initialized
+     */
+    OutputStream encode(OutputStream output) throws IOException;
+
+    /**
+     * Wraps a stream so that everything read from it is decoded. Closing the returned stream must close the wrapped stream.
+     *
+     * @param input The stream to read the encoded data from
+     * @return The stream to read the plain data from
+     * @throws IOException If the codec could not be initialized
+     */
+    InputStream decode(InputStream input) throws IOException;
+
+    /**
+     * Obtains the name of the codec, which is written to the header of encoded data.
+     *
+     * @return The name of the codec
+     */
+    String getName();
+
+}
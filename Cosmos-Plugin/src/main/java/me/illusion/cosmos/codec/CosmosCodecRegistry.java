@@ -0,0 +1,174 @@
+package me.illusion.cosmos.codec;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import me.illusion.cosmos.codec.impl.DeflateCodec;
+import me.illusion.cosmos.codec.impl.IdentityCodec;
+
+/**
+ * This class is responsible for keeping track of all the codecs that are registered, and for reading and writing the header which identifies the codec of
+ * encoded data. Data without a header is considered plain, so templates stored before a codec was configured remain readable.
+ * <p>
+ *
+ * @author Illusion
+ */
+public class CosmosCodecRegistry {
+
+    private static final int MAGIC = 0x43534344; // "CSCD"
+    private static final int VERSION = 1;
+    private static final int GZIP_MAGIC = 0x1F8B; // the sponge schematics WorldEdit writes are gzipped
+
+    private final Map<String, CosmosCodec> codecs = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the default codecs. Additional codecs (LZ4, zstd...) can be registered by other plugins.
+     */
+    public void registerDefaultCodecs() {
+        register(new IdentityCodec());
+        register(new DeflateCodec());
+    }
+
+    /**
+     * Registers a codec.
+     *
+     * @param codec The codec to register
+     */
+    public void register(CosmosCodec codec) {
+        if (codecs.containsKey(codec.getName())) {
+            throw new IllegalArgumentException("A codec with the name " + codec.getName() + " is already registered!");
+        }
+
+        codecs.put(codec.getName(), codec);
+    }
+
+    /**
+     * Obtains a codec by name.
+     *
+     * @param name The name of the codec
+     * @return The codec, or null if not found
+     */
+    public CosmosCodec get(String name) {
+        return codecs.get(name);
+    }
+
+    /**
+     * Obtains an immutable map of all the registered codecs.
+     *
+     * @return The map of codecs
+     */
+    public ImmutableMap<String, CosmosCodec> getCodecs() {
+        return ImmutableMap.copyOf(codecs);
+    }
+
+    /**
+     * Encodes data with a codec, prefixing it with a header naming the codec. Data which is already gzipped is returned as is, as compressing it again only
+     * costs time.
+     *
+     * @param codec The codec to encode with
+     * @param data  The plain data
+     * @return The encoded data
+     */
+    public byte[] encode(CosmosCodec codec, byte[] data) {
+        if (isGzipped(data)) {
+            return data;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2 + 64);
+
+        try {
+            DataOutputStream header = new DataOutputStream(bytes);
+            header.writeInt(MAGIC);
+            header.writeByte(VERSION);
+            header.writeUTF(codec.getName());
+
+            try (OutputStream output = codec.encode(bytes)) {
+                output.write(data);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes data, using the codec named in its header. Data without a header is returned as is.
+     *
+     * @param data The data to decode
+     * @return The plain data
+     */
+    public byte[] decode(byte[] data) {
+        if (!isEncoded(data)) {
+            return data;
+        }
+
+        try (InputStream input = decode(new ByteArrayInputStream(data))) {
+            return input.readAllBytes();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Wraps a stream so that it is decoded with the codec named in its header. Streams without a header are read as is.
+     *
+     * @param stream The stream to decode
+     * @return A stream of the plain data
+     * @throws IOException If the header could not be read, or names an unknown codec
+     */
+    public InputStream decode(InputStream stream) throws IOException {
+        InputStream input = stream.markSupported() ? stream : new BufferedInputStream(stream);
+        DataInputStream header = new DataInputStream(input);
+
+        input.mark(Integer.BYTES);
+
+        byte[] magic = header.readNBytes(Integer.BYTES);
+
+        if (magic.length < Integer.BYTES || readInt(magic) != MAGIC) {
+            input.reset();
+            return input;
+        }
+
+        int version = header.readUnsignedByte();
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported codec header version " + version);
+        }
+
+        String name = header.readUTF();
+        CosmosCodec codec = codecs.get(name);
+
+        if (codec == null) {
+            throw new IOException("Data is encoded with unknown codec " + name);
+        }
+
+        return codec.decode(input);
+    }
+
+    /**
+     * Checks whether data starts with a codec header.
+     *
+     * @param data The data to check
+     * @return Whether the data is encoded
+     */
+    public boolean isEncoded(byte[] data) {
+        return data.length >= Integer.BYTES && readInt(data) == MAGIC;
+    }
+
+    private boolean isGzipped(byte[] data) {
+        return data.length >= 2 && (((data[0] & 0xFF) << 8) | (data[1] & 0xFF)) == GZIP_MAGIC;
+    }
+
+    private int readInt(byte[] data) {
+        return ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+    }
+}
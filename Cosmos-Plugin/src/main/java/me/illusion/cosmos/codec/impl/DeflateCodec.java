@@ -0,0 +1,66 @@
+package me.illusion.cosmos.codec.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import me.illusion.cosmos.codec.CosmosCodec;
+
+/**
+ * A codec which compresses data with the JDK's deflate implementation. It requires no additional dependencies, and works well on schematic data, which is
+ * highly repetitive.
+ */
+public class DeflateCodec implements CosmosCodec {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int level;
+
+    public DeflateCodec(int level) {
+        this.level = level;
+    }
+
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Override
+    public OutputStream encode(OutputStream output) {
+        Deflater deflater = new Deflater(level);
+
+        return new DeflaterOutputStream(output, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end(); // custom deflaters are not released by the stream
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream decode(InputStream input) {
+        Inflater inflater = new Inflater();
+
+        return new InflaterInputStream(input, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public String getName() {
+        return "deflate";
+    }
+}
@@ -0,0 +1,26 @@
+package me.illusion.cosmos.codec.impl;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import me.illusion.cosmos.codec.CosmosCodec;
+
+/**
+ * A codec which leaves the data untouched.
+ */
+public class IdentityCodec implements CosmosCodec {
+
+    @Override
+    public OutputStream encode(OutputStream output) {
+        return output;
+    }
+
+    @Override
+    public InputStream decode(InputStream input) {
+        return input;
+    }
+
+    @Override
+    public String getName() {
+        return "none";
+    }
+}
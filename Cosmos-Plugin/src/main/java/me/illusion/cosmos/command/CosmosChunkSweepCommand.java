@@ -0,0 +1,65 @@
+package me.illusion.cosmos.command;
+
+import me.illusion.cosmos.CosmosPlugin;
+import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.database.decorator.DeduplicatingDataContainer;
+import me.illusion.cosmos.database.decorator.ForwardingDataContainer;
+import me.illusion.cosmos.utilities.command.command.impl.AdvancedCommand;
+import me.illusion.cosmos.utilities.command.command.impl.ExecutionContext;
+import me.illusion.cosmos.utilities.storage.MessagesFile;
+import me.illusion.cosmos.utilities.text.Placeholder;
+import org.bukkit.command.CommandSender;
+
+/**
+ * Deletes the chunks no template of a deduplicated container references anymore. Rescanning rebuilds the chunk index from the stored manifests first, which
+ * is needed when other servers save to the same container.
+ */
+public class CosmosChunkSweepCommand extends AdvancedCommand {
+
+    private final CosmosPlugin plugin;
+    private final MessagesFile messages;
+    private final boolean rescan;
+
+    public CosmosChunkSweepCommand(CosmosPlugin plugin, boolean rescan) {
+        super(rescan ? "cosmos chunks rescan <container>" : "cosmos chunks sweep <container>");
+
+        this.plugin = plugin;
+        this.messages = plugin.getMessages();
+        this.rescan = rescan;
+
+        addInputValidation("container", sender -> messages.sendMessage(sender, "chunks.invalid-container-arg"));
+    }
+
+    @Override
+    public void execute(CommandSender sender, ExecutionContext context) {
+        String containerName = context.getParameter("container");
+        Placeholder<CommandSender> containerPlaceholder = new Placeholder<>("%container%", containerName);
+
+        CosmosDataContainer container = plugin.getContainerRegistry().getContainer(containerName);
+
+        if (container == null) {
+            messages.sendMessage(sender, "chunks.invalid-container", containerPlaceholder);
+            return;
+        }
+
+        while (!(container instanceof DeduplicatingDataContainer) && container instanceof ForwardingDataContainer forwarding) {
+            container = forwarding.getDelegate();
+        }
+
+        if (!(container instanceof DeduplicatingDataContainer deduplicating)) {
+            messages.sendMessage(sender, "chunks.not-deduplicated", containerPlaceholder);
+            return;
+        }
+
+        messages.sendMessage(sender, "chunks.started", containerPlaceholder);
+
+        deduplicating.sweepUnreferencedChunks(rescan).whenComplete((deleted, throwable) -> {
+            if (throwable != null) {
+                messages.sendMessage(sender, "chunks.failed", containerPlaceholder);
+                return;
+            }
+
+            messages.sendMessage(sender, "chunks.success", containerPlaceholder, new Placeholder<>("%deleted%", String.valueOf(deleted)));
+        });
+    }
+}
@@ -3,22 +3,34 @@ package me.illusion.cosmos.command;
 import me.illusion.cosmos.CosmosPlugin;
 import me.illusion.cosmos.database.CosmosDataContainer;
 import me.illusion.cosmos.event.CosmosTemplateMigrateEvent;
+import me.illusion.cosmos.event.CosmosTemplateRawMigrateEvent;
+import me.illusion.cosmos.migration.CosmosMigration;
 import me.illusion.cosmos.utilities.command.command.impl.AdvancedCommand;
 import me.illusion.cosmos.utilities.command.command.impl.ExecutionContext;
 import me.illusion.cosmos.utilities.storage.MessagesFile;
 import me.illusion.cosmos.utilities.text.Placeholder;
+import me.illusion.cosmos.utilities.text.TextUtils;
 import org.bukkit.Bukkit;
 import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.scheduler.BukkitTask;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Copies templates between containers. Templates are copied as raw data, so they are never deserialized into clipboards, unless the destination cannot
+ * store raw data. Migrating every template runs a {@link CosmosMigration}, which reports its progress and can be resumed.
+ */
 public class CosmosMigrateCommand extends AdvancedCommand {
 
     private final CosmosPlugin plugin;
     private final MessagesFile messages;
 
+    private final Map<String, CosmosMigration> runningMigrations = new ConcurrentHashMap<>();
+
     public CosmosMigrateCommand(CosmosPlugin plugin) {
         super("cosmos migrate <template> <source> <destination>");
 
@@ -54,24 +66,102 @@ public class CosmosMigrateCommand extends AdvancedCommand {
         }
 
         if (templateName.equalsIgnoreCase("all")) {
-            sourceContainer.fetchAllTemplates().thenAccept(allTemplates -> {
-                List<CompletableFuture<?>> futures = new ArrayList<>();
+            migrateAll(sender, sourceContainer, destinationContainer, sourcePlaceholder, destinationPlaceholder);
+            return;
+        }
 
-                for (String fetchedTemplateName : allTemplates) {
-                    futures.add(sourceContainer.fetchTemplate(fetchedTemplateName)
-                            .thenCompose(template -> destinationContainer.saveTemplate(fetchedTemplateName, template)));
-                }
+        sourceContainer.fetchRaw(templateName).thenCompose(raw -> {
+            if (raw == null) {
+                plugin.getMessages().sendMessage(sender, "migrate.invalid-template", templatePlaceholder);
+                return CompletableFuture.completedFuture(null);
+            }
 
-                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenRun(() -> {
+            return destinationContainer.saveRaw(templateName, raw).handle((irrelevant, throwable) -> {
+                if (throwable == null) {
                     plugin.getMessages().sendMessage(sender, "migrate.success", sourcePlaceholder, destinationPlaceholder);
-                });
-            });
 
-            plugin.getMessages().sendMessage(sender, "migrate.started", sourcePlaceholder, destinationPlaceholder);
+                    Bukkit.getPluginManager().callEvent(new CosmosTemplateRawMigrateEvent(sourceContainer, destinationContainer, raw, templateName));
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+
+                if (!CosmosMigration.isUnsupported(throwable)) {
+                    return CompletableFuture.<Void>failedFuture(throwable);
+                }
+
+                return migrateDeserialized(sender, sourceContainer, destinationContainer, templateName);
+            }).thenCompose(future -> future);
+        });
+
+        plugin.getMessages().sendMessage(sender, "migrate.started", sourcePlaceholder, destinationPlaceholder);
+    }
+
+    /**
+     * Migrates every template through a {@link CosmosMigration}, reporting its progress to the sender until it completes.
+     */
+    private void migrateAll(CommandSender sender, CosmosDataContainer sourceContainer, CosmosDataContainer destinationContainer,
+                            Placeholder<CommandSender> sourcePlaceholder, Placeholder<CommandSender> destinationPlaceholder) {
+        String key = sourceContainer.getName() + "->" + destinationContainer.getName();
+        ConfigurationSection settings = plugin.getDatabasesFile().getMigrationSettings();
+        CosmosMigration migration = new CosmosMigration(plugin, sourceContainer, destinationContainer, settings);
+
+        if (runningMigrations.putIfAbsent(key, migration) != null) {
+            messages.sendMessage(sender, "migrate.already-running", sourcePlaceholder, destinationPlaceholder);
             return;
         }
 
-        sourceContainer.fetchTemplate(templateName).thenCompose(template -> {
+        messages.sendMessage(sender, migration.isResuming() ? "migrate.resumed" : "migrate.started", sourcePlaceholder, destinationPlaceholder);
+
+        long interval = Math.max(1, settings == null ? 10 : settings.getLong("progress-interval", 10)) * 20; // in ticks
+
+        BukkitTask progressTask = Bukkit.getScheduler().runTaskTimer(plugin, () -> {
+            int total = migration.getTotal();
+            long remaining = migration.getRemainingMillis();
+
+            messages.sendMessage(sender, "migrate.progress",
+                new Placeholder<>("%done%", String.valueOf(migration.getMigrated() + migration.getSkipped() + migration.getFailed())),
+                new Placeholder<>("%total%", total < 0 ? migration.getListed() + "+" : String.valueOf(total)), // still paging through the source
+                new Placeholder<>("%rate%", String.format("%.1f", migration.getRate())),
+                new Placeholder<>("%eta%", remaining < 0 ? "?" : TextUtils.formatDuration(remaining)));
+        }, interval, interval);
+
+        migration.start().whenComplete((summary, throwable) -> {
+            progressTask.cancel();
+            runningMigrations.remove(key);
+
+            if (throwable != null) {
+                plugin.getLogger().warning("Could not page through the templates of " + sourceContainer.getName() + ": " + throwable);
+                messages.sendMessage(sender, "migrate.failed", sourcePlaceholder, destinationPlaceholder);
+                return;
+            }
+
+            messages.sendMessage(sender, "migrate.summary", sourcePlaceholder, destinationPlaceholder,
+                new Placeholder<>("%migrated%", String.valueOf(summary.getMigrated())),
+                new Placeholder<>("%total%", String.valueOf(summary.getTotal())),
+                new Placeholder<>("%skipped%", String.valueOf(summary.getSkipped())),
+                new Placeholder<>("%failed%", String.valueOf(summary.getFailed().size())),
+                new Placeholder<>("%retries%", String.valueOf(summary.getRetries())),
+                new Placeholder<>("%size%", TextUtils.formatSize(summary.getBytes())),
+                new Placeholder<>("%elapsed%", TextUtils.formatDuration(summary.getElapsedMillis())));
+
+            if (!summary.isSuccessful()) {
+                List<String> failed = summary.getFailed();
+                String shown = String.join(", ", failed.subList(0, Math.min(10, failed.size()))) + (failed.size() > 10 ? ", ..." : "");
+
+                messages.sendMessage(sender, "migrate.failures", new Placeholder<>("%templates%", shown));
+            }
+        });
+    }
+
+    /**
+     * Migrates a single template by deserializing it, for destinations which cannot store raw data.
+     */
+    private CompletableFuture<Void> migrateDeserialized(CommandSender sender, CosmosDataContainer sourceContainer, CosmosDataContainer destinationContainer,
+                                                        String templateName) {
+        Placeholder<CommandSender> sourcePlaceholder = new Placeholder<>("%source%", sourceContainer.getName());
+        Placeholder<CommandSender> destinationPlaceholder = new Placeholder<>("%destination%", destinationContainer.getName());
+        Placeholder<CommandSender> templatePlaceholder = new Placeholder<>("%template%", templateName);
+
+        return sourceContainer.fetchTemplate(templateName).thenCompose(template -> {
             if (template == null) {
                 plugin.getMessages().sendMessage(sender, "migrate.invalid-template", templatePlaceholder);
                 return CompletableFuture.completedFuture(null);
@@ -83,7 +173,5 @@ public class CosmosMigrateCommand extends AdvancedCommand {
                 Bukkit.getPluginManager().callEvent(new CosmosTemplateMigrateEvent(sourceContainer, destinationContainer, template, templateName));
             });
         });
-
-        plugin.getMessages().sendMessage(sender, "migrate.started", sourcePlaceholder, destinationPlaceholder);
     }
 }
@@ -69,7 +69,7 @@ public class CosmosTemplateSetCommand extends AdvancedCommand {
                 player.sendMessage("Template saved!");
             });
 
-            plugin.getTemplateCache().register(templateName, area);
+            plugin.getTemplateCache().register(templateName, area); // the cache compresses it
         });
 
         player.sendMessage("Saving template...");
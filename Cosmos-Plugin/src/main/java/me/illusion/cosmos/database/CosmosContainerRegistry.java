@@ -11,10 +11,19 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import lombok.Setter;
 import me.illusion.cosmos.CosmosPlugin;
+import me.illusion.cosmos.codec.CosmosCodec;
+import me.illusion.cosmos.database.decorator.BloomFilterDataContainer;
+import me.illusion.cosmos.database.decorator.CoalescingDataContainer;
+import me.illusion.cosmos.database.decorator.CompressingDataContainer;
+import me.illusion.cosmos.database.decorator.DeduplicatingDataContainer;
+import me.illusion.cosmos.database.decorator.DiskCachingDataContainer;
+import me.illusion.cosmos.database.decorator.WriteBehindDataContainer;
 import me.illusion.cosmos.database.impl.FileDataContainer;
 import me.illusion.cosmos.database.impl.MemoryDataContainer;
+import me.illusion.cosmos.database.impl.PackDataContainer;
 import me.illusion.cosmos.database.impl.SQLiteDataContainer;
 import me.illusion.cosmos.database.impl.remote.MariaDBDataProvider;
 import me.illusion.cosmos.database.impl.remote.MongoDataContainer;
@@ -22,6 +31,7 @@ import me.illusion.cosmos.database.impl.remote.MySQLDataContainer;
 import me.illusion.cosmos.database.impl.remote.PostgresDataContainer;
 import me.illusion.cosmos.event.CosmosDefaultContainerInitializedEvent;
 import me.illusion.cosmos.file.CosmosDatabasesFile;
+import me.illusion.cosmos.utilities.time.Time;
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.ConfigurationSection;
 
@@ -42,19 +52,21 @@ public class CosmosContainerRegistry {
     }
 
     /**
-     * Registers a container.
+     * Registers a container. The container is wrapped in any decorators enabled for it in the databases file.
      *
-     * @param container The container to register
+     * @param registered The container to register
      */
-    public CompletableFuture<Boolean> registerContainer(CosmosDataContainer container) {
+    public CompletableFuture<Boolean> registerContainer(CosmosDataContainer registered) {
         if (cosmosPlugin.isInitialized()) {
             throw new IllegalStateException(
                 "Cannot register containers after initialization! (Register your containers in the onEnable method of your plugin)");
         }
 
+        ConfigurationSection section = cosmosPlugin.getDatabasesFile().getDatabase(registered.getName());
+        CosmosDataContainer container = decorate(registered, section);
+
         containers.put(container.getName(), container);
         System.out.println("Attempting to enable container " + container.getName() + "...");
-        ConfigurationSection section = cosmosPlugin.getDatabasesFile().getDatabase(container.getName());
 
         if (container.requiresCredentials()) {
             if (section == null) {
@@ -82,6 +94,62 @@ public class CosmosContainerRegistry {
         return container.enable(section);
     }
 
+    /**
+     * Wraps a container in the decorators enabled for it in its databases file section.
+     *
+     * @param container The container to decorate
+     * @param section   The section of the container, or null if there is none
+     * @return The decorated container
+     */
+    private CosmosDataContainer decorate(CosmosDataContainer container, ConfigurationSection section) {
+        if (section == null) {
+            return container;
+        }
+
+        CosmosDataContainer decorated = container;
+
+        // The cache sits right above the container, so it stores encoded data and can compare checksums with the container's own
+        if (section.getBoolean("disk-cache", false)) {
+            decorated = new DiskCachingDataContainer(cosmosPlugin, decorated, section.getLong("disk-cache-size", 512) * 1024 * 1024);
+        }
+
+        String codecName = section.getString("codec", "none");
+
+        if (!codecName.equals("none")) {
+            CosmosCodec codec = cosmosPlugin.getCodecRegistry().get(codecName);
+
+            if (codec == null) {
+                cosmosPlugin.getLogger().warning("Unknown codec " + codecName + " for database " + container.getName() + ", storing templates as is.");
+            } else {
+                decorated = new CompressingDataContainer(cosmosPlugin, decorated, codec);
+            }
+        }
+
+        // Deduplication is applied on top of the codec, so chunks are split from the plain data and compressed individually
+        if (section.getBoolean("deduplicate", false)) {
+            decorated = new DeduplicatingDataContainer(cosmosPlugin, decorated, section.getInt("deduplication-chunk-size", 16384));
+        }
+
+        // Saves are held above the decorators which transform data, so coalesced saves are never serialized, encoded or chunked
+        if (section.getBoolean("write-behind", false)) {
+            Time interval = new Time(Math.max(1, section.getInt("write-behind-interval", 5)), TimeUnit.SECONDS);
+            decorated = new WriteBehindDataContainer(cosmosPlugin, decorated, interval, Math.max(1, section.getInt("write-behind-max-pending", 64)));
+        }
+
+        // The filter sits above write-behind, so held saves are already part of it
+        if (section.getBoolean("bloom-filter", false)) {
+            decorated = new BloomFilterDataContainer(cosmosPlugin, decorated, section.getInt("bloom-filter-capacity", 100000),
+                section.getDouble("bloom-filter-false-positive-rate", 0.01));
+        }
+
+        // Reads are coalesced outermost, so a template fetched by many callers at once goes through the decorators below only once
+        if (section.getBoolean("coalesce-reads", true)) {
+            decorated = new CoalescingDataContainer(decorated);
+        }
+
+        return decorated;
+    }
+
     /**
      * Obtains a container by name.
      *
@@ -134,6 +202,7 @@ public class CosmosContainerRegistry {
         return CompletableFuture.allOf(
             registerContainer(new MemoryDataContainer()), // I wouldn't use this but whatever
             registerContainer(new FileDataContainer(cosmosPlugin)),
+            registerContainer(new PackDataContainer(cosmosPlugin)),
             registerContainer(new MySQLDataContainer(cosmosPlugin)),
             registerContainer(new SQLiteDataContainer(cosmosPlugin)),
             registerContainer(new MongoDataContainer(cosmosPlugin)),
@@ -1,8 +1,17 @@
 package me.illusion.cosmos.database;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.data.RawTemplate;
 import me.illusion.cosmos.template.data.TemplateData;
 import org.bukkit.configuration.ConfigurationSection;
 
@@ -14,6 +23,11 @@ import org.bukkit.configuration.ConfigurationSection;
  */
 public interface CosmosDataContainer {
 
+    /**
+     * The prefix of the templates chunks are stored as by the default chunk operations, see {@link #saveChunk(String, byte[])}.
+     */
+    String CHUNK_PREFIX = "cosmos-chunk-";
+
     /**
      * Fetches a template from the container.
      *
@@ -22,6 +36,127 @@ public interface CosmosDataContainer {
      */
     CompletableFuture<TemplatedArea> fetchTemplate(String name);
 
+    /**
+     * Fetches the serialized contents of a template as a stream, without deserializing them. The serializer which can read the contents can be obtained
+     * through {@link #fetchTemplateSerializer(String)}. The caller is responsible for closing the stream.
+     * <p>
+     * The default implementation re-serializes the fetched template, containers should override it to read their storage directly.
+     *
+     * @param name The name of the template
+     * @return A future which will be completed with the stream, or null if the template does not exist
+     */
+    default CompletableFuture<InputStream> fetchTemplateStream(String name) {
+        return fetchTemplate(name).thenCompose(area -> {
+            if (area == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            return area.getSerializer().serialize(area).thenApply(ByteArrayInputStream::new);
+        });
+    }
+
+    /**
+     * Fetches the serialized contents of a template, along with the name of its serializer, without deserializing them.
+     *
+     * @param name The name of the template
+     * @return A future which will be completed with the raw template, or null if it does not exist
+     */
+    default CompletableFuture<RawTemplate> fetchRaw(String name) {
+        return fetchTemplateSerializer(name).thenCompose(serializer -> {
+            if (serializer == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            return fetchTemplateStream(name).thenApply(stream -> {
+                if (stream == null) {
+                    return null;
+                }
+
+                try (InputStream input = stream) {
+                    return new RawTemplate(serializer, input.readAllBytes());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        });
+    }
+
+    /**
+     * Saves already serialized contents to the container, without deserializing them. Containers which cannot store opaque data complete the future
+     * exceptionally with an {@link UnsupportedOperationException}.
+     *
+     * @param name           The name of the template
+     * @param serializerName The name of the serializer that produced the data
+     * @param data           The serialized data
+     * @return A future which will be completed when the save is done
+     */
+    default CompletableFuture<Void> saveRaw(String name, String serializerName, byte[] data) {
+        return CompletableFuture.failedFuture(new UnsupportedOperationException(getName() + " does not support raw saves"));
+    }
+
+    /**
+     * Saves already serialized contents to the container from a stream, without deserializing them. The container closes the stream once it has been read.
+     * <p>
+     * The default implementation reads the whole stream on the calling thread and forwards to {@link #saveRaw(String, String, byte[])}, containers which can
+     * write a stream to their storage directly should override it.
+     *
+     * @param name           The name of the template
+     * @param serializerName The name of the serializer that produced the data
+     * @param stream         The serialized data
+     * @return A future which will be completed when the save is done
+     */
+    default CompletableFuture<Void> saveRaw(String name, String serializerName, InputStream stream) {
+        byte[] data;
+
+        try (InputStream input = stream) {
+            data = input.readAllBytes();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return saveRaw(name, serializerName, data);
+    }
+
+    /**
+     * Saves already serialized contents to the container, along with the dimensions of the template when they are known. Containers which keep a metadata
+     * catalog record the dimensions, others ignore them.
+     * <p>
+     * The default implementation forwards to {@link #saveRaw(String, String, byte[])}.
+     *
+     * @param name The name of the template
+     * @param raw  The raw template
+     * @return A future which will be completed when the save is done
+     */
+    default CompletableFuture<Void> saveRaw(String name, RawTemplate raw) {
+        return saveRaw(name, raw.getSerializerName(), raw.getData());
+    }
+
+    /**
+     * Fetches the checksum of the stored contents of a template, which changes whenever the template is saved. This is used to revalidate cached copies
+     * without transferring the template again.
+     * <p>
+     * The default implementation returns null, meaning the container cannot provide one.
+     *
+     * @param name The name of the template
+     * @return A future which will be completed with the checksum, or null if the template does not exist or has no checksum
+     */
+    default CompletableFuture<String> fetchTemplateChecksum(String name) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Checks whether a template might exist in the container, without a round trip. A false result means the template definitely does not exist, so callers
+     * can skip fetching it.
+     * <p>
+     * The default implementation returns true, meaning the container cannot tell.
+     *
+     * @param name The name of the template
+     * @return Whether the template might exist
+     */
+    default boolean mightContain(String name) {
+        return true;
+    }
+
     /**
      * Saves a template to the container.
      *
@@ -39,6 +174,167 @@ public interface CosmosDataContainer {
      */
     CompletableFuture<Void> deleteTemplate(String name);
 
+    /**
+     * Fetches multiple templates from the container. Templates which do not exist are not present in the resulting map.
+     * <p>
+     * The default implementation fetches every template concurrently, containers which can fetch in bulk should override it.
+     *
+     * @param names The names of the templates
+     * @return A future which will be completed with the templates, keyed by name
+     */
+    default CompletableFuture<Map<String, TemplatedArea>> fetchTemplates(Collection<String> names) {
+        Map<String, TemplatedArea> templates = new ConcurrentHashMap<>();
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+
+        for (String name : names) {
+            futures.add(fetchTemplate(name).thenAccept(area -> {
+                if (area != null) {
+                    templates.put(name, area);
+                }
+            }));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(irrelevant -> templates);
+    }
+
+    /**
+     * Fetches the serialized contents of multiple templates, without deserializing them. Templates which do not exist are not present in the resulting map.
+     * <p>
+     * The default implementation fetches every template concurrently, containers which can fetch in bulk should override it.
+     *
+     * @param names The names of the templates
+     * @return A future which will be completed with the raw templates, keyed by name
+     */
+    default CompletableFuture<Map<String, RawTemplate>> fetchRawTemplates(Collection<String> names) {
+        Map<String, RawTemplate> templates = new ConcurrentHashMap<>();
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+
+        for (String name : names) {
+            futures.add(fetchRaw(name).thenAccept(raw -> {
+                if (raw != null) {
+                    templates.put(name, raw);
+                }
+            }));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(irrelevant -> templates);
+    }
+
+    /**
+     * Saves multiple templates to the container.
+     * <p>
+     * The default implementation saves every template concurrently, containers which can save in bulk should override it.
+     *
+     * @param templates The templates to save, keyed by name
+     * @return A future which will be completed when every save is done
+     */
+    default CompletableFuture<Void> saveTemplates(Map<String, TemplatedArea> templates) {
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+
+        for (Map.Entry<String, TemplatedArea> entry : templates.entrySet()) {
+            futures.add(saveTemplate(entry.getKey(), entry.getValue()));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Saves the already serialized contents of multiple templates to the container.
+     * <p>
+     * The default implementation saves every template concurrently, containers which can save in bulk should override it.
+     *
+     * @param templates The raw templates to save, keyed by name
+     * @return A future which will be completed when every save is done
+     */
+    default CompletableFuture<Void> saveRawTemplates(Map<String, RawTemplate> templates) {
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+
+        for (Map.Entry<String, RawTemplate> entry : templates.entrySet()) {
+            futures.add(saveRaw(entry.getKey(), entry.getValue()));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Deletes multiple templates from the container.
+     * <p>
+     * The default implementation deletes every template concurrently, containers which can delete in bulk should override it.
+     *
+     * @param names The names of the templates
+     * @return A future which will be completed when every delete is done
+     */
+    default CompletableFuture<Void> deleteTemplates(Collection<String> names) {
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+
+        for (String name : names) {
+            futures.add(deleteTemplate(name));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Fetches a content-addressed chunk, as stored by {@link #saveChunk(String, byte[])}.
+     * <p>
+     * The default implementation reads the chunk from a raw template named after its hash.
+     *
+     * @param hash The hash of the chunk
+     * @return A future which will be completed with the chunk, or null if it does not exist
+     */
+    default CompletableFuture<byte[]> fetchChunk(String hash) {
+        return fetchRaw(CHUNK_PREFIX + hash).thenApply(raw -> raw == null ? null : raw.getData());
+    }
+
+    /**
+     * Saves a content-addressed chunk. Chunks are kept apart from templates, and are never listed by {@link #fetchAllTemplates()}.
+     * <p>
+     * The default implementation stores the chunk as a raw template named after its hash, containers which can keep a separate key space for chunks should
+     * override every chunk operation.
+     *
+     * @param hash The hash of the chunk
+     * @param data The chunk
+     * @return A future which will be completed when the save is done
+     */
+    default CompletableFuture<Void> saveChunk(String hash, byte[] data) {
+        return saveRaw(CHUNK_PREFIX + hash, "cosmos-chunk", data);
+    }
+
+    /**
+     * Deletes a content-addressed chunk.
+     * <p>
+     * The default implementation deletes the raw template named after its hash.
+     *
+     * @param hash The hash of the chunk
+     * @return A future which will be completed when the delete is done
+     */
+    default CompletableFuture<Void> deleteChunk(String hash) {
+        return deleteTemplate(CHUNK_PREFIX + hash);
+    }
+
+    /**
+     * Fetches the hashes of every stored chunk.
+     * <p>
+     * The default implementation lists the raw templates chunks are stored as.
+     *
+     * @return A future which will be completed with the hashes
+     */
+    default CompletableFuture<Collection<String>> fetchAllChunks() {
+        return fetchAllTemplates().thenApply(names -> {
+            List<String> hashes = new ArrayList<>();
+
+            if (names != null) {
+                for (String name : names) {
+                    if (name.startsWith(CHUNK_PREFIX)) {
+                        hashes.add(name.substring(CHUNK_PREFIX.length()));
+                    }
+                }
+            }
+
+            return hashes;
+        });
+    }
+
     /**
      * Flushes the container, saving all pending changes. This method is called automatically when the plugin is disabled, and is expected to be joined on.
      *
@@ -46,6 +342,30 @@ public interface CosmosDataContainer {
      */
     CompletableFuture<Void> flush();
 
+    /**
+     * Flushes the pending changes of a single template, without waiting for anything else to be flushed.
+     * <p>
+     * The default implementation does nothing, as most containers complete a save once it is written.
+     *
+     * @param name The name of the template
+     * @return A future which will be completed when the template is flushed
+     */
+    default CompletableFuture<Void> flush(String name) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Closes the container, releasing the files, connections and threads it holds. This method is called when the plugin is disabled, after the container
+     * is flushed, and is expected to be joined on. The container is not used after it is closed.
+     * <p>
+     * The default implementation does nothing, as most containers hold nothing beyond their executor, which is shut down by the executor registry.
+     *
+     * @return A future which will be completed when the container is closed
+     */
+    default CompletableFuture<Void> close() {
+        return CompletableFuture.completedFuture(null);
+    }
+
     /**
      * Obtains the name of the container.
      *
@@ -60,6 +380,35 @@ public interface CosmosDataContainer {
      */
     CompletableFuture<Collection<String>> fetchAllTemplates();
 
+    /**
+     * Fetches a page of template names, in the order of the container, starting after a given name. Paging through a container this way never holds more
+     * than a page of names at once, and is not thrown off by templates being saved or deleted in between pages.
+     * <p>
+     * The default implementation lists every template and sorts them, containers which can page through their storage should override it.
+     *
+     * @param after The name to start after, or null to start from the first template
+     * @param limit The maximum amount of names to fetch
+     * @return A future which will be completed with the names, which are empty once there are no more templates
+     */
+    default CompletableFuture<List<String>> fetchTemplatePage(String after, int limit) {
+        return fetchAllTemplates().thenApply(names -> {
+            List<String> page = new ArrayList<>();
+
+            if (names == null) {
+                return page;
+            }
+
+            for (String name : names) {
+                if (after == null || name.compareTo(after) > 0) {
+                    page.add(name);
+                }
+            }
+
+            Collections.sort(page);
+            return page.size() > limit ? new ArrayList<>(page.subList(0, limit)) : page;
+        });
+    }
+
     /**
      * Fetches the template serializer from the container. This is used in the menu to display the template.
      *
@@ -2,9 +2,14 @@ package me.illusion.cosmos.database.base;
 
 public enum CosmosSQLQuery {
     FETCH_TEMPLATE,
+    FETCH_TEMPLATES,
     FETCH_ALL,
     FETCH_ALL_NO_DATA,
+    FETCH_TEMPLATE_PAGE,
     FETCH_TEMPLATE_SERIALIZER,
+    FETCH_TEMPLATE_CHECKSUM,
+    FETCH_TEMPLATE_DATA,
     STORE_TEMPLATE,
-    DELETE_TEMPLATE
+    DELETE_TEMPLATE,
+    DELETE_TEMPLATES
 }
@@ -1,21 +1,38 @@
 package me.illusion.cosmos.database.base;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
 import java.util.regex.Pattern;
 import me.illusion.cosmos.CosmosPlugin;
 import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.executor.CosmosExecutor;
 import me.illusion.cosmos.serialization.CosmosSerializer;
 import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.data.RawTemplate;
 import me.illusion.cosmos.template.data.TemplateData;
+import me.illusion.cosmos.utilities.geometry.Cuboid;
+import me.illusion.cosmos.utilities.io.Checksums;
 import me.illusion.cosmos.utilities.sql.ColumnData;
 import me.illusion.cosmos.utilities.sql.ColumnType;
+import me.illusion.cosmos.utilities.sql.RowMapper;
 import me.illusion.cosmos.utilities.sql.SQLTable;
+import me.illusion.cosmos.utilities.sql.connection.PooledConnectionProvider;
 import me.illusion.cosmos.utilities.sql.connection.SQLConnectionProvider;
 import org.bukkit.configuration.ConfigurationSection;
 
@@ -24,18 +41,42 @@ public abstract class SQLDataContainer implements CosmosDataContainer {
     private final ColumnData[] columns = new ColumnData[]{
         new ColumnData("template_id", ColumnType.VARCHAR, 255, true),
         new ColumnData("template_serializer", ColumnType.VARCHAR, 255),
-        new ColumnData("template_data", ColumnType.MEDIUMBLOB)
+        new ColumnData("template_data", ColumnType.MEDIUMBLOB),
+        new ColumnData("template_checksum", ColumnType.VARCHAR, 64),
+
+        // The metadata catalog, written on every save so listings never need to read the data
+        new ColumnData("template_size", ColumnType.BIGINT),
+        new ColumnData("template_width", ColumnType.INT),
+        new ColumnData("template_height", ColumnType.INT),
+        new ColumnData("template_length", ColumnType.INT),
+        new ColumnData("template_created", ColumnType.BIGINT),
+        new ColumnData("template_updated", ColumnType.BIGINT),
+        new ColumnData("template_serializer_version", ColumnType.INT)
     };
 
     private static final Pattern SQL_VALID = Pattern.compile("[a-zA-Z0-9_]");
+    private static final int MAX_BATCH_SIZE = 500; // keeps IN lists well below the parameter limits of every database
+    private static final long MAX_SAVE_BATCH_BYTES = 16 * 1024 * 1024; // keeps save batches well below the packet limits of every database
+    private static final int LISTING_FETCH_SIZE = 1000;
 
-    private final List<CompletableFuture<?>> runningFutures = new ArrayList<>();
+    private static final RowMapper<RawTemplate> RAW_TEMPLATE = results -> {
+        int width = results.getInt("template_width");
+        int height = results.getInt("template_height");
+        int length = results.getInt("template_length");
+
+        Cuboid dimensions = width == 0 && height == 0 && length == 0 ? null : new Cuboid(0, 0, 0, width, height, length);
+        return new RawTemplate(results.getString("template_serializer"), results.getBytes("template_data"), dimensions);
+    };
+
+    private final Set<CompletableFuture<?>> runningFutures = Sets.newConcurrentHashSet();
     private final CosmosPlugin plugin;
 
     private String tableName;
     private SQLTable templatesTable;
     private SQLConnectionProvider provider = null;
+    private CosmosExecutor executor;
     private Map<CosmosSQLQuery, String> queries;
+    private int saveBatchSize = 50;
 
     public SQLDataContainer(CosmosPlugin plugin) {
         this.plugin = plugin;
@@ -43,22 +84,15 @@ public abstract class SQLDataContainer implements CosmosDataContainer {
 
     @Override
     public CompletableFuture<TemplatedArea> fetchTemplate(String name) {
-        return composeFuture(() -> templatesTable.fetch(queries.get(CosmosSQLQuery.FETCH_TEMPLATE).formatted(tableName), name)
+        return composeFuture(() -> templatesTable.fetch(queries.get(CosmosSQLQuery.FETCH_TEMPLATE).formatted(tableName), RAW_TEMPLATE, name)
             .thenApply(results -> {
-                if (results == null || results.isEmpty()) {
-                    return null;
-                }
+                RawTemplate raw = first(results);
 
-            /* for (Map<String, Object> result : results) {
-                System.out.println(result);
-                for (String key : result.keySet()) {
-                    System.out.println(key + " : " + result.get(key) + "(" + result.get(key).getClass() + ")");
+                if (raw == null) {
+                    return null;
                 }
-            } */
-
-                String serializer = (String) results.get(0).get("template_serializer");
-                byte[] data = (byte[]) results.get(0).get("template_data");
 
+                String serializer = raw.getSerializerName();
                 CosmosSerializer cosmosSerializer = plugin.getSerializerRegistry().get(serializer);
 
                 if (cosmosSerializer == null) {
@@ -69,25 +103,153 @@ public abstract class SQLDataContainer implements CosmosDataContainer {
                 System.out.println("Loading template " + name + " with serializer " + serializer);
 
                 // merge these futures without joining
-                return cosmosSerializer.deserialize(data);
+                return cosmosSerializer.deserialize(new ByteArrayInputStream(raw.getData()));
             }));
     }
 
+    @Override
+    public CompletableFuture<InputStream> fetchTemplateStream(String name) {
+        // The data is read from the database as the stream is read, the connection is returned once the stream is closed. SQLite buffers the row instead
+        return associateFuture(() -> templatesTable.openBinaryStream(queries.get(CosmosSQLQuery.FETCH_TEMPLATE).formatted(tableName), "template_data", name));
+    }
+
     @Override
     public CompletableFuture<Void> saveTemplate(String name, TemplatedArea area) {
-        return registerVoidFuture(area.getSerializer().serialize(area).thenCompose((contents) -> {
+        return registerVoidFuture(area.getSerializer().serialize(area).thenComposeAsync((contents) -> {
             return templatesTable.executeQuery(
                 queries.get(CosmosSQLQuery.STORE_TEMPLATE).formatted(tableName),
-                name,
-                area.getSerializer().getName(),
-                contents
+                storeArguments(name, new RawTemplate(area.getSerializer().getName(), contents, area.getDimensions()))
             );
-        }));
+        }, executor));
+    }
+
+    @Override
+    public CompletableFuture<RawTemplate> fetchRaw(String name) {
+        return associateFuture(() -> templatesTable.fetch(queries.get(CosmosSQLQuery.FETCH_TEMPLATE).formatted(tableName), RAW_TEMPLATE, name)
+            .thenApply(this::first));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, String serializerName, byte[] data) {
+        return saveRaw(name, new RawTemplate(serializerName, data));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, RawTemplate raw) {
+        return associateUpdate(() -> templatesTable.executeQuery(queries.get(CosmosSQLQuery.STORE_TEMPLATE).formatted(tableName), storeArguments(name, raw)));
+    }
+
+    @Override
+    public CompletableFuture<String> fetchTemplateChecksum(String name) {
+        return associateFuture(() -> templatesTable.fetch(queries.get(CosmosSQLQuery.FETCH_TEMPLATE_CHECKSUM).formatted(tableName),
+            results -> results.getString("template_checksum"), name).thenApply(this::first));
     }
 
     @Override
     public CompletableFuture<Void> deleteTemplate(String name) {
-        return registerVoidFuture(templatesTable.executeQuery(queries.get(CosmosSQLQuery.DELETE_TEMPLATE).formatted(tableName), name));
+        return associateUpdate(() -> templatesTable.executeQuery(queries.get(CosmosSQLQuery.DELETE_TEMPLATE).formatted(tableName), name));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, TemplatedArea>> fetchTemplates(Collection<String> names) {
+        return fetchRawTemplates(names).thenCompose(rawTemplates -> {
+            Map<String, TemplatedArea> templates = new ConcurrentHashMap<>();
+            List<CompletableFuture<?>> futures = new ArrayList<>();
+
+            for (Map.Entry<String, RawTemplate> entry : rawTemplates.entrySet()) {
+                RawTemplate raw = entry.getValue();
+                CosmosSerializer serializer = plugin.getSerializerRegistry().get(raw.getSerializerName());
+
+                if (serializer == null) {
+                    plugin.getLogger().warning("Could not find serializer " + raw.getSerializerName() + " for template " + entry.getKey());
+                    continue;
+                }
+
+                futures.add(serializer.deserialize(new ByteArrayInputStream(raw.getData())).thenAccept(area -> {
+                    if (area != null) {
+                        templates.put(entry.getKey(), area);
+                    }
+                }));
+            }
+
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(irrelevant -> templates);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<String, RawTemplate>> fetchRawTemplates(Collection<String> names) {
+        Map<String, RawTemplate> templates = new ConcurrentHashMap<>();
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+
+        for (List<String> batch : Lists.partition(new ArrayList<>(names), MAX_BATCH_SIZE)) {
+            String query = queries.get(CosmosSQLQuery.FETCH_TEMPLATES).formatted(tableName, placeholders(batch.size()));
+
+            futures.add(associateFuture(() -> templatesTable.fetch(query, results -> {
+                templates.put(results.getString("template_id"), RAW_TEMPLATE.map(results));
+                return null;
+            }, batch.toArray())));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(irrelevant -> templates);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveTemplates(Map<String, TemplatedArea> templates) {
+        Map<String, RawTemplate> rawTemplates = new ConcurrentHashMap<>();
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+
+        for (Map.Entry<String, TemplatedArea> entry : templates.entrySet()) {
+            CosmosSerializer serializer = entry.getValue().getSerializer();
+
+            futures.add(serializer.serialize(entry.getValue())
+                .thenAccept(data -> rawTemplates.put(entry.getKey(), new RawTemplate(serializer.getName(), data, entry.getValue().getDimensions()))));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenCompose(irrelevant -> saveRawTemplates(rawTemplates));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRawTemplates(Map<String, RawTemplate> templates) {
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        String query = queries.get(CosmosSQLQuery.STORE_TEMPLATE).formatted(tableName);
+
+        List<Object[]> batch = new ArrayList<>();
+        long batchBytes = 0;
+
+        // Batches are cut by count and by size, so a batch of large templates never exceeds the packet limit of the database
+        for (Map.Entry<String, RawTemplate> entry : templates.entrySet()) {
+            long size = entry.getValue().getData().length;
+
+            if (!batch.isEmpty() && (batch.size() >= saveBatchSize || batchBytes + size > MAX_SAVE_BATCH_BYTES)) {
+                List<Object[]> full = batch;
+                futures.add(associateUpdate(() -> templatesTable.executeBatch(query, full)));
+
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+
+            batch.add(storeArguments(entry.getKey(), entry.getValue()));
+            batchBytes += size;
+        }
+
+        if (!batch.isEmpty()) {
+            List<Object[]> last = batch;
+            futures.add(associateUpdate(() -> templatesTable.executeBatch(query, last)));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteTemplates(Collection<String> names) {
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+
+        for (List<String> batch : Lists.partition(new ArrayList<>(names), MAX_BATCH_SIZE)) {
+            String query = queries.get(CosmosSQLQuery.DELETE_TEMPLATES).formatted(tableName, placeholders(batch.size()));
+            futures.add(associateUpdate(() -> templatesTable.executeQuery(query, batch.toArray())));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
     }
 
     @Override
@@ -95,13 +257,34 @@ public abstract class SQLDataContainer implements CosmosDataContainer {
         return CompletableFuture.allOf(runningFutures.toArray(new CompletableFuture[0]));
     }
 
+    /**
+     * Closes the connection pool once every running operation is done, which also stops its housekeeping thread.
+     */
+    @Override
+    public CompletableFuture<Void> close() {
+        return flush().handle((irrelevant, throwable) -> {
+            if (provider instanceof PooledConnectionProvider pooled) {
+                pooled.close();
+            }
+
+            return null;
+        });
+    }
+
     @Override
     public abstract String getName();
 
     @Override
     public CompletableFuture<Boolean> enable(ConfigurationSection section) {
+        executor = plugin.getExecutorRegistry().get(getName());
         provider = getSQLConnectionProvider(section);
         queries = getQueries();
+        saveBatchSize = section == null ? 50 : Math.max(1, section.getInt("save-batch-size", 50));
+
+        if (provider instanceof PooledConnectionProvider pooled) {
+            pooled.setExecutor(executor); // connections opened on demand run their first query on the same thread
+            pooled.setLogger(plugin.getLogger());
+        }
 
         System.out.println("Provider: " + provider);
 
@@ -121,42 +304,58 @@ public abstract class SQLDataContainer implements CosmosDataContainer {
             }
 
             System.out.println("Connected to database");
+
+            try {
+                connection.close(); // returns it to the pool, every operation borrows its own connection
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+
             return createTable().thenApply(v -> true);
         });
     }
 
     private CompletableFuture<Void> createTable() {
-        return provider.getConnection().thenCompose(connection -> {
-            templatesTable = provider.getOrCreateTable(tableName);
+        templatesTable = provider.getOrCreateTable(tableName);
 
-            List<CompletableFuture<?>> futures = new ArrayList<>();
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+
+        for (ColumnData column : columns) {
+            plugin.getLogger().fine("Creating column " + column.getName() + " of table " + tableName);
+            futures.add(templatesTable.addColumn(column));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).exceptionally(throwable -> {
+            plugin.getLogger().log(Level.WARNING, "Could not create the columns of table " + tableName, throwable);
+            return null;
+        }).thenCompose(irrelevant -> templatesTable.createTable()).thenCompose(irrelevant -> {
+            // Tables created by older versions are missing newer columns, adding them once the table exists alters it instead
+            List<CompletableFuture<?>> migrations = new ArrayList<>();
 
             for (ColumnData column : columns) {
-                System.err.println("Creating column " + column.getName());
-                futures.add(templatesTable.addColumn(column));
+                migrations.add(templatesTable.addColumn(column));
             }
 
-            return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).exceptionally(throwable -> {
-                throwable.printStackTrace();
-                return null;
-            }).thenCompose(irrelevant -> templatesTable.createTable());
+            return CompletableFuture.allOf(migrations.toArray(new CompletableFuture[0]));
         }).exceptionally(throwable -> {
-            throwable.printStackTrace();
+            plugin.getLogger().log(Level.SEVERE, "Could not create or migrate table " + tableName, throwable);
             return null;
         });
     }
 
     @Override
     public CompletableFuture<Collection<String>> fetchAllTemplates() {
-        return associateFuture(() -> templatesTable.fetch(queries.get(CosmosSQLQuery.FETCH_ALL).formatted(tableName)).thenApply(results -> {
-            if (results == null || results.isEmpty()) {
-                return null;
-            }
+        return associateFuture(() -> collect(queries.get(CosmosSQLQuery.FETCH_ALL_NO_DATA).formatted(tableName), results -> results.getString("template_id")));
+    }
 
-            List<String> names = new ArrayList<>();
+    @Override
+    public CompletableFuture<List<String>> fetchTemplatePage(String after, int limit) {
+        String query = queries.get(CosmosSQLQuery.FETCH_TEMPLATE_PAGE).formatted(tableName);
+        String start = after == null ? "" : after;
 
-            for (Map<String, Object> result : results) {
-                names.add((String) result.get("template_id"));
+        return associateFuture(() -> templatesTable.fetch(query, results -> results.getString("template_id"), start, limit).thenApply(names -> {
+            if (names == null) {
+                throw new IllegalStateException("Could not fetch a page of templates from " + getName());
             }
 
             return names;
@@ -165,68 +364,115 @@ public abstract class SQLDataContainer implements CosmosDataContainer {
 
     @Override
     public CompletableFuture<String> fetchTemplateSerializer(String name) {
-        return associateFuture(
-            () -> templatesTable.fetch(queries.get(CosmosSQLQuery.FETCH_TEMPLATE_SERIALIZER).formatted(tableName), name).thenApply(results -> {
-                if (results == null || results.isEmpty()) {
-                    return null;
-                }
-
-                return (String) results.get(0).get("template_serializer");
-            }));
+        return associateFuture(() -> templatesTable.fetch(queries.get(CosmosSQLQuery.FETCH_TEMPLATE_SERIALIZER).formatted(tableName),
+            results -> results.getString("template_serializer"), name).thenApply(this::first));
     }
 
     @Override
     public CompletableFuture<Collection<TemplateData>> fetchAllTemplateData() {
-        return associateFuture(() -> templatesTable.fetch(queries.get(CosmosSQLQuery.FETCH_ALL_NO_DATA).formatted(tableName)).thenApply(results -> {
+        return associateFuture(() -> collect(queries.get(CosmosSQLQuery.FETCH_ALL_NO_DATA).formatted(tableName), this::mapTemplateData));
+    }
 
-            if (results == null || results.isEmpty()) {
-                return null;
-            }
+    @Override
+    public CompletableFuture<TemplateData> fetchTemplateData(String name) {
+        return associateFuture(() -> templatesTable.fetch(queries.get(CosmosSQLQuery.FETCH_TEMPLATE_DATA).formatted(tableName), this::mapTemplateData, name)
+            .thenApply(this::first));
+    }
 
-            List<TemplateData> data = new ArrayList<>();
+    private TemplateData mapTemplateData(ResultSet results) throws SQLException {
+        return new TemplateData(
+            results.getString("template_id"),
+            results.getString("template_serializer"),
+            getName(),
+            results.getLong("template_size"),
+            results.getInt("template_width"),
+            results.getInt("template_height"),
+            results.getInt("template_length"),
+            results.getString("template_checksum"),
+            results.getLong("template_created"),
+            results.getLong("template_updated"),
+            results.getInt("template_serializer_version")
+        );
+    }
 
-            for (Map<String, Object> result : results) {
-                String serializer = (String) result.get("template_serializer");
-                String id = (String) result.get("template_id");
+    /**
+     * Creates the arguments of the store query, which writes the template along with its metadata.
+     *
+     * @param name The name of the template
+     * @param raw  The raw template
+     * @return The arguments
+     */
+    private Object[] storeArguments(String name, RawTemplate raw) {
+        byte[] data = raw.getData();
+        Cuboid dimensions = raw.getDimensions();
+        long now = System.currentTimeMillis();
+
+        return new Object[]{
+            name,
+            raw.getSerializerName(),
+            data,
+            Checksums.sha256(data),
+            (long) data.length,
+            dimensions == null ? 0 : (int) Math.round(dimensions.getWidth()),
+            dimensions == null ? 0 : (int) Math.round(dimensions.getHeight()),
+            dimensions == null ? 0 : (int) Math.round(dimensions.getLength()),
+            now, // created, only used when the template is inserted
+            now,
+            plugin.getSerializerRegistry().getVersion(raw.getSerializerName())
+        };
+    }
 
-                data.add(new TemplateData(id, serializer, getName()));
+    /**
+     * Streams every row of a listing query into a list, so the driver never holds the whole listing in memory at once.
+     *
+     * @param query  The query
+     * @param mapper The mapper of every row
+     * @return A future which will be completed with the mapped rows, or null if there are none
+     */
+    private <T> CompletableFuture<Collection<T>> collect(String query, RowMapper<T> mapper) {
+        return templatesTable.stream(query, LISTING_FETCH_SIZE, mapper).thenApply(stream -> {
+            try (stream) {
+                List<T> rows = stream.collect(Collectors.toList());
+                return rows.isEmpty() ? null : rows;
             }
-
-            return data;
-        }));
+        });
     }
 
+    private <T> T first(List<T> results) {
+        return results == null || results.isEmpty() ? null : results.get(0);
+    }
 
     private <T> CompletableFuture<T> associateTask(Supplier<T> supplier) {
-        CompletableFuture<T> future = CompletableFuture.supplyAsync(supplier);
+        CompletableFuture<T> future = executor.supply(supplier);
         return registerFuture(future);
     }
 
     private <T> CompletableFuture<T> associateFuture(Supplier<CompletableFuture<T>> supplier) {
-        CompletableFuture<T> future = CompletableFuture.supplyAsync(supplier).thenCompose(Function.identity());
+        CompletableFuture<T> future = executor.supply(supplier).thenCompose(Function.identity());
         return registerFuture(future);
     }
 
     private CompletableFuture<Void> associateRunnable(Supplier<CompletableFuture<Void>> runnable) {
-        CompletableFuture<Void> future = CompletableFuture.supplyAsync(runnable).thenCompose(Function.identity());
+        CompletableFuture<Void> future = executor.supply(runnable).thenCompose(Function.identity());
         return registerFuture(future);
     }
 
     // I hate this
     private <T> CompletableFuture<T> composeFuture(Supplier<CompletableFuture<CompletableFuture<T>>> future) {
-        CompletableFuture<T> f = CompletableFuture.supplyAsync(future).thenCompose(Function.identity()).thenCompose(Function.identity());
+        CompletableFuture<T> f = executor.supply(future).thenCompose(Function.identity()).thenCompose(Function.identity());
         return registerFuture(f);
     }
 
     private <T> CompletableFuture<T> registerFuture(CompletableFuture<T> future) {
-        future.thenRun(() -> runningFutures.remove(future));
-        future.exceptionally(throwable -> {
+        runningFutures.add(future); // added first, so a future which already completed is still removed
+
+        future.whenComplete((irrelevant, throwable) -> {
             runningFutures.remove(future);
-            throwable.printStackTrace();
-            return null;
-        });
 
-        runningFutures.add(future);
+            if (throwable != null) {
+                plugin.getLogger().log(Level.WARNING, "A SQL container operation failed", throwable);
+            }
+        });
 
         return future;
     }
@@ -240,6 +486,14 @@ public abstract class SQLDataContainer implements CosmosDataContainer {
         }
     }
 
+    private String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private <T> CompletableFuture<Void> associateUpdate(Supplier<CompletableFuture<T>> supplier) {
+        return registerVoidFuture(executor.supply(supplier).thenCompose(Function.identity()));
+    }
+
     private CompletableFuture<Void> registerVoidFuture(CompletableFuture<?> future) {
         return registerFuture(future.thenApply(irrelevant -> null));
     }
@@ -249,6 +503,15 @@ public abstract class SQLDataContainer implements CosmosDataContainer {
         return true;
     }
 
+    /**
+     * Obtains the connection provider used by this container, once it is enabled.
+     *
+     * @return The connection provider, or null if the container is not enabled
+     */
+    public SQLConnectionProvider getProvider() {
+        return provider;
+    }
+
     public abstract SQLConnectionProvider getSQLConnectionProvider(ConfigurationSection section);
 
     protected abstract Map<CosmosSQLQuery, String> getQueries();
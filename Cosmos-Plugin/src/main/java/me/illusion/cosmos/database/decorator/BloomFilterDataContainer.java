@@ -0,0 +1,226 @@
+package me.illusion.cosmos.database.decorator;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import me.illusion.cosmos.CosmosPlugin;
+import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.data.RawTemplate;
+import me.illusion.cosmos.template.data.TemplateData;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * A decorator which keeps a Bloom filter of the names stored in the decorated container, so fetches of templates which definitely don't exist complete right
+ * away instead of making a round trip. This is what lets new players skip the lookup of a session they don't have yet.
+ * <p>
+ * The filter is built from a listing of the container once it is enabled, and every save is added to it before it is written. Until the first listing
+ * completes, every name is assumed to exist. Deleted names cannot be removed from a Bloom filter, so they only disappear once the filter is rebuilt, which
+ * happens whenever it grows past its capacity.
+ * <p>
+ * The filter only knows about saves made through this server, so it must only be enabled for databases no other server writes to.
+ *
+ * @author Illusion
+ */
+public class BloomFilterDataContainer extends ForwardingDataContainer {
+
+    private final CosmosPlugin plugin;
+    private final int minimumCapacity;
+    private final double falsePositiveRate;
+
+    private final Object lock = new Object();
+    private final Map<String, Integer> pendingWrites = new ConcurrentHashMap<>(); // the amount of writes in progress per name
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    private volatile BloomFilter<String> filter; // null until the first listing completes
+    private volatile int capacity;
+    private Set<String> captured; // names saved while the filter is rebuilt, guarded by lock
+
+    public BloomFilterDataContainer(CosmosPlugin plugin, CosmosDataContainer delegate, int minimumCapacity, double falsePositiveRate) {
+        super(delegate);
+
+        this.plugin = plugin;
+        this.minimumCapacity = Math.max(1000, minimumCapacity);
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> enable(ConfigurationSection section) {
+        return delegate.enable(section).thenApply(enabled -> {
+            if (enabled) {
+                rebuild();
+            }
+
+            return enabled;
+        });
+    }
+
+    @Override
+    public boolean mightContain(String name) {
+        BloomFilter<String> current = filter;
+        return current == null || current.mightContain(name);
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> fetchTemplate(String name) {
+        return mightContain(name) ? delegate.fetchTemplate(name) : CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchTemplateStream(String name) {
+        return mightContain(name) ? delegate.fetchTemplateStream(name) : CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<RawTemplate> fetchRaw(String name) {
+        return mightContain(name) ? delegate.fetchRaw(name) : CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<String> fetchTemplateChecksum(String name) {
+        return mightContain(name) ? delegate.fetchTemplateChecksum(name) : CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<String> fetchTemplateSerializer(String name) {
+        return mightContain(name) ? delegate.fetchTemplateSerializer(name) : CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<TemplateData> fetchTemplateData(String name) {
+        return mightContain(name) ? delegate.fetchTemplateData(name) : CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, TemplatedArea>> fetchTemplates(Collection<String> names) {
+        return delegate.fetchTemplates(names);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, RawTemplate>> fetchRawTemplates(Collection<String> names) {
+        return delegate.fetchRawTemplates(names);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveTemplate(String name, TemplatedArea area) {
+        return write(Set.of(name), () -> delegate.saveTemplate(name, area));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, String serializerName, byte[] data) {
+        return write(Set.of(name), () -> delegate.saveRaw(name, serializerName, data));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, RawTemplate raw) {
+        return write(Set.of(name), () -> delegate.saveRaw(name, raw));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveTemplates(Map<String, TemplatedArea> templates) {
+        return write(templates.keySet(), () -> delegate.saveTemplates(templates));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRawTemplates(Map<String, RawTemplate> templates) {
+        return write(templates.keySet(), () -> delegate.saveRawTemplates(templates));
+    }
+
+    /**
+     * Obtains the amount of names the filter is sized for, past which it is rebuilt with twice the capacity.
+     *
+     * @return The capacity, or 0 if the filter has not been built yet
+     */
+    public int getCapacity() {
+        return filter == null ? 0 : capacity;
+    }
+
+    /**
+     * Records names before they are written, so a fetch issued while the write is in progress still reaches the container.
+     */
+    private CompletableFuture<Void> write(Set<String> names, Supplier<CompletableFuture<Void>> write) {
+        names.forEach(name -> pendingWrites.merge(name, 1, Integer::sum));
+
+        synchronized (lock) {
+            BloomFilter<String> current = filter;
+
+            for (String name : names) {
+                if (current != null) {
+                    current.put(name);
+                }
+
+                if (captured != null) {
+                    captured.add(name);
+                }
+            }
+        }
+
+        BloomFilter<String> current = filter;
+
+        if (current != null && current.approximateElementCount() > capacity) {
+            rebuild();
+        }
+
+        return write.get().whenComplete((irrelevant, throwable) -> {
+            for (String name : names) {
+                pendingWrites.computeIfPresent(name, (key, count) -> count == 1 ? null : count - 1);
+            }
+        });
+    }
+
+    /**
+     * Rebuilds the filter from a listing of the container, unless a rebuild is already running.
+     */
+    private void rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+
+        synchronized (lock) {
+            // Writes in progress may not be part of the listing yet, so they are carried over along with every save made during it
+            captured = new HashSet<>(pendingWrites.keySet());
+        }
+
+        delegate.fetchAllTemplates().whenComplete((names, throwable) -> {
+            try {
+                if (throwable != null) {
+                    plugin.getLogger().warning("Could not list the templates of " + getName() + ", its Bloom filter was not rebuilt: " + throwable);
+                    return;
+                }
+
+                synchronized (lock) {
+                    int count = (names == null ? 0 : names.size()) + captured.size();
+                    int newCapacity = (int) Math.min(Integer.MAX_VALUE, Math.max(minimumCapacity, count * 2L));
+
+                    BloomFilter<String> rebuilt = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), newCapacity, falsePositiveRate);
+
+                    if (names != null) {
+                        names.forEach(rebuilt::put);
+                    }
+
+                    captured.forEach(rebuilt::put);
+
+                    capacity = newCapacity;
+                    filter = rebuilt;
+                }
+
+                plugin.getLogger().info("Built the Bloom filter of " + getName() + " with a capacity of " + capacity + " templates");
+            } finally {
+                synchronized (lock) {
+                    captured = null;
+                }
+
+                rebuilding.set(false);
+            }
+        });
+    }
+}
@@ -0,0 +1,122 @@
+package me.illusion.cosmos.database.decorator;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.data.RawTemplate;
+import me.illusion.cosmos.template.data.TemplateData;
+import me.illusion.cosmos.utilities.concurrency.SingleFlight;
+
+/**
+ * A decorator which deduplicates concurrent reads of the same template. While a template is being fetched, every other caller fetching it shares the same
+ * future, so a template requested by many players at once is only fetched and deserialized once. Fetched areas are shared between those callers, like cached
+ * templates are.
+ * <p>
+ * Writing a template detaches the reads in flight for it, both when the write starts and when it completes, so a read started after a write completes never
+ * observes the data from before it.
+ *
+ * @author Illusion
+ */
+public class CoalescingDataContainer extends ForwardingDataContainer {
+
+    private final SingleFlight<String, TemplatedArea> templates = new SingleFlight<>();
+    private final SingleFlight<String, RawTemplate> rawTemplates = new SingleFlight<>();
+    private final SingleFlight<String, TemplateData> templateData = new SingleFlight<>();
+    private final SingleFlight<String, String> checksums = new SingleFlight<>();
+    private final SingleFlight<String, String> serializers = new SingleFlight<>();
+
+    public CoalescingDataContainer(CosmosDataContainer delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> fetchTemplate(String name) {
+        return templates.run(name, () -> delegate.fetchTemplate(name));
+    }
+
+    @Override
+    public CompletableFuture<RawTemplate> fetchRaw(String name) {
+        return rawTemplates.run(name, () -> delegate.fetchRaw(name));
+    }
+
+    @Override
+    public CompletableFuture<TemplateData> fetchTemplateData(String name) {
+        return templateData.run(name, () -> delegate.fetchTemplateData(name));
+    }
+
+    @Override
+    public CompletableFuture<String> fetchTemplateChecksum(String name) {
+        return checksums.run(name, () -> delegate.fetchTemplateChecksum(name));
+    }
+
+    @Override
+    public CompletableFuture<String> fetchTemplateSerializer(String name) {
+        return serializers.run(name, () -> delegate.fetchTemplateSerializer(name));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, TemplatedArea>> fetchTemplates(Collection<String> names) {
+        return delegate.fetchTemplates(names);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, RawTemplate>> fetchRawTemplates(Collection<String> names) {
+        return delegate.fetchRawTemplates(names);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveTemplate(String name, TemplatedArea area) {
+        return write(name, () -> delegate.saveTemplate(name, area));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, String serializerName, byte[] data) {
+        return write(name, () -> delegate.saveRaw(name, serializerName, data));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, RawTemplate raw) {
+        return write(name, () -> delegate.saveRaw(name, raw));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteTemplate(String name) {
+        return write(name, () -> delegate.deleteTemplate(name));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveTemplates(Map<String, TemplatedArea> templates) {
+        return write(templates.keySet(), () -> delegate.saveTemplates(templates));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRawTemplates(Map<String, RawTemplate> templates) {
+        return write(templates.keySet(), () -> delegate.saveRawTemplates(templates));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteTemplates(Collection<String> names) {
+        return write(names, () -> delegate.deleteTemplates(names));
+    }
+
+    private CompletableFuture<Void> write(String name, Supplier<CompletableFuture<Void>> write) {
+        forget(name);
+        return write.get().whenComplete((irrelevant, throwable) -> forget(name));
+    }
+
+    private CompletableFuture<Void> write(Collection<String> names, Supplier<CompletableFuture<Void>> write) {
+        names.forEach(this::forget);
+        return write.get().whenComplete((irrelevant, throwable) -> names.forEach(this::forget));
+    }
+
+    private void forget(String name) {
+        templates.forget(name);
+        rawTemplates.forget(name);
+        templateData.forget(name);
+        checksums.forget(name);
+        serializers.forget(name);
+    }
+}
@@ -0,0 +1,190 @@
+package me.illusion.cosmos.database.decorator;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import me.illusion.cosmos.CosmosPlugin;
+import me.illusion.cosmos.codec.CosmosCodec;
+import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.executor.CosmosExecutor;
+import me.illusion.cosmos.serialization.CosmosSerializer;
+import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.data.RawTemplate;
+
+/**
+ * A decorator which encodes templates with a codec before they reach the decorated container, and decodes them when they are read back. Encoded data is
+ * prefixed with a header naming its codec, so the codec can be changed at any time, and templates stored without one remain readable.
+ * <p>
+ * The raw API exposes plain serializer data, so raw transfers between containers re-encode with the codec of the target container.
+ *
+ * @author Illusion
+ */
+public class CompressingDataContainer extends ForwardingDataContainer {
+
+    private final CosmosPlugin plugin;
+    private final CosmosCodec codec;
+    private final CosmosExecutor executor;
+
+    public CompressingDataContainer(CosmosPlugin plugin, CosmosDataContainer delegate, CosmosCodec codec) {
+        super(delegate);
+
+        this.plugin = plugin;
+        this.codec = codec;
+        this.executor = plugin.getExecutorRegistry().get("codec");
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> fetchTemplate(String name) {
+        return delegate.fetchRaw(name).thenCompose(raw -> {
+            if (raw == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            CosmosSerializer serializer = plugin.getSerializerRegistry().get(raw.getSerializerName());
+
+            if (serializer == null) {
+                plugin.getLogger().warning("Could not find serializer " + raw.getSerializerName() + " for template " + name);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            // The serializer reads straight from the decoder, so the plain data never needs to be fully in memory
+            return serializer.deserialize(decode(new ByteArrayInputStream(raw.getData())));
+        });
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchTemplateStream(String name) {
+        return delegate.fetchTemplateStream(name).thenApply(stream -> stream == null ? null : decode(stream));
+    }
+
+    @Override
+    public CompletableFuture<RawTemplate> fetchRaw(String name) {
+        return delegate.fetchRaw(name).thenApply(raw -> {
+            if (raw == null) {
+                return null;
+            }
+
+            return raw.withData(plugin.getCodecRegistry().decode(raw.getData()));
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> saveTemplate(String name, TemplatedArea area) {
+        CosmosSerializer serializer = area.getSerializer();
+        return serializer.serialize(area).thenCompose(data -> saveRaw(name, new RawTemplate(serializer.getName(), data, area.getDimensions())));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, String serializerName, byte[] data) {
+        return saveRaw(name, new RawTemplate(serializerName, data));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, RawTemplate raw) {
+        return executor.supply(() -> raw.withData(plugin.getCodecRegistry().encode(codec, raw.getData())))
+            .thenCompose(encoded -> delegate.saveRaw(name, encoded));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> fetchChunk(String hash) {
+        return delegate.fetchChunk(hash).thenApply(data -> data == null ? null : plugin.getCodecRegistry().decode(data));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveChunk(String hash, byte[] data) {
+        return executor.supply(() -> plugin.getCodecRegistry().encode(codec, data)).thenCompose(encoded -> delegate.saveChunk(hash, encoded));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, TemplatedArea>> fetchTemplates(Collection<String> names) {
+        return delegate.fetchRawTemplates(names).thenCompose(rawTemplates -> {
+            Map<String, TemplatedArea> templates = new ConcurrentHashMap<>();
+            List<CompletableFuture<?>> futures = new ArrayList<>();
+
+            for (Map.Entry<String, RawTemplate> entry : rawTemplates.entrySet()) {
+                RawTemplate raw = entry.getValue();
+                CosmosSerializer serializer = plugin.getSerializerRegistry().get(raw.getSerializerName());
+
+                if (serializer == null) {
+                    plugin.getLogger().warning("Could not find serializer " + raw.getSerializerName() + " for template " + entry.getKey());
+                    continue;
+                }
+
+                futures.add(serializer.deserialize(decode(new ByteArrayInputStream(raw.getData()))).thenAccept(area -> {
+                    if (area != null) {
+                        templates.put(entry.getKey(), area);
+                    }
+                }));
+            }
+
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(irrelevant -> templates);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<String, RawTemplate>> fetchRawTemplates(Collection<String> names) {
+        return delegate.fetchRawTemplates(names).thenApply(rawTemplates -> {
+            Map<String, RawTemplate> decoded = new HashMap<>();
+
+            for (Map.Entry<String, RawTemplate> entry : rawTemplates.entrySet()) {
+                RawTemplate raw = entry.getValue();
+                decoded.put(entry.getKey(), raw.withData(plugin.getCodecRegistry().decode(raw.getData())));
+            }
+
+            return decoded;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> saveTemplates(Map<String, TemplatedArea> templates) {
+        Map<String, RawTemplate> rawTemplates = new ConcurrentHashMap<>();
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+
+        for (Map.Entry<String, TemplatedArea> entry : templates.entrySet()) {
+            CosmosSerializer serializer = entry.getValue().getSerializer();
+
+            futures.add(serializer.serialize(entry.getValue())
+                .thenAccept(data -> rawTemplates.put(entry.getKey(), new RawTemplate(serializer.getName(), data, entry.getValue().getDimensions()))));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenCompose(irrelevant -> saveRawTemplates(rawTemplates));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRawTemplates(Map<String, RawTemplate> templates) {
+        return executor.supply(() -> {
+            Map<String, RawTemplate> encoded = new HashMap<>();
+
+            for (Map.Entry<String, RawTemplate> entry : templates.entrySet()) {
+                RawTemplate raw = entry.getValue();
+                encoded.put(entry.getKey(), raw.withData(plugin.getCodecRegistry().encode(codec, raw.getData())));
+            }
+
+            return encoded;
+        }).thenCompose(delegate::saveRawTemplates);
+    }
+
+    /**
+     * Obtains the codec new templates are encoded with.
+     *
+     * @return The codec
+     */
+    public CosmosCodec getCodec() {
+        return codec;
+    }
+
+    private InputStream decode(InputStream stream) {
+        try {
+            return plugin.getCodecRegistry().decode(stream);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package me.illusion.cosmos.database.decorator;
+
+import com.google.common.collect.Sets;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import me.illusion.cosmos.CosmosPlugin;
+import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.database.decorator.dedup.ChunkIndex;
+import me.illusion.cosmos.database.decorator.dedup.ChunkManifest;
+import me.illusion.cosmos.database.decorator.dedup.ContentChunker;
+import me.illusion.cosmos.executor.CosmosExecutor;
+import me.illusion.cosmos.serialization.CosmosSerializer;
+import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.data.RawTemplate;
+import me.illusion.cosmos.template.data.TemplateData;
+import me.illusion.cosmos.utilities.io.Checksums;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * A decorator which stores templates as content-addressed chunks. Every unique chunk is stored once in the decorated container, under the hash of its
+ * contents, and each template is replaced by a small manifest listing its chunks. Sessions saved from the same base template end up sharing most of their
+ * chunks.
+ * <p>
+ * Chunks are kept in the chunk key space of the decorated container, apart from its templates, see {@link CosmosDataContainer#saveChunk(String, byte[])}.
+ * <p>
+ * Templates stored before deduplication was enabled remain readable, and are converted the next time they are saved. Deleting a template only deletes its
+ * manifest, chunks which are no longer referenced are reclaimed by {@link #sweepUnreferencedChunks(boolean)}, on demand or when the container is enabled if
+ * configured to. A {@link ChunkIndex} persisted by the plugin remembers the chunks of every manifest, so a sweep doesn't need to download the manifests.
+ *
+ * @author Illusion
+ */
+public class DeduplicatingDataContainer extends ForwardingDataContainer {
+
+    private final CosmosPlugin plugin;
+    private final ContentChunker chunker;
+    private final ChunkIndex index;
+    private final CosmosExecutor executor;
+
+    private final Map<String, CompletableFuture<Void>> chunkWrites = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Void>> chunkDeletes = new ConcurrentHashMap<>();
+    private final Map<String, Long> referencedAt = new ConcurrentHashMap<>();
+    private final Set<CompletableFuture<?>> pendingSaves = Sets.newConcurrentHashSet();
+    private final AtomicLong generation = new AtomicLong();
+    private final Object chunkLock = new Object(); // guards referencing a chunk against a sweep deleting it
+
+    public DeduplicatingDataContainer(CosmosPlugin plugin, CosmosDataContainer delegate, int averageChunkSize) {
+        super(delegate);
+
+        this.plugin = plugin;
+        this.chunker = new ContentChunker(averageChunkSize);
+        this.executor = plugin.getExecutorRegistry().get("deduplication");
+        this.index = new ChunkIndex(new File(new File(plugin.getDataFolder(), "dedup"), delegate.getName() + ".index"));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> enable(ConfigurationSection section) {
+        boolean sweepOnEnable = section != null && section.getBoolean("deduplication-sweep-on-enable", false);
+
+        return delegate.enable(section).thenCompose(enabled -> {
+            if (!enabled) {
+                return CompletableFuture.completedFuture(false);
+            }
+
+            return delegate.fetchAllChunks().thenApply(hashes -> {
+                for (String hash : hashes) {
+                    chunkWrites.put(hash, CompletableFuture.completedFuture(null));
+                }
+
+                // An index created along with its container already knows every manifest, there are none
+                if (!index.load() && hashes.isEmpty()) {
+                    index.markComplete();
+                }
+
+                if (sweepOnEnable) {
+                    sweepUnreferencedChunks(false);
+                }
+
+                return true;
+            });
+        });
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> fetchTemplate(String name) {
+        return fetchRaw(name).thenCompose(raw -> {
+            if (raw == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            CosmosSerializer serializer = plugin.getSerializerRegistry().get(raw.getSerializerName());
+
+            if (serializer == null) {
+                plugin.getLogger().warning("Could not find serializer " + raw.getSerializerName() + " for template " + name);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            return serializer.deserialize(raw.getData());
+        });
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchTemplateStream(String name) {
+        return fetchRaw(name).thenApply(raw -> raw == null ? null : new ByteArrayInputStream(raw.getData()));
+    }
+
+    @Override
+    public CompletableFuture<RawTemplate> fetchRaw(String name) {
+        return delegate.fetchRaw(name).thenCompose(raw -> {
+            if (raw == null || !ChunkManifest.isManifest(raw.getData())) {
+                return CompletableFuture.completedFuture(raw);
+            }
+
+            ChunkManifest manifest = ChunkManifest.decode(raw.getData());
+            Map<String, CompletableFuture<byte[]>> chunks = new ConcurrentHashMap<>();
+
+            for (String hash : manifest.getChunkHashes()) {
+                chunks.computeIfAbsent(hash, delegate::fetchChunk);
+            }
+
+            return CompletableFuture.allOf(chunks.values().toArray(new CompletableFuture[0])).thenApply(irrelevant -> {
+                byte[] data = new byte[Math.toIntExact(manifest.getLength())];
+                int offset = 0;
+
+                for (String hash : manifest.getChunkHashes()) {
+                    byte[] chunk = chunks.get(hash).join();
+
+                    if (chunk == null) {
+                        throw new IllegalStateException("Template " + name + " references missing chunk " + hash);
+                    }
+
+                    System.arraycopy(chunk, 0, data, offset, chunk.length);
+                    offset += chunk.length;
+                }
+
+                return raw.withData(data);
+            });
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> saveTemplate(String name, TemplatedArea area) {
+        CosmosSerializer serializer = area.getSerializer();
+        return serializer.serialize(area).thenCompose(data -> saveRaw(name, new RawTemplate(serializer.getName(), data, area.getDimensions())));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, String serializerName, byte[] data) {
+        return saveRaw(name, new RawTemplate(serializerName, data));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, RawTemplate raw) {
+        byte[] data = raw.getData();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        // The save is registered before its generation is sampled, so a sweep either waits for it or sees it as newer than itself
+        pendingSaves.add(future);
+        future.whenComplete((irrelevant, throwable) -> pendingSaves.remove(future));
+
+        long saveGeneration = generation.get();
+
+        executor.supply(() -> chunker.split(data)).thenCompose(chunks -> {
+            List<String> hashes = new ArrayList<>(chunks.size());
+            List<CompletableFuture<Void>> writes = new ArrayList<>();
+
+            for (byte[] chunk : chunks) {
+                String hash = Checksums.sha256(chunk);
+
+                hashes.add(hash);
+                writes.add(storeChunk(hash, chunk, saveGeneration));
+            }
+
+            // The chunks are indexed along with the old ones until the manifest is written, so whichever manifest ends up stored is covered
+            index.put(name, hashes, false);
+
+            // The manifest is only written once every chunk it references is stored
+            return CompletableFuture.allOf(writes.toArray(new CompletableFuture[0]))
+                .thenCompose(irrelevant -> delegate.saveRaw(name, raw.withData(new ChunkManifest(data.length, hashes).encode())))
+                .thenRun(() -> index.put(name, hashes, true));
+        }).whenComplete((irrelevant, throwable) -> {
+            if (throwable != null) {
+                future.completeExceptionally(throwable);
+                return;
+            }
+
+            future.complete(null);
+        });
+
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteTemplate(String name) {
+        return delegate.deleteTemplate(name).thenRun(() -> index.remove(name));
+    }
+
+    @Override
+    public CompletableFuture<Collection<String>> fetchAllTemplates() {
+        return delegate.fetchAllTemplates().thenApply(names -> {
+            if (names == null) {
+                return null;
+            }
+
+            List<String> templates = new ArrayList<>();
+
+            for (String name : names) {
+                if (!isChunk(name)) {
+                    templates.add(name);
+                }
+            }
+
+            return templates;
+        });
+    }
+
+    /**
+     * Fetches a page of template names, leaving out chunks. Pages of the delegate which only hold chunks are skipped, so an empty page still means there are
+     * no more templates.
+     */
+    @Override
+    public CompletableFuture<List<String>> fetchTemplatePage(String after, int limit) {
+        return delegate.fetchTemplatePage(after, limit).thenCompose(names -> {
+            List<String> templates = new ArrayList<>();
+
+            for (String name : names) {
+                if (!isChunk(name)) {
+                    templates.add(name);
+                }
+            }
+
+            if (!templates.isEmpty() || names.isEmpty()) {
+                return CompletableFuture.completedFuture(templates);
+            }
+
+            return fetchTemplatePage(names.get(names.size() - 1), limit);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Collection<TemplateData>> fetchAllTemplateData() {
+        return delegate.fetchAllTemplateData().thenApply(allData -> {
+            if (allData == null) {
+                return null;
+            }
+
+            List<TemplateData> templates = new ArrayList<>();
+
+            for (TemplateData data : allData) {
+                if (!isChunk(data.getTemplateName())) {
+                    templates.add(data);
+                }
+            }
+
+            return templates;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> flush() {
+        return CompletableFuture.allOf(pendingSaves.toArray(new CompletableFuture[0])).exceptionally(throwable -> null)
+            .thenCompose(irrelevant -> delegate.flush());
+    }
+
+    /**
+     * Deletes every stored chunk which is not referenced by any manifest. Chunks referenced by saves which start while the sweep is running are kept.
+     * <p>
+     * The chunk index only knows about the manifests saved by this server, so if other servers save to the same container, the sweep must rescan it.
+     *
+     * @param rescan Whether to rebuild the chunk index from the stored manifests first, which is always done if the index is not complete
+     * @return A future which will be completed with the amount of chunks deleted
+     */
+    public CompletableFuture<Integer> sweepUnreferencedChunks(boolean rescan) {
+        long sweepGeneration = generation.incrementAndGet();
+
+        // Saves which started before the sweep must have indexed their manifests before the index is read
+        return CompletableFuture.allOf(pendingSaves.toArray(new CompletableFuture[0])).exceptionally(throwable -> null)
+            .thenCompose(irrelevant -> rescan || !index.isComplete() ? rebuildIndex() : CompletableFuture.completedFuture(null))
+            .thenCompose(irrelevant -> {
+                Set<String> referenced = index.getReferencedChunks();
+                AtomicInteger deleted = new AtomicInteger();
+                List<CompletableFuture<?>> deletions = new ArrayList<>();
+
+                for (String hash : new LinkedHashSet<>(chunkWrites.keySet())) {
+                    CompletableFuture<Void> deletion;
+
+                    // Checked and removed under the lock, so a save can't reference the chunk in between and reuse the write being deleted
+                    synchronized (chunkLock) {
+                        if (referenced.contains(hash) || referencedAt.getOrDefault(hash, 0L) >= sweepGeneration) {
+                            continue;
+                        }
+
+                        deletion = delegate.deleteChunk(hash);
+
+                        chunkDeletes.put(hash, deletion);
+                        chunkWrites.remove(hash);
+                        referencedAt.remove(hash);
+                    }
+
+                    deletion.whenComplete((done, throwable) -> chunkDeletes.remove(hash, deletion));
+                    deletions.add(deletion.thenRun(deleted::incrementAndGet));
+                }
+
+                return CompletableFuture.allOf(deletions.toArray(new CompletableFuture[0])).thenApply(done -> deleted.get());
+            })
+            .whenComplete((deleted, throwable) -> {
+                if (throwable != null) {
+                    plugin.getLogger().log(Level.WARNING, "Could not sweep the chunks of " + getName(), throwable);
+                } else if (deleted > 0) {
+                    plugin.getLogger().info("Reclaimed " + deleted + " unreferenced chunks from " + getName());
+                }
+            });
+    }
+
+    /**
+     * Rebuilds the chunk index by reading every stored manifest. Templates stored before deduplication was enabled are recognized from their first bytes, and
+     * are not downloaded further when the container can stream them.
+     */
+    private CompletableFuture<Void> rebuildIndex() {
+        long scanSequence = index.getSequence();
+
+        return fetchAllTemplates().thenCompose(listed -> {
+            Collection<String> names = listed == null ? List.of() : listed;
+            List<CompletableFuture<?>> manifests = new ArrayList<>();
+
+            for (String name : names) {
+                manifests.add(readManifest(name).thenAccept(manifest -> {
+                    if (manifest != null) {
+                        index.put(name, manifest.getChunkHashes(), false);
+                    }
+                }));
+            }
+
+            return CompletableFuture.allOf(manifests.toArray(new CompletableFuture[0])).thenRun(() -> {
+                index.retain(names, scanSequence);
+                index.markComplete();
+            });
+        });
+    }
+
+    private CompletableFuture<ChunkManifest> readManifest(String name) {
+        return delegate.fetchTemplateStream(name).thenApply(stream -> {
+            if (stream == null) {
+                return null;
+            }
+
+            try (InputStream input = stream) {
+                byte[] header = input.readNBytes(8);
+
+                if (!ChunkManifest.isManifest(header)) {
+                    return null;
+                }
+
+                byte[] rest = input.readAllBytes();
+                byte[] data = new byte[header.length + rest.length];
+
+                System.arraycopy(header, 0, data, 0, header.length);
+                System.arraycopy(rest, 0, data, header.length, rest.length);
+                return ChunkManifest.decode(data);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private CompletableFuture<Void> storeChunk(String hash, byte[] chunk, long saveGeneration) {
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        CompletableFuture<Void> existing;
+        CompletableFuture<Void> deletion;
+
+        synchronized (chunkLock) {
+            referencedAt.merge(hash, saveGeneration, Math::max);
+            existing = chunkWrites.putIfAbsent(hash, pending);
+
+            // If a sweep just deleted this chunk, the write must land after the deletion
+            deletion = chunkDeletes.getOrDefault(hash, CompletableFuture.completedFuture(null));
+        }
+
+        if (existing != null) {
+            return existing;
+        }
+
+        deletion.exceptionally(throwable -> null)
+            .thenCompose(irrelevant -> delegate.saveChunk(hash, chunk))
+            .whenComplete((irrelevant, throwable) -> {
+                if (throwable != null) {
+                    chunkWrites.remove(hash, pending); // let the next save retry it
+                    pending.completeExceptionally(throwable);
+                    return;
+                }
+
+                pending.complete(null);
+            });
+
+        return pending;
+    }
+
+    private boolean isChunk(String name) {
+        return name != null && name.startsWith(CHUNK_PREFIX);
+    }
+}
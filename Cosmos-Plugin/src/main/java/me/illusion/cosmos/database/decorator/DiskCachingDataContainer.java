@@ -0,0 +1,313 @@
+package me.illusion.cosmos.database.decorator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import me.illusion.cosmos.CosmosPlugin;
+import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.serialization.CosmosSerializer;
+import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.data.RawTemplate;
+import me.illusion.cosmos.utilities.io.Checksums;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * A decorator which keeps a size-bounded copy of fetched templates on the local disk, under the plugin's data folder. Before a cached copy is used, its
+ * checksum is compared with the one reported by the decorated container, which is a much smaller query than fetching the template itself. When the cache
+ * grows past its maximum size, the least recently used templates are evicted.
+ * <p>
+ * Only templates for which the container reports a checksum are cached, templates saved by older versions are cached once they are saved again.
+ *
+ * @author Illusion
+ */
+public class DiskCachingDataContainer extends ForwardingDataContainer {
+
+    private static final int MAGIC = 0x43534443; // "CSDC"
+
+    private final CosmosPlugin plugin;
+    private final File cacheFolder;
+    private final long maxSize;
+
+    private final Map<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true); // access ordered, guarded by itself
+    private long size;
+
+    public DiskCachingDataContainer(CosmosPlugin plugin, CosmosDataContainer delegate, long maxSize) {
+        super(delegate);
+
+        this.plugin = plugin;
+        this.cacheFolder = new File(new File(plugin.getDataFolder(), "cache"), delegate.getName());
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> enable(ConfigurationSection section) {
+        return delegate.enable(section).thenApply(enabled -> {
+            if (enabled) {
+                loadIndex();
+            }
+
+            return enabled;
+        });
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> fetchTemplate(String name) {
+        return fetchRaw(name).thenCompose(raw -> {
+            if (raw == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            CosmosSerializer serializer = plugin.getSerializerRegistry().get(raw.getSerializerName());
+
+            if (serializer == null) {
+                plugin.getLogger().warning("Could not find serializer " + raw.getSerializerName() + " for template " + name);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            return serializer.deserialize(raw.getData());
+        });
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchTemplateStream(String name) {
+        return fetchRaw(name).thenApply(raw -> raw == null ? null : new ByteArrayInputStream(raw.getData()));
+    }
+
+    @Override
+    public CompletableFuture<RawTemplate> fetchRaw(String name) {
+        return delegate.fetchTemplateChecksum(name).thenCompose(checksum -> {
+            CacheEntry entry = getEntry(name);
+
+            if (checksum != null && entry != null && checksum.equals(entry.checksum)) {
+                RawTemplate cached = read(name, entry);
+
+                if (cached != null) {
+                    return CompletableFuture.completedFuture(cached);
+                }
+            }
+
+            return delegate.fetchRaw(name).thenApply(raw -> {
+                if (raw == null) {
+                    evict(name);
+                    return null;
+                }
+
+                // The template may have been saved between both queries, so we only cache it if it matches the checksum we obtained
+                if (checksum != null && checksum.equals(Checksums.sha256(raw.getData()))) {
+                    write(name, raw, checksum);
+                }
+
+                return raw;
+            });
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> saveTemplate(String name, TemplatedArea area) {
+        return delegate.saveTemplate(name, area).whenComplete((irrelevant, throwable) -> evict(name));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, String serializerName, byte[] data) {
+        return delegate.saveRaw(name, serializerName, data).whenComplete((irrelevant, throwable) -> evict(name));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, RawTemplate raw) {
+        return delegate.saveRaw(name, raw).whenComplete((irrelevant, throwable) -> evict(name));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteTemplate(String name) {
+        return delegate.deleteTemplate(name).whenComplete((irrelevant, throwable) -> evict(name));
+    }
+
+    /**
+     * Obtains the total size of the cached templates, in bytes.
+     *
+     * @return The size of the cache
+     */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    private void loadIndex() {
+        if (!cacheFolder.exists()) {
+            cacheFolder.mkdirs();
+            return;
+        }
+
+        File[] files = cacheFolder.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        // The least recently modified files are added first, so they are the first to be evicted
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+        for (File file : files) {
+            if (!file.getName().endsWith(".bin")) {
+                file.delete(); // leftover temporary file
+                continue;
+            }
+
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+                if (input.readInt() != MAGIC) {
+                    file.delete();
+                    continue;
+                }
+
+                String name = input.readUTF();
+                input.readUTF(); // serializer
+                String checksum = input.readUTF();
+
+                putEntry(name, new CacheEntry(file, checksum, file.length()));
+            } catch (IOException e) {
+                file.delete();
+            }
+        }
+
+        trim();
+    }
+
+    private RawTemplate read(String name, CacheEntry entry) {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry.file.toPath())))) {
+            if (input.readInt() != MAGIC || !input.readUTF().equals(name)) {
+                throw new IOException("Corrupted cache entry");
+            }
+
+            String serializer = input.readUTF();
+            String checksum = input.readUTF();
+            byte[] data = input.readNBytes(input.readInt());
+
+            if (!checksum.equals(entry.checksum) || !checksum.equals(Checksums.sha256(data))) {
+                throw new IOException("Corrupted cache entry");
+            }
+
+            return new RawTemplate(serializer, data);
+        } catch (IOException e) {
+            removeEntry(name, entry); // the entry was evicted or corrupted, we fall back to the container
+            return null;
+        }
+    }
+
+    private void write(String name, RawTemplate raw, String checksum) {
+        File file = new File(cacheFolder, Checksums.sha256(name.getBytes(StandardCharsets.UTF_8)) + ".bin");
+
+        try {
+            cacheFolder.mkdirs();
+            File temporaryFile = File.createTempFile("entry", ".tmp", cacheFolder);
+
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile.toPath())))) {
+                output.writeInt(MAGIC);
+                output.writeUTF(name);
+                output.writeUTF(raw.getSerializerName());
+                output.writeUTF(checksum);
+                output.writeInt(raw.getData().length);
+                output.write(raw.getData());
+            }
+
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Could not cache template " + name + ": " + e.getMessage());
+            return;
+        }
+
+        putEntry(name, new CacheEntry(file, checksum, file.length()));
+        trim();
+    }
+
+    private void evict(String name) {
+        CacheEntry entry;
+
+        synchronized (entries) {
+            entry = entries.remove(name);
+
+            if (entry != null) {
+                size -= entry.size;
+            }
+        }
+
+        if (entry != null) {
+            entry.file.delete();
+        }
+    }
+
+    private void trim() {
+        List<File> evicted = new ArrayList<>();
+
+        synchronized (entries) {
+            Iterator<CacheEntry> iterator = entries.values().iterator();
+
+            while (size > maxSize && iterator.hasNext()) {
+                CacheEntry entry = iterator.next();
+
+                iterator.remove();
+                size -= entry.size;
+                evicted.add(entry.file);
+            }
+        }
+
+        for (File file : evicted) {
+            file.delete();
+        }
+    }
+
+    private CacheEntry getEntry(String name) {
+        synchronized (entries) {
+            return entries.get(name);
+        }
+    }
+
+    private void putEntry(String name, CacheEntry entry) {
+        synchronized (entries) {
+            CacheEntry previous = entries.put(name, entry);
+
+            if (previous != null) {
+                size -= previous.size;
+            }
+
+            size += entry.size;
+        }
+    }
+
+    private void removeEntry(String name, CacheEntry entry) {
+        synchronized (entries) {
+            if (entries.remove(name, entry)) {
+                size -= entry.size;
+            }
+        }
+    }
+
+    private static class CacheEntry {
+
+        private final File file;
+        private final String checksum;
+        private final long size;
+
+        private CacheEntry(File file, String checksum, long size) {
+            this.file = file;
+            this.checksum = checksum;
+            this.size = size;
+        }
+    }
+}
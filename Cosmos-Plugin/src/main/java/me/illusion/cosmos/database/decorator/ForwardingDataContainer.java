@@ -0,0 +1,157 @@
+package me.illusion.cosmos.database.decorator;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.data.RawTemplate;
+import me.illusion.cosmos.template.data.TemplateData;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * A data container which forwards every call to another container. Decorators extend this class and only override the operations they change, so they can be
+ * layered on top of any container, including ones registered by other plugins.
+ * <p>
+ * Batch operations are deliberately not forwarded, so they go through the decorator's own single template operations unless the decorator overrides them.
+ *
+ * @author Illusion
+ */
+public abstract class ForwardingDataContainer implements CosmosDataContainer {
+
+    protected final CosmosDataContainer delegate;
+
+    protected ForwardingDataContainer(CosmosDataContainer delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Obtains the container this decorator forwards to.
+     *
+     * @return The decorated container
+     */
+    public CosmosDataContainer getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> fetchTemplate(String name) {
+        return delegate.fetchTemplate(name);
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchTemplateStream(String name) {
+        return delegate.fetchTemplateStream(name);
+    }
+
+    @Override
+    public CompletableFuture<RawTemplate> fetchRaw(String name) {
+        return delegate.fetchRaw(name);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, String serializerName, byte[] data) {
+        return delegate.saveRaw(name, serializerName, data);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, RawTemplate raw) {
+        return delegate.saveRaw(name, raw);
+    }
+
+    @Override
+    public CompletableFuture<String> fetchTemplateChecksum(String name) {
+        return delegate.fetchTemplateChecksum(name);
+    }
+
+    @Override
+    public boolean mightContain(String name) {
+        return delegate.mightContain(name);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveTemplate(String name, TemplatedArea area) {
+        return delegate.saveTemplate(name, area);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteTemplate(String name) {
+        return delegate.deleteTemplate(name);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> fetchChunk(String hash) {
+        return delegate.fetchChunk(hash);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveChunk(String hash, byte[] data) {
+        return delegate.saveChunk(hash, data);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteChunk(String hash) {
+        return delegate.deleteChunk(hash);
+    }
+
+    @Override
+    public CompletableFuture<Collection<String>> fetchAllChunks() {
+        return delegate.fetchAllChunks();
+    }
+
+    @Override
+    public CompletableFuture<Void> flush() {
+        return delegate.flush();
+    }
+
+    @Override
+    public CompletableFuture<Void> flush(String name) {
+        return delegate.flush(name);
+    }
+
+    @Override
+    public CompletableFuture<Void> close() {
+        return delegate.close();
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public CompletableFuture<Collection<String>> fetchAllTemplates() {
+        return delegate.fetchAllTemplates();
+    }
+
+    @Override
+    public CompletableFuture<List<String>> fetchTemplatePage(String after, int limit) {
+        return delegate.fetchTemplatePage(after, limit);
+    }
+
+    @Override
+    public CompletableFuture<String> fetchTemplateSerializer(String name) {
+        return delegate.fetchTemplateSerializer(name);
+    }
+
+    @Override
+    public CompletableFuture<TemplateData> fetchTemplateData(String name) {
+        return delegate.fetchTemplateData(name);
+    }
+
+    @Override
+    public CompletableFuture<Collection<TemplateData>> fetchAllTemplateData() {
+        return delegate.fetchAllTemplateData();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> enable(ConfigurationSection section) {
+        return delegate.enable(section);
+    }
+
+    @Override
+    public boolean requiresCredentials() {
+        return delegate.requiresCredentials();
+    }
+}
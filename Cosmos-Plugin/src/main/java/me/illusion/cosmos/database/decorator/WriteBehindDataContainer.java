@@ -0,0 +1,430 @@
+package me.illusion.cosmos.database.decorator;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import me.illusion.cosmos.CosmosPlugin;
+import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.serialization.CosmosSerializer;
+import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.data.RawTemplate;
+import me.illusion.cosmos.template.data.TemplateData;
+import me.illusion.cosmos.utilities.time.Time;
+
+/**
+ * A decorator which holds template saves in memory and writes them behind, in a single batch, once the flush interval elapses or enough templates are
+ * pending. Repeated saves of the same template before a flush are coalesced, only the latest save is written and every caller is completed once it is.
+ * <p>
+ * Templates are serialized when they are saved, so changes made to an area after it was saved are never written in its place. A failed write is retried
+ * with an increasing delay, and its callers are only failed once it ran out of attempts, or when the container is closed before it succeeds.
+ * <p>
+ * Reads, deletions and raw saves of a pending template write it first, so they always observe the latest save. Batch saves are written right away along with
+ * everything pending, and {@link #flush()} drains the queue before flushing the decorated container, so shutting down never loses a save.
+ *
+ * @author Illusion
+ */
+public class WriteBehindDataContainer extends ForwardingDataContainer {
+
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long MAX_RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    private final CosmosPlugin plugin;
+    private final int maxPending;
+    private final long retryDelay; // in milliseconds, doubled with every failed attempt
+
+    private final Object lock = new Object();
+    private final ScheduledExecutorService scheduler;
+
+    private Map<String, PendingSave> pending = new LinkedHashMap<>(); // guarded by lock
+    private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null); // the last write, writes run one at a time, guarded by lock
+
+    public WriteBehindDataContainer(CosmosPlugin plugin, CosmosDataContainer delegate, Time interval, int maxPending) {
+        super(delegate);
+
+        this.plugin = plugin;
+        this.maxPending = maxPending;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("cosmos-write-behind-" + delegate.getName())
+            .setDaemon(true)
+            .build());
+
+        long millis = Math.max(1, interval.as(TimeUnit.MILLISECONDS));
+        this.retryDelay = millis;
+
+        scheduler.scheduleWithFixedDelay(() -> drain(null, false), millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveTemplate(String name, TemplatedArea area) {
+        CompletableFuture<RawTemplate> snapshot = snapshot(area);
+        CompletableFuture<Void> future;
+        boolean full;
+
+        synchronized (lock) {
+            future = enqueue(name, snapshot);
+            full = pending.size() >= maxPending;
+        }
+
+        if (full) {
+            drain(null, false);
+        }
+
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Void> saveTemplates(Map<String, TemplatedArea> templates) {
+        Map<String, CompletableFuture<RawTemplate>> snapshots = new HashMap<>();
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+
+        for (Map.Entry<String, TemplatedArea> entry : templates.entrySet()) {
+            snapshots.put(entry.getKey(), snapshot(entry.getValue()));
+        }
+
+        synchronized (lock) {
+            for (Map.Entry<String, CompletableFuture<RawTemplate>> entry : snapshots.entrySet()) {
+                futures.add(enqueue(entry.getKey(), entry.getValue()));
+            }
+        }
+
+        drain(null, false);
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, String serializerName, byte[] data) {
+        return saveRaw(name, new RawTemplate(serializerName, data));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, RawTemplate raw) {
+        return supersede(name).thenCompose(irrelevant -> delegate.saveRaw(name, raw));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteTemplate(String name) {
+        return supersede(name).thenCompose(irrelevant -> delegate.deleteTemplate(name));
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> fetchTemplate(String name) {
+        return awaitWrite(name).thenCompose(irrelevant -> delegate.fetchTemplate(name));
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchTemplateStream(String name) {
+        return awaitWrite(name).thenCompose(irrelevant -> delegate.fetchTemplateStream(name));
+    }
+
+    @Override
+    public CompletableFuture<RawTemplate> fetchRaw(String name) {
+        return awaitWrite(name).thenCompose(irrelevant -> delegate.fetchRaw(name));
+    }
+
+    @Override
+    public CompletableFuture<String> fetchTemplateChecksum(String name) {
+        return awaitWrite(name).thenCompose(irrelevant -> delegate.fetchTemplateChecksum(name));
+    }
+
+    @Override
+    public CompletableFuture<String> fetchTemplateSerializer(String name) {
+        return awaitWrite(name).thenCompose(irrelevant -> delegate.fetchTemplateSerializer(name));
+    }
+
+    @Override
+    public CompletableFuture<TemplateData> fetchTemplateData(String name) {
+        return awaitWrite(name).thenCompose(irrelevant -> delegate.fetchTemplateData(name));
+    }
+
+    @Override
+    public CompletableFuture<Collection<String>> fetchAllTemplates() {
+        return drain(null, true).thenCompose(irrelevant -> delegate.fetchAllTemplates());
+    }
+
+    @Override
+    public CompletableFuture<List<String>> fetchTemplatePage(String after, int limit) {
+        return drain(null, true).thenCompose(irrelevant -> delegate.fetchTemplatePage(after, limit));
+    }
+
+    @Override
+    public CompletableFuture<Collection<TemplateData>> fetchAllTemplateData() {
+        return drain(null, true).thenCompose(irrelevant -> delegate.fetchAllTemplateData());
+    }
+
+    @Override
+    public CompletableFuture<Void> flush() {
+        return drain(null, true).thenCompose(irrelevant -> delegate.flush());
+    }
+
+    /**
+     * Writes the pending save of a single template right away, leaving every other save to the next interval.
+     */
+    @Override
+    public CompletableFuture<Void> flush(String name) {
+        return drain(name, true).thenCompose(irrelevant -> delegate.flush(name));
+    }
+
+    /**
+     * Stops writing behind, making a last attempt at every pending save. Saves which still fail are failed, as nothing would retry them anymore.
+     */
+    @Override
+    public CompletableFuture<Void> close() {
+        scheduler.shutdownNow();
+
+        return drain(null, true).thenCompose(irrelevant -> {
+            Map<String, PendingSave> remaining;
+
+            synchronized (lock) {
+                remaining = pending;
+                pending = new LinkedHashMap<>();
+            }
+
+            if (!remaining.isEmpty()) {
+                plugin.getLogger().severe("Could not write " + remaining.size() + " pending saves to " + getName() + " before closing it: "
+                    + remaining.keySet());
+            }
+
+            for (PendingSave save : remaining.values()) {
+                save.future.completeExceptionally(new IllegalStateException("The container was closed before the save could be written"));
+            }
+
+            return delegate.close();
+        });
+    }
+
+    /**
+     * Obtains the amount of templates waiting to be written, including failed writes waiting to be retried.
+     *
+     * @return The amount of pending saves
+     */
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Serializes an area as it is now, so the pending save is unaffected by later changes to it.
+     *
+     * @param area The area
+     * @return A future which will be completed with the serialized area
+     */
+    private CompletableFuture<RawTemplate> snapshot(TemplatedArea area) {
+        CosmosSerializer serializer = area.getSerializer();
+
+        try {
+            return serializer.serialize(area).thenApply(data -> new RawTemplate(serializer.getName(), data, area.getDimensions()));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Queues a save, replacing any save of the same template which was not written yet. Must be called while holding the lock.
+     *
+     * @param name     The name of the template
+     * @param snapshot The serialized template
+     * @return A future which will be completed once the template is written
+     */
+    private CompletableFuture<Void> enqueue(String name, CompletableFuture<RawTemplate> snapshot) {
+        PendingSave save = pending.computeIfAbsent(name, irrelevant -> new PendingSave());
+
+        save.snapshot = snapshot; // the latest save wins
+        save.attempts = 0;
+        save.retryAt = 0;
+        return save.future;
+    }
+
+    /**
+     * Writes every pending save in a single batch, once the previous write completes.
+     *
+     * @param only     The name of the only template to write, or null to write every template
+     * @param retryNow Whether failed saves are retried right away, instead of once their delay elapses
+     * @return A future which will be completed once the pending saves are written, it never completes exceptionally
+     */
+    private CompletableFuture<Void> drain(String only, boolean retryNow) {
+        CompletableFuture<Void> previous;
+        CompletableFuture<Void> next = new CompletableFuture<>();
+
+        synchronized (lock) {
+            previous = tail;
+            tail = next;
+        }
+
+        // The pending saves are taken when the write starts rather than now, so saves made in the meantime make it into this batch
+        previous.thenCompose(irrelevant -> writePending(only, retryNow)).whenComplete((irrelevant, throwable) -> next.complete(null));
+        return next;
+    }
+
+    private CompletableFuture<Void> writePending(String only, boolean retryNow) {
+        Map<String, PendingSave> batch = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+
+        synchronized (lock) {
+            Iterator<Map.Entry<String, PendingSave>> iterator = pending.entrySet().iterator();
+
+            while (iterator.hasNext()) {
+                Map.Entry<String, PendingSave> entry = iterator.next();
+
+                if ((only == null || only.equals(entry.getKey())) && (retryNow || entry.getValue().retryAt <= now)) {
+                    batch.put(entry.getKey(), entry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
+
+        if (batch.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        List<CompletableFuture<?>> snapshots = new ArrayList<>();
+
+        for (PendingSave save : batch.values()) {
+            snapshots.add(save.snapshot);
+        }
+
+        return CompletableFuture.allOf(snapshots.toArray(new CompletableFuture[0])).handle((irrelevant, ignored) -> {
+            Map<String, RawTemplate> templates = new HashMap<>();
+
+            for (Iterator<Map.Entry<String, PendingSave>> iterator = batch.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<String, PendingSave> entry = iterator.next();
+                CompletableFuture<RawTemplate> snapshot = entry.getValue().snapshot;
+
+                if (snapshot.isCompletedExceptionally()) { // serializing again would fail the same way, so it isn't retried
+                    snapshot.whenComplete((raw, throwable) -> entry.getValue().future.completeExceptionally(throwable));
+                    iterator.remove();
+                    continue;
+                }
+
+                templates.put(entry.getKey(), snapshot.join());
+            }
+
+            return templates;
+        }).thenCompose(templates -> {
+            if (templates.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            CompletableFuture<Void> write;
+
+            try {
+                write = delegate.saveRawTemplates(templates);
+            } catch (Exception e) {
+                write = CompletableFuture.failedFuture(e);
+            }
+
+            return write.handle((irrelevant, throwable) -> {
+                if (throwable == null) {
+                    for (PendingSave save : batch.values()) {
+                        save.future.complete(null);
+                    }
+                } else {
+                    retry(batch, throwable);
+                }
+
+                return null;
+            });
+        });
+    }
+
+    /**
+     * Queues the saves of a failed write again, to be retried once their delay elapses. A template saved again in the meantime is only written once, and
+     * the callers of both saves are completed with it.
+     *
+     * @param batch     The saves of the failed write
+     * @param throwable The reason the write failed
+     */
+    private void retry(Map<String, PendingSave> batch, Throwable throwable) {
+        List<PendingSave> exhausted = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        synchronized (lock) {
+            for (Map.Entry<String, PendingSave> entry : batch.entrySet()) {
+                PendingSave save = entry.getValue();
+                PendingSave newer = pending.get(entry.getKey());
+
+                if (newer != null) {
+                    newer.future.whenComplete((irrelevant, newerThrowable) -> {
+                        if (newerThrowable == null) {
+                            save.future.complete(null);
+                        } else {
+                            save.future.completeExceptionally(newerThrowable);
+                        }
+                    });
+                    continue;
+                }
+
+                if (++save.attempts >= MAX_ATTEMPTS) {
+                    exhausted.add(save);
+                    continue;
+                }
+
+                save.retryAt = now + Math.min(MAX_RETRY_DELAY, retryDelay << save.attempts);
+                pending.put(entry.getKey(), save);
+            }
+        }
+
+        plugin.getLogger().warning("Could not write " + batch.size() + " saves to " + getName() + ", " + exhausted.size() + " of them ran out of attempts: "
+            + throwable.getMessage());
+
+        for (PendingSave save : exhausted) {
+            save.future.completeExceptionally(throwable);
+        }
+    }
+
+    /**
+     * Waits for a template to be written, if it is pending or being written.
+     *
+     * @param name The name of the template
+     * @return A future which will be completed once the template is written
+     */
+    private CompletableFuture<Void> awaitWrite(String name) {
+        synchronized (lock) {
+            if (!pending.containsKey(name)) {
+                return tail; // the template may still be part of the write in progress
+            }
+        }
+
+        return drain(name, true);
+    }
+
+    /**
+     * Drops the pending save of a template which is about to be overwritten or deleted, completing its callers, and waits for the write in progress.
+     *
+     * @param name The name of the template
+     * @return A future which will be completed once the write in progress completes
+     */
+    private CompletableFuture<Void> supersede(String name) {
+        PendingSave save;
+        CompletableFuture<Void> current;
+
+        synchronized (lock) {
+            save = pending.remove(name);
+            current = tail;
+        }
+
+        if (save != null) {
+            save.future.complete(null);
+        }
+
+        return current;
+    }
+
+    private static class PendingSave {
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private CompletableFuture<RawTemplate> snapshot; // guarded by the lock of the container
+        private int attempts; // guarded by the lock of the container
+        private long retryAt; // guarded by the lock of the container, in epoch milliseconds
+    }
+}
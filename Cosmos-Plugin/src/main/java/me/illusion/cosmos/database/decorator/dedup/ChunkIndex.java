@@ -0,0 +1,318 @@
+package me.illusion.cosmos.database.decorator.dedup;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The chunk index remembers which chunks the manifest of every template references, so unreferenced chunks can be found without downloading every manifest.
+ * It is persisted as an append-only log next to the plugin, which is replayed on load and rewritten once it holds mostly outdated records.
+ * <p>
+ * An index is complete once it knows every manifest of its container, either because it was built by scanning them, or because it was created along with an
+ * empty container. Only a complete index can tell which chunks are unreferenced.
+ *
+ * @author Illusion
+ */
+public class ChunkIndex {
+
+    private static final int MAGIC = 0x4353434B; // CSCK
+    private static final int VERSION = 1;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte COMPLETE = 3;
+
+    private static final int HASH_LENGTH = 32; // SHA-256
+
+    private final File file;
+    private final Map<String, Entry> entries = new HashMap<>(); // guarded by this
+
+    private boolean complete; // guarded by this
+    private long sequence; // guarded by this, increases with every change
+    private int records; // guarded by this, records in the log, outdated ones included
+
+    public ChunkIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the index from its log. A record which was only partially written when the server stopped is dropped, and the log is rewritten without it, as
+     * records appended after it would be misread.
+     *
+     * @return Whether a stored index was found
+     */
+    public synchronized boolean load() {
+        if (!file.exists()) {
+            return false;
+        }
+
+        HexFormat hex = HexFormat.of();
+        boolean torn = false;
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                return false; // an unknown index is rebuilt by the next sweep
+            }
+
+            while (true) {
+                byte type;
+
+                try {
+                    type = input.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                if (type == COMPLETE) {
+                    complete = true;
+                    records++;
+                    continue;
+                }
+
+                String name = input.readUTF();
+
+                if (type == REMOVE) {
+                    entries.remove(name);
+                    records++;
+                    continue;
+                }
+
+                boolean replace = input.readBoolean();
+                int count = input.readInt();
+                List<String> hashes = new ArrayList<>(count);
+                byte[] hash = new byte[HASH_LENGTH];
+
+                for (int index = 0; index < count; index++) {
+                    input.readFully(hash);
+                    hashes.add(hex.formatHex(hash));
+                }
+
+                apply(name, hashes, replace);
+                records++;
+            }
+        } catch (EOFException e) {
+            torn = true; // the last record was cut short, the ones before it are intact
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (torn) {
+            rewrite();
+        }
+
+        return true;
+    }
+
+    /**
+     * Records the chunks a template references. A template which is about to be saved has its new chunks added to its old ones, so the chunks of whichever
+     * manifest ends up stored are referenced. Once the manifest is written, its chunks replace the old ones.
+     *
+     * @param name    The name of the template
+     * @param hashes  The hashes of the chunks
+     * @param replace Whether the chunks replace the ones recorded for the template, instead of being added to them
+     */
+    public synchronized void put(String name, List<String> hashes, boolean replace) {
+        apply(name, hashes, replace);
+        append(encodePut(name, hashes, replace));
+    }
+
+    /**
+     * Forgets the chunks of a deleted template.
+     *
+     * @param name The name of the template
+     */
+    public synchronized void remove(String name) {
+        if (entries.remove(name) == null) {
+            return;
+        }
+
+        sequence++;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(REMOVE);
+            output.writeUTF(name);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        append(bytes.toByteArray());
+    }
+
+    /**
+     * Marks the index as complete.
+     */
+    public synchronized void markComplete() {
+        if (complete) {
+            return;
+        }
+
+        complete = true;
+        append(new byte[]{COMPLETE});
+    }
+
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Obtains the current change sequence, used to tell which templates changed since.
+     *
+     * @return The sequence
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Forgets every template which is not stored anymore, unless it was recorded after a scan of the container started.
+     *
+     * @param names         The names of the stored templates
+     * @param scanSequence The sequence obtained when the scan started
+     */
+    public synchronized void retain(Collection<String> names, long scanSequence) {
+        Set<String> stored = new HashSet<>(names);
+
+        for (String name : new ArrayList<>(entries.keySet())) {
+            if (!stored.contains(name) && entries.get(name).sequence <= scanSequence) {
+                remove(name);
+            }
+        }
+    }
+
+    /**
+     * Obtains every chunk referenced by a template.
+     *
+     * @return The hashes of the chunks
+     */
+    public synchronized Set<String> getReferencedChunks() {
+        Set<String> referenced = new HashSet<>();
+
+        for (Entry entry : entries.values()) {
+            referenced.addAll(entry.hashes);
+        }
+
+        return referenced;
+    }
+
+    private void apply(String name, List<String> hashes, boolean replace) {
+        Entry previous = entries.get(name);
+        Set<String> merged = new LinkedHashSet<>(hashes);
+
+        if (!replace && previous != null) {
+            merged.addAll(previous.hashes);
+        }
+
+        entries.put(name, new Entry(new ArrayList<>(merged), ++sequence));
+    }
+
+    private void append(byte[] record) {
+        // Once most records are outdated, the log is rewritten with only the current entries
+        if (records > 1024 && records > entries.size() * 4) {
+            rewrite();
+            return;
+        }
+
+        try {
+            writeHeaderIfMissing();
+            Files.write(file.toPath(), record, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            records++;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeHeaderIfMissing() throws IOException {
+        if (file.exists() && file.length() > 0) {
+            return;
+        }
+
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), header(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private void rewrite() {
+        File temporaryFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try {
+            bytes.write(header());
+
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                bytes.write(encodePut(entry.getKey(), entry.getValue().hashes, true));
+            }
+
+            if (complete) {
+                bytes.write(COMPLETE);
+            }
+
+            file.getParentFile().mkdirs();
+            Files.write(temporaryFile.toPath(), bytes.toByteArray());
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        records = entries.size() + (complete ? 1 : 0);
+    }
+
+    private byte[] header() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8);
+
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private byte[] encodePut(String name, List<String> hashes, boolean replace) {
+        HexFormat hex = HexFormat.of();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(name.length() + 8 + hashes.size() * HASH_LENGTH);
+
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(PUT);
+            output.writeUTF(name);
+            output.writeBoolean(replace);
+            output.writeInt(hashes.size());
+
+            for (String hash : hashes) {
+                output.write(hex.parseHex(hash));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static class Entry {
+
+        private final List<String> hashes;
+        private final long sequence;
+
+        private Entry(List<String> hashes, long sequence) {
+            this.hashes = hashes;
+            this.sequence = sequence;
+        }
+    }
+}
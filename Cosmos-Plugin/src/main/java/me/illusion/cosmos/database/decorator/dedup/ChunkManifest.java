@@ -0,0 +1,109 @@
+package me.illusion.cosmos.database.decorator.dedup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import lombok.Getter;
+
+/**
+ * A manifest lists, in order, the content hashes of the chunks a deduplicated payload is made of. It is stored in place of the payload itself.
+ *
+ * @author Illusion
+ */
+@Getter
+public class ChunkManifest {
+
+    private static final int MAGIC = 0x43534D46; // CSMF
+    private static final int VERSION = 1;
+    private static final int HASH_LENGTH = 32; // SHA-256
+
+    private final long length;
+    private final List<String> chunkHashes;
+
+    public ChunkManifest(long length, List<String> chunkHashes) {
+        this.length = length;
+        this.chunkHashes = chunkHashes;
+    }
+
+    /**
+     * Checks whether the data is an encoded manifest, as opposed to a payload which was stored before deduplication was enabled.
+     *
+     * @param data The stored data
+     * @return Whether the data is a manifest
+     */
+    public static boolean isManifest(byte[] data) {
+        if (data.length < 8) {
+            return false;
+        }
+
+        int magic = ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+        return magic == MAGIC;
+    }
+
+    /**
+     * Decodes a manifest.
+     *
+     * @param data The encoded manifest
+     * @return The manifest
+     */
+    public static ChunkManifest decode(byte[] data) {
+        HexFormat hex = HexFormat.of();
+
+        try (DataInputStream stream = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (stream.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Data is not a chunk manifest");
+            }
+
+            int version = stream.readInt();
+
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported chunk manifest version " + version);
+            }
+
+            long length = stream.readLong();
+            int count = stream.readInt();
+
+            List<String> hashes = new ArrayList<>(count);
+            byte[] hash = new byte[HASH_LENGTH];
+
+            for (int index = 0; index < count; index++) {
+                stream.readFully(hash);
+                hashes.add(hex.formatHex(hash));
+            }
+
+            return new ChunkManifest(length, hashes);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Encodes the manifest.
+     *
+     * @return The encoded manifest
+     */
+    public byte[] encode() {
+        HexFormat hex = HexFormat.of();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(20 + chunkHashes.size() * HASH_LENGTH);
+
+        try (DataOutputStream stream = new DataOutputStream(bytes)) {
+            stream.writeInt(MAGIC);
+            stream.writeInt(VERSION);
+            stream.writeLong(length);
+            stream.writeInt(chunkHashes.size());
+
+            for (String hash : chunkHashes) {
+                stream.write(hex.parseHex(hash));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+}
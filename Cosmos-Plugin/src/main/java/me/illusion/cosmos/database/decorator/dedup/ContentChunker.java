@@ -0,0 +1,75 @@
+package me.illusion.cosmos.database.decorator.dedup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Splits data into content-defined chunks using a gear rolling hash. Boundaries depend only on the surrounding bytes, so an edit only changes the chunks it
+ * touches instead of shifting every chunk after it, which is what makes the chunks of similar payloads deduplicate.
+ *
+ * @author Illusion
+ */
+public class ContentChunker {
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // The table must never change, or previously stored payloads would chunk differently
+        SplittableRandom random = new SplittableRandom(0x436F736D6F73L);
+
+        for (int index = 0; index < GEAR.length; index++) {
+            GEAR[index] = random.nextLong();
+        }
+    }
+
+    private final int minimumSize;
+    private final int maximumSize;
+    private final long mask;
+
+    /**
+     * Creates a chunker which produces chunks of roughly the given average size. Chunks are never smaller than a quarter, or larger than four times, that
+     * size.
+     *
+     * @param averageSize The average chunk size, rounded down to a power of two
+     */
+    public ContentChunker(int averageSize) {
+        int bits = Integer.numberOfTrailingZeros(Integer.highestOneBit(Math.max(averageSize, 64)));
+
+        this.minimumSize = (1 << bits) / 4;
+        this.maximumSize = (1 << bits) * 4;
+        this.mask = ((1L << bits) - 1) << (Long.SIZE - bits); // the high bits of the gear hash are the best mixed
+    }
+
+    /**
+     * Splits the data into chunks.
+     *
+     * @param data The data to split
+     * @return The chunks, in order
+     */
+    public List<byte[]> split(byte[] data) {
+        List<byte[]> chunks = new ArrayList<>();
+
+        int start = 0;
+        long hash = 0;
+
+        for (int index = 0; index < data.length; index++) {
+            hash = (hash << 1) + GEAR[data[index] & 0xFF];
+
+            int length = index - start + 1;
+
+            if ((length >= minimumSize && (hash & mask) == 0) || length >= maximumSize) {
+                chunks.add(Arrays.copyOfRange(data, start, index + 1));
+                start = index + 1;
+                hash = 0;
+            }
+        }
+
+        if (start < data.length) {
+            chunks.add(Arrays.copyOfRange(data, start, data.length));
+        }
+
+        return chunks;
+    }
+}
@@ -1,34 +1,61 @@
 package me.illusion.cosmos.database.impl;
 
+import com.google.common.collect.Sets;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
 import me.illusion.cosmos.CosmosPlugin;
 import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.executor.CosmosExecutor;
 import me.illusion.cosmos.serialization.CosmosSerializer;
 import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.data.RawTemplate;
 import me.illusion.cosmos.template.data.TemplateData;
+import me.illusion.cosmos.utilities.geometry.Cuboid;
+import me.illusion.cosmos.utilities.io.Checksums;
+import me.illusion.cosmos.utilities.io.TemporaryFileChannel;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.YamlConfiguration;
 
 public class FileDataContainer implements CosmosDataContainer {
 
     private final CosmosPlugin plugin;
     private final File worldContainer;
+    private final File chunkContainer;
+    private final TemplateCatalog catalog;
 
-    private final List<CompletableFuture<?>> runningFutures = new ArrayList<>();
+    private final Set<CompletableFuture<?>> runningFutures = Sets.newConcurrentHashSet();
+    private final CompletableFuture<Void> catalogLoaded = new CompletableFuture<>(); // lookups wait for it, rather than seeing an empty catalog
+
+    private CosmosExecutor executor;
+    private boolean memoryMapped = false;
 
     public FileDataContainer(CosmosPlugin plugin) {
         this.plugin = plugin;
         File cosmosFolder = plugin.getDataFolder();
 
         worldContainer = new File(cosmosFolder, "templates");
+        chunkContainer = new File(cosmosFolder, "chunks");
         createFolder(worldContainer);
+
+        catalog = new TemplateCatalog(new File(worldContainer, "catalog.bin"), getName(), plugin.getLogger());
     }
 
     private void createFolder(File folder) {
@@ -38,103 +65,107 @@ public class FileDataContainer implements CosmosDataContainer {
     }
 
     @Override
-    public String getName() {
-        return "file";
-    }
+    public CompletableFuture<Boolean> enable(ConfigurationSection section) {
+        memoryMapped = section != null && section.getBoolean("memory-mapped", false);
+        executor = plugin.getExecutorRegistry().get(getName());
 
-    @Override
-    public CompletableFuture<Collection<String>> fetchAllTemplates() {
-        CompletableFuture<Collection<String>> future = new CompletableFuture<>();
+        return registerFuture(executor.supply(() -> {
+            try {
+                catalog.load();
+                reconcileCatalog();
+            } catch (RuntimeException e) {
+                catalogLoaded.completeExceptionally(e);
+                throw e;
+            }
 
-        CompletableFuture<Void> task = CompletableFuture.runAsync(() -> {
-            Collection<String> templates = new ArrayList<>();
+            catalogLoaded.complete(null);
+            return true;
+        }));
+    }
 
-            File[] files = worldContainer.listFiles();
+    /**
+     * Brings the catalog in line with the template folders, adding templates saved by older versions (or copied in by hand) from their metadata file, and
+     * dropping templates which were removed by hand.
+     */
+    private void reconcileCatalog() {
+        File[] files = worldContainer.listFiles(File::isDirectory);
+        Set<String> folders = new HashSet<>();
 
-            if (files == null) {
-                future.complete(templates);
-                return;
-            }
+        if (files != null) {
+            for (File folder : files) {
+                folders.add(folder.getName());
 
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    templates.add(file.getName());
+                if (catalog.get(folder.getName()) != null) {
+                    continue;
                 }
-            }
 
-            future.complete(templates);
-        });
+                File dataFile = new File(folder, "data.cosmos");
+                File metadataFile = new File(folder, "metadata.yml");
 
-        registerFuture(task);
-        registerFuture(future);
-        return future;
-    }
+                if (!dataFile.exists() || !metadataFile.exists()) {
+                    continue;
+                }
 
-    @Override
-    public CompletableFuture<String> fetchTemplateSerializer(String name) {
-        CompletableFuture<String> task = CompletableFuture.supplyAsync(() -> {
-            File templateFolder = new File(worldContainer, name);
+                String serializer = YamlConfiguration.loadConfiguration(metadataFile).getString("serializer");
 
-            if (!templateFolder.exists()) {
-                return null;
+                catalog.put(TemplateData.builder()
+                    .templateName(folder.getName())
+                    .serializerName(serializer)
+                    .containerName(getName())
+                    .size(dataFile.length())
+                    .updatedAt(dataFile.lastModified())
+                    .build());
             }
+        }
 
-            File metadataFile = new File(templateFolder, "metadata.yml");
-
-            if (!metadataFile.exists()) {
-                return null;
+        for (String name : catalog.names()) {
+            if (!folders.contains(name)) {
+                catalog.remove(name);
             }
-
-            YamlConfiguration yaml = YamlConfiguration.loadConfiguration(metadataFile);
-            return yaml.getString("serializer");
-        });
-
-        registerFuture(task);
-        return task;
+        }
     }
 
     @Override
-    public CompletableFuture<Collection<TemplateData>> fetchAllTemplateData() {
-        CompletableFuture<Collection<TemplateData>> future = new CompletableFuture<>();
-
-        CompletableFuture<Void> task = CompletableFuture.runAsync(() -> {
-            Collection<TemplateData> templates = new ArrayList<>();
-
-            File[] files = worldContainer.listFiles();
-
-            if (files == null) {
-                future.complete(templates);
-                return;
-            }
-
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    File metadataFile = new File(file, "metadata.yml");
-
-                    if (!metadataFile.exists()) {
-                        continue;
-                    }
+    public String getName() {
+        return "file";
+    }
 
-                    YamlConfiguration yaml = YamlConfiguration.loadConfiguration(metadataFile);
-                    String serializer = yaml.getString("serializer");
+    @Override
+    public CompletableFuture<Collection<String>> fetchAllTemplates() {
+        return catalogLoaded.thenApply(irrelevant -> catalog.names());
+    }
 
-                    templates.add(new TemplateData(file.getName(), serializer, getName()));
-                }
-            }
+    @Override
+    public CompletableFuture<String> fetchTemplateSerializer(String name) {
+        return catalogLoaded.thenApply(irrelevant -> {
+            TemplateData data = catalog.get(name);
+            return data == null ? null : data.getSerializerName();
+        });
+    }
 
-            future.complete(templates);
+    @Override
+    public CompletableFuture<String> fetchTemplateChecksum(String name) {
+        return catalogLoaded.thenApply(irrelevant -> {
+            TemplateData data = catalog.get(name);
+            return data == null ? null : data.getChecksum();
         });
+    }
 
-        registerFuture(task);
-        registerFuture(future);
-        return future;
+    @Override
+    public CompletableFuture<TemplateData> fetchTemplateData(String name) {
+        return catalogLoaded.thenApply(irrelevant -> catalog.get(name));
+    }
+
+    @Override
+    public CompletableFuture<Collection<TemplateData>> fetchAllTemplateData() {
+        return catalogLoaded.thenApply(irrelevant -> catalog.values());
     }
 
     @Override
     public CompletableFuture<TemplatedArea> fetchTemplate(String name) {
         CompletableFuture<TemplatedArea> future = new CompletableFuture<>();
 
-        CompletableFuture<Void> task = CompletableFuture.runAsync(() -> { // there's probably a better way to do this
+        CompletableFuture<Void> task = catalogLoaded.thenCompose(irrelevant -> executor.run(() -> { // there's probably a better way to do this
             File templateFolder = new File(worldContainer, name);
 
             if (!templateFolder.exists()) {
@@ -145,15 +176,16 @@ public class FileDataContainer implements CosmosDataContainer {
 
             File dataFile = new File(templateFolder, "data.cosmos");
             File metadataFile = new File(templateFolder, "metadata.yml");
+            TemplateData data = catalog.get(name);
 
-            if (!dataFile.exists() || !metadataFile.exists()) {
+            if (!dataFile.exists() || (data == null && !metadataFile.exists())) {
                 System.out.println("Template folder " + name + " is missing files");
                 future.complete(null);
                 return;
             }
 
-            YamlConfiguration yaml = YamlConfiguration.loadConfiguration(metadataFile);
-            String serializer = yaml.getString("serializer");
+            // The metadata file is only parsed for templates the catalog doesn't know of yet, such as ones copied in since the container was enabled
+            String serializer = data != null ? data.getSerializerName() : YamlConfiguration.loadConfiguration(metadataFile).getString("serializer");
 
             CosmosSerializer cosmosSerializer = plugin.getSerializerRegistry().get(serializer);
 
@@ -163,44 +195,192 @@ public class FileDataContainer implements CosmosDataContainer {
                 return;
             }
 
-            byte[] dataContents = readFully(dataFile);
-            cosmosSerializer.deserialize(dataContents).thenAccept(future::complete);
+            CompletableFuture<TemplatedArea> deserialized = memoryMapped
+                ? cosmosSerializer.deserialize(map(dataFile))
+                : cosmosSerializer.deserialize(openStream(dataFile));
+
+            deserialized.whenComplete((area, throwable) -> {
+                if (throwable != null) {
+                    future.completeExceptionally(throwable);
+                    return;
+                }
+
+                future.complete(area);
+            });
+        }));
+
+        // The deserialization is only started by the task, so a task which fails or is rejected never gets to complete the future
+        registerFuture(task).exceptionally(throwable -> {
+            future.completeExceptionally(throwable);
+            return null;
         });
 
-        registerFuture(task);
         return future;
     }
 
+    @Override
+    public CompletableFuture<InputStream> fetchTemplateStream(String name) {
+        CompletableFuture<InputStream> task = executor.supply(() -> {
+            File dataFile = new File(new File(worldContainer, name), "data.cosmos");
+
+            if (!dataFile.exists()) {
+                return null;
+            }
+
+            return openStream(dataFile);
+        });
+
+        registerFuture(task);
+        return task;
+    }
+
     @Override
     public CompletableFuture<Void> saveTemplate(String name, TemplatedArea area) {
-        CompletableFuture<Void> task = area.getSerializer().serialize(area).thenAccept((contents) -> {
-            File templateFolder = new File(worldContainer, name);
+        File templateFolder = new File(worldContainer, name);
 
-            createFolder(templateFolder);
+        // Every save streams into a temporary file of its own, so concurrent saves never interleave and a failed save never leaves a half-written template
+        // behind. The file is only created once the serializer writes, off the calling thread.
+        TemporaryFileChannel channel = new TemporaryFileChannel(templateFolder, "data.cosmos");
 
-            File dataFile = new File(templateFolder, "data.cosmos");
-            File metadataFile = new File(templateFolder, "metadata.yml");
+        CompletableFuture<Void> task = area.getSerializer().serialize(area, channel).whenComplete((irrelevant, throwable) -> {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }).thenCompose(irrelevant -> catalogLoaded).thenRunAsync(() -> {
+            try {
+                commitTemplate(templateFolder, channel.getPath(), area.getSerializer().getName(), area.getDimensions(), channel.getChecksum());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, executor).whenComplete((irrelevant, throwable) -> {
+            if (throwable != null) {
+                channel.discard();
+            }
+        });
+
+        registerFuture(task);
+        return task;
+    }
 
-            YamlConfiguration yaml = new YamlConfiguration();
-            yaml.set("serializer", area.getSerializer().getName());
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, String serializerName, byte[] data) {
+        return saveRaw(name, new RawTemplate(serializerName, data));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, RawTemplate raw) {
+        CompletableFuture<Void> task = catalogLoaded.thenRunAsync(() -> {
+            File templateFolder = new File(worldContainer, name);
+            Path temporaryFile = null;
+
+            createFolder(templateFolder);
 
             try {
-                yaml.save(metadataFile);
+                temporaryFile = Files.createTempFile(templateFolder.toPath(), "data.cosmos", ".tmp");
+                Files.write(temporaryFile, raw.getData());
+
+                commitTemplate(templateFolder, temporaryFile, raw.getSerializerName(), raw.getDimensions(), Checksums.sha256(raw.getData()));
             } catch (IOException e) {
                 throw new RuntimeException(e);
+            } finally {
+                deleteQuietly(temporaryFile);
             }
+        }, executor);
 
-            // write contents to dataFile
-            writeFully(dataFile, contents);
-        });
+        registerFuture(task);
+        return task;
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, String serializerName, InputStream stream) {
+        CompletableFuture<Void> task = catalogLoaded.thenRunAsync(() -> {
+            File templateFolder = new File(worldContainer, name);
+            Path temporaryFile = null;
+
+            createFolder(templateFolder);
+
+            // The stream is copied straight to disk and hashed on the way, so the data is never held in memory as a whole, nor read back
+            try (DigestInputStream input = new DigestInputStream(stream, Checksums.sha256Digest())) {
+                temporaryFile = Files.createTempFile(templateFolder.toPath(), "data.cosmos", ".tmp");
+                Files.copy(input, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+
+                commitTemplate(templateFolder, temporaryFile, serializerName, null, Checksums.format(input.getMessageDigest()));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                deleteQuietly(temporaryFile);
+            }
+        }, executor);
 
         registerFuture(task);
         return task;
     }
 
+    /**
+     * Deletes a temporary file which was not moved into place, if there is one.
+     *
+     * @param file The file, or null
+     */
+    private void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // Leftover temporary files are harmless, they are never read
+        }
+    }
+
+    /**
+     * Writes the metadata of a template, moves its fully written temporary data file into place and records it in the catalog.
+     *
+     * @param templateFolder The folder of the template
+     * @param temporaryFile  The fully written temporary data file
+     * @param serializerName The name of the serializer that produced the data
+     * @param dimensions     The dimensions of the template, or null if unknown
+     * @param checksum       The checksum of the data, computed while it was written
+     */
+    private void commitTemplate(File templateFolder, Path temporaryFile, String serializerName, Cuboid dimensions, String checksum) {
+        File dataFile = new File(templateFolder, "data.cosmos");
+        File metadataFile = new File(templateFolder, "metadata.yml");
+
+        YamlConfiguration yaml = new YamlConfiguration();
+        yaml.set("serializer", serializerName);
+
+        try {
+            yaml.save(metadataFile);
+            Files.move(temporaryFile, dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        String name = templateFolder.getName();
+        TemplateData previous = catalog.get(name);
+        long now = System.currentTimeMillis();
+
+        catalog.put(new TemplateData(
+            name,
+            serializerName,
+            getName(),
+            dataFile.length(),
+            dimensions == null ? 0 : (int) Math.round(dimensions.getWidth()),
+            dimensions == null ? 0 : (int) Math.round(dimensions.getHeight()),
+            dimensions == null ? 0 : (int) Math.round(dimensions.getLength()),
+            checksum,
+            previous == null || previous.getCreatedAt() == 0 ? now : previous.getCreatedAt(),
+            now,
+            plugin.getSerializerRegistry().getVersion(serializerName)
+        ));
+    }
+
     @Override
     public CompletableFuture<Void> deleteTemplate(String name) {
-        CompletableFuture<Void> task = CompletableFuture.runAsync(() -> {
+        CompletableFuture<Void> task = catalogLoaded.thenRunAsync(() -> {
             File templateFolder = new File(worldContainer, name);
 
             if (!templateFolder.exists()) {
@@ -218,44 +398,144 @@ public class FileDataContainer implements CosmosDataContainer {
             metadataFile.delete();
 
             templateFolder.delete();
-        });
+
+            catalog.remove(name);
+        }, executor);
 
         registerFuture(task);
         return task;
     }
 
+    // Chunks are plain files, spread over folders named after the start of their hash, and are kept out of the catalog
+
+    @Override
+    public CompletableFuture<byte[]> fetchChunk(String hash) {
+        return catalogLoaded.thenCompose(irrelevant -> {
+            if (catalog.get(CHUNK_PREFIX + hash) != null) { // stored as a template by an older version
+                return CosmosDataContainer.super.fetchChunk(hash);
+            }
+
+            return readChunk(hash);
+        });
+    }
+
+    private CompletableFuture<byte[]> readChunk(String hash) {
+        return registerFuture(executor.supply(() -> {
+            File file = chunkFile(hash);
+
+            if (!file.exists()) {
+                return null;
+            }
+
+            try {
+                return Files.readAllBytes(file.toPath());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveChunk(String hash, byte[] data) {
+        return registerFuture(executor.run(() -> {
+            File file = chunkFile(hash);
+
+            if (file.exists()) { // chunks are named after their contents, so an existing chunk is already what would be written
+                return;
+            }
+
+            createFolder(file.getParentFile());
+
+            try {
+                Path temporaryFile = Files.createTempFile(file.getParentFile().toPath(), hash, ".tmp");
+
+                try {
+                    Files.write(temporaryFile, data);
+                    Files.move(temporaryFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temporaryFile);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteChunk(String hash) {
+        return catalogLoaded.thenCompose(irrelevant -> {
+            if (catalog.get(CHUNK_PREFIX + hash) != null) {
+                return CosmosDataContainer.super.deleteChunk(hash);
+            }
+
+            return registerFuture(executor.run(() -> chunkFile(hash).delete()));
+        });
+    }
+
+    @Override
+    public CompletableFuture<Collection<String>> fetchAllChunks() {
+        return registerFuture(catalogLoaded.thenApplyAsync(irrelevant -> {
+            List<String> hashes = new ArrayList<>();
+            File[] folders = chunkContainer.listFiles(File::isDirectory);
+
+            if (folders != null) {
+                for (File folder : folders) {
+                    File[] files = folder.listFiles(file -> file.isFile() && !file.getName().endsWith(".tmp"));
+
+                    if (files != null) {
+                        for (File file : files) {
+                            hashes.add(file.getName());
+                        }
+                    }
+                }
+            }
+
+            for (String name : catalog.names()) {
+                if (name.startsWith(CHUNK_PREFIX)) {
+                    hashes.add(name.substring(CHUNK_PREFIX.length()));
+                }
+            }
+
+            return hashes;
+        }, executor));
+    }
+
+    private File chunkFile(String hash) {
+        return new File(new File(chunkContainer, hash.substring(0, 2)), hash);
+    }
+
     @Override
     public CompletableFuture<Void> flush() {
         return CompletableFuture.allOf(runningFutures.toArray(new CompletableFuture[0]));
     }
 
     private <T> CompletableFuture<T> registerFuture(CompletableFuture<T> future) {
-        future.thenRun(() -> runningFutures.remove(future));
-        future.exceptionally(throwable -> {
+        runningFutures.add(future); // added first, so a future which already completed is still removed
+
+        future.whenComplete((irrelevant, throwable) -> {
             runningFutures.remove(future);
-            throwable.printStackTrace();
-            return null;
-        });
 
-        runningFutures.add(future);
+            if (throwable != null) {
+                plugin.getLogger().log(Level.WARNING, "A file container operation failed", throwable);
+            }
+        });
         return future;
     }
 
-    private byte[] readFully(File file) {
-        // Read the file's full contents
+    private InputStream openStream(File file) {
         try {
-            return Files.readAllBytes(file.toPath());
+            return new BufferedInputStream(new FileInputStream(file));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private void writeFully(File file, byte[] data) {
-        // Write the file's full contents
-        try (OutputStream out = new FileOutputStream(file)) {
-            out.write(data);
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
+    private ByteBuffer map(File file) {
+        // The mapping stays valid after the channel is closed, and is released once the buffer is garbage collected
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
 
@@ -2,13 +2,13 @@ package me.illusion.cosmos.database.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import me.illusion.cosmos.database.CosmosDataContainer;
 import me.illusion.cosmos.template.TemplatedArea;
 import me.illusion.cosmos.template.data.TemplateData;
+import me.illusion.cosmos.utilities.geometry.Cuboid;
 
 /**
  * No clue why someone would want to use this, but here it is.
@@ -18,6 +18,7 @@ import me.illusion.cosmos.template.data.TemplateData;
 public class MemoryDataContainer implements CosmosDataContainer {
 
     private final Map<String, TemplatedArea> templates = new ConcurrentHashMap<>();
+    private final Map<String, TemplateData> metadata = new ConcurrentHashMap<>();
 
     @Override
     public CompletableFuture<TemplatedArea> fetchTemplate(String name) {
@@ -27,12 +28,14 @@ public class MemoryDataContainer implements CosmosDataContainer {
     @Override
     public CompletableFuture<Void> saveTemplate(String name, TemplatedArea area) {
         templates.put(name, area);
+        metadata.compute(name, (key, previous) -> createData(name, area, previous));
         return CompletableFuture.completedFuture(null);
     }
 
     @Override
     public CompletableFuture<Void> deleteTemplate(String name) {
         templates.remove(name);
+        metadata.remove(name);
         return CompletableFuture.completedFuture(null);
     }
 
@@ -59,17 +62,30 @@ public class MemoryDataContainer implements CosmosDataContainer {
 
     @Override
     public CompletableFuture<Collection<TemplateData>> fetchAllTemplateData() {
-        List<TemplateData> list = new ArrayList<>();
-        String containerName = getName();
+        return CompletableFuture.completedFuture(new ArrayList<>(metadata.values()));
+    }
 
-        for (Map.Entry<String, TemplatedArea> entry : templates.entrySet()) {
-            String templateName = entry.getKey();
-            String serializerName = entry.getValue().getSerializer().getName();
+    @Override
+    public CompletableFuture<TemplateData> fetchTemplateData(String name) {
+        return CompletableFuture.completedFuture(metadata.get(name));
+    }
 
-            list.add(new TemplateData(templateName, serializerName, containerName));
-        }
+    private TemplateData createData(String name, TemplatedArea area, TemplateData previous) {
+        Cuboid dimensions = area.getDimensions();
+        long now = System.currentTimeMillis();
 
-        return CompletableFuture.completedFuture(list);
+        // Areas are kept as they are, so there is no stored size or checksum to report
+        return TemplateData.builder()
+            .templateName(name)
+            .serializerName(area.getSerializer().getName())
+            .containerName(getName())
+            .width(dimensions == null ? 0 : (int) Math.round(dimensions.getWidth()))
+            .height(dimensions == null ? 0 : (int) Math.round(dimensions.getHeight()))
+            .length(dimensions == null ? 0 : (int) Math.round(dimensions.getLength()))
+            .createdAt(previous == null ? now : previous.getCreatedAt())
+            .updatedAt(now)
+            .serializerVersion(area.getSerializer().getVersion())
+            .build();
     }
 
     @Override
@@ -0,0 +1,1010 @@
+package me.illusion.cosmos.database.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import me.illusion.cosmos.CosmosPlugin;
+import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.executor.CosmosExecutor;
+import me.illusion.cosmos.serialization.CosmosSerializer;
+import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.data.RawTemplate;
+import me.illusion.cosmos.template.data.TemplateData;
+import me.illusion.cosmos.utilities.geometry.Cuboid;
+import me.illusion.cosmos.utilities.io.Checksums;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * A log-structured container, which appends every template to a small amount of large segment files instead of creating a folder per template. Saves are a
+ * single sequential write, and fetches a single positioned read, regardless of how many templates are stored.
+ * <p>
+ * Every record is checksummed, and the location and metadata of every template is kept in memory and checkpointed to an index file once enough of the log was
+ * written since the last checkpoint, and when the container is closed. On startup, records written after the index was persisted are replayed, and a torn
+ * record at the end of the log is truncated away, while a bad record anywhere else fails the container instead of losing the templates after it. Overwritten
+ * and deleted templates leave dead records behind, which are reclaimed in the background by copying the live records of mostly dead segments to the end of the
+ * log.
+ *
+ * @author Illusion
+ */
+public class PackDataContainer implements CosmosDataContainer {
+
+    private static final int RECORD_MAGIC = 0x43535052; // "CSPR"
+    private static final int INDEX_MAGIC = 0x43535049; // "CSPI"
+    private static final int INDEX_VERSION = 1;
+
+    private static final int HEADER_SIZE = 12; // magic, body length, crc
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    private final CosmosPlugin plugin;
+    private final List<CompletableFuture<?>> runningFutures = new ArrayList<>();
+
+    private final Map<String, IndexEntry> index = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+    private final Object appendLock = new Object(); // appends, rotations and index updates of the log happen one at a time
+    private final ReadWriteLock segmentsLock = new ReentrantReadWriteLock(); // segments are only closed and deleted while no one reads them
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    private File folder;
+    private CosmosExecutor executor;
+    private ScheduledExecutorService compactor;
+
+    private Segment active; // guarded by appendLock
+    private long uncheckpointed; // guarded by appendLock, bytes appended since the index was last persisted
+    private long checkpointSize;
+    private long segmentSize;
+    private double compactionThreshold;
+    private boolean sync;
+
+    public PackDataContainer(CosmosPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> enable(ConfigurationSection section) {
+        folder = new File(plugin.getDataFolder(), section == null ? "packs" : section.getString("folder", "packs"));
+        segmentSize = Math.max(1, section == null ? 64 : section.getLong("segment-size", 64)) * 1024 * 1024;
+        compactionThreshold = section == null ? 0.5 : section.getDouble("compaction-threshold", 0.5);
+        sync = section != null && section.getBoolean("sync", false);
+        checkpointSize = Math.max(1, section == null ? 16 : section.getLong("index-checkpoint-size", 16)) * 1024 * 1024;
+
+        long compactionInterval = Math.max(1, section == null ? 60 : section.getLong("compaction-interval", 60));
+        executor = plugin.getExecutorRegistry().get(getName());
+
+        return registerFuture(executor.supply(() -> {
+            try {
+                folder.mkdirs();
+                load();
+            } catch (IOException e) {
+                plugin.getLogger().severe("Could not open the pack container: " + e.getMessage());
+                closeSegments();
+                return false;
+            }
+
+            compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("cosmos-pack-compactor")
+                .setDaemon(true)
+                .build());
+            compactor.scheduleWithFixedDelay(this::compact, compactionInterval, compactionInterval, TimeUnit.SECONDS);
+            return true;
+        }));
+    }
+
+    @Override
+    public String getName() {
+        return "pack";
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> fetchTemplate(String name) {
+        return fetchRaw(name).thenCompose(raw -> {
+            if (raw == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            CosmosSerializer serializer = plugin.getSerializerRegistry().get(raw.getSerializerName());
+
+            if (serializer == null) {
+                plugin.getLogger().warning("Could not find serializer " + raw.getSerializerName() + " for template " + name);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            return serializer.deserialize(raw.getData());
+        });
+    }
+
+    @Override
+    public CompletableFuture<InputStream> fetchTemplateStream(String name) {
+        return fetchRaw(name).thenApply(raw -> raw == null ? null : new ByteArrayInputStream(raw.getData()));
+    }
+
+    @Override
+    public CompletableFuture<RawTemplate> fetchRaw(String name) {
+        return registerFuture(executor.supply(() -> read(name)));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveTemplate(String name, TemplatedArea area) {
+        CosmosSerializer serializer = area.getSerializer();
+
+        return registerFuture(serializer.serialize(area)
+            .thenAcceptAsync(data -> append(List.of(createPut(name, new RawTemplate(serializer.getName(), data, area.getDimensions())))), executor));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, String serializerName, byte[] data) {
+        return saveRaw(name, new RawTemplate(serializerName, data));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, RawTemplate raw) {
+        return registerFuture(executor.run(() -> append(List.of(createPut(name, raw)))));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRawTemplates(Map<String, RawTemplate> templates) {
+        return registerFuture(executor.run(() -> {
+            List<PendingRecord> records = new ArrayList<>();
+
+            for (Map.Entry<String, RawTemplate> entry : templates.entrySet()) {
+                records.add(createPut(entry.getKey(), entry.getValue()));
+            }
+
+            append(records); // a single sequential write, and a single sync
+        }));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteTemplate(String name) {
+        return registerFuture(executor.run(() -> {
+            if (index.containsKey(name)) {
+                append(List.of(createDelete(name)));
+            }
+        }));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteTemplates(Collection<String> names) {
+        return registerFuture(executor.run(() -> {
+            List<PendingRecord> records = new ArrayList<>();
+
+            for (String name : names) {
+                if (index.containsKey(name)) {
+                    records.add(createDelete(name));
+                }
+            }
+
+            append(records);
+        }));
+    }
+
+    @Override
+    public CompletableFuture<String> fetchTemplateChecksum(String name) {
+        IndexEntry entry = index.get(name);
+        return CompletableFuture.completedFuture(entry == null ? null : entry.data.getChecksum());
+    }
+
+    @Override
+    public CompletableFuture<String> fetchTemplateSerializer(String name) {
+        IndexEntry entry = index.get(name);
+        return CompletableFuture.completedFuture(entry == null ? null : entry.data.getSerializerName());
+    }
+
+    @Override
+    public CompletableFuture<TemplateData> fetchTemplateData(String name) {
+        IndexEntry entry = index.get(name);
+        return CompletableFuture.completedFuture(entry == null ? null : entry.data);
+    }
+
+    @Override
+    public CompletableFuture<Collection<String>> fetchAllTemplates() {
+        return CompletableFuture.completedFuture(new ArrayList<>(index.keySet()));
+    }
+
+    @Override
+    public CompletableFuture<Collection<TemplateData>> fetchAllTemplateData() {
+        List<TemplateData> templates = new ArrayList<>();
+
+        for (IndexEntry entry : index.values()) {
+            templates.add(entry.data);
+        }
+
+        return CompletableFuture.completedFuture(templates);
+    }
+
+    /**
+     * Forces the log to the disk. The index is only persisted once enough was written since its last checkpoint, as every record after the checkpoint is
+     * replayed on startup anyway.
+     */
+    @Override
+    public CompletableFuture<Void> flush() {
+        return CompletableFuture.allOf(runningFutures.toArray(new CompletableFuture[0])).thenRunAsync(() -> {
+            synchronized (appendLock) {
+                try {
+                    if (active == null) {
+                        return;
+                    }
+
+                    active.channel.force(false);
+
+                    if (uncheckpointed >= checkpointSize) {
+                        saveIndex();
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, executor);
+    }
+
+    /**
+     * Stops compaction, persists the index and closes every segment, so the next startup has nothing to replay.
+     */
+    @Override
+    public CompletableFuture<Void> close() {
+        if (compactor != null) {
+            compactor.shutdownNow(); // a running compaction finishes its current segment on the container's executor
+
+            try {
+                compactor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        CompletableFuture<Void> pending = CompletableFuture.allOf(runningFutures.toArray(new CompletableFuture[0]));
+
+        return pending.handle((irrelevant, throwable) -> null).thenRun(() -> {
+            segmentsLock.writeLock().lock();
+
+            try {
+                synchronized (appendLock) {
+                    if (active != null) {
+                        active.channel.force(false);
+                        saveIndex();
+                        active = null;
+                    }
+
+                    closeSegments();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                segmentsLock.writeLock().unlock();
+            }
+        });
+    }
+
+    @Override
+    public boolean requiresCredentials() {
+        return false;
+    }
+
+    /**
+     * Obtains the total size of the segment files, in bytes.
+     *
+     * @return The size of the log
+     */
+    public long getLogSize() {
+        long size = 0;
+
+        for (Segment segment : segments.values()) {
+            size += segment.size.get();
+        }
+
+        return size;
+    }
+
+    /**
+     * Obtains the size of the records which were overwritten or deleted, and are yet to be reclaimed by compaction.
+     *
+     * @return The size of the dead records, in bytes
+     */
+    public long getDeadSize() {
+        long size = 0;
+
+        for (Segment segment : segments.values()) {
+            size += segment.dead.get();
+        }
+
+        return size;
+    }
+
+    private RawTemplate read(String name) {
+        for (int attempt = 0; attempt < 2; attempt++) { // the template may have been moved by compaction between the lookup and the read
+            IndexEntry entry = index.get(name);
+
+            if (entry == null) {
+                return null;
+            }
+
+            segmentsLock.readLock().lock();
+
+            try {
+                Segment segment = segments.get(entry.segment);
+
+                if (segment == null) {
+                    continue;
+                }
+
+                ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+                readFully(segment.channel, buffer, entry.offset);
+
+                DataInputStream body = openBody(buffer.array(), entry.length);
+
+                if (body == null || body.readByte() != PUT || !body.readUTF().equals(name)) {
+                    throw new IOException("Corrupted record for template " + name + " in segment " + entry.segment);
+                }
+
+                return readPut(body, name).raw;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                segmentsLock.readLock().unlock();
+            }
+        }
+
+        return null;
+    }
+
+    private void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+
+            if (read < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Validates a record and opens its body.
+     *
+     * @param record The record, starting with its header
+     * @param length The length of the record
+     * @return The body, or null if the record is torn or corrupted
+     */
+    private DataInputStream openBody(byte[] record, int length) {
+        if (length < HEADER_SIZE) {
+            return null;
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(record, 0, HEADER_SIZE);
+        int magic = header.getInt();
+        int bodyLength = header.getInt();
+        int crc = header.getInt();
+
+        if (magic != RECORD_MAGIC || bodyLength != length - HEADER_SIZE || crc(record, HEADER_SIZE, bodyLength) != crc) {
+            return null;
+        }
+
+        return new DataInputStream(new ByteArrayInputStream(record, HEADER_SIZE, bodyLength));
+    }
+
+    private Put readPut(DataInputStream body, String name) throws IOException {
+        String serializer = body.readUTF();
+        String checksum = body.readUTF();
+        int width = body.readInt();
+        int height = body.readInt();
+        int length = body.readInt();
+        long created = body.readLong();
+        long updated = body.readLong();
+        int serializerVersion = body.readInt();
+        byte[] data = body.readNBytes(body.readInt());
+
+        Cuboid dimensions = width == 0 && height == 0 && length == 0 ? null : new Cuboid(0, 0, 0, width, height, length);
+        TemplateData metadata = new TemplateData(name, serializer, getName(), data.length, width, height, length, checksum, created, updated, serializerVersion);
+
+        return new Put(new RawTemplate(serializer, data, dimensions), metadata);
+    }
+
+    private PendingRecord createPut(String name, RawTemplate raw) {
+        byte[] data = raw.getData();
+        Cuboid dimensions = raw.getDimensions();
+        int width = dimensions == null ? 0 : (int) Math.round(dimensions.getWidth());
+        int height = dimensions == null ? 0 : (int) Math.round(dimensions.getHeight());
+        int length = dimensions == null ? 0 : (int) Math.round(dimensions.getLength());
+
+        IndexEntry previous = index.get(name);
+        long now = System.currentTimeMillis();
+        long created = previous == null ? now : previous.data.getCreatedAt();
+        int serializerVersion = plugin.getSerializerRegistry().getVersion(raw.getSerializerName());
+        String checksum = Checksums.sha256(data);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 256);
+
+        try (DataOutputStream body = new DataOutputStream(bytes)) {
+            body.writeByte(PUT);
+            body.writeUTF(name);
+            body.writeUTF(raw.getSerializerName());
+            body.writeUTF(checksum);
+            body.writeInt(width);
+            body.writeInt(height);
+            body.writeInt(length);
+            body.writeLong(created);
+            body.writeLong(now);
+            body.writeInt(serializerVersion);
+            body.writeInt(data.length);
+            body.write(data);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // in-memory streams don't throw
+        }
+
+        TemplateData metadata = new TemplateData(name, raw.getSerializerName(), getName(), data.length, width, height, length, checksum, created, now,
+            serializerVersion);
+
+        return new PendingRecord(name, frame(bytes.toByteArray()), metadata);
+    }
+
+    private PendingRecord createDelete(String name) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream body = new DataOutputStream(bytes)) {
+            body.writeByte(DELETE);
+            body.writeUTF(name);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return new PendingRecord(name, frame(bytes.toByteArray()), null);
+    }
+
+    private byte[] frame(byte[] body) {
+        return ByteBuffer.allocate(HEADER_SIZE + body.length)
+            .putInt(RECORD_MAGIC)
+            .putInt(body.length)
+            .putInt(crc(body, 0, body.length))
+            .put(body)
+            .array();
+    }
+
+    /**
+     * Appends records to the log, and applies them to the index once they are written.
+     *
+     * @param records The records to append
+     */
+    private void append(List<PendingRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+
+        segmentsLock.readLock().lock();
+
+        try {
+            synchronized (appendLock) {
+                for (PendingRecord record : records) {
+                    long offset = write(record.bytes);
+                    apply(record.name, record.metadata, active.id, offset, record.bytes.length);
+                }
+
+                if (sync) {
+                    active.channel.force(false);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes a record at the end of the active segment, rotating it first if the record doesn't fit. Must be called while holding the append lock.
+     *
+     * @param record The record
+     * @return The offset of the record in the active segment
+     */
+    private long write(byte[] record) throws IOException {
+        if (active.size.get() > 0 && active.size.get() + record.length > segmentSize) {
+            active.channel.force(false);
+            active = openSegment(active.id + 1);
+            segments.put(active.id, active);
+        }
+
+        long offset = active.size.get();
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+
+        while (buffer.hasRemaining()) {
+            active.channel.write(buffer, offset + buffer.position());
+        }
+
+        active.size.addAndGet(record.length);
+        uncheckpointed += record.length;
+        return offset;
+    }
+
+    /**
+     * Applies a written record to the index, and accounts for the records it makes dead.
+     */
+    private void apply(String name, TemplateData metadata, int segment, long offset, int length) {
+        IndexEntry previous = metadata == null ? index.remove(name) : index.put(name, new IndexEntry(segment, offset, length, metadata));
+
+        if (previous != null) {
+            markDead(previous.segment, previous.length);
+        }
+
+        if (metadata == null) {
+            markDead(segment, length); // tombstones are only kept to replay deletions
+        }
+    }
+
+    private void markDead(int segment, long length) {
+        Segment owner = segments.get(segment);
+
+        if (owner != null) {
+            owner.dead.addAndGet(length);
+        }
+    }
+
+    private void load() throws IOException {
+        index.clear();
+        segments.clear();
+
+        File[] files = folder.listFiles((directory, name) -> name.endsWith(".pack"));
+        List<Integer> ids = new ArrayList<>();
+
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    ids.add(Integer.parseInt(file.getName().substring(0, file.getName().length() - ".pack".length())));
+                } catch (NumberFormatException ignored) {
+                    // not one of ours
+                }
+            }
+        }
+
+        ids.sort(Integer::compare);
+
+        IndexState state = loadIndex();
+        int replayFrom = state == null ? Integer.MIN_VALUE : state.segment;
+
+        for (int id : ids) {
+            if (state != null && id < replayFrom && !state.deadBytes.containsKey(id)) {
+                // A segment which was compacted away after the index was persisted
+                new File(folder, segmentName(id)).delete();
+                continue;
+            }
+
+            Segment segment = openSegment(id);
+            segments.put(id, segment);
+
+            if (state != null && state.deadBytes.containsKey(id)) {
+                segment.dead.set(state.deadBytes.get(id));
+            }
+        }
+
+        Integer last = segments.isEmpty() ? null : segments.lastKey();
+
+        for (Segment segment : segments.values()) {
+            if (segment.id < replayFrom) {
+                continue;
+            }
+
+            replay(segment, segment.id == replayFrom ? state.offset : 0, segment.id == last);
+        }
+
+        if (segments.isEmpty()) {
+            Segment first = openSegment(1);
+            segments.put(first.id, first);
+        }
+
+        synchronized (appendLock) {
+            active = segments.lastEntry().getValue();
+            saveIndex();
+        }
+
+        plugin.getLogger().info("Loaded " + index.size() + " templates from " + segments.size() + " pack segments");
+    }
+
+    /**
+     * Replays the records of a segment onto the index, starting at an offset. A torn record at the end of the last segment is what a crash mid-write leaves
+     * behind, so the segment is truncated there. Earlier segments were synced before the log moved on, so a bad record in one of them is corruption, and
+     * truncating it would silently drop every template after it.
+     *
+     * @param segment The segment
+     * @param from    The offset to start at
+     * @param last    Whether the segment is the last one of the log, which is the only one that may end in a torn record
+     * @throws IOException If an earlier segment holds a bad record
+     */
+    private void replay(Segment segment, long from, boolean last) throws IOException {
+        long offset = from;
+        long size = segment.channel.size();
+
+        while (offset + HEADER_SIZE <= size) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(segment.channel, header, offset);
+            header.flip();
+
+            int magic = header.getInt();
+            int bodyLength = header.getInt();
+
+            if (magic != RECORD_MAGIC || bodyLength < 0 || offset + HEADER_SIZE + bodyLength > size) {
+                break;
+            }
+
+            int length = HEADER_SIZE + bodyLength;
+            ByteBuffer record = ByteBuffer.allocate(length);
+            readFully(segment.channel, record, offset);
+
+            DataInputStream body = openBody(record.array(), length);
+
+            if (body == null) {
+                break;
+            }
+
+            byte type = body.readByte();
+            String name = body.readUTF();
+
+            if (type == PUT) {
+                apply(name, readPut(body, name).metadata, segment.id, offset, length);
+            } else {
+                apply(name, null, segment.id, offset, length);
+            }
+
+            offset += length;
+        }
+
+        if (offset < size && !last) {
+            throw new IOException("Corrupted record at " + offset + " in sealed pack segment " + segment.id + ", restore it from a backup or remove it");
+        }
+
+        if (offset < size) {
+            plugin.getLogger().warning("Truncating " + (size - offset) + " bytes of torn records at the end of pack segment " + segment.id);
+            segment.channel.truncate(offset);
+        }
+
+        segment.size.set(offset);
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        FileChannel channel = FileChannel.open(new File(folder, segmentName(id)).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+
+        return new Segment(id, channel, channel.size());
+    }
+
+    private void closeSegments() {
+        for (Segment segment : segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (IOException ignored) {
+                // nothing else to release
+            }
+        }
+
+        segments.clear();
+    }
+
+    private String segmentName(int id) {
+        return String.format("%08d.pack", id);
+    }
+
+    private IndexState loadIndex() {
+        File file = new File(folder, "index.bin");
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (input.readInt() != INDEX_MAGIC || input.readUnsignedByte() != INDEX_VERSION) {
+                throw new IOException("Not a pack index");
+            }
+
+            IndexState state = new IndexState(input.readInt(), input.readLong());
+            int segmentCount = input.readInt();
+
+            for (int index = 0; index < segmentCount; index++) {
+                state.deadBytes.put(input.readInt(), input.readLong());
+            }
+
+            int entryCount = input.readInt();
+
+            for (int entry = 0; entry < entryCount; entry++) {
+                String name = input.readUTF();
+                int segment = input.readInt();
+                long offset = input.readLong();
+                int length = input.readInt();
+
+                TemplateData data = new TemplateData(name, input.readUTF(), getName(), input.readLong(), input.readInt(), input.readInt(), input.readInt(),
+                    input.readUTF(), input.readLong(), input.readLong(), input.readInt());
+
+                index.put(name, new IndexEntry(segment, offset, length, data));
+            }
+
+            return state;
+        } catch (IOException e) {
+            plugin.getLogger().warning("Could not read the pack index, replaying every segment instead: " + e.getMessage());
+            index.clear();
+            return null;
+        }
+    }
+
+    /**
+     * Persists the index, along with the position of the log it covers, as a checkpoint records after that position are replayed from. Must be called while
+     * holding the append lock.
+     */
+    private void saveIndex() throws IOException {
+        File temporaryFile = File.createTempFile("index", ".tmp", folder);
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile.toPath())))) {
+            output.writeInt(INDEX_MAGIC);
+            output.writeByte(INDEX_VERSION);
+            output.writeInt(active.id);
+            output.writeLong(active.size.get());
+
+            output.writeInt(segments.size());
+
+            for (Segment segment : segments.values()) {
+                output.writeInt(segment.id);
+                output.writeLong(segment.dead.get());
+            }
+
+            output.writeInt(index.size());
+
+            for (Map.Entry<String, IndexEntry> entry : index.entrySet()) {
+                IndexEntry value = entry.getValue();
+                TemplateData data = value.data;
+
+                output.writeUTF(entry.getKey());
+                output.writeInt(value.segment);
+                output.writeLong(value.offset);
+                output.writeInt(value.length);
+
+                output.writeUTF(data.getSerializerName());
+                output.writeLong(data.getSize());
+                output.writeInt(data.getWidth());
+                output.writeInt(data.getHeight());
+                output.writeInt(data.getLength());
+                output.writeUTF(data.getChecksum());
+                output.writeLong(data.getCreatedAt());
+                output.writeLong(data.getUpdatedAt());
+                output.writeInt(data.getSerializerVersion());
+            }
+        }
+
+        Files.move(temporaryFile.toPath(), new File(folder, "index.bin").toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        uncheckpointed = 0;
+    }
+
+    private void compact() {
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            for (Segment segment : new ArrayList<>(segments.values())) {
+                boolean isActive;
+
+                synchronized (appendLock) {
+                    isActive = segment == active;
+                }
+
+                long size = segment.size.get();
+
+                if (isActive || size == 0 || segment.dead.get() < size * compactionThreshold) {
+                    continue;
+                }
+
+                executor.run(() -> compact(segment)).join(); // one segment at a time, on the container's own threads
+            }
+        } catch (Exception e) {
+            plugin.getLogger().warning("Could not compact the pack container: " + e.getMessage());
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    /**
+     * Copies the live records of a segment to the end of the log, persists the index, and deletes the segment.
+     */
+    private void compact(Segment segment) {
+        long before = segment.size.get();
+        long copied = 0;
+
+        try {
+            long offset = 0;
+
+            while (offset < before) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(segment.channel, header, offset);
+                header.flip();
+                header.getInt();
+
+                int length = HEADER_SIZE + header.getInt();
+                ByteBuffer record = ByteBuffer.allocate(length);
+                readFully(segment.channel, record, offset);
+
+                DataInputStream body = openBody(record.array(), length);
+
+                if (body == null) {
+                    throw new IOException("Corrupted record at " + offset + " in pack segment " + segment.id);
+                }
+
+                byte type = body.readByte();
+                String name = body.readUTF();
+
+                if (copy(segment, offset, name, type, record.array())) {
+                    copied += length;
+                }
+
+                offset += length;
+            }
+
+            synchronized (appendLock) {
+                active.channel.force(false);
+                segments.remove(segment.id);
+                saveIndex(); // the copies are durable and indexed before the segment disappears
+            }
+        } catch (IOException e) {
+            plugin.getLogger().warning("Could not compact pack segment " + segment.id + ": " + e.getMessage());
+            return;
+        }
+
+        segmentsLock.writeLock().lock();
+
+        try {
+            segment.channel.close();
+        } catch (IOException ignored) {
+            // the segment is being deleted anyway
+        } finally {
+            segmentsLock.writeLock().unlock();
+        }
+
+        new File(folder, segmentName(segment.id)).delete();
+        plugin.getLogger().info("Compacted pack segment " + segment.id + ", reclaimed " + (before - copied) / 1024 + " KB");
+    }
+
+    /**
+     * Copies a record of a segment being compacted to the end of the log, if it is still needed.
+     *
+     * @return Whether the record was copied
+     */
+    private boolean copy(Segment segment, long offset, String name, byte type, byte[] record) throws IOException {
+        synchronized (appendLock) {
+            IndexEntry entry = index.get(name);
+
+            if (type == PUT) {
+                if (entry == null || entry.segment != segment.id || entry.offset != offset) {
+                    return false; // overwritten or deleted since
+                }
+
+                index.put(name, new IndexEntry(active.id, write(record), record.length, entry.data));
+                return true;
+            }
+
+            // Tombstones still matter while an older segment may hold the record they deleted, unless the template was saved again since
+            if (entry != null || !hasOlderSegments(segment)) {
+                return false;
+            }
+
+            write(record);
+            markDead(active.id, record.length);
+            return true;
+        }
+    }
+
+    private boolean hasOlderSegments(Segment segment) {
+        return segments.firstKey() < segment.id;
+    }
+
+    private <T> CompletableFuture<T> registerFuture(CompletableFuture<T> future) {
+        synchronized (runningFutures) {
+            runningFutures.add(future);
+        }
+
+        future.whenComplete((irrelevant, throwable) -> {
+            synchronized (runningFutures) {
+                runningFutures.remove(future);
+            }
+
+            if (throwable != null) {
+                plugin.getLogger().log(Level.WARNING, "A pack container operation failed", throwable);
+            }
+        });
+
+        return future;
+    }
+
+    private int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static class Segment {
+
+        private final int id;
+        private final FileChannel channel;
+        private final AtomicLong size;
+        private final AtomicLong dead = new AtomicLong();
+
+        private Segment(int id, FileChannel channel, long size) {
+            this.id = id;
+            this.channel = channel;
+            this.size = new AtomicLong(size);
+        }
+    }
+
+    private static class IndexEntry {
+
+        private final int segment;
+        private final long offset;
+        private final int length;
+        private final TemplateData data;
+
+        private IndexEntry(int segment, long offset, int length, TemplateData data) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.data = data;
+        }
+    }
+
+    private static class IndexState {
+
+        private final int segment;
+        private final long offset;
+        private final Map<Integer, Long> deadBytes = new ConcurrentHashMap<>();
+
+        private IndexState(int segment, long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    private static class PendingRecord {
+
+        private final String name;
+        private final byte[] bytes;
+        private final TemplateData metadata; // null for deletions
+
+        private PendingRecord(String name, byte[] bytes, TemplateData metadata) {
+            this.name = name;
+            this.bytes = bytes;
+            this.metadata = metadata;
+        }
+    }
+
+    private static class Put {
+
+        private final RawTemplate raw;
+        private final TemplateData metadata;
+
+        private Put(RawTemplate raw, TemplateData metadata) {
+            this.raw = raw;
+            this.metadata = metadata;
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package me.illusion.cosmos.database.impl;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.InputStream;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import me.illusion.cosmos.CosmosPlugin;
 import me.illusion.cosmos.database.base.CosmosSQLQuery;
 import me.illusion.cosmos.database.base.SQLDataContainer;
@@ -12,11 +15,16 @@ import org.bukkit.configuration.ConfigurationSection;
 public class SQLiteDataContainer extends SQLDataContainer {
 
     private static final String FETCH_TEMPLATE = "SELECT * FROM %s WHERE template_id = ?";
+    private static final String FETCH_TEMPLATES = "SELECT * FROM %s WHERE template_id IN (%s)";
     private static final String FETCH_TEMPLATE_SERIALIZER = "SELECT template_serializer FROM %s WHERE template_id = ?";
-    private static final String SAVE_TEMPLATE = "INSERT OR REPLACE INTO %s (template_id, template_serializer, template_data) VALUES (?, ?, ?);";
+    private static final String FETCH_TEMPLATE_CHECKSUM = "SELECT template_checksum FROM %s WHERE template_id = ?";
+    private static final String SAVE_TEMPLATE = "INSERT INTO %s (template_id, template_serializer, template_data, template_checksum, template_size, template_width, template_height, template_length, template_created, template_updated, template_serializer_version) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (template_id) DO UPDATE SET template_serializer=EXCLUDED.template_serializer, template_data=EXCLUDED.template_data, template_checksum=EXCLUDED.template_checksum, template_size=EXCLUDED.template_size, template_width=EXCLUDED.template_width, template_height=EXCLUDED.template_height, template_length=EXCLUDED.template_length, template_updated=EXCLUDED.template_updated, template_serializer_version=EXCLUDED.template_serializer_version"; // template_created is only set on insert
     private static final String DELETE_TEMPLATE = "DELETE FROM %s WHERE template_id = ?";
+    private static final String DELETE_TEMPLATES = "DELETE FROM %s WHERE template_id IN (%s)";
     private static final String FETCH_ALL = "SELECT * FROM %s";
-    private static final String FETCH_ALL_NO_DATA = "SELECT template_id, template_serializer FROM %s";
+    private static final String FETCH_ALL_NO_DATA = "SELECT template_id, template_serializer, template_checksum, template_size, template_width, template_height, template_length, template_created, template_updated, template_serializer_version FROM %s";
+    private static final String FETCH_TEMPLATE_PAGE = "SELECT template_id FROM %s WHERE template_id > ? ORDER BY template_id LIMIT ?";
+    private static final String FETCH_TEMPLATE_DATA = "SELECT template_id, template_serializer, template_checksum, template_size, template_width, template_height, template_length, template_created, template_updated, template_serializer_version FROM %s WHERE template_id = ?";
 
     private final File file;
 
@@ -31,6 +39,15 @@ public class SQLiteDataContainer extends SQLDataContainer {
     }
 
 
+    /**
+     * SQLite is accessed through a single connection, which a stream would keep borrowed until it is closed, stalling every other operation of the container
+     * meanwhile. The row is read in full instead, which is cheap as the database is a local file.
+     */
+    @Override
+    public CompletableFuture<InputStream> fetchTemplateStream(String name) {
+        return fetchRaw(name).thenApply(raw -> raw == null ? null : new ByteArrayInputStream(raw.getData()));
+    }
+
     @Override
     public SQLConnectionProvider getSQLConnectionProvider(ConfigurationSection section) {
         return new SQLiteConnectionProvider(file);
@@ -38,13 +55,18 @@ public class SQLiteDataContainer extends SQLDataContainer {
 
     @Override
     protected Map<CosmosSQLQuery, String> getQueries() {
-        return Map.of(
-            CosmosSQLQuery.FETCH_ALL, FETCH_ALL,
-            CosmosSQLQuery.FETCH_TEMPLATE, FETCH_TEMPLATE,
-            CosmosSQLQuery.FETCH_TEMPLATE_SERIALIZER, FETCH_TEMPLATE_SERIALIZER,
-            CosmosSQLQuery.STORE_TEMPLATE, SAVE_TEMPLATE,
-            CosmosSQLQuery.DELETE_TEMPLATE, DELETE_TEMPLATE,
-            CosmosSQLQuery.FETCH_ALL_NO_DATA, FETCH_ALL_NO_DATA
+        return Map.ofEntries(
+            Map.entry(CosmosSQLQuery.FETCH_ALL, FETCH_ALL),
+            Map.entry(CosmosSQLQuery.FETCH_TEMPLATE, FETCH_TEMPLATE),
+            Map.entry(CosmosSQLQuery.FETCH_TEMPLATES, FETCH_TEMPLATES),
+            Map.entry(CosmosSQLQuery.FETCH_TEMPLATE_SERIALIZER, FETCH_TEMPLATE_SERIALIZER),
+            Map.entry(CosmosSQLQuery.FETCH_TEMPLATE_CHECKSUM, FETCH_TEMPLATE_CHECKSUM),
+            Map.entry(CosmosSQLQuery.STORE_TEMPLATE, SAVE_TEMPLATE),
+            Map.entry(CosmosSQLQuery.DELETE_TEMPLATE, DELETE_TEMPLATE),
+            Map.entry(CosmosSQLQuery.DELETE_TEMPLATES, DELETE_TEMPLATES),
+            Map.entry(CosmosSQLQuery.FETCH_ALL_NO_DATA, FETCH_ALL_NO_DATA),
+            Map.entry(CosmosSQLQuery.FETCH_TEMPLATE_DATA, FETCH_TEMPLATE_DATA),
+            Map.entry(CosmosSQLQuery.FETCH_TEMPLATE_PAGE, FETCH_TEMPLATE_PAGE)
         );
     }
 
@@ -0,0 +1,278 @@
+package me.illusion.cosmos.database.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import me.illusion.cosmos.template.data.TemplateData;
+
+/**
+ * The metadata catalog of the file container, holding the {@link TemplateData} of every template in a single binary file, so listings don't have to read a
+ * metadata file per template.
+ * <p>
+ * The catalog is an append-only log, every save and delete appends a single record instead of rewriting the catalog. The log is replayed on load, a record
+ * which was cut short by a crash is dropped, and the log is compacted into one record per template once it holds mostly outdated records. Compaction writes
+ * a temporary file and moves it into place, so a crash never leaves a half-written catalog behind.
+ *
+ * @author Illusion
+ */
+class TemplateCatalog {
+
+    private static final int MAGIC = 0x43534354; // "CSCT"
+    private static final int SNAPSHOT_VERSION = 1; // a count followed by every entry, as written by older versions
+    private static final int VERSION = 2;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private final File file;
+    private final String containerName;
+    private final Logger logger;
+
+    private final Map<String, TemplateData> entries = new ConcurrentHashMap<>();
+    private int records; // guarded by this, records in the log, outdated ones included
+
+    TemplateCatalog(File file, String containerName, Logger logger) {
+        this.file = file;
+        this.containerName = containerName;
+        this.logger = logger;
+    }
+
+    /**
+     * Loads the catalog from disk, replacing the entries in memory. A missing or unreadable catalog results in an empty one.
+     */
+    synchronized void load() {
+        entries.clear();
+        records = 0;
+
+        if (!file.exists()) {
+            return;
+        }
+
+        boolean rewrite = false;
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Not a template catalog");
+            }
+
+            int version = input.readUnsignedByte();
+
+            if (version == SNAPSHOT_VERSION) {
+                int count = input.readInt();
+
+                for (int index = 0; index < count; index++) {
+                    TemplateData data = read(input);
+                    entries.put(data.getTemplateName(), data);
+                }
+
+                rewrite = true; // converted to a log
+            } else if (version == VERSION) {
+                rewrite = !replay(input);
+            } else {
+                throw new IOException("Unsupported template catalog version " + version);
+            }
+        } catch (IOException e) {
+            logger.warning("Could not load the template catalog, it will be rebuilt: " + e.getMessage());
+            entries.clear();
+            rewrite = true;
+        }
+
+        if (rewrite) {
+            compact();
+        }
+    }
+
+    /**
+     * Replays the records of the log.
+     *
+     * @return Whether the log ended cleanly, rather than with a record which was cut short
+     */
+    private boolean replay(DataInputStream input) throws IOException {
+        while (true) {
+            byte type;
+
+            try {
+                type = input.readByte();
+            } catch (EOFException e) {
+                return true;
+            }
+
+            try {
+                if (type == PUT) {
+                    TemplateData data = read(input);
+                    entries.put(data.getTemplateName(), data);
+                } else if (type == REMOVE) {
+                    entries.remove(input.readUTF());
+                } else {
+                    throw new IOException("Unknown template catalog record " + type);
+                }
+            } catch (EOFException e) {
+                return false; // appending after it would make the next load misread every later record, so the log is rewritten
+            }
+
+            records++;
+        }
+    }
+
+    TemplateData get(String name) {
+        return entries.get(name);
+    }
+
+    Collection<TemplateData> values() {
+        return new ArrayList<>(entries.values());
+    }
+
+    Collection<String> names() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /**
+     * Records the metadata of a saved template.
+     *
+     * @param data The metadata
+     */
+    synchronized void put(TemplateData data) {
+        entries.put(data.getTemplateName(), data);
+        append(output -> {
+            output.writeByte(PUT);
+            write(output, data);
+        });
+    }
+
+    /**
+     * Forgets a deleted template.
+     *
+     * @param name The name of the template
+     * @return Whether the template was in the catalog
+     */
+    synchronized boolean remove(String name) {
+        if (entries.remove(name) == null) {
+            return false;
+        }
+
+        append(output -> {
+            output.writeByte(REMOVE);
+            output.writeUTF(name);
+        });
+        return true;
+    }
+
+    private void append(RecordWriter writer) {
+        // Once most records are outdated, the log is rewritten with only the current entries, which already include this record
+        if (records > 1024 && records > entries.size() * 4) {
+            compact();
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            if (!file.exists() || file.length() == 0) {
+                writeHeader(output);
+            }
+
+            writer.write(output);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // in-memory streams don't throw
+        }
+
+        try {
+            Files.write(file.toPath(), bytes.toByteArray(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        records++;
+    }
+
+    /**
+     * Rewrites the log with a single record per template.
+     */
+    private void compact() {
+        Collection<TemplateData> snapshot = new ArrayList<>(entries.values());
+
+        try {
+            File temporaryFile = File.createTempFile("catalog", ".tmp", file.getParentFile());
+
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile.toPath())))) {
+                writeHeader(output);
+
+                for (TemplateData data : snapshot) {
+                    output.writeByte(PUT);
+                    write(output, data);
+                }
+            }
+
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        records = snapshot.size();
+    }
+
+    private void writeHeader(DataOutputStream output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+    }
+
+    private TemplateData read(DataInputStream input) throws IOException {
+        return new TemplateData(
+            input.readUTF(),
+            readNullable(input),
+            containerName,
+            input.readLong(),
+            input.readInt(),
+            input.readInt(),
+            input.readInt(),
+            readNullable(input),
+            input.readLong(),
+            input.readLong(),
+            input.readInt()
+        );
+    }
+
+    private void write(DataOutputStream output, TemplateData data) throws IOException {
+        output.writeUTF(data.getTemplateName());
+        writeNullable(output, data.getSerializerName());
+        output.writeLong(data.getSize());
+        output.writeInt(data.getWidth());
+        output.writeInt(data.getHeight());
+        output.writeInt(data.getLength());
+        writeNullable(output, data.getChecksum());
+        output.writeLong(data.getCreatedAt());
+        output.writeLong(data.getUpdatedAt());
+        output.writeInt(data.getSerializerVersion());
+    }
+
+    private String readNullable(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private void writeNullable(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+
+        void write(DataOutputStream output) throws IOException;
+    }
+}
@@ -4,28 +4,72 @@ import com.mongodb.ConnectionString;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndDeleteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 import me.illusion.cosmos.CosmosPlugin;
 import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.executor.CosmosExecutor;
 import me.illusion.cosmos.serialization.CosmosSerializer;
 import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.data.RawTemplate;
 import me.illusion.cosmos.template.data.TemplateData;
+import me.illusion.cosmos.utilities.geometry.Cuboid;
+import me.illusion.cosmos.utilities.io.Checksums;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.Binary;
+import org.bson.types.ObjectId;
 import org.bukkit.configuration.ConfigurationSection;
 
+/**
+ * A container which stores templates in a MongoDB collection. Templates up to the inline threshold are stored in their document, larger templates are
+ * stored in a GridFS bucket next to the collection, as documents are limited to 16 MB. Large templates are downloaded in parallel ranges of chunks.
+ */
 public class MongoDataContainer implements CosmosDataContainer {
 
+    private static final Bson METADATA_PROJECTION = Projections.fields(
+        Projections.include("name", "serializer", "checksum", "size", "width", "height", "length", "created", "updated", "serializerVersion"),
+        Projections.excludeId()
+    );
+
     private final List<CompletableFuture<?>> futures = new ArrayList<>();
     private MongoClient mongoClient;
     private MongoCollection<Document> templatesCollection;
 
+    private GridFSBucket bucket;
+    private MongoCollection<Document> chunksCollection;
+
+    private int inlineThreshold; // in bytes, templates larger than this are stored in GridFS
+    private int chunkSize; // in bytes
+    private int downloadParallelism;
+    private int listingBatchSize;
+
     private final CosmosPlugin plugin;
+    private CosmosExecutor executor;
 
     public MongoDataContainer(CosmosPlugin plugin) {
         this.plugin = plugin;
@@ -33,7 +77,9 @@ public class MongoDataContainer implements CosmosDataContainer {
 
     @Override
     public CompletableFuture<Boolean> enable(ConfigurationSection section) {
-        return CompletableFuture.supplyAsync(() -> {
+        executor = plugin.getExecutorRegistry().get(getName());
+
+        return executor.supply(() -> {
             String connectionString = section.getString("connection-string");
 
             if (connectionString == null) {
@@ -50,13 +96,24 @@ public class MongoDataContainer implements CosmosDataContainer {
             String database = section.getString("database", "cosmos");
             String collectionName = section.getString("collection", "cosmos_templates");
 
+            // BSON documents are limited to 16 MB, so the inline threshold is capped slightly below that to leave room for the rest of the document
+            inlineThreshold = Math.min(section.getInt("inline-threshold", 4096), 15 * 1024) * 1024;
+            chunkSize = Math.max(1, section.getInt("gridfs-chunk-size", 1024)) * 1024;
+            downloadParallelism = Math.max(1, section.getInt("gridfs-download-parallelism", 4));
+            listingBatchSize = Math.max(1, section.getInt("listing-batch-size", 1000));
 
             try {
                 mongoClient = MongoClients.create(new ConnectionString(connectionString));
-                templatesCollection = mongoClient.getDatabase(database).getCollection(collectionName); // if the collection doesn't exist, it will be created
+                MongoDatabase mongoDatabase = mongoClient.getDatabase(database);
+
+                templatesCollection = mongoDatabase.getCollection(collectionName); // if the collection doesn't exist, it will be created
+                bucket = GridFSBuckets.create(mongoDatabase, collectionName + "_data");
+                chunksCollection = mongoDatabase.getCollection(collectionName + "_data.chunks");
 
                 // validate the session
                 mongoClient.listDatabaseNames().first(); // throws an exception if the connection is invalid
+
+                createIndexes();
                 return true;
             } catch (Exception expected) { // catching MongoException doesn't work for some reason
                 return false;
@@ -72,7 +129,6 @@ public class MongoDataContainer implements CosmosDataContainer {
                 return CompletableFuture.completedFuture(null);
             }
 
-            byte[] data = document.get("data", Binary.class).getData();
             String serializer = document.getString("serializer");
 
             CosmosSerializer cosmosSerializer = plugin.getSerializerRegistry().get(serializer);
@@ -82,24 +138,173 @@ public class MongoDataContainer implements CosmosDataContainer {
                 return CompletableFuture.completedFuture(null);
             }
 
-            return cosmosSerializer.deserialize(data);
+            return readData(document).thenCompose(data -> cosmosSerializer.deserialize(new ByteArrayInputStream(data)));
+        });
+    }
+
+    /**
+     * Opens the data of a template. Templates stored in GridFS are downloaded as the stream is read, while inline templates are already part of their
+     * document, so they are buffered, which the inline threshold keeps small.
+     */
+    @Override
+    public CompletableFuture<InputStream> fetchTemplateStream(String name) {
+        return associateTask(() -> {
+            Document document = templatesCollection.find(new Document("name", name)).first();
+            if (document == null) {
+                return null;
+            }
+
+            return openData(document);
         });
     }
 
     @Override
     public CompletableFuture<Void> saveTemplate(String name, TemplatedArea area) {
-        return associateRunnable(() -> area.getSerializer().serialize(area).thenAccept(binary -> {
-            Document document = new Document("name", name)
-                .append("data", binary)
-                .append("serializer", area.getSerializer().getName());
+        return associateRunnable(() -> area.getSerializer().serialize(area)
+            .thenAccept(binary -> write(name, new RawTemplate(area.getSerializer().getName(), binary, area.getDimensions()))));
+    }
 
-            templatesCollection.replaceOne(new Document("name", name), document, new ReplaceOptions().upsert(true));
-        }));
+    @Override
+    public CompletableFuture<RawTemplate> fetchRaw(String name) {
+        return associateFuture(() -> {
+            Document document = templatesCollection.find(new Document("name", name)).first();
+            if (document == null) {
+                return null;
+            }
+
+            return readData(document).thenApply(data -> new RawTemplate(document.getString("serializer"), data, readDimensions(document)));
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, String serializerName, byte[] data) {
+        return saveRaw(name, new RawTemplate(serializerName, data));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRaw(String name, RawTemplate raw) {
+        return registerFuture(executor.run(() -> write(name, raw)));
+    }
+
+    @Override
+    public CompletableFuture<String> fetchTemplateChecksum(String name) {
+        return associateTask(() -> {
+            Document document = templatesCollection.find(new Document("name", name)).projection(Projections.include("checksum")).first();
+            if (document == null) {
+                return null;
+            }
+
+            return document.getString("checksum");
+        });
     }
 
     @Override
     public CompletableFuture<Void> deleteTemplate(String name) {
-        return registerFuture(CompletableFuture.runAsync(() -> templatesCollection.deleteOne(new Document("name", name))));
+        return registerFuture(executor.run(() -> deleteData(templatesCollection.findOneAndDelete(new Document("name", name),
+            new FindOneAndDeleteOptions().projection(Projections.include("file"))))));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, TemplatedArea>> fetchTemplates(Collection<String> names) {
+        return fetchRawTemplates(names).thenCompose(rawTemplates -> {
+            Map<String, TemplatedArea> templates = new ConcurrentHashMap<>();
+            List<CompletableFuture<?>> deserializations = new ArrayList<>();
+
+            for (Map.Entry<String, RawTemplate> entry : rawTemplates.entrySet()) {
+                RawTemplate raw = entry.getValue();
+                CosmosSerializer serializer = plugin.getSerializerRegistry().get(raw.getSerializerName());
+
+                if (serializer == null) {
+                    plugin.getLogger().warning("Could not find serializer " + raw.getSerializerName() + " for template " + entry.getKey());
+                    continue;
+                }
+
+                deserializations.add(serializer.deserialize(new ByteArrayInputStream(raw.getData())).thenAccept(area -> {
+                    if (area != null) {
+                        templates.put(entry.getKey(), area);
+                    }
+                }));
+            }
+
+            return CompletableFuture.allOf(deserializations.toArray(new CompletableFuture[0])).thenApply(irrelevant -> templates);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<String, RawTemplate>> fetchRawTemplates(Collection<String> names) {
+        return associateFuture(() -> {
+            Map<String, RawTemplate> templates = new ConcurrentHashMap<>();
+            List<CompletableFuture<?>> downloads = new ArrayList<>();
+
+            templatesCollection.find(Filters.in("name", names)).forEach(document -> downloads.add(readData(document).thenAccept(data -> templates.put(
+                document.getString("name"),
+                new RawTemplate(document.getString("serializer"), data, readDimensions(document))
+            ))));
+
+            return CompletableFuture.allOf(downloads.toArray(new CompletableFuture[0])).thenApply(irrelevant -> templates);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> saveTemplates(Map<String, TemplatedArea> templates) {
+        Map<String, RawTemplate> rawTemplates = new ConcurrentHashMap<>();
+        List<CompletableFuture<?>> serializations = new ArrayList<>();
+
+        for (Map.Entry<String, TemplatedArea> entry : templates.entrySet()) {
+            CosmosSerializer serializer = entry.getValue().getSerializer();
+
+            serializations.add(serializer.serialize(entry.getValue())
+                .thenAccept(data -> rawTemplates.put(entry.getKey(), new RawTemplate(serializer.getName(), data, entry.getValue().getDimensions()))));
+        }
+
+        return CompletableFuture.allOf(serializations.toArray(new CompletableFuture[0])).thenCompose(irrelevant -> saveRawTemplates(rawTemplates));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveRawTemplates(Map<String, RawTemplate> templates) {
+        if (templates.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return registerFuture(executor.run(() -> {
+            Map<String, RawTemplate> inline = new HashMap<>();
+
+            for (Map.Entry<String, RawTemplate> entry : templates.entrySet()) {
+                if (entry.getValue().getData().length > inlineThreshold) {
+                    write(entry.getKey(), entry.getValue()); // GridFS uploads can't be part of a bulk write
+                } else {
+                    inline.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            if (inline.isEmpty()) {
+                return;
+            }
+
+            // Creation times are kept, and templates which used to be large keep their GridFS file until the bulk write replaces their document
+            Map<String, Document> previous = findPrevious(inline.keySet());
+            List<ReplaceOneModel<Document>> writes = new ArrayList<>();
+
+            for (Map.Entry<String, RawTemplate> entry : inline.entrySet()) {
+                Document document = createDocument(entry.getKey(), entry.getValue(), previous.get(entry.getKey()))
+                    .append("data", entry.getValue().getData());
+
+                writes.add(new ReplaceOneModel<>(new Document("name", entry.getKey()), document, new ReplaceOptions().upsert(true)));
+            }
+
+            templatesCollection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+            previous.values().forEach(this::deleteData);
+        }));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteTemplates(Collection<String> names) {
+        return registerFuture(executor.run(() -> {
+            List<Document> previous = findExternal(names);
+
+            templatesCollection.deleteMany(Filters.in("name", names));
+            previous.forEach(this::deleteData);
+        }));
     }
 
     @Override
@@ -122,7 +327,25 @@ public class MongoDataContainer implements CosmosDataContainer {
         return associateTask(() -> {
             List<String> templates = new ArrayList<>();
 
-            templatesCollection.find().forEach(document -> templates.add(document.getString("name")));
+            templatesCollection.find()
+                .projection(Projections.fields(Projections.include("name"), Projections.excludeId()))
+                .batchSize(listingBatchSize)
+                .forEach(document -> templates.add(document.getString("name")));
+
+            return templates;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<String>> fetchTemplatePage(String after, int limit) {
+        return associateTask(() -> {
+            List<String> templates = new ArrayList<>();
+
+            templatesCollection.find(after == null ? new Document() : Filters.gt("name", after))
+                .projection(Projections.fields(Projections.include("name"), Projections.excludeId()))
+                .sort(Sorts.ascending("name"))
+                .limit(limit)
+                .forEach(document -> templates.add(document.getString("name")));
 
             return templates;
         });
@@ -131,7 +354,10 @@ public class MongoDataContainer implements CosmosDataContainer {
     @Override
     public CompletableFuture<String> fetchTemplateSerializer(String name) {
         return associateTask(() -> {
-            Document document = templatesCollection.find(new Document("name", name)).first();
+            Document document = templatesCollection.find(new Document("name", name))
+                .projection(Projections.fields(Projections.include("serializer"), Projections.excludeId()))
+                .first();
+
             if (document == null) {
                 return null;
             }
@@ -145,24 +371,225 @@ public class MongoDataContainer implements CosmosDataContainer {
         return associateTask(() -> {
             List<TemplateData> templates = new ArrayList<>();
 
-            templatesCollection.find().forEach(document -> {
-                String name = document.getString("name");
-                String serializer = document.getString("serializer");
-
-                templates.add(new TemplateData(name, serializer, getName()));
-            });
+            templatesCollection.find()
+                .projection(METADATA_PROJECTION)
+                .batchSize(listingBatchSize)
+                .forEach(document -> templates.add(readTemplateData(document)));
 
             return templates;
         });
     }
 
+    @Override
+    public CompletableFuture<TemplateData> fetchTemplateData(String name) {
+        return associateTask(() -> {
+            Document document = templatesCollection.find(new Document("name", name)).projection(METADATA_PROJECTION).first();
+            return document == null ? null : readTemplateData(document);
+        });
+    }
+
+    /**
+     * Writes a template, inline or in GridFS depending on its size. The GridFS file of the previous version of the template, if any, is deleted once the
+     * document points to the new version, so readers never see a missing file.
+     *
+     * @param name The name of the template
+     * @param raw  The raw template
+     */
+    private void write(String name, RawTemplate raw) {
+        byte[] data = raw.getData();
+        Document fields = createDocument(name, raw, null);
+        Object created = fields.remove("created"); // only set when the document is created, so an overwrite keeps it without reading it first
+        Document update = new Document("$set", fields).append("$setOnInsert", new Document("created", created));
+
+        if (data.length > inlineThreshold) {
+            ObjectId fileId = bucket.uploadFromStream(name, new ByteArrayInputStream(data), new GridFSUploadOptions().chunkSizeBytes(chunkSize));
+            fields.append("file", fileId);
+            update.append("$unset", new Document("data", ""));
+        } else {
+            fields.append("data", data);
+            update.append("$unset", new Document("file", ""));
+        }
+
+        // Only the reference to the previous GridFS file is returned, rather than the whole previous document
+        Document previous = templatesCollection.findOneAndUpdate(new Document("name", name), update, new FindOneAndUpdateOptions()
+            .upsert(true)
+            .returnDocument(ReturnDocument.BEFORE)
+            .projection(Projections.include("file")));
+
+        deleteData(previous);
+    }
+
+    /**
+     * Reads the data of a template. Templates stored in GridFS are downloaded in parallel ranges of chunks, which are reassembled in place.
+     *
+     * @param document The document of the template
+     * @return A future which will be completed with the data
+     */
+    private CompletableFuture<byte[]> readData(Document document) {
+        ObjectId fileId = document.getObjectId("file");
+
+        if (fileId == null) {
+            return CompletableFuture.completedFuture(document.get("data", Binary.class).getData());
+        }
+
+        GridFSFile file = bucket.find(Filters.eq("_id", fileId)).first();
+
+        if (file == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Missing GridFS file for template " + document.getString("name")));
+        }
+
+        byte[] data = new byte[Math.toIntExact(file.getLength())];
+        int fileChunkSize = file.getChunkSize();
+        int chunkCount = (int) ((file.getLength() + fileChunkSize - 1) / fileChunkSize);
+        int rangeSize = Math.max(1, (chunkCount + downloadParallelism - 1) / downloadParallelism);
+
+        List<CompletableFuture<?>> ranges = new ArrayList<>();
+
+        for (int start = 0; start < chunkCount; start += rangeSize) {
+            int from = start;
+            int to = Math.min(chunkCount, start + rangeSize);
+
+            ranges.add(executor.run(() -> {
+                int received = 0;
+
+                for (Document chunk : chunksCollection.find(Filters.and(Filters.eq("files_id", fileId), Filters.gte("n", from), Filters.lt("n", to)))
+                    .sort(Sorts.ascending("n"))) {
+                    byte[] bytes = chunk.get("data", Binary.class).getData();
+                    System.arraycopy(bytes, 0, data, chunk.getInteger("n") * fileChunkSize, bytes.length);
+                    received++;
+                }
+
+                if (received != to - from) {
+                    throw new IllegalStateException("Missing GridFS chunks for template " + document.getString("name"));
+                }
+            }));
+        }
+
+        return CompletableFuture.allOf(ranges.toArray(new CompletableFuture[0])).thenApply(irrelevant -> data);
+    }
+
+    /**
+     * Opens the data of a template as a stream. Templates stored in GridFS are streamed chunk by chunk, rather than downloaded at once.
+     *
+     * @param document The document of the template
+     * @return The stream
+     */
+    private InputStream openData(Document document) {
+        ObjectId fileId = document.getObjectId("file");
+
+        if (fileId == null) {
+            return new ByteArrayInputStream(document.get("data", Binary.class).getData());
+        }
+
+        return bucket.openDownloadStream(fileId);
+    }
+
+    /**
+     * Creates the indexes used by the container's queries, if they don't exist yet. Template names are unique, so the index also guards against duplicate
+     * documents.
+     */
+    private void createIndexes() {
+        try {
+            templatesCollection.createIndex(Indexes.ascending("name"), new IndexOptions().unique(true).name("cosmos_name"));
+        } catch (Exception e) { // duplicate names saved by older versions prevent the unique index from being built
+            plugin.getLogger().warning("Could not create a unique index on template names, is there a duplicate template? " + e.getMessage());
+            templatesCollection.createIndex(Indexes.ascending("name"), new IndexOptions().name("cosmos_name_non_unique"));
+        }
+
+        // Only large templates reference a GridFS file
+        templatesCollection.createIndex(Indexes.ascending("file"), new IndexOptions().sparse(true).name("cosmos_file"));
+    }
+
+    /**
+     * Creates the document of a template, holding its metadata but not its data.
+     *
+     * @param name     The name of the template
+     * @param raw      The raw template
+     * @param previous The previous document of the template, holding at least its creation time, or null
+     * @return The document
+     */
+    private Document createDocument(String name, RawTemplate raw, Document previous) {
+        byte[] data = raw.getData();
+        Cuboid dimensions = raw.getDimensions();
+        long now = System.currentTimeMillis();
+        Long created = previous == null ? null : previous.getLong("created");
+
+        return new Document("name", name)
+            .append("serializer", raw.getSerializerName())
+            .append("checksum", Checksums.sha256(data))
+            .append("size", (long) data.length)
+            .append("width", dimensions == null ? 0 : (int) Math.round(dimensions.getWidth()))
+            .append("height", dimensions == null ? 0 : (int) Math.round(dimensions.getHeight()))
+            .append("length", dimensions == null ? 0 : (int) Math.round(dimensions.getLength()))
+            .append("created", created == null ? now : created)
+            .append("updated", now)
+            .append("serializerVersion", plugin.getSerializerRegistry().getVersion(raw.getSerializerName()));
+    }
+
+    private TemplateData readTemplateData(Document document) {
+        return new TemplateData(
+            document.getString("name"),
+            document.getString("serializer"),
+            getName(),
+            readLong(document, "size"),
+            document.getInteger("width", 0),
+            document.getInteger("height", 0),
+            document.getInteger("length", 0),
+            document.getString("checksum"),
+            readLong(document, "created"),
+            readLong(document, "updated"),
+            document.getInteger("serializerVersion", 0)
+        );
+    }
+
+    private Cuboid readDimensions(Document document) {
+        int width = document.getInteger("width", 0);
+        int height = document.getInteger("height", 0);
+        int length = document.getInteger("length", 0);
+
+        return width == 0 && height == 0 && length == 0 ? null : new Cuboid(0, 0, 0, width, height, length);
+    }
+
+    private long readLong(Document document, String key) {
+        Object value = document.get(key);
+        return value instanceof Number number ? number.longValue() : 0; // older documents stored the size as an int
+    }
+
+    private Map<String, Document> findPrevious(Collection<String> names) {
+        Map<String, Document> documents = new HashMap<>();
+
+        templatesCollection.find(Filters.in("name", names))
+            .projection(Projections.include("name", "file", "created"))
+            .forEach(document -> documents.put(document.getString("name"), document));
+
+        return documents;
+    }
+
+    private List<Document> findExternal(Collection<String> names) {
+        List<Document> documents = new ArrayList<>();
+
+        templatesCollection.find(Filters.and(Filters.in("name", names), Filters.exists("file")))
+            .projection(Projections.include("file"))
+            .into(documents);
+
+        return documents;
+    }
+
+    private void deleteData(Document document) {
+        if (document == null || document.getObjectId("file") == null) {
+            return;
+        }
+
+        bucket.delete(document.getObjectId("file"));
+    }
+
     private <T> CompletableFuture<T> associateTask(Supplier<T> supplier) {
-        CompletableFuture<T> future = CompletableFuture.supplyAsync(supplier);
+        CompletableFuture<T> future = executor.supply(supplier);
         return registerFuture(future);
     }
 
     private <T> CompletableFuture<T> associateFuture(Supplier<CompletableFuture<T>> supplier) {
-        CompletableFuture<T> future = CompletableFuture.supplyAsync(supplier).thenCompose((result) -> {
+        CompletableFuture<T> future = executor.supply(supplier).thenCompose((result) -> {
             if (result == null) {
                 return CompletableFuture.completedFuture(null);
             }
@@ -174,7 +601,7 @@ public class MongoDataContainer implements CosmosDataContainer {
     }
 
     private CompletableFuture<Void> associateRunnable(Supplier<CompletableFuture<Void>> runnable) {
-        CompletableFuture<Void> future = CompletableFuture.supplyAsync(runnable).thenCompose((result) -> {
+        CompletableFuture<Void> future = executor.supply(runnable).thenCompose((result) -> {
             if (result == null) {
                 return CompletableFuture.completedFuture(null);
             }
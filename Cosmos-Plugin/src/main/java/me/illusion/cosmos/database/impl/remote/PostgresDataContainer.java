@@ -13,11 +13,16 @@ import org.bukkit.configuration.ConfigurationSection;
 public class PostgresDataContainer extends SQLDataContainer {
 
     private static final String FETCH_TEMPLATE = "SELECT * FROM %s WHERE template_id = ?";
+    private static final String FETCH_TEMPLATES = "SELECT * FROM %s WHERE template_id IN (%s)";
     private static final String FETCH_TEMPLATE_SERIALIZER = "SELECT template_serializer FROM %s WHERE template_id = ?";
-    private static final String SAVE_TEMPLATE = "INSERT INTO %s (template_id, template_serializer, template_data) VALUES (?, ?, ?) ON CONFLICT (template_id) DO UPDATE SET template_serializer=EXCLUDED.template_serializer, template_data=EXCLUDED.template_data";
+    private static final String FETCH_TEMPLATE_CHECKSUM = "SELECT template_checksum FROM %s WHERE template_id = ?";
+    private static final String SAVE_TEMPLATE = "INSERT INTO %s (template_id, template_serializer, template_data, template_checksum, template_size, template_width, template_height, template_length, template_created, template_updated, template_serializer_version) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (template_id) DO UPDATE SET template_serializer=EXCLUDED.template_serializer, template_data=EXCLUDED.template_data, template_checksum=EXCLUDED.template_checksum, template_size=EXCLUDED.template_size, template_width=EXCLUDED.template_width, template_height=EXCLUDED.template_height, template_length=EXCLUDED.template_length, template_updated=EXCLUDED.template_updated, template_serializer_version=EXCLUDED.template_serializer_version"; // template_created is only set on insert
     private static final String DELETE_TEMPLATE = "DELETE FROM %s WHERE template_id = ?";
+    private static final String DELETE_TEMPLATES = "DELETE FROM %s WHERE template_id IN (%s)";
     private static final String FETCH_ALL = "SELECT * FROM %s";
-    private static final String FETCH_ALL_NO_DATA = "SELECT template_id, template_serializer FROM %s";
+    private static final String FETCH_ALL_NO_DATA = "SELECT template_id, template_serializer, template_checksum, template_size, template_width, template_height, template_length, template_created, template_updated, template_serializer_version FROM %s";
+    private static final String FETCH_TEMPLATE_PAGE = "SELECT template_id FROM %s WHERE template_id > ? ORDER BY template_id LIMIT ?";
+    private static final String FETCH_TEMPLATE_DATA = "SELECT template_id, template_serializer, template_checksum, template_size, template_width, template_height, template_length, template_created, template_updated, template_serializer_version FROM %s WHERE template_id = ?";
 
     public PostgresDataContainer(CosmosPlugin plugin) {
         super(plugin);
@@ -37,13 +42,18 @@ public class PostgresDataContainer extends SQLDataContainer {
 
     @Override
     protected Map<CosmosSQLQuery, String> getQueries() {
-        return Map.of(
-            CosmosSQLQuery.FETCH_ALL, FETCH_ALL,
-            CosmosSQLQuery.FETCH_TEMPLATE, FETCH_TEMPLATE,
-            CosmosSQLQuery.FETCH_TEMPLATE_SERIALIZER, FETCH_TEMPLATE_SERIALIZER,
-            CosmosSQLQuery.STORE_TEMPLATE, SAVE_TEMPLATE,
-            CosmosSQLQuery.DELETE_TEMPLATE, DELETE_TEMPLATE,
-            CosmosSQLQuery.FETCH_ALL_NO_DATA, FETCH_ALL_NO_DATA
+        return Map.ofEntries(
+            Map.entry(CosmosSQLQuery.FETCH_ALL, FETCH_ALL),
+            Map.entry(CosmosSQLQuery.FETCH_TEMPLATE, FETCH_TEMPLATE),
+            Map.entry(CosmosSQLQuery.FETCH_TEMPLATES, FETCH_TEMPLATES),
+            Map.entry(CosmosSQLQuery.FETCH_TEMPLATE_SERIALIZER, FETCH_TEMPLATE_SERIALIZER),
+            Map.entry(CosmosSQLQuery.FETCH_TEMPLATE_CHECKSUM, FETCH_TEMPLATE_CHECKSUM),
+            Map.entry(CosmosSQLQuery.STORE_TEMPLATE, SAVE_TEMPLATE),
+            Map.entry(CosmosSQLQuery.DELETE_TEMPLATE, DELETE_TEMPLATE),
+            Map.entry(CosmosSQLQuery.DELETE_TEMPLATES, DELETE_TEMPLATES),
+            Map.entry(CosmosSQLQuery.FETCH_ALL_NO_DATA, FETCH_ALL_NO_DATA),
+            Map.entry(CosmosSQLQuery.FETCH_TEMPLATE_DATA, FETCH_TEMPLATE_DATA),
+            Map.entry(CosmosSQLQuery.FETCH_TEMPLATE_PAGE, FETCH_TEMPLATE_PAGE)
         );
     }
 }
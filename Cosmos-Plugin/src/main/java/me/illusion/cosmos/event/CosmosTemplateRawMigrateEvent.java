@@ -0,0 +1,33 @@
+package me.illusion.cosmos.event;
+
+import lombok.Getter;
+import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.event.base.CosmosEvent;
+import me.illusion.cosmos.template.data.RawTemplate;
+import org.bukkit.event.HandlerList;
+
+/**
+ * Called once a template has been migrated from one container to another as raw data, without ever being deserialized. Templates which had to be
+ * deserialized to be migrated call {@link CosmosTemplateMigrateEvent} instead.
+ */
+@Getter
+public class CosmosTemplateRawMigrateEvent extends CosmosEvent {
+
+    private static final HandlerList HANDLER_LIST = new HandlerList();
+
+    private final CosmosDataContainer sourceContainer;
+    private final CosmosDataContainer targetContainer;
+    private final RawTemplate rawTemplate;
+    private final String templateId;
+
+    public CosmosTemplateRawMigrateEvent(CosmosDataContainer sourceContainer, CosmosDataContainer targetContainer, RawTemplate rawTemplate, String templateId) {
+        this.sourceContainer = sourceContainer;
+        this.targetContainer = targetContainer;
+        this.rawTemplate = rawTemplate;
+        this.templateId = templateId;
+    }
+
+    public static HandlerList getHandlerList() { return HANDLER_LIST; }
+    @Override
+    public HandlerList getHandlers() { return HANDLER_LIST; }
+}
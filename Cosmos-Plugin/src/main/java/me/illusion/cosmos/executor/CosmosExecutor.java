@@ -0,0 +1,147 @@
+package me.illusion.cosmos.executor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A named executor which runs the blocking work of a single owner, usually a container, so it never ties up the common pool. Tasks are counted as they are
+ * queued, started and completed, which is what the executor metric reports.
+ * <p>
+ * Tasks are rejected once the queue of a bounded executor is full. {@link #supply(Supplier)} and {@link #run(Runnable)} report rejections as failed futures,
+ * while {@link #execute(Runnable)} throws them like any other executor.
+ *
+ * @author Illusion
+ * @see CosmosExecutorRegistry
+ */
+public class CosmosExecutor implements Executor {
+
+    private final String name;
+    private final ExecutorService delegate;
+    private final boolean virtual;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    CosmosExecutor(String name, ExecutorService delegate, boolean virtual) {
+        this.name = name;
+        this.delegate = delegate;
+        this.virtual = virtual;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        queued.incrementAndGet();
+
+        try {
+            delegate.execute(() -> {
+                queued.decrementAndGet();
+                active.incrementAndGet();
+
+                try {
+                    task.run();
+                } finally {
+                    active.decrementAndGet();
+                    completed.incrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("The " + name + " executor is saturated or shut down", e);
+        }
+    }
+
+    /**
+     * Runs a task on this executor.
+     *
+     * @param supplier The task
+     * @param <T>      The type of the result
+     * @return A future which will be completed with the result, or completed exceptionally if the task was rejected
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, this);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Runs a task on this executor.
+     *
+     * @param runnable The task
+     * @return A future which will be completed once the task has run, or completed exceptionally if the task was rejected
+     */
+    public CompletableFuture<Void> run(Runnable runnable) {
+        try {
+            return CompletableFuture.runAsync(runnable, this);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Stops accepting tasks, and waits for the queued ones to complete.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit    The unit of the timeout
+     * @return Whether every task completed in time
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        delegate.shutdown();
+
+        try {
+            return delegate.awaitTermination(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Checks whether this executor starts a virtual thread per task, rather than running tasks on a bounded pool.
+     *
+     * @return Whether this executor uses virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Obtains the amount of tasks waiting for a thread.
+     *
+     * @return The queue depth
+     */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * Obtains the amount of tasks currently running.
+     *
+     * @return The amount of running tasks
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+}
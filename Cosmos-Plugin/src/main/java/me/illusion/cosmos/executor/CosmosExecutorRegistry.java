@@ -0,0 +1,168 @@
+package me.illusion.cosmos.executor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import me.illusion.cosmos.CosmosPlugin;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * This class is responsible for creating and keeping track of the executors blocking work runs on. Every container obtains its own executor, so a slow
+ * database can only exhaust its own threads, and none of them compete with the common pool used by parallel streams and other plugins.
+ * <p>
+ * Executors are bounded pools of named daemon threads, sized by the "executors" section of the databases file, which each database section can override with
+ * its own "executor" section. When virtual threads are enabled and the server runs on Java 21 or newer, every task runs on its own virtual thread instead.
+ *
+ * @author Illusion
+ */
+public class CosmosExecutorRegistry {
+
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_QUEUE_SIZE = 10000;
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final Map<String, CosmosExecutor> executors = new ConcurrentHashMap<>();
+    private final Map<String, ExecutorService> services = new ConcurrentHashMap<>(); // created elsewhere, only shut down here
+    private final CosmosPlugin plugin;
+
+    public CosmosExecutorRegistry(CosmosPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Obtains the executor with the specified name, creating it if it doesn't exist yet.
+     *
+     * @param name The name of the executor, usually the name of the container using it
+     * @return The executor
+     */
+    public CosmosExecutor get(String name) {
+        return executors.computeIfAbsent(name, this::create);
+    }
+
+    /**
+     * Registers an executor service which was not created by this registry, such as a fork-join pool, so it is shut down along with every executor.
+     *
+     * @param name    The name of the service
+     * @param service The service
+     * @param <T>     The type of the service
+     * @return The service
+     */
+    public <T extends ExecutorService> T register(String name, T service) {
+        services.put(name, service);
+        return service;
+    }
+
+    /**
+     * Obtains all created executors, as an immutable list.
+     *
+     * @return An immutable list of all executors
+     */
+    public ImmutableList<CosmosExecutor> getExecutors() {
+        return ImmutableList.copyOf(executors.values());
+    }
+
+    /**
+     * Shuts every executor down, waiting for their queued tasks to complete.
+     *
+     * @param timeout The maximum time to wait for each executor
+     * @param unit    The unit of the timeout
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        for (CosmosExecutor executor : executors.values()) {
+            if (!executor.shutdown(timeout, unit)) {
+                plugin.getLogger().warning("The " + executor.getName() + " executor did not finish its tasks in time");
+            }
+        }
+
+        executors.clear();
+
+        for (Map.Entry<String, ExecutorService> entry : services.entrySet()) {
+            ExecutorService service = entry.getValue();
+            service.shutdown();
+
+            try {
+                if (!service.awaitTermination(timeout, unit)) {
+                    plugin.getLogger().warning("The " + entry.getKey() + " executor did not finish its tasks in time");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        services.clear();
+    }
+
+    private CosmosExecutor create(String name) {
+        ConfigurationSection defaults = plugin.getDatabasesFile().getExecutorDefaults();
+        ConfigurationSection database = plugin.getDatabasesFile().getDatabase(name);
+        ConfigurationSection overrides = database == null ? null : database.getConfigurationSection("executor");
+
+        boolean virtualThreads = getBoolean(overrides, defaults, "virtual-threads", false);
+
+        if (virtualThreads) {
+            ExecutorService virtual = createVirtualExecutor(name);
+
+            if (virtual != null) {
+                return new CosmosExecutor(name, virtual, true);
+            }
+
+            plugin.getLogger().warning("Virtual threads require Java 21 or newer, the " + name + " executor uses a thread pool instead");
+        }
+
+        int threads = Math.max(1, getInt(overrides, defaults, "threads", DEFAULT_THREADS));
+        int queueSize = Math.max(1, getInt(overrides, defaults, "queue-size", DEFAULT_QUEUE_SIZE));
+
+        ThreadFactory factory = new ThreadFactoryBuilder()
+            .setNameFormat("cosmos-" + name + "-%d")
+            .setDaemon(true)
+            .build();
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(queueSize), factory);
+        pool.allowCoreThreadTimeOut(true); // containers which are never enabled never start a thread
+
+        return new CosmosExecutor(name, pool, false);
+    }
+
+    /**
+     * Creates an executor which starts a named virtual thread per task. The API is only final since Java 21, so it is looked up reflectively.
+     *
+     * @param name The name of the executor
+     * @return The executor, or null if virtual threads are not available
+     */
+    private ExecutorService createVirtualExecutor(String name) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "cosmos-" + name + "-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException e) { // missing on older versions, or a disabled preview on Java 19 and 20
+            return null;
+        }
+    }
+
+    private int getInt(ConfigurationSection overrides, ConfigurationSection defaults, String key, int fallback) {
+        if (overrides != null && overrides.contains(key)) {
+            return overrides.getInt(key);
+        }
+
+        return defaults == null ? fallback : defaults.getInt(key, fallback);
+    }
+
+    private boolean getBoolean(ConfigurationSection overrides, ConfigurationSection defaults, String key, boolean fallback) {
+        if (overrides != null && overrides.contains(key)) {
+            return overrides.getBoolean(key);
+        }
+
+        return defaults == null ? fallback : defaults.getBoolean(key, fallback);
+    }
+}
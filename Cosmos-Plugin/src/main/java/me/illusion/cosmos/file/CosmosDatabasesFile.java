@@ -23,6 +23,42 @@ public class CosmosDatabasesFile extends YMLBase {
         return getConfiguration().getConfigurationSection(name);
     }
 
+    /**
+     * Returns the configuration section holding the default executor settings, which database sections can override with their own executor section.
+     *
+     * @return the executors section, or null if there is none.
+     */
+    public ConfigurationSection getExecutorDefaults() {
+        return getConfiguration().getConfigurationSection("executors");
+    }
+
+    /**
+     * Returns the configuration section holding the settings of migrations between databases.
+     *
+     * @return the migration section, or null if there is none.
+     */
+    public ConfigurationSection getMigrationSettings() {
+        return getConfiguration().getConfigurationSection("migration");
+    }
+
+    /**
+     * Returns the configuration section holding the settings of the template cache.
+     *
+     * @return the template cache section, or null if there is none.
+     */
+    public ConfigurationSection getTemplateCacheSettings() {
+        return getConfiguration().getConfigurationSection("template-cache");
+    }
+
+    /**
+     * Returns the configuration section holding the settings of sessions.
+     *
+     * @return the sessions section, or null if there is none.
+     */
+    public ConfigurationSection getSessionSettings() {
+        return getConfiguration().getConfigurationSection("sessions");
+    }
+
     /**
      * Obtains the default database specified in the databases.yml file.
      *
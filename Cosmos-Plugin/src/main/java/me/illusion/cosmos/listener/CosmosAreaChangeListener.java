@@ -0,0 +1,374 @@
+package me.illusion.cosmos.listener;
+
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+import me.illusion.cosmos.event.area.CosmosPasteAreaEvent;
+import me.illusion.cosmos.event.area.CosmosUnloadAreaEvent;
+import me.illusion.cosmos.template.impl.worldedit.SchematicPastedArea;
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.data.Directional;
+import org.bukkit.event.Event.Result;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockCookEvent;
+import org.bukkit.event.block.BlockDispenseEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockFertilizeEvent;
+import org.bukkit.event.block.BlockFormEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockGrowEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.BlockRedstoneEvent;
+import org.bukkit.event.block.CauldronLevelChangeEvent;
+import org.bukkit.event.block.FluidLevelChangeEvent;
+import org.bukkit.event.block.LeavesDecayEvent;
+import org.bukkit.event.block.MoistureChangeEvent;
+import org.bukkit.event.block.SignChangeEvent;
+import org.bukkit.event.block.SpongeAbsorbEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.inventory.BrewEvent;
+import org.bukkit.event.inventory.BrewingStandFuelEvent;
+import org.bukkit.event.inventory.FurnaceBurnEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryMoveItemEvent;
+import org.bukkit.event.player.PlayerBucketEmptyEvent;
+import org.bukkit.event.player.PlayerBucketFillEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.world.StructureGrowEvent;
+import org.bukkit.inventory.Inventory;
+
+/**
+ * Reports the blocks changed through gameplay to the pasted areas holding them, so saving a session only reads the changed sections from the world. Areas are
+ * indexed by the chunks they cover, so a block change costs a map lookup when no area is nearby.
+ * <p>
+ * Only areas which track their changes are indexed, see {@link SchematicPastedArea#isTrackingChanges()}. Physics updates and edits made by other plugins fire
+ * no event handled here, those are picked up by the periodic full read of the area.
+ */
+public class CosmosAreaChangeListener implements Listener {
+
+    private static final BlockFace[] NEIGHBOURS = {BlockFace.UP, BlockFace.DOWN, BlockFace.NORTH, BlockFace.SOUTH, BlockFace.EAST, BlockFace.WEST};
+
+    private final Map<UUID, Map<Long, Set<SchematicPastedArea>>> areas = new ConcurrentHashMap<>(); // world, chunk key, areas
+
+    @EventHandler
+    private void onPaste(CosmosPasteAreaEvent event) {
+        if (!(event.getPastedArea() instanceof SchematicPastedArea area) || !area.isTrackingChanges()) {
+            return;
+        }
+
+        Map<Long, Set<SchematicPastedArea>> chunks = areas.computeIfAbsent(area.getPasteLocation().getWorld().getUID(), id -> new ConcurrentHashMap<>());
+        forEachChunk(area, key -> chunks.computeIfAbsent(key, irrelevant -> ConcurrentHashMap.newKeySet()).add(area));
+    }
+
+    @EventHandler
+    private void onUnload(CosmosUnloadAreaEvent event) {
+        if (!(event.getPastedArea() instanceof SchematicPastedArea area) || !area.isTrackingChanges()) {
+            return;
+        }
+
+        Map<Long, Set<SchematicPastedArea>> chunks = areas.get(area.getPasteLocation().getWorld().getUID());
+
+        if (chunks == null) {
+            return;
+        }
+
+        forEachChunk(area, key -> chunks.computeIfPresent(key, (irrelevant, set) -> {
+            set.remove(area);
+            return set.isEmpty() ? null : set;
+        }));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onPlace(BlockPlaceEvent event) {
+        mark(event.getBlockPlaced());
+        mark(event.getBlockAgainst());
+
+        // multi-block placements, such as beds and doors, also change the blocks next to the placed one
+        for (BlockFace face : new BlockFace[]{BlockFace.UP, BlockFace.NORTH, BlockFace.SOUTH, BlockFace.EAST, BlockFace.WEST}) {
+            mark(event.getBlockPlaced().getRelative(face));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBreak(BlockBreakEvent event) {
+        markWithNeighbours(event.getBlock()); // torches, signs, ladders and blocks resting on the broken one drop with it
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBlockExplode(BlockExplodeEvent event) {
+        mark(event.getBlock());
+        markAll(event.blockList());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onEntityExplode(EntityExplodeEvent event) {
+        markAll(event.blockList());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onFlow(BlockFromToEvent event) {
+        mark(event.getToBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onPistonExtend(BlockPistonExtendEvent event) {
+        mark(event.getBlock());
+        mark(event.getBlock().getRelative(event.getDirection()));
+
+        for (Block block : event.getBlocks()) {
+            mark(block);
+            mark(block.getRelative(event.getDirection()));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onPistonRetract(BlockPistonRetractEvent event) {
+        mark(event.getBlock());
+        mark(event.getBlock().getRelative(event.getDirection().getOppositeFace()));
+
+        for (Block block : event.getBlocks()) {
+            mark(block);
+            mark(block.getRelative(event.getDirection()));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBurn(BlockBurnEvent event) {
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onFade(BlockFadeEvent event) {
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onForm(BlockFormEvent event) { // also covers spreading blocks, such as fire and grass
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onGrow(BlockGrowEvent event) {
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onDecay(LeavesDecayEvent event) {
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onStructureGrow(StructureGrowEvent event) {
+        mark(event.getLocation());
+        markStates(event.getBlocks());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onFertilize(BlockFertilizeEvent event) {
+        mark(event.getBlock());
+        markStates(event.getBlocks());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onEntityChangeBlock(EntityChangeBlockEvent event) {
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onSignChange(SignChangeEvent event) {
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onRedstone(BlockRedstoneEvent event) {
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBucketEmpty(PlayerBucketEmptyEvent event) {
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBucketFill(PlayerBucketFillEvent event) {
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onInteract(PlayerInteractEvent event) { // doors, levers, repeaters and every other block which changes when used
+        if (event.getAction() != Action.RIGHT_CLICK_BLOCK && event.getAction() != Action.PHYSICAL) {
+            return;
+        }
+
+        Block block = event.getClickedBlock();
+
+        // Most clicks hit blocks which don't react to them, those are skipped before looking up any area
+        if (block == null || event.useInteractedBlock() == Result.DENY) {
+            return;
+        }
+
+        if (event.getAction() == Action.RIGHT_CLICK_BLOCK && !block.getType().isInteractable()) {
+            return;
+        }
+
+        mark(block);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onDispense(BlockDispenseEvent event) { // dispensers place fluids, shulker boxes and armor stands in front of them
+        mark(event.getBlock());
+
+        if (event.getBlock().getBlockData() instanceof Directional directional) {
+            mark(event.getBlock().getRelative(directional.getFacing()));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onCauldronChange(CauldronLevelChangeEvent event) {
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onMoistureChange(MoistureChangeEvent event) {
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onFluidLevelChange(FluidLevelChangeEvent event) {
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onSpongeAbsorb(SpongeAbsorbEvent event) {
+        mark(event.getBlock());
+        markStates(event.getBlocks());
+    }
+
+    // Furnaces, smokers, campfires and brewing stands change their tile data while they run, without any inventory being opened
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onCook(BlockCookEvent event) {
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onFurnaceBurn(FurnaceBurnEvent event) {
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBrew(BrewEvent event) {
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBrewingFuel(BrewingStandFuelEvent event) {
+        mark(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    private void onInventoryClose(InventoryCloseEvent event) {
+        mark(event.getInventory());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onInventoryMove(InventoryMoveItemEvent event) {
+        mark(event.getSource());
+        mark(event.getDestination());
+    }
+
+    private void markAll(Collection<Block> blocks) {
+        for (Block block : blocks) {
+            markWithNeighbours(block); // blocks attached to the exploded ones drop with them
+        }
+    }
+
+    private void markWithNeighbours(Block block) {
+        mark(block);
+
+        for (BlockFace face : NEIGHBOURS) {
+            mark(block.getRelative(face));
+        }
+    }
+
+    private void markStates(Collection<BlockState> states) {
+        for (BlockState state : states) {
+            mark(state.getLocation());
+        }
+    }
+
+    private void mark(Inventory inventory) {
+        Location location = inventory.getLocation(); // null for inventories which are not held by a block or an entity
+
+        if (location != null) {
+            mark(location);
+        }
+    }
+
+    private void mark(Location location) {
+        if (location.getWorld() != null) {
+            mark(location.getWorld().getUID(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+        }
+    }
+
+    private void mark(Block block) {
+        if (block != null) {
+            mark(block.getWorld().getUID(), block.getX(), block.getY(), block.getZ());
+        }
+    }
+
+    private void mark(UUID worldId, int x, int y, int z) {
+        if (areas.isEmpty()) {
+            return;
+        }
+
+        Map<Long, Set<SchematicPastedArea>> chunks = areas.get(worldId);
+
+        if (chunks == null) {
+            return;
+        }
+
+        Set<SchematicPastedArea> nearby = chunks.get(chunkKey(x >> 4, z >> 4));
+
+        if (nearby == null) {
+            return;
+        }
+
+        for (SchematicPastedArea area : nearby) {
+            area.markChanged(x, y, z);
+        }
+    }
+
+    private void forEachChunk(SchematicPastedArea area, LongConsumer action) {
+        CuboidRegion region = area.getWorldRegion();
+        BlockVector3 min = region.getMinimumPoint();
+        BlockVector3 max = region.getMaximumPoint();
+
+        for (int chunkX = min.getBlockX() >> 4; chunkX <= max.getBlockX() >> 4; chunkX++) {
+            for (int chunkZ = min.getBlockZ() >> 4; chunkZ <= max.getBlockZ() >> 4; chunkZ++) {
+                action.accept(chunkKey(chunkX, chunkZ));
+            }
+        }
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+}
@@ -112,7 +112,7 @@ public class TemplateCreationMenu implements UpdatableMenu {
                     messages.sendMessage(viewer, "template.created", new Placeholder<>("template", name));
                 }).thenRun(this::openFallback);
 
-                cosmos.getTemplateCache().register(name, area);
+                cosmos.getTemplateCache().register(name, area); // the cache compresses it
             });
         });
 
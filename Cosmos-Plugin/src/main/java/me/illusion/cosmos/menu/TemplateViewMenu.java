@@ -115,7 +115,9 @@ public class TemplateViewMenu implements UpdatableMenu {
             List<Placeholder<Player>> placeholders = List.of(
                     new Placeholder<>("TEMPLATE_NAME", TextUtils.capitalize(data.getTemplateName())),
                     new Placeholder<>("TEMPLATE_SERIALIZER", TextUtils.capitalize(data.getSerializerName())),
-                    new Placeholder<>("TEMPLATE_CONTAINER", TextUtils.capitalize(data.getContainerName())));
+                    new Placeholder<>("TEMPLATE_CONTAINER", TextUtils.capitalize(data.getContainerName())),
+                    new Placeholder<>("TEMPLATE_SIZE", data.getSize() == 0 ? "Unknown" : TextUtils.formatSize(data.getSize())),
+                    new Placeholder<>("TEMPLATE_DIMENSIONS", data.hasDimensions() ? data.getWidth() + "x" + data.getHeight() + "x" + data.getLength() : "Unknown"));
 
             Button button = new Button(menu.getApplicator().getItem("active-item"));
             button.setPlaceholders(placeholders);
@@ -6,7 +6,9 @@ import me.illusion.cosmos.template.data.TemplateData;
 public enum SortingOption {
     TEMPLATE_NAME((one, two) -> one.getTemplateName().compareToIgnoreCase(two.getTemplateName())),
     SERIALIZER_NAME((one, two) -> one.getSerializerName().compareToIgnoreCase(two.getSerializerName())),
-    CONTAINER_NAME((one, two) -> one.getContainerName().compareToIgnoreCase(two.getContainerName()));
+    CONTAINER_NAME((one, two) -> one.getContainerName().compareToIgnoreCase(two.getContainerName())),
+    SIZE(Comparator.comparingLong(TemplateData::getSize).reversed()),
+    LAST_UPDATED(Comparator.comparingLong(TemplateData::getUpdatedAt).reversed());
 
     private final Comparator<TemplateData> comparator;
 
@@ -6,7 +6,9 @@ import java.util.concurrent.ConcurrentHashMap;
 import me.illusion.cosmos.CosmosPlugin;
 import me.illusion.cosmos.metrics.database.MetricsDatabase;
 import me.illusion.cosmos.metrics.database.impl.InfluxMetricsDatabase;
+import me.illusion.cosmos.metrics.impl.ExecutorMetric;
 import me.illusion.cosmos.metrics.impl.LoadedSessionsMetric;
+import me.illusion.cosmos.metrics.impl.SQLPoolMetric;
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.ConfigurationSection;
 
@@ -136,6 +138,8 @@ public class CosmosMetricsRegistry {
         registerDatabase(new InfluxMetricsDatabase());
 
         registerMetric(new LoadedSessionsMetric(plugin));
+        registerMetric(new SQLPoolMetric(plugin));
+        registerMetric(new ExecutorMetric(plugin));
     }
 
     /**
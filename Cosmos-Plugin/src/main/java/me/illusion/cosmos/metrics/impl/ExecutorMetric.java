@@ -0,0 +1,45 @@
+package me.illusion.cosmos.metrics.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import me.illusion.cosmos.CosmosPlugin;
+import me.illusion.cosmos.executor.CosmosExecutor;
+import me.illusion.cosmos.metrics.CosmosMetric;
+
+/**
+ * Reports the queue depth and throughput of every executor, so a container which can't keep up with its load can be spotted.
+ */
+public class ExecutorMetric implements CosmosMetric {
+
+    private final CosmosPlugin plugin;
+
+    public ExecutorMetric(CosmosPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public String getName() {
+        return "executors";
+    }
+
+    @Override
+    public Map<String, Integer> fetchMetrics() {
+        Map<String, Integer> metrics = new HashMap<>();
+
+        for (CosmosExecutor executor : plugin.getExecutorRegistry().getExecutors()) {
+            String name = executor.getName();
+
+            metrics.put(name + "_queued", executor.getQueuedCount());
+            metrics.put(name + "_active", executor.getActiveCount());
+            metrics.put(name + "_completed", (int) executor.getCompletedCount());
+            metrics.put(name + "_rejected", (int) executor.getRejectedCount());
+        }
+
+        return metrics;
+    }
+
+    @Override
+    public boolean supportsAsync() {
+        return true;
+    }
+}
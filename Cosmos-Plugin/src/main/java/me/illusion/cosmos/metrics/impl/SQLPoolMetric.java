@@ -0,0 +1,62 @@
+package me.illusion.cosmos.metrics.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import me.illusion.cosmos.CosmosPlugin;
+import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.database.base.SQLDataContainer;
+import me.illusion.cosmos.database.decorator.ForwardingDataContainer;
+import me.illusion.cosmos.metrics.CosmosMetric;
+import me.illusion.cosmos.utilities.sql.connection.PooledConnectionProvider;
+import me.illusion.cosmos.utilities.sql.connection.pool.ConnectionPool;
+
+/**
+ * Reports the state of the connection pool of every loaded SQL container, so pool exhaustion and leaks can be spotted.
+ */
+public class SQLPoolMetric implements CosmosMetric {
+
+    private final CosmosPlugin plugin;
+
+    public SQLPoolMetric(CosmosPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public String getName() {
+        return "sql_pool";
+    }
+
+    @Override
+    public Map<String, Integer> fetchMetrics() {
+        Map<String, Integer> metrics = new HashMap<>();
+
+        for (CosmosDataContainer container : plugin.getContainerRegistry().getLoadedContainers()) {
+            CosmosDataContainer unwrapped = container;
+
+            while (unwrapped instanceof ForwardingDataContainer forwarding) {
+                unwrapped = forwarding.getDelegate();
+            }
+
+            if (!(unwrapped instanceof SQLDataContainer sql) || !(sql.getProvider() instanceof PooledConnectionProvider provider)) {
+                continue;
+            }
+
+            ConnectionPool pool = provider.getPool();
+            String name = container.getName();
+
+            metrics.put(name + "_active", pool.getActiveCount());
+            metrics.put(name + "_idle", pool.getIdleCount());
+            metrics.put(name + "_size", pool.getSize());
+            metrics.put(name + "_waiting", pool.getWaitingCount());
+            metrics.put(name + "_leaks", (int) pool.getLeakCount());
+            metrics.put(name + "_timeouts", (int) pool.getTimeoutCount());
+        }
+
+        return metrics;
+    }
+
+    @Override
+    public boolean supportsAsync() {
+        return true;
+    }
+}
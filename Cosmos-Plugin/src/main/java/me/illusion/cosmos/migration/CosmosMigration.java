@@ -0,0 +1,421 @@
+package me.illusion.cosmos.migration;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import me.illusion.cosmos.CosmosPlugin;
+import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.executor.CosmosExecutor;
+import me.illusion.cosmos.template.data.RawTemplate;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Migrates every template of a container to another container, a page at a time. The source is paged through with
+ * {@link CosmosDataContainer#fetchTemplatePage(String, int)}, and only a fixed amount of pages is migrated at once, so memory usage and the load on both
+ * databases stay bounded no matter how many templates there are.
+ * <p>
+ * Pages are fetched and saved as raw data in a single batch each, so templates are never deserialized. Templates of a page whose batch fails are retried one
+ * by one, with an exponential backoff, and destinations which cannot store raw data are migrated by deserializing the templates instead.
+ * <p>
+ * Completed templates are recorded in a checkpoint file along with their checksum, so a migration which is interrupted resumes rather than starting over. A
+ * recorded template is only skipped while its checksum in the source still matches, so templates saved since are migrated again. The checkpoint is deleted
+ * once a migration runs to the end, whether or not some templates failed, so a finished run never leaves entries behind for later runs to trust.
+ *
+ * @author Illusion
+ */
+public class CosmosMigration {
+
+    private static final int MAX_BACKOFF_SHIFT = 6;
+
+    private final CosmosDataContainer source;
+    private final CosmosDataContainer destination;
+    private final MigrationCheckpoint checkpoint;
+    private final CosmosExecutor executor;
+    private final Logger logger;
+
+    private final int parallelism;
+    private final int pageSize;
+    private final int retries;
+    private final long retryDelayMillis;
+
+    private final AtomicInteger migrated = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final Queue<String> failed = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger listed = new AtomicInteger();
+    private CompletableFuture<List<String>> cursor = CompletableFuture.completedFuture(null); // guarded by this, the last page fetched
+    private Map<String, String> done = Collections.emptyMap(); // the checksums of the templates migrated by previous runs, keyed by name
+
+    private volatile boolean rawSupported = true;
+    private volatile int total = -1; // unknown until the source has been paged through
+    private volatile long startTime;
+
+    /**
+     * Creates a migration between two containers.
+     *
+     * @param plugin      The plugin
+     * @param source      The container to migrate from
+     * @param destination The container to migrate to
+     * @param settings    The migration section of the databases file, or null to use the defaults
+     */
+    public CosmosMigration(CosmosPlugin plugin, CosmosDataContainer source, CosmosDataContainer destination, ConfigurationSection settings) {
+        this.source = source;
+        this.destination = destination;
+        this.executor = plugin.getExecutorRegistry().get("migration");
+        this.logger = plugin.getLogger();
+
+        File folder = new File(plugin.getDataFolder(), "migrations");
+        this.checkpoint = new MigrationCheckpoint(new File(folder, source.getName() + "-to-" + destination.getName() + ".checkpoint"), logger);
+
+        this.parallelism = Math.max(1, settings == null ? 4 : settings.getInt("parallelism", 4));
+        this.pageSize = Math.max(1, settings == null ? 100 : settings.getInt("page-size", 100));
+        this.retries = Math.max(0, settings == null ? 3 : settings.getInt("retries", 3));
+        this.retryDelayMillis = Math.max(0, (long) ((settings == null ? 1 : settings.getDouble("retry-delay", 1)) * 1000));
+    }
+
+    /**
+     * Checks whether an interrupted run of this migration left a checkpoint behind, meaning starting it resumes that run.
+     *
+     * @return Whether this migration resumes a previous run
+     */
+    public boolean isResuming() {
+        return checkpoint.exists();
+    }
+
+    /**
+     * Starts the migration.
+     *
+     * @return A future which will be completed with the summary once every template has been migrated or has failed
+     */
+    public CompletableFuture<MigrationSummary> start() {
+        startTime = System.currentTimeMillis();
+
+        return CompletableFuture.runAsync(() -> done = checkpoint.load(), executor).thenCompose(irrelevant -> {
+            List<CompletableFuture<?>> workers = new ArrayList<>();
+
+            for (int index = 0; index < parallelism; index++) {
+                workers.add(work());
+            }
+
+            return CompletableFuture.allOf(workers.toArray(new CompletableFuture[0]));
+        }).handle((irrelevant, throwable) -> {
+            if (throwable != null) { // the source could not be paged through, the checkpoint is kept so the next run resumes this one
+                checkpoint.close(false);
+                throw throwable instanceof CompletionException ? (CompletionException) throwable : new CompletionException(throwable);
+            }
+
+            List<String> failures = new ArrayList<>(failed);
+            checkpoint.close(true);
+
+            return new MigrationSummary(Math.max(0, total), migrated.get(), skipped.get(), failures, retried.get(), bytes.get(),
+                System.currentTimeMillis() - startTime);
+        });
+    }
+
+    /**
+     * Migrates pages until there are none left. Each worker migrates one page at a time, which is what bounds the migration.
+     */
+    private CompletableFuture<Void> work() {
+        // Pages are migrated on the executor, so pages which complete right away don't grow the stack
+        return nextPage().thenComposeAsync(page -> {
+            if (page.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            return migratePage(page).thenCompose(irrelevant -> work());
+        }, executor);
+    }
+
+    /**
+     * Fetches the page after the last one fetched. Pages are fetched one after another, as each one starts after the last name of the previous one.
+     */
+    private synchronized CompletableFuture<List<String>> nextPage() {
+        cursor = cursor.thenCompose(previous -> {
+            if (previous != null && previous.isEmpty()) { // the source has been paged through
+                return CompletableFuture.completedFuture(previous);
+            }
+
+            String after = previous == null ? null : previous.get(previous.size() - 1);
+
+            return retry(() -> source.fetchTemplatePage(after, pageSize)).thenApply(page -> {
+                int count = listed.addAndGet(page.size());
+
+                if (page.isEmpty()) {
+                    total = count;
+                }
+
+                return page;
+            });
+        });
+
+        return cursor;
+    }
+
+    /**
+     * Migrates a page, skipping the templates a previous run already migrated, as long as they haven't been saved since.
+     */
+    private CompletableFuture<Void> migratePage(List<String> page) {
+        return fetchChecksums(page).thenCompose(checksums -> {
+            List<String> pending = new ArrayList<>();
+
+            for (String name : page) {
+                String checksum = checksums.get(name);
+
+                if (checksum != null && checksum.equals(done.get(name))) {
+                    skipped.incrementAndGet();
+                } else {
+                    pending.add(name);
+                }
+            }
+
+            if (pending.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            return rawSupported ? migrateRaw(pending, checksums) : migrateDeserialized(pending, checksums);
+        });
+    }
+
+    /**
+     * Fetches the checksums of the templates of a page, before they are fetched, so a template saved in between is migrated again by the next run. Templates
+     * whose checksum cannot be fetched are left out, they are migrated but never skipped.
+     */
+    private CompletableFuture<Map<String, String>> fetchChecksums(List<String> page) {
+        Map<String, String> checksums = new ConcurrentHashMap<>();
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+
+        for (String name : page) {
+            futures.add(retry(() -> source.fetchTemplateChecksum(name)).handle((checksum, throwable) -> {
+                if (checksum != null) {
+                    checksums.put(name, checksum);
+                }
+
+                return null;
+            }));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(irrelevant -> checksums);
+    }
+
+    private CompletableFuture<Void> migrateRaw(List<String> page, Map<String, String> checksums) {
+        return retry(() -> source.fetchRawTemplates(page)).handle((rawTemplates, throwable) -> {
+            if (throwable != null) {
+                fail(page, throwable);
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+
+            skipped.addAndGet(page.size() - rawTemplates.size()); // deleted since the source was paged through
+
+            return destination.saveRawTemplates(rawTemplates).handle((ignored, saveThrowable) -> {
+                if (saveThrowable == null) {
+                    complete(rawTemplates, checksums);
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+
+                if (isUnsupported(saveThrowable)) {
+                    rawSupported = false;
+                    return migrateDeserialized(new ArrayList<>(rawTemplates.keySet()), checksums);
+                }
+
+                // Only some templates of the batch may have failed, so each one is retried on its own
+                List<CompletableFuture<?>> futures = new ArrayList<>();
+
+                for (Map.Entry<String, RawTemplate> entry : rawTemplates.entrySet()) {
+                    futures.add(retry(() -> destination.saveRaw(entry.getKey(), entry.getValue())).handle((result, itemThrowable) -> {
+                        if (itemThrowable == null) {
+                            complete(Collections.singletonMap(entry.getKey(), entry.getValue()), checksums);
+                        } else {
+                            fail(Collections.singletonList(entry.getKey()), itemThrowable);
+                        }
+
+                        return null;
+                    }));
+                }
+
+                return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+            }).thenCompose(future -> future);
+        }).thenCompose(future -> future);
+    }
+
+    /**
+     * Migrates templates by deserializing them, for destinations which cannot store raw data.
+     */
+    private CompletableFuture<Void> migrateDeserialized(List<String> names, Map<String, String> checksums) {
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+
+        for (String name : names) {
+            CompletableFuture<Boolean> future = retry(() -> source.fetchTemplate(name).thenCompose(area -> {
+                if (area == null) {
+                    return CompletableFuture.completedFuture(false);
+                }
+
+                return destination.saveTemplate(name, area).thenApply(irrelevant -> true);
+            }));
+
+            futures.add(future.handle((exists, throwable) -> {
+                if (throwable != null) {
+                    fail(Collections.singletonList(name), throwable);
+                } else if (exists) {
+                    migrated.incrementAndGet();
+                    record(Collections.singletonList(name), checksums);
+                } else {
+                    skipped.incrementAndGet();
+                }
+
+                return null;
+            }));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    private void complete(Map<String, RawTemplate> rawTemplates, Map<String, String> checksums) {
+        for (RawTemplate raw : rawTemplates.values()) {
+            bytes.addAndGet(raw.getData().length);
+        }
+
+        migrated.addAndGet(rawTemplates.size());
+        record(rawTemplates.keySet(), checksums);
+    }
+
+    /**
+     * Records migrated templates in the checkpoint. Templates without a checksum are not recorded, as there would be no telling whether they changed.
+     */
+    private void record(Collection<String> names, Map<String, String> checksums) {
+        Map<String, String> records = new HashMap<>();
+
+        for (String name : names) {
+            String checksum = checksums.get(name);
+
+            if (checksum != null) {
+                records.put(name, checksum);
+            }
+        }
+
+        checkpoint.record(records);
+    }
+
+    private void fail(Collection<String> names, Throwable throwable) {
+        failed.addAll(names);
+        logger.warning("Failed to migrate " + names.size() + " template(s) from " + source.getName() + " to " + destination.getName() + ": " + throwable);
+    }
+
+    /**
+     * Runs an operation, retrying it with an exponential backoff until it succeeds or runs out of retries.
+     */
+    private <T> CompletableFuture<T> retry(Supplier<CompletableFuture<T>> operation) {
+        return attempt(operation, 0);
+    }
+
+    private <T> CompletableFuture<T> attempt(Supplier<CompletableFuture<T>> operation, int attempt) {
+        CompletableFuture<T> future;
+
+        try {
+            future = operation.get();
+        } catch (Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+
+        return future.handle((result, throwable) -> {
+            if (throwable == null) {
+                return CompletableFuture.completedFuture(result);
+            }
+
+            if (attempt >= retries || isUnsupported(throwable)) {
+                return CompletableFuture.<T>failedFuture(throwable);
+            }
+
+            retried.incrementAndGet();
+
+            long delay = retryDelayMillis << Math.min(attempt, MAX_BACKOFF_SHIFT);
+            Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor);
+
+            return CompletableFuture.runAsync(() -> {
+            }, delayed).thenCompose(irrelevant -> attempt(operation, attempt + 1));
+        }).thenCompose(next -> next);
+    }
+
+    /**
+     * Obtains the amount of templates in the source, including the ones migrated by previous runs.
+     *
+     * @return The amount of templates, or -1 if the source has not been paged through yet
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Obtains the amount of templates listed from the source so far, which is the total once the source has been paged through.
+     *
+     * @return The amount of listed templates
+     */
+    public int getListed() {
+        return listed.get();
+    }
+
+    public int getMigrated() {
+        return migrated.get();
+    }
+
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    public int getFailed() {
+        return failed.size();
+    }
+
+    /**
+     * Obtains the amount of templates migrated per second by this run.
+     *
+     * @return The throughput
+     */
+    public double getRate() {
+        long elapsed = System.currentTimeMillis() - startTime;
+        return elapsed <= 0 ? 0 : migrated.get() * 1000D / elapsed;
+    }
+
+    /**
+     * Estimates the time left until every template has been migrated, based on the throughput so far.
+     *
+     * @return The estimated time left in milliseconds, or -1 if it cannot be estimated yet
+     */
+    public long getRemainingMillis() {
+        double rate = getRate();
+
+        if (total < 0 || rate <= 0) {
+            return -1;
+        }
+
+        int remaining = total - migrated.get() - skipped.get() - failed.size();
+        return (long) (Math.max(0, remaining) / rate * 1000);
+    }
+
+    /**
+     * Checks whether a failure means the container cannot store raw data at all, rather than a failure which is worth retrying.
+     *
+     * @param throwable The failure
+     * @return Whether the failure is an {@link UnsupportedOperationException}
+     */
+    public static boolean isUnsupported(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+        return cause instanceof UnsupportedOperationException;
+    }
+}
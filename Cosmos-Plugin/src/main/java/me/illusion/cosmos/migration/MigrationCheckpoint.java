@@ -0,0 +1,116 @@
+package me.illusion.cosmos.migration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The checkpoint of a migration, holding the name and checksum of every template which has been migrated so far. Records are appended as pages complete, so
+ * a migration which is interrupted, or crashes, resumes where it stopped instead of starting over.
+ * <p>
+ * Records are only ever appended, a record torn by a crash is ignored when the checkpoint is loaded, and its template is simply migrated again. A template
+ * recorded more than once keeps its last checksum.
+ *
+ * @author Illusion
+ */
+class MigrationCheckpoint {
+
+    private final File file;
+    private final Logger logger;
+
+    private DataOutputStream output; // guarded by this
+
+    MigrationCheckpoint(File file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    /**
+     * Loads the checksums of the templates migrated by previous runs. A missing checkpoint results in an empty map.
+     *
+     * @return The checksums of the migrated templates, keyed by name
+     */
+    Map<String, String> load() {
+        Map<String, String> checksums = new HashMap<>();
+
+        if (!file.exists()) {
+            return checksums;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            while (true) {
+                String name = input.readUTF();
+                checksums.put(name, input.readUTF());
+            }
+        } catch (EOFException ignored) {
+            // the end of the checkpoint, or a record torn by a crash
+        } catch (IOException e) {
+            logger.warning("Could not fully read the migration checkpoint " + file.getName() + ": " + e.getMessage());
+        }
+
+        return checksums;
+    }
+
+    /**
+     * Records templates as migrated, and flushes them to disk.
+     *
+     * @param checksums The checksums of the migrated templates, keyed by name
+     */
+    synchronized void record(Map<String, String> checksums) {
+        if (checksums.isEmpty()) {
+            return;
+        }
+
+        try {
+            if (output == null) {
+                file.getParentFile().mkdirs();
+                output = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+            }
+
+            for (Map.Entry<String, String> entry : checksums.entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeUTF(entry.getValue());
+            }
+
+            output.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Closes the checkpoint, and deletes it if the migration has nothing left to resume.
+     *
+     * @param delete Whether to delete the checkpoint
+     */
+    synchronized void close(boolean delete) {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not close the migration checkpoint " + file.getName(), e);
+            }
+
+            output = null;
+        }
+
+        if (delete) {
+            file.delete();
+        }
+    }
+
+    boolean exists() {
+        return file.exists();
+    }
+}
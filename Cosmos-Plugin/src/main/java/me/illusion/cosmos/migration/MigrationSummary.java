@@ -0,0 +1,25 @@
+package me.illusion.cosmos.migration;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The outcome of a finished migration.
+ */
+@Getter
+@AllArgsConstructor
+public class MigrationSummary {
+
+    private final int total; // every template in the source, including the ones migrated by previous runs
+    private final int migrated;
+    private final int skipped; // already migrated by a previous run, or deleted from the source while migrating
+    private final List<String> failed; // the templates which could not be migrated, even after retrying
+    private final long retries;
+    private final long bytes; // only counted for templates migrated as raw data
+    private final long elapsedMillis;
+
+    public boolean isSuccessful() {
+        return failed.isEmpty();
+    }
+}
@@ -1,10 +1,17 @@
 package me.illusion.cosmos.serialization;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.CompletableFuture;
+import me.illusion.cosmos.CosmosPlugin;
 import me.illusion.cosmos.template.TemplatedArea;
 import me.illusion.cosmos.utilities.geometry.Cuboid;
+import me.illusion.cosmos.utilities.io.ByteBufferInputStream;
 import org.bukkit.Location;
+import org.bukkit.plugin.java.JavaPlugin;
 
 /**
  * A serializer is an object responsible for serializing and deserializing areas. An example of a serializer is the WorldEdit serializer, which serializes areas
@@ -31,6 +38,56 @@ public interface CosmosSerializer {
      */
     CompletableFuture<TemplatedArea> deserialize(byte[] data);
 
+    /**
+     * Serializes an area directly into a channel, without keeping the whole payload in memory. The channel is not closed by this method. The default
+     * implementation adapts {@link #serialize(TemplatedArea)}, serializers that can write incrementally should override it.
+     *
+     * @param area    The area to serialize
+     * @param channel The channel to write the serialized data to
+     * @return A future which will be completed once all the data has been written
+     */
+    default CompletableFuture<Void> serialize(TemplatedArea area, WritableByteChannel channel) {
+        return serialize(area).thenAccept(data -> {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Deserializes an area from a stream. The stream is fully consumed and closed by the serializer. The default implementation adapts
+     * {@link #deserialize(byte[])}, serializers that can read incrementally should override it.
+     *
+     * @param stream The stream to read the data from
+     * @return A future of the deserialized area
+     */
+    default CompletableFuture<TemplatedArea> deserialize(InputStream stream) {
+        return JavaPlugin.getPlugin(CosmosPlugin.class).getExecutorRegistry().get(getName()).supply(() -> {
+            try (InputStream input = stream) {
+                return input.readAllBytes();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }).thenCompose(this::deserialize);
+    }
+
+    /**
+     * Deserializes an area from a buffer, which may be a memory-mapped file. The buffer must not be modified until the future completes. The default
+     * implementation reads the buffer as a stream, serializers that can decode a buffer in place should override it.
+     *
+     * @param buffer The buffer to read the data from
+     * @return A future of the deserialized area
+     */
+    default CompletableFuture<TemplatedArea> deserialize(ByteBuffer buffer) {
+        return deserialize(new ByteBufferInputStream(buffer));
+    }
+
     /**
      * Creates a new area from a cuboid and an anchor location. (The anchor location is the location of the area's origin)
      *
@@ -55,4 +112,14 @@ public interface CosmosSerializer {
      */
     String getName();
 
+    /**
+     * Obtains the version of the format written by this serializer, which is recorded in the metadata of saved templates. Serializers should bump it
+     * whenever their format changes.
+     *
+     * @return The version of the serializer
+     */
+    default int getVersion() {
+        return 1;
+    }
+
 }
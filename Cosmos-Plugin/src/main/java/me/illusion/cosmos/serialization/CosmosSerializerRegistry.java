@@ -3,7 +3,10 @@ package me.illusion.cosmos.serialization;
 import com.google.common.collect.ImmutableMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import me.illusion.cosmos.CosmosPlugin;
 import me.illusion.cosmos.serialization.impl.BuiltinSerializer;
+import me.illusion.cosmos.serialization.impl.CosmosFormatSerializer;
+import me.illusion.cosmos.serialization.impl.DeltaSerializer;
 import me.illusion.cosmos.serialization.impl.WorldEditSerializer;
 import org.bukkit.Bukkit;
 
@@ -17,12 +20,20 @@ public class CosmosSerializerRegistry {
 
     private final Map<String, CosmosSerializer> serializers = new ConcurrentHashMap<>();
 
+    private final CosmosPlugin plugin;
+
+    public CosmosSerializerRegistry(CosmosPlugin plugin) {
+        this.plugin = plugin;
+    }
+
     /**
      * Registers the default serializers. It is recommended that you do not call this method, and instead register your own serializers.
      */
     public void registerDefaultSerializers() {
         register(new WorldEditSerializer(), "WorldEdit", "FastAsyncWorldEdit");
         register(new BuiltinSerializer());
+        register(new DeltaSerializer(plugin), "WorldEdit", "FastAsyncWorldEdit");
+        register(new CosmosFormatSerializer(plugin), "WorldEdit", "FastAsyncWorldEdit");
     }
 
     /**
@@ -61,6 +72,17 @@ public class CosmosSerializerRegistry {
         return serializers.get(name);
     }
 
+    /**
+     * Obtains the version of a serializer by name.
+     *
+     * @param name The name of the serializer
+     * @return The version of the serializer, or 0 if not found
+     */
+    public int getVersion(String name) {
+        CosmosSerializer serializer = name == null ? null : serializers.get(name);
+        return serializer == null ? 0 : serializer.getVersion();
+    }
+
     /**
      * Obtains an immutable map of all the registered serializers.
      *
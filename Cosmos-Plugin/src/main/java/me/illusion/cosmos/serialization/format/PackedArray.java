@@ -0,0 +1,100 @@
+package me.illusion.cosmos.serialization.format;
+
+/**
+ * A fixed-size array of small unsigned integers, packed into longs using only as many bits per entry as needed. Entries never span two longs, which wastes a
+ * few bits per long but keeps reads and writes to a single shift and mask.
+ *
+ * @author Illusion
+ */
+public class PackedArray {
+
+    private final int size;
+    private final int bits;
+    private final int entriesPerLong;
+    private final long mask;
+    private final long[] data;
+
+    /**
+     * Creates an empty array, filled with zeroes.
+     *
+     * @param size The amount of entries
+     * @param bits The amount of bits per entry, between 1 and 32
+     */
+    public PackedArray(int size, int bits) {
+        this(size, bits, new long[longsFor(size, bits)]);
+    }
+
+    /**
+     * Creates an array backed by already packed data.
+     *
+     * @param size The amount of entries
+     * @param bits The amount of bits per entry, between 1 and 32
+     * @param data The packed data, which is not copied
+     */
+    public PackedArray(int size, int bits, long[] data) {
+        if (bits < 1 || bits > 32) {
+            throw new IllegalArgumentException("Invalid amount of bits per entry: " + bits);
+        }
+
+        if (data.length != longsFor(size, bits)) {
+            throw new IllegalArgumentException("Expected " + longsFor(size, bits) + " longs, got " + data.length);
+        }
+
+        this.size = size;
+        this.bits = bits;
+        this.entriesPerLong = 64 / bits;
+        this.mask = (1L << bits) - 1;
+        this.data = data;
+    }
+
+    /**
+     * Obtains the amount of bits needed to store every index of a palette.
+     *
+     * @param paletteSize The size of the palette
+     * @return The amount of bits per entry, at least 1
+     */
+    public static int bitsFor(int paletteSize) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(paletteSize - 1));
+    }
+
+    /**
+     * Obtains the amount of longs needed to pack an array.
+     *
+     * @param size The amount of entries
+     * @param bits The amount of bits per entry
+     * @return The amount of longs
+     */
+    public static int longsFor(int size, int bits) {
+        int entriesPerLong = 64 / bits;
+        return (size + entriesPerLong - 1) / entriesPerLong;
+    }
+
+    public int get(int index) {
+        int shift = (index % entriesPerLong) * bits;
+        return (int) ((data[index / entriesPerLong] >>> shift) & mask);
+    }
+
+    public void set(int index, int value) {
+        int longIndex = index / entriesPerLong;
+        int shift = (index % entriesPerLong) * bits;
+
+        data[longIndex] = (data[longIndex] & ~(mask << shift)) | ((value & mask) << shift);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * Obtains the packed data backing this array. Modifying it modifies the array.
+     *
+     * @return The packed data
+     */
+    public long[] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,162 @@
+package me.illusion.cosmos.serialization.format;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import me.illusion.cosmos.utilities.io.VarInts;
+
+/**
+ * A 16x16x16 section of a {@link PaletteVolume}. Every distinct value of the section is stored once in its palette, and each position stores the index of its
+ * value in a {@link PackedArray}, using as few bits as the palette needs. Sections holding a single value, such as air, store no indices at all.
+ * <p>
+ * Values are opaque strings, block states or biome ids, so sections can be read and written without WorldEdit.
+ *
+ * @author Illusion
+ */
+public class PaletteSection {
+
+    public static final int SIZE = 16;
+    public static final int VOLUME = SIZE * SIZE * SIZE;
+
+    private final String[] palette;
+    private final PackedArray indices; // null if the palette has a single value
+
+    public PaletteSection(String[] palette, PackedArray indices) {
+        if (palette.length == 0) {
+            throw new IllegalArgumentException("A section needs at least one value");
+        }
+
+        this.palette = palette;
+        this.indices = palette.length == 1 ? null : indices;
+    }
+
+    /**
+     * Creates a section from the palette indices of every position.
+     *
+     * @param palette The palette
+     * @param ids     The palette index of every position, as laid out by {@link #index(int, int, int)}
+     * @return The section
+     */
+    public static PaletteSection of(String[] palette, int[] ids) {
+        if (palette.length == 1) {
+            return new PaletteSection(palette, null);
+        }
+
+        PackedArray indices = new PackedArray(VOLUME, PackedArray.bitsFor(palette.length));
+
+        for (int index = 0; index < VOLUME; index++) {
+            indices.set(index, ids[index]);
+        }
+
+        return new PaletteSection(palette, indices);
+    }
+
+    /**
+     * Obtains the index of a position within a section.
+     *
+     * @param x The x coordinate within the section, between 0 and 15
+     * @param y The y coordinate within the section, between 0 and 15
+     * @param z The z coordinate within the section, between 0 and 15
+     * @return The index
+     */
+    public static int index(int x, int y, int z) {
+        return (y << 8) | (z << 4) | x;
+    }
+
+    /**
+     * Obtains the palette index stored at a position.
+     *
+     * @param index The index of the position, as obtained by {@link #index(int, int, int)}
+     * @return The palette index
+     */
+    public int getId(int index) {
+        return indices == null ? 0 : indices.get(index);
+    }
+
+    /**
+     * Obtains the value stored at a position.
+     *
+     * @param index The index of the position, as obtained by {@link #index(int, int, int)}
+     * @return The value
+     */
+    public String get(int index) {
+        return palette[getId(index)];
+    }
+
+    public String[] getPalette() {
+        return palette;
+    }
+
+    /**
+     * Obtains the packed palette indices of this section. Modifying them modifies the section.
+     *
+     * @return The indices, or null if the palette has a single value
+     */
+    public PackedArray getIndices() {
+        return indices;
+    }
+
+    /**
+     * Writes this section. The palette size and its strings are prefixed by variable-length integers, followed by the bits per entry and the packed indices
+     * when there is more than one value.
+     *
+     * @param output The output to write to
+     * @throws IOException If the output could not be written to
+     */
+    public void write(DataOutput output) throws IOException {
+        VarInts.writeVarInt(output, palette.length);
+
+        for (String value : palette) {
+            VarInts.writeString(output, value);
+        }
+
+        if (indices == null) {
+            return;
+        }
+
+        output.writeByte(indices.getBits());
+
+        for (long value : indices.getData()) {
+            output.writeLong(value);
+        }
+    }
+
+    /**
+     * Reads a section written by {@link #write(DataOutput)}.
+     *
+     * @param input The input to read from
+     * @return The section
+     * @throws IOException If the input could not be read, or the section is malformed
+     */
+    public static PaletteSection read(DataInput input) throws IOException {
+        int paletteSize = VarInts.readVarInt(input);
+
+        if (paletteSize < 1 || paletteSize > VOLUME) {
+            throw new IOException("Invalid section palette size " + paletteSize);
+        }
+
+        String[] palette = new String[paletteSize];
+
+        for (int index = 0; index < paletteSize; index++) {
+            palette[index] = VarInts.readString(input);
+        }
+
+        if (paletteSize == 1) {
+            return new PaletteSection(palette, null);
+        }
+
+        int bits = input.readUnsignedByte();
+
+        if (bits < PackedArray.bitsFor(paletteSize) || bits > 32) {
+            throw new IOException("Invalid section bits per entry " + bits);
+        }
+
+        long[] data = new long[PackedArray.longsFor(VOLUME, bits)];
+
+        for (int index = 0; index < data.length; index++) {
+            data[index] = input.readLong();
+        }
+
+        return new PaletteSection(palette, new PackedArray(VOLUME, bits, data));
+    }
+}
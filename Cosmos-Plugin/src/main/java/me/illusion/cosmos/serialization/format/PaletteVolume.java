@@ -0,0 +1,282 @@
+package me.illusion.cosmos.serialization.format;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import me.illusion.cosmos.utilities.io.VarInts;
+
+/**
+ * The contents of the Cosmos template format, independent of WorldEdit. The volume is split into 16x16x16 {@link PaletteSection}s, ordered by x, then z,
+ * then y, and sections on the edges are padded. Blocks with NBT data and entities are kept in separate tables, with their NBT data stored as opaque bytes.
+ * <p>
+ * The format starts with a magic number and a version, followed by the size, the minimum point and the origin, the block sections, the optional biome
+ * sections, the tile entity table and the entity table. Sizes, counts and lengths are variable-length integers.
+ *
+ * @author Illusion
+ */
+@Getter
+public class PaletteVolume {
+
+    public static final int MAGIC = 0x43535046; // "CSPF"
+    public static final int VERSION = 1;
+
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+
+    private final int originX;
+    private final int originY;
+    private final int originZ;
+
+    private final PaletteSection[] blocks;
+    private final PaletteSection[] biomes; // null if the volume has no biomes
+    private final List<TileEntity> tileEntities;
+    private final List<EntityRecord> entities;
+
+    public PaletteVolume(int sizeX, int sizeY, int sizeZ, int minX, int minY, int minZ, int originX, int originY, int originZ, PaletteSection[] blocks,
+                         PaletteSection[] biomes, List<TileEntity> tileEntities, List<EntityRecord> entities) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+        this.blocks = blocks;
+        this.biomes = biomes;
+        this.tileEntities = tileEntities;
+        this.entities = entities;
+
+        if (blocks.length != getSectionCount() || (biomes != null && biomes.length != getSectionCount())) {
+            throw new IllegalArgumentException("Expected " + getSectionCount() + " sections");
+        }
+    }
+
+    /**
+     * Obtains the amount of sections along an axis.
+     *
+     * @param size The size of the volume along the axis
+     * @return The amount of sections
+     */
+    public static int sectionsFor(int size) {
+        return (size + PaletteSection.SIZE - 1) / PaletteSection.SIZE;
+    }
+
+    public int getSectionsX() {
+        return sectionsFor(sizeX);
+    }
+
+    public int getSectionsY() {
+        return sectionsFor(sizeY);
+    }
+
+    public int getSectionsZ() {
+        return sectionsFor(sizeZ);
+    }
+
+    public int getSectionCount() {
+        return getSectionsX() * getSectionsY() * getSectionsZ();
+    }
+
+    /**
+     * Obtains the index of a section.
+     *
+     * @param sectionX The x coordinate of the section
+     * @param sectionY The y coordinate of the section
+     * @param sectionZ The z coordinate of the section
+     * @return The index of the section
+     */
+    public int getSectionIndex(int sectionX, int sectionY, int sectionZ) {
+        return (sectionY * getSectionsZ() + sectionZ) * getSectionsX() + sectionX;
+    }
+
+    /**
+     * Obtains the block state at a position relative to the minimum point.
+     *
+     * @param x The relative x coordinate
+     * @param y The relative y coordinate
+     * @param z The relative z coordinate
+     * @return The block state, as a string
+     */
+    public String getBlock(int x, int y, int z) {
+        return get(blocks, x, y, z);
+    }
+
+    /**
+     * Obtains the biome at a position relative to the minimum point.
+     *
+     * @param x The relative x coordinate
+     * @param y The relative y coordinate
+     * @param z The relative z coordinate
+     * @return The biome id, or null if the volume has no biomes
+     */
+    public String getBiome(int x, int y, int z) {
+        return biomes == null ? null : get(biomes, x, y, z);
+    }
+
+    private String get(PaletteSection[] sections, int x, int y, int z) {
+        PaletteSection section = sections[getSectionIndex(x >> 4, y >> 4, z >> 4)];
+        return section.get(PaletteSection.index(x & 15, y & 15, z & 15));
+    }
+
+    /**
+     * Writes this volume.
+     *
+     * @param output The output to write to
+     * @throws IOException If the output could not be written to
+     */
+    public void write(DataOutput output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+
+        VarInts.writeVarInt(output, sizeX);
+        VarInts.writeVarInt(output, sizeY);
+        VarInts.writeVarInt(output, sizeZ);
+
+        VarInts.writeSignedVarInt(output, minX);
+        VarInts.writeSignedVarInt(output, minY);
+        VarInts.writeSignedVarInt(output, minZ);
+
+        VarInts.writeSignedVarInt(output, originX);
+        VarInts.writeSignedVarInt(output, originY);
+        VarInts.writeSignedVarInt(output, originZ);
+
+        for (PaletteSection section : blocks) {
+            section.write(output);
+        }
+
+        output.writeBoolean(biomes != null);
+
+        if (biomes != null) {
+            for (PaletteSection section : biomes) {
+                section.write(output);
+            }
+        }
+
+        VarInts.writeVarInt(output, tileEntities.size());
+
+        for (TileEntity tileEntity : tileEntities) {
+            VarInts.writeVarInt(output, tileEntity.getX());
+            VarInts.writeVarInt(output, tileEntity.getY());
+            VarInts.writeVarInt(output, tileEntity.getZ());
+            VarInts.writeBytes(output, tileEntity.getNbt());
+        }
+
+        VarInts.writeVarInt(output, entities.size());
+
+        for (EntityRecord entity : entities) {
+            VarInts.writeString(output, entity.getType());
+            output.writeDouble(entity.getX());
+            output.writeDouble(entity.getY());
+            output.writeDouble(entity.getZ());
+            output.writeFloat(entity.getYaw());
+            output.writeFloat(entity.getPitch());
+            VarInts.writeBytes(output, entity.getNbt());
+        }
+    }
+
+    /**
+     * Reads a volume written by {@link #write(DataOutput)}.
+     *
+     * @param input The input to read from
+     * @return The volume
+     * @throws IOException If the input could not be read, or is not a volume of a supported version
+     */
+    public static PaletteVolume read(DataInput input) throws IOException {
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a Cosmos template");
+        }
+
+        int version = input.readUnsignedByte();
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported Cosmos template version " + version);
+        }
+
+        int sizeX = VarInts.readVarInt(input);
+        int sizeY = VarInts.readVarInt(input);
+        int sizeZ = VarInts.readVarInt(input);
+
+        if (sizeX <= 0 || sizeY <= 0 || sizeZ <= 0) {
+            throw new IOException("Invalid template size " + sizeX + "x" + sizeY + "x" + sizeZ);
+        }
+
+        int minX = VarInts.readSignedVarInt(input);
+        int minY = VarInts.readSignedVarInt(input);
+        int minZ = VarInts.readSignedVarInt(input);
+
+        int originX = VarInts.readSignedVarInt(input);
+        int originY = VarInts.readSignedVarInt(input);
+        int originZ = VarInts.readSignedVarInt(input);
+
+        int sectionCount = sectionsFor(sizeX) * sectionsFor(sizeY) * sectionsFor(sizeZ);
+        PaletteSection[] blocks = readSections(input, sectionCount);
+        PaletteSection[] biomes = input.readBoolean() ? readSections(input, sectionCount) : null;
+
+        int tileEntityCount = VarInts.readVarInt(input);
+        List<TileEntity> tileEntities = new ArrayList<>();
+
+        for (int index = 0; index < tileEntityCount; index++) {
+            tileEntities.add(new TileEntity(VarInts.readVarInt(input), VarInts.readVarInt(input), VarInts.readVarInt(input), VarInts.readBytes(input)));
+        }
+
+        int entityCount = VarInts.readVarInt(input);
+        List<EntityRecord> entities = new ArrayList<>();
+
+        for (int index = 0; index < entityCount; index++) {
+            entities.add(new EntityRecord(VarInts.readString(input), input.readDouble(), input.readDouble(), input.readDouble(), input.readFloat(),
+                input.readFloat(), VarInts.readBytes(input)));
+        }
+
+        return new PaletteVolume(sizeX, sizeY, sizeZ, minX, minY, minZ, originX, originY, originZ, blocks, biomes, tileEntities, entities);
+    }
+
+    private static PaletteSection[] readSections(DataInput input, int count) throws IOException {
+        PaletteSection[] sections = new PaletteSection[count];
+
+        for (int index = 0; index < count; index++) {
+            sections[index] = PaletteSection.read(input);
+        }
+
+        return sections;
+    }
+
+    /**
+     * The NBT data of a block, at a position relative to the minimum point of the volume.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class TileEntity {
+
+        private final int x;
+        private final int y;
+        private final int z;
+        private final byte[] nbt;
+    }
+
+    /**
+     * An entity, at a position relative to the minimum point of the volume. Entities without a state have an empty type and no NBT data.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class EntityRecord {
+
+        private final String type;
+        private final double x;
+        private final double y;
+        private final double z;
+        private final float yaw;
+        private final float pitch;
+        private final byte[] nbt; // empty if the entity has none
+    }
+}
@@ -4,6 +4,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.concurrent.CompletableFuture;
 import me.illusion.cosmos.serialization.CosmosSerializer;
 import me.illusion.cosmos.template.TemplatedArea;
@@ -30,7 +31,12 @@ public class BuiltinSerializer implements CosmosSerializer {
 
     @Override
     public CompletableFuture<TemplatedArea> deserialize(byte[] data) {
-        return CompletableFuture.supplyAsync(() -> decode(data));
+        return deserialize(new ByteArrayInputStream(data));
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> deserialize(InputStream stream) {
+        return CompletableFuture.supplyAsync(() -> decode(stream));
     }
 
     @Override
@@ -105,17 +111,13 @@ public class BuiltinSerializer implements CosmosSerializer {
         }
     }
 
-    private StructureTemplatedArea decode(byte[] data) {
-        try (ByteArrayInputStream stream = new ByteArrayInputStream(data)) {
+    private StructureTemplatedArea decode(InputStream input) {
+        try (InputStream stream = input) {
             int mainLength = stream.read();
-            byte[] mainData = new byte[mainLength];
-
-            stream.read(mainData);
+            byte[] mainData = stream.readNBytes(mainLength);
 
             int emptyLength = stream.read();
-            byte[] emptyData = new byte[emptyLength];
-
-            stream.read(emptyData);
+            byte[] emptyData = stream.readNBytes(emptyLength);
 
             Structure main = readStructure(mainData);
             Structure empty = readStructure(emptyData);
@@ -0,0 +1,568 @@
+package me.illusion.cosmos.serialization.impl;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.bukkit.BukkitWorld;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extension.input.InputParseException;
+import com.sk89q.worldedit.extension.input.ParserContext;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.function.operation.ForwardExtentCopy;
+import com.sk89q.worldedit.function.operation.Operations;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.math.Vector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.world.World;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.biome.BiomeTypes;
+import com.sk89q.worldedit.world.block.BaseBlock;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.entity.EntityType;
+import com.sk89q.worldedit.world.entity.EntityTypes;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import me.illusion.cosmos.CosmosPlugin;
+import me.illusion.cosmos.executor.CosmosExecutor;
+import me.illusion.cosmos.executor.CosmosExecutorRegistry;
+import me.illusion.cosmos.serialization.CosmosSerializer;
+import me.illusion.cosmos.serialization.format.PaletteSection;
+import me.illusion.cosmos.serialization.format.PaletteVolume;
+import me.illusion.cosmos.serialization.format.PaletteVolume.EntityRecord;
+import me.illusion.cosmos.serialization.format.PaletteVolume.TileEntity;
+import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.impl.worldedit.CompactClipboard;
+import me.illusion.cosmos.template.impl.worldedit.SchematicTemplatedArea;
+import me.illusion.cosmos.utilities.geometry.Cuboid;
+import me.illusion.cosmos.utilities.io.NonClosingOutputStream;
+
+/**
+ * The Cosmos serializer stores clipboards in the native {@link PaletteVolume} format. Every 16x16x16 section keeps its own palette of block states and packs
+ * its blocks into as few bits as that palette needs, so the common case of a few block types per section takes a fraction of a sponge schematic, and neither
+ * encoding nor decoding goes through WorldEdit's NBT stack for regular blocks.
+ * <p>
+ * Only blocks with NBT data and entities are written as NBT, in their own tables. Block states are converted to and from strings once per distinct state, so
+ * the per-block work is a map lookup and a few bit operations.
+ * <p>
+ * Sections are encoded in parallel on a fork-join pool shared by every call, and stitched back together in order, so the output does not depend on the amount
+ * of cores. The rest of the work, including the IO, runs on the serialization executor. Both are shut down along with every other executor. Areas are decoded
+ * into a {@link CompactClipboard}, which takes the sections as they are, and areas created or imported through this serializer are held in one as well.
+ * <p>
+ * Sponge schematics can be imported through this serializer too, converting them to the Cosmos format.
+ *
+ * @author Illusion
+ */
+public class CosmosFormatSerializer implements CosmosSerializer {
+
+    private static final int PARALLEL_THRESHOLD = 8; // below this many sections, handing them to the pool costs more than it saves
+
+    private final WorldEditSerializer worldEditSerializer = new WorldEditSerializer();
+    private final CosmosPlugin plugin;
+    private final CosmosExecutor executor;
+    private final ForkJoinPool sectionPool;
+
+    public CosmosFormatSerializer(CosmosPlugin plugin) {
+        CosmosExecutorRegistry registry = plugin.getExecutorRegistry();
+
+        this.plugin = plugin;
+        this.executor = registry.get("serialization");
+        this.sectionPool = registry.register("sections", new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("cosmos-sections-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> serialize(TemplatedArea area) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        return serialize(area, Channels.newChannel(stream)).thenApply(irrelevant -> stream.toByteArray());
+    }
+
+    @Override
+    public CompletableFuture<Void> serialize(TemplatedArea area, WritableByteChannel channel) {
+        if (!(area instanceof SchematicTemplatedArea schematic)) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("The cosmos serializer can only serialize schematic areas"));
+        }
+
+        // Clipboards are obtained on the caller thread, like the WorldEdit serializer does
+        Clipboard clipboard = schematic.getClipboard();
+
+        return executor.run(() -> {
+            try (DataOutputStream output = new DataOutputStream(new NonClosingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel))))) {
+                toVolume(clipboard).write(output);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> deserialize(byte[] data) {
+        return deserialize(new ByteArrayInputStream(data));
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> deserialize(InputStream stream) {
+        return executor.supply(() -> {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(stream))) {
+                return (TemplatedArea) new SchematicTemplatedArea(this, toClipboard(PaletteVolume.read(input)));
+            } catch (IOException | WorldEditException e) {
+                throw new RuntimeException(e);
+            }
+        }).whenComplete((area, throwable) -> {
+            if (throwable != null) {
+                plugin.getLogger().log(Level.SEVERE, "Could not load a Cosmos format template, its stored data is left untouched", throwable);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> createArea(Cuboid bounds, org.bukkit.Location anchor) {
+        World worldEditWorld = new BukkitWorld(anchor.getWorld());
+
+        CuboidRegion region = new CuboidRegion(
+            worldEditWorld,
+            BlockVector3.at(bounds.getMinX(), bounds.getMinY(), bounds.getMinZ()),
+            BlockVector3.at(bounds.getMaxX(), bounds.getMaxY(), bounds.getMaxZ())
+        );
+
+        CompactClipboard clipboard = new CompactClipboard(region);
+
+        try (EditSession session = WorldEdit.getInstance().newEditSession(worldEditWorld)) {
+            clipboard.setOrigin(BlockVector3.at(anchor.getX(), anchor.getY(), anchor.getZ()));
+
+            ForwardExtentCopy copy = new ForwardExtentCopy(session, region, clipboard, region.getMinimumPoint());
+            copy.setCopyingEntities(true);
+            copy.setCopyingBiomes(true);
+
+            Operations.complete(copy);
+        } catch (WorldEditException e) {
+            throw new RuntimeException(e);
+        }
+
+        return CompletableFuture.completedFuture(new SchematicTemplatedArea(this, clipboard));
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> tryImport(File file) {
+        int magic;
+
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            magic = input.readInt();
+        } catch (IOException expected) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (magic != PaletteVolume.MAGIC) {
+            return worldEditSerializer.tryImport(file).thenApply(this::adopt); // most likely a schematic, which is converted
+        }
+
+        try {
+            return deserialize(Files.newInputStream(file.toPath()));
+        } catch (IOException expected) {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "cosmos";
+    }
+
+    @Override
+    public int getVersion() {
+        return PaletteVolume.VERSION;
+    }
+
+    private TemplatedArea adopt(TemplatedArea area) {
+        if (!(area instanceof SchematicTemplatedArea schematic)) {
+            return null;
+        }
+
+        try {
+            return new SchematicTemplatedArea(this, CompactClipboard.copyOf(schematic.getClipboard()));
+        } catch (WorldEditException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private PaletteVolume toVolume(Clipboard clipboard) throws IOException {
+        BlockVector3 min = clipboard.getRegion().getMinimumPoint();
+        BlockVector3 size = clipboard.getRegion().getDimensions();
+        BlockVector3 origin = clipboard.getOrigin();
+
+        int sectionsX = PaletteVolume.sectionsFor(size.getBlockX());
+        int sectionsY = PaletteVolume.sectionsFor(size.getBlockY());
+        int sectionsZ = PaletteVolume.sectionsFor(size.getBlockZ());
+
+        boolean hasBiomes = clipboard.hasBiomes();
+        Map<BlockState, String> stateNames = new ConcurrentHashMap<>(); // block states are converted to strings once per distinct state
+
+        // Reading the clipboard has no side effects, so every section is encoded on its own
+        List<EncodedSection> encoded = forEachSection(sectionsX, sectionsZ, sectionsX * sectionsY * sectionsZ, (sectionX, sectionY, sectionZ, index) -> {
+            if (clipboard instanceof CompactClipboard compact) {
+                return encodeCompact(compact, index, hasBiomes, stateNames);
+            }
+
+            List<TileEntity> sectionTileEntities = new ArrayList<>();
+            PaletteSection blocks = encodeBlocks(clipboard, min, size, sectionX, sectionY, sectionZ, stateNames, sectionTileEntities);
+            PaletteSection biomes = hasBiomes ? encodeBiomes(clipboard, min, size, sectionX, sectionY, sectionZ) : null;
+
+            return new EncodedSection(blocks, biomes, sectionTileEntities);
+        });
+
+        // Results are stitched in section order, so the output is the same as a sequential run
+        PaletteSection[] blocks = new PaletteSection[encoded.size()];
+        PaletteSection[] biomes = hasBiomes ? new PaletteSection[encoded.size()] : null;
+        List<TileEntity> tileEntities = new ArrayList<>();
+
+        for (int index = 0; index < encoded.size(); index++) {
+            EncodedSection section = encoded.get(index);
+
+            blocks[index] = section.getBlocks();
+            tileEntities.addAll(section.getTileEntities());
+
+            if (biomes != null) {
+                biomes[index] = section.getBiomes();
+            }
+        }
+
+        if (clipboard instanceof CompactClipboard compact) {
+            tileEntities = compactTileEntities(compact, sectionsX, sectionsZ);
+        }
+
+        List<EntityRecord> entities = new ArrayList<>();
+
+        for (Entity entity : clipboard.getEntities()) {
+            BaseEntity state = entity.getState();
+            Location location = entity.getLocation();
+            Vector3 position = location.toVector().subtract(min.toVector3());
+
+            entities.add(new EntityRecord(state == null ? "" : state.getType().getId(), position.getX(), position.getY(), position.getZ(), location.getYaw(),
+                location.getPitch(), writeNbt(state == null ? null : state.getNbtData())));
+        }
+
+        return new PaletteVolume(size.getBlockX(), size.getBlockY(), size.getBlockZ(), min.getBlockX(), min.getBlockY(), min.getBlockZ(), origin.getBlockX(),
+            origin.getBlockY(), origin.getBlockZ(), blocks, biomes, tileEntities, entities);
+    }
+
+    /**
+     * Encodes a section of a compact clipboard, which already holds its palette and packed indices.
+     */
+    private EncodedSection encodeCompact(CompactClipboard clipboard, int index, boolean hasBiomes, Map<BlockState, String> stateNames) {
+        BlockState[] states = clipboard.getSectionPalette(index);
+        String[] palette = new String[states.length];
+
+        for (int id = 0; id < states.length; id++) {
+            palette[id] = stateNames.computeIfAbsent(states[id], BlockState::getAsString);
+        }
+
+        PaletteSection biomes = null;
+
+        if (hasBiomes) {
+            BiomeType[] biomeTypes = clipboard.getBiomeSectionPalette(index);
+            String[] biomePalette = new String[biomeTypes == null ? 1 : biomeTypes.length];
+
+            for (int id = 0; id < biomePalette.length; id++) {
+                biomePalette[id] = (biomeTypes == null ? BiomeTypes.OCEAN : biomeTypes[id]).getId();
+            }
+
+            biomes = new PaletteSection(biomePalette, clipboard.getBiomeSectionIndices(index));
+        }
+
+        return new EncodedSection(new PaletteSection(palette, clipboard.getSectionIndices(index)), biomes, Collections.emptyList());
+    }
+
+    /**
+     * Obtains the tile entities of a compact clipboard, in the order the other clipboards produce them: by section, then by position within the section.
+     */
+    private List<TileEntity> compactTileEntities(CompactClipboard clipboard, int sectionsX, int sectionsZ) throws IOException {
+        List<TileEntity> tileEntities = new ArrayList<>();
+
+        for (Map.Entry<BlockVector3, CompoundTag> entry : clipboard.getTiles().entrySet()) {
+            BlockVector3 position = entry.getKey();
+            tileEntities.add(new TileEntity(position.getBlockX(), position.getBlockY(), position.getBlockZ(), writeNbt(entry.getValue())));
+        }
+
+        tileEntities.sort(Comparator.<TileEntity>comparingInt(tile -> ((tile.getY() >> 4) * sectionsZ + (tile.getZ() >> 4)) * sectionsX + (tile.getX() >> 4))
+            .thenComparingInt(tile -> PaletteSection.index(tile.getX() & 15, tile.getY() & 15, tile.getZ() & 15)));
+
+        return tileEntities;
+    }
+
+    private PaletteSection encodeBlocks(Clipboard clipboard, BlockVector3 min, BlockVector3 size, int sectionX, int sectionY, int sectionZ,
+                                        Map<BlockState, String> stateNames, List<TileEntity> tileEntities) throws IOException {
+        Map<BlockState, Integer> ids = new HashMap<>();
+        List<String> palette = new ArrayList<>();
+        int[] indices = new int[PaletteSection.VOLUME]; // positions past the edges of the clipboard are left at the first value
+
+        for (int y = 0; y < PaletteSection.SIZE; y++) {
+            int blockY = sectionY * PaletteSection.SIZE + y;
+
+            if (blockY >= size.getBlockY()) {
+                break;
+            }
+
+            for (int z = 0; z < PaletteSection.SIZE; z++) {
+                int blockZ = sectionZ * PaletteSection.SIZE + z;
+
+                if (blockZ >= size.getBlockZ()) {
+                    break;
+                }
+
+                for (int x = 0; x < PaletteSection.SIZE; x++) {
+                    int blockX = sectionX * PaletteSection.SIZE + x;
+
+                    if (blockX >= size.getBlockX()) {
+                        break;
+                    }
+
+                    BaseBlock block = clipboard.getFullBlock(min.add(blockX, blockY, blockZ));
+                    BlockState state = block.toImmutableState();
+                    Integer id = ids.get(state);
+
+                    if (id == null) {
+                        id = palette.size();
+                        ids.put(state, id);
+                        palette.add(stateNames.computeIfAbsent(state, BlockState::getAsString));
+                    }
+
+                    indices[PaletteSection.index(x, y, z)] = id;
+
+                    if (block.hasNbtData()) {
+                        tileEntities.add(new TileEntity(blockX, blockY, blockZ, writeNbt(block.getNbtData())));
+                    }
+                }
+            }
+        }
+
+        return PaletteSection.of(palette.toArray(new String[0]), indices);
+    }
+
+    private PaletteSection encodeBiomes(Clipboard clipboard, BlockVector3 min, BlockVector3 size, int sectionX, int sectionY, int sectionZ) {
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> palette = new ArrayList<>();
+        int[] indices = new int[PaletteSection.VOLUME];
+
+        for (int y = 0; y < PaletteSection.SIZE && sectionY * PaletteSection.SIZE + y < size.getBlockY(); y++) {
+            for (int z = 0; z < PaletteSection.SIZE && sectionZ * PaletteSection.SIZE + z < size.getBlockZ(); z++) {
+                for (int x = 0; x < PaletteSection.SIZE && sectionX * PaletteSection.SIZE + x < size.getBlockX(); x++) {
+                    BlockVector3 position = min.add(sectionX * PaletteSection.SIZE + x, sectionY * PaletteSection.SIZE + y, sectionZ * PaletteSection.SIZE + z);
+                    String biome = clipboard.getBiome(position).getId();
+
+                    Integer id = ids.get(biome);
+
+                    if (id == null) {
+                        id = palette.size();
+                        ids.put(biome, id);
+                        palette.add(biome);
+                    }
+
+                    indices[PaletteSection.index(x, y, z)] = id;
+                }
+            }
+        }
+
+        return PaletteSection.of(palette.toArray(new String[0]), indices);
+    }
+
+    private Clipboard toClipboard(PaletteVolume volume) throws IOException, WorldEditException {
+        BlockVector3 min = BlockVector3.at(volume.getMinX(), volume.getMinY(), volume.getMinZ());
+        BlockVector3 max = min.add(volume.getSizeX() - 1, volume.getSizeY() - 1, volume.getSizeZ() - 1);
+
+        CompactClipboard clipboard = new CompactClipboard(new CuboidRegion(min, max));
+        clipboard.setOrigin(BlockVector3.at(volume.getOriginX(), volume.getOriginY(), volume.getOriginZ()));
+
+        ParserContext context = new ParserContext();
+        context.setRestricted(false);
+        context.setPreferringWildcard(false);
+        context.setTryLegacy(false);
+
+        Map<String, BlockState> states = new HashMap<>(); // block states are parsed once per distinct state
+        Map<String, BiomeType> biomeTypes = new HashMap<>();
+
+        // The clipboard lays its sections out like the format does, so the packed indices are handed over as they are
+        for (int index = 0; index < volume.getSectionCount(); index++) {
+            PaletteSection blocks = volume.getBlocks()[index];
+            clipboard.setSection(index, resolveStates(blocks, states, context), blocks.getIndices());
+
+            if (volume.getBiomes() != null) {
+                PaletteSection biomes = volume.getBiomes()[index];
+                clipboard.setBiomeSection(index, resolveBiomes(biomes, biomeTypes), biomes.getIndices());
+            }
+        }
+
+        for (TileEntity tileEntity : volume.getTileEntities()) {
+            BlockVector3 position = min.add(tileEntity.getX(), tileEntity.getY(), tileEntity.getZ());
+            clipboard.setBlock(position, clipboard.getBlock(position).toBaseBlock(readNbt(tileEntity.getNbt())));
+        }
+
+        for (EntityRecord entity : volume.getEntities()) {
+            EntityType type = EntityTypes.get(entity.getType());
+
+            if (type == null) {
+                continue; // Unknown entities are dropped, as WorldEdit would do on paste
+            }
+
+            Vector3 position = Vector3.at(entity.getX(), entity.getY(), entity.getZ()).add(min.toVector3());
+            clipboard.createEntity(new Location(clipboard, position, entity.getYaw(), entity.getPitch()), new BaseEntity(type, readNbt(entity.getNbt())));
+        }
+
+        return clipboard;
+    }
+
+    private BlockState[] resolveStates(PaletteSection section, Map<String, BlockState> states, ParserContext context) throws IOException {
+        String[] palette = section.getPalette();
+        BlockState[] resolved = new BlockState[palette.length];
+
+        for (int index = 0; index < palette.length; index++) {
+            String state = palette[index];
+            BlockState block = states.get(state);
+
+            if (block == null) {
+                try {
+                    block = WorldEdit.getInstance().getBlockFactory().parseFromInput(state, context).toImmutableState();
+                } catch (InputParseException e) {
+                    throw new IOException("Could not parse block " + state, e);
+                }
+
+                states.put(state, block);
+            }
+
+            resolved[index] = block;
+        }
+
+        return resolved;
+    }
+
+    private BiomeType[] resolveBiomes(PaletteSection section, Map<String, BiomeType> biomeTypes) {
+        String[] palette = section.getPalette();
+        BiomeType[] resolved = new BiomeType[palette.length];
+
+        for (int index = 0; index < palette.length; index++) {
+            BiomeType biome = biomeTypes.computeIfAbsent(palette[index], BiomeTypes::get);
+            resolved[index] = biome == null ? BiomeTypes.OCEAN : biome; // biomes unknown to this version fall back to what unset biomes read as
+        }
+
+        return resolved;
+    }
+
+    /**
+     * Runs a job for every section, on the section pool if there are enough sections to be worth it.
+     *
+     * @return The results of the job, in section order
+     */
+    private <T> List<T> forEachSection(int sectionsX, int sectionsZ, int count, SectionJob<T> job) throws IOException {
+        List<Callable<T>> tasks = new ArrayList<>(count);
+
+        for (int index = 0; index < count; index++) {
+            int sectionIndex = index;
+            int sectionX = index % sectionsX;
+            int sectionZ = (index / sectionsX) % sectionsZ;
+            int sectionY = index / (sectionsX * sectionsZ);
+
+            tasks.add(() -> job.run(sectionX, sectionY, sectionZ, sectionIndex));
+        }
+
+        List<T> results = new ArrayList<>(count);
+
+        try {
+            if (count < PARALLEL_THRESHOLD) {
+                for (Callable<T> task : tasks) {
+                    results.add(task.call());
+                }
+
+                return results;
+            }
+
+            for (Future<T> future : sectionPool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+
+            return results;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private byte[] writeNbt(CompoundTag tag) throws IOException {
+        if (tag == null) {
+            return new byte[0];
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        try (NBTOutputStream output = new NBTOutputStream(stream)) {
+            output.writeNamedTag("", tag);
+        }
+
+        return stream.toByteArray();
+    }
+
+    private CompoundTag readNbt(byte[] data) throws IOException {
+        if (data.length == 0) {
+            return null;
+        }
+
+        try (NBTInputStream input = new NBTInputStream(new ByteArrayInputStream(data))) {
+            return (CompoundTag) input.readNamedTag().getTag();
+        }
+    }
+
+    @FunctionalInterface
+    private interface SectionJob<T> {
+
+        T run(int sectionX, int sectionY, int sectionZ, int index) throws Exception;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class EncodedSection {
+
+        private final PaletteSection blocks;
+        private final PaletteSection biomes; // null if the clipboard has no biomes
+        private final List<TileEntity> tileEntities;
+    }
+}
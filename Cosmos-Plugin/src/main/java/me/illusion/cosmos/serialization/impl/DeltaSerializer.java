@@ -0,0 +1,488 @@
+package me.illusion.cosmos.serialization.impl;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extension.input.InputParseException;
+import com.sk89q.worldedit.extension.input.ParserContext;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.math.Vector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.world.block.BaseBlock;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.entity.EntityType;
+import com.sk89q.worldedit.world.entity.EntityTypes;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import me.illusion.cosmos.CosmosPlugin;
+import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.executor.CosmosExecutor;
+import me.illusion.cosmos.serialization.CosmosSerializer;
+import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.impl.lazy.LazyTemplatedArea;
+import me.illusion.cosmos.template.impl.worldedit.CompactClipboard;
+import me.illusion.cosmos.template.impl.worldedit.DeltaTemplatedArea;
+import me.illusion.cosmos.template.impl.worldedit.SchematicTemplatedArea;
+import me.illusion.cosmos.utilities.concurrency.SingleFlight;
+import me.illusion.cosmos.utilities.geometry.Cuboid;
+import me.illusion.cosmos.utilities.io.NonClosingOutputStream;
+
+/**
+ * The delta serializer stores a {@link DeltaTemplatedArea} as a patch against the template it originated from. Only blocks which differ from the base, blocks
+ * holding NBT data and the entities of the area are written, so the size of a save is proportional to the changes made rather than the size of the area.
+ * <p>
+ * When deserializing, the base template is resolved through the template cache, falling back to the default container, and the patch is applied on top of a
+ * copy of it. Patches record a fingerprint of their base, so they are never applied to the wrong blocks.
+ * <p>
+ * The first time a base is referenced by a patch, a copy of it is kept in the default container as {@code <name>@<fingerprint>}. Should the template be
+ * edited later on, patches made against the previous version are applied to that copy, so editing a template never strands the sessions made from it. These
+ * copies are never deleted automatically, as any stored session may still reference them.
+ * <p>
+ *
+ * @author Illusion
+ */
+public class DeltaSerializer implements CosmosSerializer {
+
+    private static final int MAGIC = 0x4353444C; // "CSDL"
+    private static final int VERSION = 2;
+
+    private final CosmosPlugin plugin;
+    private final Map<Clipboard, Long> fingerprints = Collections.synchronizedMap(new WeakHashMap<>()); // base templates are shared, so each is hashed once
+    private final Set<String> preservedBases = ConcurrentHashMap.newKeySet();
+    private final SingleFlight<String, Void> basePreservation = new SingleFlight<>();
+
+    public DeltaSerializer(CosmosPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> serialize(TemplatedArea area) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        return serialize(area, Channels.newChannel(stream)).thenApply(irrelevant -> stream.toByteArray());
+    }
+
+    @Override
+    public CompletableFuture<Void> serialize(TemplatedArea area, WritableByteChannel channel) {
+        if (!(area instanceof DeltaTemplatedArea delta)) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("The delta serializer can only serialize delta areas"));
+        }
+
+        // Clipboards are obtained on the caller thread, like the WorldEdit serializer does
+        Clipboard current = delta.getClipboard();
+        Clipboard base = delta.getBase().getClipboard();
+
+        // The save only completes once the base it was made against is kept, so the patch can always be applied
+        return getExecutor().<Long>supply(() -> {
+            try (DataOutputStream output = new DataOutputStream(new NonClosingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel))))) {
+                return writePatch(output, delta.getBaseName(), base, current);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }).thenCompose(baseFingerprint -> preserveBase(delta.getBaseName(), baseFingerprint, delta.getBase()));
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> deserialize(byte[] data) {
+        return deserialize(new ByteArrayInputStream(data));
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> deserialize(InputStream stream) {
+        CosmosExecutor executor = getExecutor();
+
+        CompletableFuture<PatchHeader> header = executor.supply(() -> {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(stream));
+
+            try {
+                if (input.readInt() != MAGIC) {
+                    throw new IOException("Not a delta patch");
+                }
+
+                int version = input.readUnsignedByte();
+
+                if (version < 1 || version > VERSION) {
+                    throw new IOException("Unsupported delta patch version " + version);
+                }
+
+                String baseName = input.readUTF();
+                Long baseFingerprint = version >= 2 ? input.readLong() : null; // the first version did not record its base
+
+                return new PatchHeader(input, baseName, baseFingerprint);
+            } catch (IOException e) {
+                closeQuietly(input);
+                throw new RuntimeException(e);
+            }
+        });
+
+        // A patch which can't be applied must fail the load, as loading nothing would paste a fresh template which is then saved over the stored session
+        return header.thenCompose(patchHeader -> {
+            String baseName = patchHeader.baseName;
+
+            return resolveBase(baseName, patchHeader.baseFingerprint).thenApplyAsync(baseArea -> {
+                try (DataInputStream patch = patchHeader.input) {
+                    if (!(baseArea instanceof SchematicTemplatedArea base)) {
+                        throw new IOException("Base template " + baseName + " is missing or is not a schematic");
+                    }
+
+                    if (patchHeader.baseFingerprint != null && patchHeader.baseFingerprint != fingerprint(base.getClipboard())) {
+                        throw new IOException("Base template " + baseName + " changed since the patch was made");
+                    }
+
+                    return (TemplatedArea) new DeltaTemplatedArea(this, baseName, base, readPatch(patch, base.getClipboard()));
+                } catch (IOException | WorldEditException e) {
+                    throw new RuntimeException(e);
+                }
+            }, executor);
+        }).whenComplete((area, throwable) -> {
+            if (throwable != null) {
+                plugin.getLogger().log(Level.SEVERE, "Could not load a delta patch, its stored data is left untouched", throwable);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> createArea(Cuboid bounds, org.bukkit.Location anchor) {
+        return CompletableFuture.failedFuture(new UnsupportedOperationException("Delta areas can only be created from a session"));
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> tryImport(File file) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public String getName() {
+        return "delta";
+    }
+
+    @Override
+    public int getVersion() {
+        return VERSION;
+    }
+
+    /**
+     * Resolves the base a patch was made against. The current template is used while it is unchanged, otherwise the copy kept when the patch was made is
+     * fetched instead.
+     */
+    private CompletableFuture<TemplatedArea> resolveBase(String baseName, Long baseFingerprint) {
+        return resolveTemplate(baseName).thenCompose(baseArea -> {
+            if (baseFingerprint == null || (baseArea instanceof SchematicTemplatedArea base && fingerprint(base.getClipboard()) == baseFingerprint)) {
+                return CompletableFuture.completedFuture(baseArea); // patches of the first version did not record their base, so only the current one is known
+            }
+
+            return plugin.getContainerRegistry().getDefaultContainer().fetchTemplate(getPreservedName(baseName, baseFingerprint));
+        });
+    }
+
+    private CompletableFuture<TemplatedArea> resolveTemplate(String baseName) {
+        TemplatedArea cached = plugin.getTemplateCache().get(baseName);
+
+        if (cached instanceof LazyTemplatedArea lazy) {
+            return lazy.getArea();
+        }
+
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return plugin.getContainerRegistry().getDefaultContainer().fetchTemplate(baseName);
+    }
+
+    /**
+     * Keeps a copy of the base a patch was made against, unless one is already stored.
+     */
+    private CompletableFuture<Void> preserveBase(String baseName, long baseFingerprint, SchematicTemplatedArea base) {
+        String preservedName = getPreservedName(baseName, baseFingerprint);
+
+        if (preservedBases.contains(preservedName)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return basePreservation.run(preservedName, () -> {
+            CosmosDataContainer container = plugin.getContainerRegistry().getDefaultContainer();
+
+            CompletableFuture<String> stored = container.mightContain(preservedName)
+                ? container.fetchTemplateSerializer(preservedName)
+                : CompletableFuture.completedFuture(null);
+
+            return stored.thenCompose(serializerName -> serializerName != null ? CompletableFuture.<Void>completedFuture(null)
+                    : container.saveTemplate(preservedName, base))
+                .thenRun(() -> preservedBases.add(preservedName));
+        });
+    }
+
+    private CosmosExecutor getExecutor() {
+        return plugin.getExecutorRegistry().get(getName());
+    }
+
+    private String getPreservedName(String baseName, long baseFingerprint) {
+        return baseName + "@" + Long.toHexString(baseFingerprint);
+    }
+
+    /**
+     * Writes the patch of an area against its base.
+     *
+     * @return The fingerprint of the base
+     */
+    private long writePatch(DataOutputStream output, String baseName, Clipboard base, Clipboard current) throws IOException {
+        BlockVector3 baseMin = base.getRegion().getMinimumPoint();
+        BlockVector3 currentMin = current.getRegion().getMinimumPoint();
+        BlockVector3 size = base.getRegion().getDimensions();
+
+        Map<BaseBlock, Integer> paletteIndex = new HashMap<>();
+        List<BaseBlock> palette = new ArrayList<>();
+
+        ByteArrayOutputStream changeBytes = new ByteArrayOutputStream();
+        DataOutputStream changes = new DataOutputStream(changeBytes);
+        int changeCount = 0;
+
+        // Sections a session view still shares with its template are unchanged, tiles included, so they are skipped without being compared
+        boolean[] shared = null;
+        int sectionsX = 0;
+        int sectionsZ = 0;
+
+        if (base instanceof CompactClipboard compactBase && current instanceof CompactClipboard compactCurrent) {
+            shared = compactCurrent.getSharedSections(compactBase);
+            sectionsX = compactBase.getSectionsX();
+            sectionsZ = compactBase.getSectionsZ();
+        }
+
+        for (int y = 0; y < size.getBlockY(); y++) {
+            for (int z = 0; z < size.getBlockZ(); z++) {
+                for (int x = 0; x < size.getBlockX(); x++) {
+                    if (shared != null && shared[((y >> 4) * sectionsZ + (z >> 4)) * sectionsX + (x >> 4)]) {
+                        continue;
+                    }
+
+                    BlockVector3 relative = BlockVector3.at(x, y, z);
+                    BaseBlock original = base.getFullBlock(baseMin.add(relative));
+                    BaseBlock block = current.getFullBlock(currentMin.add(relative));
+
+                    // Blocks with NBT are always written, as tags are not comparable
+                    if (!block.hasNbtData() && !original.hasNbtData() && block.toImmutableState().equals(original.toImmutableState())) {
+                        continue;
+                    }
+
+                    Integer id = block.hasNbtData() ? null : paletteIndex.get(block);
+
+                    if (id == null) {
+                        id = palette.size();
+                        palette.add(block);
+
+                        if (!block.hasNbtData()) {
+                            paletteIndex.put(block, id);
+                        }
+                    }
+
+                    changes.writeInt((y * size.getBlockZ() + z) * size.getBlockX() + x);
+                    changes.writeInt(id);
+                    changeCount++;
+                }
+            }
+        }
+
+        long baseFingerprint = fingerprint(base);
+
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeUTF(baseName);
+        output.writeLong(baseFingerprint);
+
+        output.writeInt(size.getBlockX());
+        output.writeInt(size.getBlockY());
+        output.writeInt(size.getBlockZ());
+
+        output.writeInt(palette.size());
+
+        for (BaseBlock block : palette) {
+            output.writeUTF(block.toImmutableState().getAsString());
+            writeNbt(output, block.getNbtData());
+        }
+
+        output.writeInt(changeCount);
+        changeBytes.writeTo(output);
+
+        List<? extends Entity> entities = current.getEntities();
+        output.writeInt(entities.size());
+
+        for (Entity entity : entities) {
+            BaseEntity state = entity.getState();
+            Location location = entity.getLocation();
+            Vector3 position = location.toVector().subtract(currentMin.toVector3());
+
+            output.writeUTF(state == null ? "" : state.getType().getId());
+            output.writeDouble(position.getX());
+            output.writeDouble(position.getY());
+            output.writeDouble(position.getZ());
+            output.writeFloat(location.getYaw());
+            output.writeFloat(location.getPitch());
+            writeNbt(output, state == null ? null : state.getNbtData());
+        }
+
+        return baseFingerprint;
+    }
+
+    private Clipboard readPatch(DataInputStream input, Clipboard base) throws IOException, WorldEditException {
+        CuboidRegion region = base.getRegion().getBoundingBox();
+        BlockVector3 min = region.getMinimumPoint();
+
+        int sizeX = input.readInt();
+        int sizeY = input.readInt();
+        int sizeZ = input.readInt();
+
+        if (!region.getDimensions().equals(BlockVector3.at(sizeX, sizeY, sizeZ))) {
+            throw new IOException("The base template changed dimensions since the patch was made");
+        }
+
+        CompactClipboard clipboard = CompactClipboard.copyOf(base, false); // the patch holds every entity of the area
+
+        ParserContext context = new ParserContext();
+        context.setRestricted(false);
+        context.setPreferringWildcard(false);
+        context.setTryLegacy(false);
+
+        int paletteSize = input.readInt();
+        BaseBlock[] palette = new BaseBlock[paletteSize];
+
+        for (int index = 0; index < paletteSize; index++) {
+            String state = input.readUTF();
+            CompoundTag nbt = readNbt(input);
+
+            try {
+                BaseBlock block = WorldEdit.getInstance().getBlockFactory().parseFromInput(state, context);
+                palette[index] = nbt == null ? block : block.toImmutableState().toBaseBlock(nbt);
+            } catch (InputParseException e) {
+                throw new IOException("Could not parse block " + state, e);
+            }
+        }
+
+        int changeCount = input.readInt();
+
+        for (int change = 0; change < changeCount; change++) {
+            int index = input.readInt();
+            int id = input.readInt();
+
+            int x = index % sizeX;
+            int z = (index / sizeX) % sizeZ;
+            int y = index / (sizeX * sizeZ);
+
+            clipboard.setBlock(min.add(x, y, z), palette[id]);
+        }
+
+        int entityCount = input.readInt();
+
+        for (int entity = 0; entity < entityCount; entity++) {
+            String typeId = input.readUTF();
+            Vector3 position = Vector3.at(input.readDouble(), input.readDouble(), input.readDouble()).add(min.toVector3());
+            float yaw = input.readFloat();
+            float pitch = input.readFloat();
+            CompoundTag nbt = readNbt(input);
+
+            EntityType type = EntityTypes.get(typeId);
+
+            if (type == null) {
+                continue; // Unknown entities are dropped, as WorldEdit would do on paste
+            }
+
+            clipboard.createEntity(new Location(clipboard, position, yaw, pitch), new BaseEntity(type, nbt));
+        }
+
+        return clipboard;
+    }
+
+    /**
+     * Hashes the block states of a base template, so a patch can tell whether its base was edited since it was made. Tile data is not hashed, as every block
+     * holding NBT is written to the patch in full anyway.
+     */
+    private long fingerprint(Clipboard base) {
+        Long known = fingerprints.get(base);
+
+        if (known != null) {
+            return known;
+        }
+
+        BlockVector3 min = base.getRegion().getMinimumPoint();
+        BlockVector3 size = base.getRegion().getDimensions();
+        Map<BlockState, Integer> stateHashes = new IdentityHashMap<>(); // states are interned, and their string form is stable across restarts
+
+        long hash = ((long) size.getBlockX() * 31 + size.getBlockY()) * 31 + size.getBlockZ();
+
+        for (int y = 0; y < size.getBlockY(); y++) {
+            for (int z = 0; z < size.getBlockZ(); z++) {
+                for (int x = 0; x < size.getBlockX(); x++) {
+                    BlockState state = base.getBlock(min.add(x, y, z));
+                    hash = hash * 1_000_003L + stateHashes.computeIfAbsent(state, irrelevant -> state.getAsString().hashCode());
+                }
+            }
+        }
+
+        fingerprints.put(base, hash);
+        return hash;
+    }
+
+    private void writeNbt(DataOutputStream output, CompoundTag tag) throws IOException {
+        output.writeBoolean(tag != null);
+
+        if (tag != null) {
+            new NBTOutputStream(output).writeNamedTag("", tag);
+        }
+    }
+
+    private CompoundTag readNbt(DataInputStream input) throws IOException {
+        if (!input.readBoolean()) {
+            return null;
+        }
+
+        Tag tag = new NBTInputStream(input).readNamedTag().getTag();
+        return (CompoundTag) tag;
+    }
+
+    private void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException ignored) {
+            // We are already failing, there's nothing else to do
+        }
+    }
+
+    private static class PatchHeader {
+
+        private final DataInputStream input;
+        private final String baseName;
+        private final Long baseFingerprint; // null for patches which did not record it
+
+        private PatchHeader(DataInputStream input, String baseName, Long baseFingerprint) {
+            this.input = input;
+            this.baseName = baseName;
+            this.baseFingerprint = baseFingerprint;
+        }
+    }
+}
@@ -15,34 +15,44 @@ import com.sk89q.worldedit.function.operation.Operations;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.world.World;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.util.concurrent.CompletableFuture;
 import me.illusion.cosmos.serialization.CosmosSerializer;
 import me.illusion.cosmos.template.TemplatedArea;
 import me.illusion.cosmos.template.impl.worldedit.SchematicTemplatedArea;
 import me.illusion.cosmos.utilities.geometry.Cuboid;
+import me.illusion.cosmos.utilities.io.NonClosingOutputStream;
 import org.bukkit.Location;
 
 public class WorldEditSerializer implements CosmosSerializer {
 
     @Override
     public CompletableFuture<byte[]> serialize(TemplatedArea area) {
-        Clipboard clipboard = ((SchematicTemplatedArea) area).getClipboard();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
 
-        return CompletableFuture.supplyAsync(() -> {
-            try (ByteArrayOutputStream stream = new ByteArrayOutputStream()) {
-                ClipboardFormat format = ClipboardFormats.findByAlias("sponge"); // We could also use the format of the clipboard, but we don't know it
+        return serialize(area, Channels.newChannel(stream)).thenApply(irrelevant -> stream.toByteArray());
+    }
 
-                try (ClipboardWriter writer = format.getWriter(stream)) {
-                    writer.write(clipboard);
-                }
+    @Override
+    public CompletableFuture<Void> serialize(TemplatedArea area, WritableByteChannel channel) {
+        Clipboard clipboard = ((SchematicTemplatedArea) area).getClipboard();
 
-                return stream.toByteArray();
+        return CompletableFuture.runAsync(() -> {
+            ClipboardFormat format = ClipboardFormats.findByAlias("sponge"); // We could also use the format of the clipboard, but we don't know it
+            OutputStream stream = new NonClosingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+            try (ClipboardWriter writer = format.getWriter(stream)) { // the writer closes the stream, which only flushes it
+                writer.write(clipboard);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -51,8 +61,13 @@ public class WorldEditSerializer implements CosmosSerializer {
 
     @Override
     public CompletableFuture<TemplatedArea> deserialize(byte[] data) {
+        return deserialize(new ByteArrayInputStream(data));
+    }
+
+    @Override
+    public CompletableFuture<TemplatedArea> deserialize(InputStream input) {
         return CompletableFuture.supplyAsync(() -> {
-            try (InputStream stream = new ByteArrayInputStream(data)) {
+            try (InputStream stream = new BufferedInputStream(input)) {
                 ClipboardFormat format = ClipboardFormats.findByAlias("sponge");
 
                 try (ClipboardReader reader = format.getReader(stream)) {
@@ -103,19 +118,15 @@ public class WorldEditSerializer implements CosmosSerializer {
 
     @Override
     public CompletableFuture<TemplatedArea> tryImport(File file) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                return Files.readAllBytes(file.toPath());
-            } catch (IOException expected) {
-                return null;
-            }
-        }).thenCompose(data -> {
-            if (data == null) {
-                return CompletableFuture.completedFuture(null);
-            }
+        InputStream stream;
 
-            return deserialize(data);
-        });
+        try {
+            stream = Files.newInputStream(file.toPath());
+        } catch (IOException expected) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return deserialize(stream);
     }
 
     @Override
@@ -2,15 +2,26 @@ package me.illusion.cosmos.session;
 
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
 import lombok.Data;
 import lombok.Getter;
+import me.illusion.cosmos.CosmosPlugin;
 import me.illusion.cosmos.database.CosmosDataContainer;
+import me.illusion.cosmos.serialization.CosmosSerializer;
 import me.illusion.cosmos.template.PastedArea;
+import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.impl.worldedit.DeltaTemplatedArea;
+import me.illusion.cosmos.template.impl.worldedit.SchematicPastedArea;
+import me.illusion.cosmos.template.impl.worldedit.SchematicTemplatedArea;
+import me.illusion.cosmos.utilities.concurrency.MainThreadExecutor;
 import org.bukkit.Location;
+import org.bukkit.plugin.java.JavaPlugin;
 
 
 /**
  * A simple session implementation, that uses a UUID identifier and a pasted area. This class is thread-safe.
+ * <p>
+ * If the session knows the template it was created from, saves only store the changes made to it, see {@link DeltaTemplatedArea}.
  *
  * @author Illusion
  * @see PastedArea
@@ -22,33 +33,64 @@ public class CosmosSession {
     private final UUID uuid;
     private final PastedArea pastedArea;
 
+    private final String originName;
+    private final TemplatedArea origin;
+
+    public CosmosSession(UUID uuid, PastedArea pastedArea) {
+        this(uuid, pastedArea, null, null);
+    }
+
+    public CosmosSession(UUID uuid, PastedArea pastedArea, String originName, TemplatedArea origin) {
+        this.uuid = uuid;
+        this.pastedArea = pastedArea;
+        this.originName = originName;
+        this.origin = origin; // the decoded area which was pasted, so saves are made against the very clipboard the session shares its sections with
+    }
+
     /**
-     * Unloads the session.
+     * Unloads the session. The area is always cleared on the main thread, whichever thread this is called from.
      *
      * @return A future which will complete when the session is unloaded
      */
     public CompletableFuture<Void> unload() {
-        return pastedArea.unload();
+        return MainThreadExecutor.supply(pastedArea::unload).thenCompose(future -> future);
     }
 
     /**
-     * Saves the session to the specified container.
+     * Saves the session to the specified container. The area is read from the world on the main thread, only serializing and writing it happen elsewhere.
      *
      * @param container The container to save the session to
      * @return A future which will complete when the session is saved
      */
     public CompletableFuture<Void> save(CosmosDataContainer container, boolean async) {
-        CompletableFuture<Void> future = container.saveTemplate(uuid.toString(), pastedArea).exceptionally(ex -> {
+        CompletableFuture<Void> future = async ? captureSaveArea().thenCompose(area -> save(container, area, true))
+            : save(container, captureSaveArea().join(), false);
+
+        return future.exceptionally(ex -> {
             ex.printStackTrace();
             return null;
         });
+    }
+
+    /**
+     * Saves an area captured by {@link #captureSaveArea()} to the specified container, on the calling thread or not. Unlike
+     * {@link #save(CosmosDataContainer, boolean)}, a failed save fails the returned future, so callers can keep the session loaded.
+     *
+     * @param container The container to save the session to
+     * @param area      The captured area
+     * @param async     Whether to return right away, instead of waiting for the save to be written
+     * @return A future which will complete when the session is saved, already completed if not async
+     */
+    CompletableFuture<Void> save(CosmosDataContainer container, TemplatedArea area, boolean async) {
+        CompletableFuture<Void> future = container.saveTemplate(uuid.toString(), area);
 
         if (async) {
             return future;
         }
 
-        future.join();
-        return CompletableFuture.completedFuture(null);
+        container.flush(uuid.toString()); // containers which write saves behind would otherwise hold this one until their next flush
+        future.handle((irrelevant, throwable) -> null).join();
+        return future;
     }
 
     /**
@@ -61,6 +103,37 @@ public class CosmosSession {
         return save(container, true);
     }
 
+    /**
+     * Reads the area to save from the world on the main thread, see {@link #createSaveArea()}.
+     *
+     * @return A future which will complete with the area to save
+     */
+    CompletableFuture<TemplatedArea> captureSaveArea() {
+        return MainThreadExecutor.supply(this::createSaveArea);
+    }
+
+    /**
+     * Creates the area to save, reading the pasted area from the world, so this must be called on the main thread. The area holds a copy of the world, which
+     * can then be serialized on any thread. If the session originated from a schematic template, this is a delta against it, otherwise it is the whole pasted
+     * area.
+     *
+     * @return The area to save
+     */
+    TemplatedArea createSaveArea() {
+        if (!(pastedArea instanceof SchematicPastedArea pasted)) {
+            return pastedArea;
+        }
+
+        Clipboard clipboard = pasted.getClipboard();
+        CosmosSerializer deltaSerializer = JavaPlugin.getPlugin(CosmosPlugin.class).getSerializerRegistry().get("delta");
+
+        if (originName == null || !(origin instanceof SchematicTemplatedArea base) || deltaSerializer == null) {
+            return new SchematicTemplatedArea(pasted.getSerializer(), clipboard);
+        }
+
+        return new DeltaTemplatedArea(deltaSerializer, originName, base, clipboard);
+    }
+
     /**
      * Checks if the session contains the specified location.
      *
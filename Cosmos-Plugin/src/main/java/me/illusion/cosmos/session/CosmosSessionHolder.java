@@ -2,18 +2,25 @@ package me.illusion.cosmos.session;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import me.illusion.cosmos.database.CosmosDataContainer;
 import me.illusion.cosmos.event.session.CosmosCreateSessionEvent;
 import me.illusion.cosmos.grid.CosmosGrid;
 import me.illusion.cosmos.session.task.UnloadRequest;
 import me.illusion.cosmos.session.task.UnloadTask;
+import me.illusion.cosmos.template.PastedArea;
 import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.template.impl.lazy.LazyTemplatedArea;
+import me.illusion.cosmos.template.impl.worldedit.DeltaTemplatedArea;
+import me.illusion.cosmos.utilities.concurrency.SerialLanes;
+import me.illusion.cosmos.utilities.concurrency.SingleFlight;
 import me.illusion.cosmos.utilities.time.Time;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
@@ -21,6 +28,10 @@ import org.bukkit.plugin.java.JavaPlugin;
 
 /**
  * A simple session holder implementation, that uses a UUID identifier to store and retrieve sessions. This class is thread-safe.
+ * <p>
+ * Every operation on a session is queued on the lane of its UUID, so a session is never pasted twice, and is never loaded while it is still being unloaded.
+ * Concurrent loads of the same session share a single fetch. Lanes may continue on any thread, so sessions are always read from and cleared from the world on
+ * the main thread, and only serializing and writing them happen in the lane.
  *
  * @author Illusion
  * @see CosmosSession
@@ -30,7 +41,8 @@ public class CosmosSessionHolder {
     private final Map<UUID, CosmosSession> sessions = new ConcurrentHashMap<>();
     private final Map<UUID, UnloadTask> unloadTasks = new ConcurrentHashMap<>();
 
-    private final Map<UUID, CompletableFuture<?>> pendingUnloads = new ConcurrentHashMap<>();
+    private final SerialLanes<UUID> lanes = new SerialLanes<>(); // loads, creations, saves and unloads of a session run one at a time, in order
+    private final SingleFlight<UUID, CosmosSession> loads = new SingleFlight<>();
 
     private final JavaPlugin plugin;
     private final CosmosGrid grid;
@@ -57,26 +69,43 @@ public class CosmosSessionHolder {
      * @return A future which will complete with the session
      */
     public CompletableFuture<CosmosSession> createSession(UUID sessionId, TemplatedArea template) {
-        cancelUnload(sessionId);
-
-        CompletableFuture<?> pendingUnload = pendingUnloads.get(sessionId);
+        return createSession(sessionId, null, template);
+    }
 
-        if (pendingUnload != null) {
-            System.out.println("Session " + sessionId + " is pending unload. Waiting...");
-            return pendingUnload.thenCompose((v) -> createSession(sessionId, template));
-        }
+    /**
+     * Creates a session with the specified UUID and template. The session remembers the template it was created from, so that saves only store the changes
+     * made to it.
+     *
+     * @param sessionId    The UUID of the session
+     * @param templateName The name of the template, as registered in the template cache or the default container, or null if unknown
+     * @param template     The template to paste
+     * @return A future which will complete with the session
+     */
+    public CompletableFuture<CosmosSession> createSession(UUID sessionId, String templateName, TemplatedArea template) {
+        cancelUnload(sessionId);
+        return lanes.submit(sessionId, () -> create(sessionId, templateName, template));
+    }
 
+    private CompletableFuture<CosmosSession> create(UUID sessionId, String templateName, TemplatedArea template) {
         CosmosSession existingSession = sessions.get(sessionId);
 
         if (existingSession != null) {
             return CompletableFuture.completedFuture(existingSession);
         }
 
+        // Cached templates are kept compressed, so they are decoded once here, and the session keeps the very area that was pasted
+        CompletableFuture<TemplatedArea> decoded = template instanceof LazyTemplatedArea lazy ? lazy.getArea() : CompletableFuture.completedFuture(template);
+
         System.out.println("Creating session " + sessionId.toString());
-        return grid.paste(template).thenApply((pastedArea) -> {
+        return decoded.thenCompose(area -> {
+            if (area == null) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Could not decode the cached template"));
+            }
+
+            return grid.paste(area).thenApply(pastedArea -> createSessionObject(sessionId, pastedArea, templateName, area));
+        }).thenApply((session) -> {
             System.out.println("Created session " + sessionId);
 
-            CosmosSession session = new CosmosSession(sessionId, pastedArea);
             Bukkit.getPluginManager().callEvent(new CosmosCreateSessionEvent(session));
             sessions.put(sessionId, session);
             return session;
@@ -86,6 +115,18 @@ public class CosmosSessionHolder {
         });
     }
 
+    private CosmosSession createSessionObject(UUID sessionId, PastedArea pastedArea, String templateName, TemplatedArea template) {
+        if (template instanceof DeltaTemplatedArea delta) { // loaded sessions keep the template they were originally created from
+            return new CosmosSession(sessionId, pastedArea, delta.getBaseName(), delta.getBase());
+        }
+
+        if (templateName == null) {
+            return new CosmosSession(sessionId, pastedArea);
+        }
+
+        return new CosmosSession(sessionId, pastedArea, templateName, template);
+    }
+
     /**
      * Attempts to load a session from the database.
      *
@@ -94,26 +135,26 @@ public class CosmosSessionHolder {
      */
     public CompletableFuture<CosmosSession> loadSession(UUID sessionId) {
         cancelUnload(sessionId);
+        return loads.run(sessionId, () -> lanes.submit(sessionId, () -> load(sessionId)));
+    }
 
-        CompletableFuture<?> pendingUnload = pendingUnloads.get(sessionId);
-
-        if (pendingUnload != null) {
-            System.out.println("Session " + sessionId + " is pending unload. Waiting...");
-            return pendingUnload.thenCompose((v) -> loadSession(sessionId));
-        }
-
+    private CompletableFuture<CosmosSession> load(UUID sessionId) {
         CosmosSession existingSession = sessions.get(sessionId);
 
         if (existingSession != null) {
             return CompletableFuture.completedFuture(existingSession);
         }
 
+        if (!saveContainer.mightContain(sessionId.toString())) { // a new session, there is nothing to fetch
+            return CompletableFuture.completedFuture(null);
+        }
+
         return saveContainer.fetchTemplate(sessionId.toString()).thenCompose((template) -> {
             if (template == null) {
                 return CompletableFuture.completedFuture(null);
             }
 
-            return createSession(sessionId, template);
+            return create(sessionId, null, template);
         });
     }
 
@@ -125,32 +166,56 @@ public class CosmosSessionHolder {
      * @return A future which will complete with the session
      */
     public CompletableFuture<CosmosSession> loadOrCreateSession(UUID sessionId, TemplatedArea templatedArea) {
+        return loadOrCreateSession(sessionId, null, templatedArea);
+    }
+
+    /**
+     * Attempts to load a session from the database, or creates a new one if it does not exist. Created sessions remember the template they were created from,
+     * so that saves only store the changes made to it.
+     *
+     * @param sessionId     The UUID of the session
+     * @param templateName  The name of the template, as registered in the template cache or the default container, or null if unknown
+     * @param templatedArea The template to paste if the session does not exist
+     * @return A future which will complete with the session, or complete exceptionally if the stored session could not be loaded, in which case nothing is
+     * pasted so the stored data is never saved over
+     */
+    public CompletableFuture<CosmosSession> loadOrCreateSession(UUID sessionId, String templateName, TemplatedArea templatedArea) {
         cancelUnload(sessionId);
 
-        CompletableFuture<?> pendingUnload = pendingUnloads.get(sessionId);
+        return lanes.submit(sessionId, () -> load(sessionId).thenCompose((session) -> {
+            if (session != null) {
+                return CompletableFuture.completedFuture(session);
+            }
 
-        if (pendingUnload != null) {
-            System.out.println("Session " + sessionId + " is pending unload. Waiting...");
-            return pendingUnload.thenCompose((v) -> loadOrCreateSession(sessionId, templatedArea));
-        }
+            return create(sessionId, templateName, templatedArea);
+        }));
+    }
 
-        CosmosSession existingSession = sessions.get(sessionId);
+    /**
+     * Saves a loaded session to the database. The session is read from the world on the main thread, and then written in the same lane as its loads and
+     * unloads, so the write never races with them.
+     *
+     * @param sessionId The UUID of the session
+     * @return A future which will complete when the session is saved, or right away if it isn't loaded, or is unloaded before its turn comes
+     */
+    public CompletableFuture<Void> saveSession(UUID sessionId) {
+        CosmosSession session = sessions.get(sessionId);
 
-        if (existingSession != null) {
-            return CompletableFuture.completedFuture(existingSession);
+        if (session == null) {
+            return CompletableFuture.completedFuture(null);
         }
 
-        return loadSession(sessionId).thenCompose((session) -> {
-            if (session != null) {
-                return CompletableFuture.completedFuture(session);
+        return session.captureSaveArea().thenCompose(area -> lanes.submit(sessionId, () -> {
+            if (sessions.get(sessionId) != session) { // unloaded by an earlier operation in the lane, which saved it already
+                return CompletableFuture.completedFuture(null);
             }
 
-            return createSession(sessionId, templatedArea);
-        });
+            return session.save(saveContainer, area, true);
+        }));
     }
 
     /**
-     * Unloads a session from memory.
+     * Unloads a session from memory. A synchronous save is written before this method returns, even if other operations on the session are still running.
      *
      * @param sessionId The UUID of the session
      * @param save      Whether to save the session to the database
@@ -160,24 +225,49 @@ public class CosmosSessionHolder {
     public CompletableFuture<Void> unloadSession(UUID sessionId, boolean save, boolean async) {
         CosmosSession session = sessions.get(sessionId);
 
-        if (session == null) {
+        if (session == null && !lanes.isBusy(sessionId)) {
             return CompletableFuture.completedFuture(null);
         }
 
         cancelUnload(sessionId);
 
+        if (save && !async && session != null) {
+            CompletableFuture<Void> saved = session.save(saveContainer, session.captureSaveArea().join(), false); // written right away
+
+            if (saved.isCompletedExceptionally()) { // kept loaded, so its changes aren't lost
+                return saved.whenComplete((irrelevant, throwable) -> logSaveFailure(sessionId, throwable));
+            }
+
+            return lanes.submit(sessionId, () -> unload(sessionId, false));
+        }
+
+        return lanes.submit(sessionId, () -> unload(sessionId, save));
+    }
+
+    private CompletableFuture<Void> unload(UUID sessionId, boolean save) {
+        CosmosSession session = sessions.get(sessionId);
+
+        if (session == null) { // already unloaded by an earlier operation in the lane
+            return CompletableFuture.completedFuture(null);
+        }
+
         if (save) {
             // We unload after everything is saved to prevent any issues with servers stopping while data is being unloaded (if it stops, unloadAll will keep running)
-            return registerUnload(sessionId, session.save(saveContainer, async).thenCompose((v) -> session.unload()).thenRun(() -> sessions.remove(sessionId)));
+            // A session which could not be saved is kept loaded, so its changes aren't lost
+            return session.captureSaveArea()
+                .thenCompose(area -> session.save(saveContainer, area, true))
+                .whenComplete((irrelevant, throwable) -> logSaveFailure(sessionId, throwable))
+                .thenCompose((v) -> session.unload())
+                .thenRun(() -> sessions.remove(sessionId));
         }
 
-        return registerUnload(sessionId, session.unload().thenRun(() -> sessions.remove(sessionId)));
+        return session.unload().thenRun(() -> sessions.remove(sessionId));
     }
 
-    private CompletableFuture<Void> registerUnload(UUID sessionId, CompletableFuture<Void> future) {
-        pendingUnloads.put(sessionId, future);
-        future.thenRun(() -> pendingUnloads.remove(sessionId));
-        return future;
+    private void logSaveFailure(UUID sessionId, Throwable throwable) {
+        if (throwable != null) {
+            plugin.getLogger().log(Level.SEVERE, "Could not save session " + sessionId + ", it is kept loaded", throwable);
+        }
     }
 
     /**
@@ -191,15 +281,46 @@ public class CosmosSessionHolder {
     }
 
     /**
-     * Unloads all sessions from memory.
+     * Unloads all sessions from memory. When saving, every session is saved in a single batch before being unloaded, and is read from the world on the
+     * calling thread, which must be the main thread.
      *
      * @return A future which will complete when all sessions are unloaded
      */
     public CompletableFuture<Void> unloadAll(boolean save, boolean async) {
         List<CompletableFuture<?>> futures = new ArrayList<>();
 
-        for (UUID sessionId : sessions.keySet()) {
-            futures.add(unloadSession(sessionId, save, async));
+        if (!save) {
+            for (UUID sessionId : sessions.keySet()) {
+                futures.add(unloadSession(sessionId, false, async));
+            }
+
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+        }
+
+        Map<String, TemplatedArea> areas = new HashMap<>();
+        Map<UUID, CosmosSession> saved = new HashMap<>(sessions);
+
+        for (CosmosSession session : saved.values()) {
+            cancelUnload(session.getUuid());
+            areas.put(session.getUuid().toString(), session.createSaveArea());
+        }
+
+        // Sessions are only unloaded once the batch is saved, so a failed batch keeps every session of it loaded
+        CompletableFuture<Void> saveFuture = saveContainer.saveTemplates(areas).whenComplete((irrelevant, throwable) -> {
+            if (throwable != null) {
+                plugin.getLogger().log(Level.SEVERE, "Could not save " + areas.size() + " sessions, they are kept loaded", throwable);
+            }
+        });
+
+        if (!async) {
+            saveFuture.handle((irrelevant, throwable) -> null).join();
+        }
+
+        for (Map.Entry<UUID, CosmosSession> entry : saved.entrySet()) {
+            UUID sessionId = entry.getKey();
+            CosmosSession session = entry.getValue();
+
+            futures.add(lanes.submit(sessionId, () -> saveFuture.thenCompose((v) -> session.unload()).thenRun(() -> sessions.remove(sessionId))));
         }
 
         return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
@@ -221,7 +342,7 @@ public class CosmosSessionHolder {
         }
 
         if (save) {
-            session.save(saveContainer);
+            saveSession(sessionId);
         }
 
         long epoch = Instant.now().getEpochSecond() + time.as(TimeUnit.SECONDS);
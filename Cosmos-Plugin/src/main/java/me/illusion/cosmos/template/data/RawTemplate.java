@@ -0,0 +1,33 @@
+package me.illusion.cosmos.template.data;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import me.illusion.cosmos.utilities.geometry.Cuboid;
+
+/**
+ * The serialized contents of a template, as stored in a container, along with the name of the serializer that can read them.
+ * <p>
+ * The dimensions of the template are carried along when known, so containers can record them in their metadata catalog without deserializing the data.
+ */
+@Data
+@AllArgsConstructor
+public class RawTemplate {
+
+    private final String serializerName;
+    private final byte[] data;
+    private final Cuboid dimensions; // null if unknown
+
+    public RawTemplate(String serializerName, byte[] data) {
+        this(serializerName, data, null);
+    }
+
+    /**
+     * Creates a copy of this raw template with different data, keeping the serializer and dimensions.
+     *
+     * @param data The new data
+     * @return The copy
+     */
+    public RawTemplate withData(byte[] data) {
+        return new RawTemplate(serializerName, data, dimensions);
+    }
+}
@@ -1,13 +1,18 @@
 package me.illusion.cosmos.template.data;
 
 import lombok.AllArgsConstructor;
+import lombok.Builder;
 import lombok.Data;
 
 /**
  * This is a basic data class that represents the display data of a TemplatedArea.
  * This does not contain the actual data of the template, as that would be too RAM intensive.
+ * <p>
+ * Containers which keep a metadata catalog also fill in the size, dimensions, checksum, timestamps and serializer version, which are recorded when the
+ * template is saved. Those are zero (or null) when unknown, for example for templates saved by older versions.
  */
 @Data
+@Builder(toBuilder = true)
 @AllArgsConstructor
 public class TemplateData {
 
@@ -15,4 +20,25 @@ public class TemplateData {
     private final String serializerName;
     private final String containerName;
 
+    private final long size; // the size of the stored data, in bytes
+    private final int width;
+    private final int height;
+    private final int length;
+    private final String checksum; // the SHA-256 of the stored data
+    private final long createdAt; // epoch milliseconds
+    private final long updatedAt; // epoch milliseconds
+    private final int serializerVersion;
+
+    public TemplateData(String templateName, String serializerName, String containerName) {
+        this(templateName, serializerName, containerName, 0, 0, 0, 0, null, 0, 0, 0);
+    }
+
+    /**
+     * Checks whether the dimensions of the template are known.
+     *
+     * @return Whether the dimensions are known
+     */
+    public boolean hasDimensions() {
+        return width > 0 || height > 0 || length > 0;
+    }
 }
@@ -0,0 +1,183 @@
+package me.illusion.cosmos.template.impl.lazy;
+
+import java.lang.ref.SoftReference;
+import java.util.concurrent.CompletableFuture;
+import me.illusion.cosmos.CosmosPlugin;
+import me.illusion.cosmos.codec.CosmosCodec;
+import me.illusion.cosmos.codec.CosmosCodecRegistry;
+import me.illusion.cosmos.executor.CosmosExecutor;
+import me.illusion.cosmos.serialization.CosmosSerializer;
+import me.illusion.cosmos.template.PastedArea;
+import me.illusion.cosmos.template.TemplatedArea;
+import me.illusion.cosmos.utilities.geometry.Cuboid;
+import org.bukkit.Location;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * A Lazy Templated Area is a templated area which is kept in memory as its encoded, compressed payload, and is only decoded when it is first pasted. The
+ * decoded area is held through a soft reference, so the garbage collector drops it under memory pressure and the next paste decodes it again.
+ * <p>
+ * This lets the template cache hold many templates at the cost of their compressed size, while the templates which are pasted often stay decoded.
+ *
+ * @author Illusion
+ */
+public class LazyTemplatedArea implements TemplatedArea {
+
+    private final CosmosSerializer serializer;
+    private final CosmosCodecRegistry codecRegistry;
+    private final CosmosExecutor executor;
+    private final byte[] payload;
+
+    private volatile SoftReference<TemplatedArea> decoded;
+    private volatile Cuboid dimensions; // null until known
+    private CompletableFuture<TemplatedArea> decoding; // guarded by this
+
+    /**
+     * Creates a lazy area from an encoded payload.
+     *
+     * @param serializer    The serializer which produced the payload
+     * @param codecRegistry The codec registry, used to decode the payload
+     * @param executor      The executor the payload is decoded on
+     * @param payload       The payload, as produced by {@link CosmosCodecRegistry#encode(CosmosCodec, byte[])}
+     * @param decoded       The decoded area if it is already known, or null
+     * @param dimensions    The dimensions of the area if they are already known, or null
+     */
+    public LazyTemplatedArea(CosmosSerializer serializer, CosmosCodecRegistry codecRegistry, CosmosExecutor executor, byte[] payload, TemplatedArea decoded,
+        Cuboid dimensions) {
+        this.serializer = serializer;
+        this.codecRegistry = codecRegistry;
+        this.executor = executor;
+        this.payload = payload;
+        this.decoded = new SoftReference<>(decoded);
+        this.dimensions = dimensions != null || decoded == null ? dimensions : decoded.getDimensions();
+    }
+
+    /**
+     * Compresses an area for the template cache, according to the template-cache section of the databases file. If compression is disabled, the area is
+     * returned as is.
+     *
+     * @param plugin The plugin
+     * @param area   The area to compress
+     * @return A future which will be completed with the area to cache
+     */
+    public static CompletableFuture<TemplatedArea> compress(CosmosPlugin plugin, TemplatedArea area) {
+        ConfigurationSection settings = plugin.getDatabasesFile().getTemplateCacheSettings();
+
+        if (area == null || area instanceof LazyTemplatedArea || (settings != null && !settings.getBoolean("compress", true))) {
+            return CompletableFuture.completedFuture(area);
+        }
+
+        CosmosCodecRegistry codecRegistry = plugin.getCodecRegistry();
+        String codecName = settings == null ? "deflate" : settings.getString("codec", "deflate");
+        CosmosCodec codec = codecRegistry.get(codecName);
+
+        if (codec == null) {
+            plugin.getLogger().warning("Unknown template cache codec " + codecName + ", templates are cached with deflate instead");
+            codec = codecRegistry.get("deflate");
+        }
+
+        CosmosCodec finalCodec = codec;
+        CosmosSerializer serializer = area.getSerializer();
+        CosmosExecutor executor = plugin.getExecutorRegistry().get("codec");
+
+        return serializer.serialize(area).thenApplyAsync(data -> {
+            byte[] payload = codecRegistry.encode(finalCodec, data);
+            return new LazyTemplatedArea(serializer, codecRegistry, executor, payload, area, null);
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<PastedArea> paste(Location location) {
+        return getArea().thenCompose(area -> {
+            if (area == null) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Could not decode the cached template"));
+            }
+
+            return area.paste(location);
+        });
+    }
+
+    /**
+     * Obtains the dimensions of the area. The dimensions are kept once known, but if they are not, this method waits for the area to be decoded.
+     *
+     * @return The dimensions of the area
+     */
+    @Override
+    public Cuboid getDimensions() {
+        Cuboid known = dimensions;
+
+        if (known != null) {
+            return known;
+        }
+
+        TemplatedArea area = getArea().join();
+        return area == null ? null : area.getDimensions();
+    }
+
+    @Override
+    public CosmosSerializer getSerializer() {
+        return serializer;
+    }
+
+    /**
+     * Obtains the decoded area, decoding it if it is not held anymore. Concurrent calls share a single decode.
+     *
+     * @return A future which will be completed with the decoded area, or null if it could not be decoded
+     */
+    public CompletableFuture<TemplatedArea> getArea() {
+        TemplatedArea area = decoded.get();
+
+        if (area != null) {
+            return CompletableFuture.completedFuture(area);
+        }
+
+        synchronized (this) {
+            area = decoded.get();
+
+            if (area != null) {
+                return CompletableFuture.completedFuture(area);
+            }
+
+            if (decoding != null) {
+                return decoding;
+            }
+
+            CompletableFuture<TemplatedArea> future = executor.supply(() -> codecRegistry.decode(payload)).thenCompose(serializer::deserialize);
+            decoding = future;
+
+            // Only the soft reference holds on to the result, so the in-flight future is forgotten once it completes
+            future.whenComplete((result, throwable) -> {
+                synchronized (this) {
+                    if (result != null) {
+                        decoded = new SoftReference<>(result);
+                        dimensions = result.getDimensions();
+                    }
+
+                    if (decoding == future) {
+                        decoding = null;
+                    }
+                }
+            });
+
+            return future;
+        }
+    }
+
+    /**
+     * Checks whether the decoded area is currently held in memory.
+     *
+     * @return Whether the area is decoded
+     */
+    public boolean isDecoded() {
+        return decoded.get() != null;
+    }
+
+    /**
+     * Obtains the size of the compressed payload, which is what this area costs while it is not decoded.
+     *
+     * @return The size of the payload in bytes
+     */
+    public int getCompressedSize() {
+        return payload.length;
+    }
+}
@@ -0,0 +1,639 @@
+package me.illusion.cosmos.template.impl.worldedit;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.function.operation.Operation;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.biome.BiomeTypes;
+import com.sk89q.worldedit.world.block.BaseBlock;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockStateHolder;
+import com.sk89q.worldedit.world.block.BlockTypes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import me.illusion.cosmos.serialization.format.PackedArray;
+import me.illusion.cosmos.serialization.format.PaletteSection;
+
+/**
+ * A Compact Clipboard is a WorldEdit clipboard which stores its blocks the way the Cosmos format does. The region is split into 16x16x16 sections, each with
+ * its own palette of block states, and every position stores the index of its state in a {@link PackedArray}. Sections which only hold air take no memory,
+ * and sections holding a single state store no indices. Blocks with NBT data keep their tags in a separate map.
+ * <p>
+ * A {@link com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard} stores a reference per block, so this usually takes a fraction of its memory, while
+ * still pasting through the regular WorldEdit operations. Sections are laid out like the sections of a
+ * {@link me.illusion.cosmos.serialization.format.PaletteVolume}, so the Cosmos serializer moves whole sections in and out of the clipboard.
+ * <p>
+ * Copies share their sections with the clipboard they were made from, copying a section only before its first write, so many sessions of one template cost
+ * the template plus the sections each of them changed. Shared sections are never modified, so a {@link #snapshot()} can be read from another thread while
+ * the clipboard keeps changing.
+ * <p>
+ * Like WorldEdit's clipboards, this clipboard is not thread-safe, except that distinct sections can be written to concurrently.
+ *
+ * @author Illusion
+ */
+public class CompactClipboard implements Clipboard {
+
+    private static final BlockState AIR = BlockTypes.AIR.getDefaultState();
+
+    private final BlockVector3 min;
+    private final BlockVector3 max;
+    private final BlockVector3 size;
+
+    private final int sectionsX;
+    private final int sectionsY;
+    private final int sectionsZ;
+
+    private final Section[] blocks; // null sections only hold air
+    private Section[] biomes; // null until a biome is set
+    private final Map<Integer, CompoundTag> tiles = new ConcurrentHashMap<>(); // keyed by the relative index of the block
+    private final List<CompactEntity> entities = new ArrayList<>();
+
+    private BlockVector3 origin;
+
+    public CompactClipboard(Region region) {
+        this.min = region.getMinimumPoint();
+        this.max = region.getMaximumPoint();
+        this.size = max.subtract(min).add(1, 1, 1);
+        this.origin = min;
+
+        this.sectionsX = sectionsFor(size.getBlockX());
+        this.sectionsY = sectionsFor(size.getBlockY());
+        this.sectionsZ = sectionsFor(size.getBlockZ());
+
+        this.blocks = new Section[sectionsX * sectionsY * sectionsZ];
+    }
+
+    /**
+     * Copies a clipboard into a compact clipboard, along with its entities.
+     *
+     * @param source The clipboard to copy
+     * @return The copy
+     * @throws WorldEditException If a block could not be copied
+     * @see #copyOf(Clipboard, boolean)
+     */
+    public static CompactClipboard copyOf(Clipboard source) throws WorldEditException {
+        return copyOf(source, true);
+    }
+
+    /**
+     * Copies a clipboard into a compact clipboard. Compact clipboards share their sections with the copy, other clipboards are copied a block at a time.
+     *
+     * @param source       The clipboard to copy
+     * @param copyEntities Whether to copy the entities of the clipboard
+     * @return The copy
+     * @throws WorldEditException If a block could not be copied
+     */
+    public static CompactClipboard copyOf(Clipboard source, boolean copyEntities) throws WorldEditException {
+        CompactClipboard copy = new CompactClipboard(source.getRegion().getBoundingBox());
+        copy.setOrigin(source.getOrigin());
+
+        if (source instanceof CompactClipboard compact) {
+            share(compact.blocks, copy.blocks);
+
+            if (compact.biomes != null) {
+                copy.biomes = new Section[compact.biomes.length];
+                share(compact.biomes, copy.biomes);
+            }
+
+            copy.tiles.putAll(compact.tiles); // tags are immutable
+        } else {
+            for (BlockVector3 position : source.getRegion()) {
+                copy.setBlock(position, source.getFullBlock(position));
+
+                if (source.hasBiomes()) {
+                    copy.setBiome(position, source.getBiome(position));
+                }
+            }
+        }
+
+        if (copyEntities) {
+            for (Entity entity : source.getEntities()) {
+                copy.createEntity(entity.getLocation(), entity.getState());
+            }
+        }
+
+        return copy;
+    }
+
+    private static void share(Section[] source, Section[] destination) {
+        for (int index = 0; index < source.length; index++) {
+            Section section = source[index];
+
+            if (section != null) {
+                section.shared = true;
+            }
+
+            destination[index] = section;
+        }
+    }
+
+    /**
+     * Creates a copy of this clipboard, entities included, which shares every section with it. Neither clipboard modifies the shared sections, so the copy
+     * is a consistent view of this clipboard which can be handed to another thread.
+     *
+     * @return The snapshot
+     */
+    public CompactClipboard snapshot() {
+        try {
+            return copyOf(this, true);
+        } catch (WorldEditException e) { // compact clipboards are copied without writing any block
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Finds the sections this clipboard shares with another, meaning neither has changed them since one was copied from the other.
+     *
+     * @param other The other clipboard
+     * @return Whether each section is shared, or null if the clipboards do not have the same dimensions
+     */
+    public boolean[] getSharedSections(CompactClipboard other) {
+        if (!size.equals(other.size)) {
+            return null;
+        }
+
+        boolean[] shared = new boolean[blocks.length];
+
+        for (int index = 0; index < blocks.length; index++) {
+            Section biome = biomes == null ? null : biomes[index];
+            Section otherBiome = other.biomes == null ? null : other.biomes[index];
+
+            shared[index] = blocks[index] == other.blocks[index] && biome == otherBiome;
+        }
+
+        return shared;
+    }
+
+    private static int sectionsFor(int size) {
+        return (size + PaletteSection.SIZE - 1) / PaletteSection.SIZE;
+    }
+
+    @Override
+    public Region getRegion() {
+        return new CuboidRegion(min, max);
+    }
+
+    @Override
+    public BlockVector3 getDimensions() {
+        return size;
+    }
+
+    @Override
+    public BlockVector3 getOrigin() {
+        return origin;
+    }
+
+    @Override
+    public void setOrigin(BlockVector3 origin) {
+        this.origin = origin;
+    }
+
+    @Override
+    public boolean hasBiomes() {
+        return biomes != null;
+    }
+
+    @Override
+    public BlockVector3 getMinimumPoint() {
+        return min;
+    }
+
+    @Override
+    public BlockVector3 getMaximumPoint() {
+        return max;
+    }
+
+    @Override
+    public List<? extends Entity> getEntities(Region region) {
+        List<Entity> filtered = new ArrayList<>();
+
+        for (CompactEntity entity : entities) {
+            if (region.contains(entity.getLocation().toVector().toBlockPoint())) {
+                filtered.add(entity);
+            }
+        }
+
+        return Collections.unmodifiableList(filtered);
+    }
+
+    @Override
+    public List<? extends Entity> getEntities() {
+        return Collections.unmodifiableList(new ArrayList<>(entities));
+    }
+
+    @Override
+    public Entity createEntity(Location location, BaseEntity entity) {
+        CompactEntity created = new CompactEntity(location, entity == null ? null : new BaseEntity(entity));
+        entities.add(created);
+        return created;
+    }
+
+    @Override
+    public BlockState getBlock(BlockVector3 position) {
+        if (!contains(position)) {
+            return AIR;
+        }
+
+        Section section = blocks[sectionIndex(position)];
+        return section == null ? AIR : (BlockState) section.get(innerIndex(position));
+    }
+
+    @Override
+    public BaseBlock getFullBlock(BlockVector3 position) {
+        BlockState state = getBlock(position);
+
+        if (tiles.isEmpty() || !contains(position)) {
+            return state.toBaseBlock();
+        }
+
+        CompoundTag tag = tiles.get(relativeIndex(position));
+        return tag == null ? state.toBaseBlock() : state.toBaseBlock(tag);
+    }
+
+    @Override
+    public <B extends BlockStateHolder<B>> boolean setBlock(BlockVector3 position, B block) throws WorldEditException {
+        if (!contains(position)) {
+            return false;
+        }
+
+        BlockState state = block.toImmutableState();
+        int sectionIndex = sectionIndex(position);
+        Section section = blocks[sectionIndex];
+
+        if (section == null) {
+            if (state.equals(AIR)) {
+                setTile(position, null);
+                return true;
+            }
+
+            section = new Section(AIR);
+            blocks[sectionIndex] = section;
+        } else if (section.shared) {
+            section = section.copy();
+            blocks[sectionIndex] = section;
+        }
+
+        section.set(innerIndex(position), state);
+        setTile(position, block instanceof BaseBlock base && base.hasNbtData() ? base.getNbtData() : null);
+        return true;
+    }
+
+    @Override
+    public BiomeType getBiome(BlockVector3 position) {
+        if (biomes == null || !contains(position)) {
+            return BiomeTypes.OCEAN; // what WorldEdit's clipboards return for positions without a biome
+        }
+
+        Section section = biomes[sectionIndex(position)];
+        return section == null ? BiomeTypes.OCEAN : (BiomeType) section.get(innerIndex(position));
+    }
+
+    @Override
+    public boolean setBiome(BlockVector3 position, BiomeType biome) {
+        if (!contains(position)) {
+            return false;
+        }
+
+        if (biomes == null) {
+            biomes = new Section[blocks.length];
+        }
+
+        int sectionIndex = sectionIndex(position);
+        Section section = biomes[sectionIndex];
+
+        if (section == null) {
+            section = new Section(biome);
+            biomes[sectionIndex] = section;
+        } else if (section.shared) {
+            section = section.copy();
+            biomes[sectionIndex] = section;
+        }
+
+        section.set(innerIndex(position), biome);
+        return true;
+    }
+
+    @Override
+    public Operation commit() {
+        return null;
+    }
+
+    /**
+     * Replaces the blocks of a whole section. The indices are not copied, and must not be modified by the caller afterwards.
+     *
+     * @param sectionIndex The index of the section, ordered by x, then z, then y
+     * @param palette      The palette of the section
+     * @param indices      The palette index of every position, or null if the palette has a single state
+     */
+    public void setSection(int sectionIndex, BlockState[] palette, PackedArray indices) {
+        blocks[sectionIndex] = palette.length == 1 && palette[0].equals(AIR) ? null : new Section(palette, indices);
+    }
+
+    /**
+     * Replaces the biomes of a whole section. The indices are not copied, and must not be modified by the caller afterwards.
+     *
+     * @param sectionIndex The index of the section, ordered by x, then z, then y
+     * @param palette      The palette of the section
+     * @param indices      The palette index of every position, or null if the palette has a single biome
+     */
+    public void setBiomeSection(int sectionIndex, BiomeType[] palette, PackedArray indices) {
+        if (biomes == null) {
+            biomes = new Section[blocks.length];
+        }
+
+        biomes[sectionIndex] = new Section(palette, indices);
+    }
+
+    /**
+     * Obtains the palette of a section. The palette may contain states which are not used anymore.
+     *
+     * @param sectionIndex The index of the section, ordered by x, then z, then y
+     * @return A copy of the palette
+     */
+    public BlockState[] getSectionPalette(int sectionIndex) {
+        Section section = blocks[sectionIndex];
+        return section == null ? new BlockState[]{AIR} : section.getPalette(BlockState[].class);
+    }
+
+    /**
+     * Obtains the biome palette of a section.
+     *
+     * @param sectionIndex The index of the section, ordered by x, then z, then y
+     * @return A copy of the palette, or null if the section has no biomes
+     */
+    public BiomeType[] getBiomeSectionPalette(int sectionIndex) {
+        Section section = biomes == null ? null : biomes[sectionIndex];
+        return section == null ? null : section.getPalette(BiomeType[].class);
+    }
+
+    /**
+     * Obtains the palette indices of a section. The indices are not copied, and must not be modified.
+     *
+     * @param sectionIndex The index of the section, ordered by x, then z, then y
+     * @return The indices, or null if every position of the section holds the first state of the palette
+     */
+    public PackedArray getSectionIndices(int sectionIndex) {
+        Section section = blocks[sectionIndex];
+        return section == null ? null : section.indices;
+    }
+
+    /**
+     * Obtains the biome palette indices of a section. The indices are not copied, and must not be modified.
+     *
+     * @param sectionIndex The index of the section, ordered by x, then z, then y
+     * @return The indices, or null if every position of the section holds the first biome of the palette
+     */
+    public PackedArray getBiomeSectionIndices(int sectionIndex) {
+        Section section = biomes == null ? null : biomes[sectionIndex];
+        return section == null ? null : section.indices;
+    }
+
+    /**
+     * Obtains the NBT data of every block which has some, keyed by position relative to the minimum point.
+     *
+     * @return A copy of the NBT data
+     */
+    public Map<BlockVector3, CompoundTag> getTiles() {
+        Map<BlockVector3, CompoundTag> copy = new HashMap<>();
+
+        for (Map.Entry<Integer, CompoundTag> entry : tiles.entrySet()) {
+            int index = entry.getKey();
+            int x = index % size.getBlockX();
+            int z = (index / size.getBlockX()) % size.getBlockZ();
+            int y = index / (size.getBlockX() * size.getBlockZ());
+
+            copy.put(BlockVector3.at(x, y, z), entry.getValue());
+        }
+
+        return copy;
+    }
+
+    public int getSectionsX() {
+        return sectionsX;
+    }
+
+    public int getSectionsY() {
+        return sectionsY;
+    }
+
+    public int getSectionsZ() {
+        return sectionsZ;
+    }
+
+    public int getSectionCount() {
+        return blocks.length;
+    }
+
+    private void setTile(BlockVector3 position, CompoundTag tag) {
+        if (tag == null) {
+            if (!tiles.isEmpty()) {
+                tiles.remove(relativeIndex(position));
+            }
+
+            return;
+        }
+
+        tiles.put(relativeIndex(position), tag);
+    }
+
+    private boolean contains(BlockVector3 position) {
+        return position.getBlockX() >= min.getBlockX() && position.getBlockX() <= max.getBlockX()
+            && position.getBlockY() >= min.getBlockY() && position.getBlockY() <= max.getBlockY()
+            && position.getBlockZ() >= min.getBlockZ() && position.getBlockZ() <= max.getBlockZ();
+    }
+
+    private int sectionIndex(BlockVector3 position) {
+        int x = (position.getBlockX() - min.getBlockX()) >> 4;
+        int y = (position.getBlockY() - min.getBlockY()) >> 4;
+        int z = (position.getBlockZ() - min.getBlockZ()) >> 4;
+
+        return (y * sectionsZ + z) * sectionsX + x;
+    }
+
+    private int innerIndex(BlockVector3 position) {
+        int x = (position.getBlockX() - min.getBlockX()) & 15;
+        int y = (position.getBlockY() - min.getBlockY()) & 15;
+        int z = (position.getBlockZ() - min.getBlockZ()) & 15;
+
+        return PaletteSection.index(x, y, z);
+    }
+
+    private int relativeIndex(BlockVector3 position) {
+        int x = position.getBlockX() - min.getBlockX();
+        int y = position.getBlockY() - min.getBlockY();
+        int z = position.getBlockZ() - min.getBlockZ();
+
+        return (y * size.getBlockZ() + z) * size.getBlockX() + x;
+    }
+
+    /**
+     * A section of the clipboard, holding a palette of values and the packed palette index of every position. The indices are widened as the palette grows.
+     */
+    private static class Section {
+
+        private static final int LINEAR_LOOKUP = 16; // palettes up to this size are searched directly instead of through a map
+
+        private volatile boolean shared; // shared sections are never modified again, clipboards copy them before writing
+
+        private Object[] palette;
+        private int paletteSize;
+        private PackedArray indices; // null while the palette has a single value
+        private Map<Object, Integer> lookup; // null while the palette is small
+
+        private Section(Object value) {
+            this.palette = new Object[]{value, null, null, null};
+            this.paletteSize = 1;
+        }
+
+        private Section(Object[] palette, PackedArray indices) {
+            this.palette = Arrays.copyOf(palette, Math.max(4, palette.length), Object[].class);
+            this.paletteSize = palette.length;
+            this.indices = palette.length == 1 ? null : indices;
+
+            if (paletteSize > LINEAR_LOOKUP) {
+                buildLookup();
+            }
+        }
+
+        private Object get(int index) {
+            return palette[indices == null ? 0 : indices.get(index)];
+        }
+
+        private void set(int index, Object value) {
+            int id = idOf(value);
+
+            if (id < 0) {
+                id = add(value);
+            }
+
+            if (indices == null) {
+                if (id == 0) {
+                    return;
+                }
+
+                indices = new PackedArray(PaletteSection.VOLUME, PackedArray.bitsFor(paletteSize));
+            } else if (PackedArray.bitsFor(paletteSize) > indices.getBits()) {
+                widen();
+            }
+
+            indices.set(index, id);
+        }
+
+        private int idOf(Object value) {
+            if (lookup != null) {
+                return lookup.getOrDefault(value, -1);
+            }
+
+            for (int id = 0; id < paletteSize; id++) {
+                if (palette[id].equals(value)) {
+                    return id;
+                }
+            }
+
+            return -1;
+        }
+
+        private int add(Object value) {
+            if (paletteSize == palette.length) {
+                palette = Arrays.copyOf(palette, palette.length * 2);
+            }
+
+            int id = paletteSize++;
+            palette[id] = value;
+
+            if (lookup != null) {
+                lookup.put(value, id);
+            } else if (paletteSize > LINEAR_LOOKUP) {
+                buildLookup();
+            }
+
+            return id;
+        }
+
+        private void buildLookup() {
+            lookup = new HashMap<>();
+
+            for (int id = 0; id < paletteSize; id++) {
+                lookup.put(palette[id], id);
+            }
+        }
+
+        private void widen() {
+            PackedArray widened = new PackedArray(PaletteSection.VOLUME, PackedArray.bitsFor(paletteSize));
+
+            for (int index = 0; index < PaletteSection.VOLUME; index++) {
+                widened.set(index, indices.get(index));
+            }
+
+            indices = widened;
+        }
+
+        private <T> T[] getPalette(Class<T[]> type) {
+            return Arrays.copyOf(palette, paletteSize, type);
+        }
+
+        private Section copy() {
+            Section copy = new Section(Arrays.copyOf(palette, paletteSize), null);
+            copy.indices = indices == null ? null : new PackedArray(PaletteSection.VOLUME, indices.getBits(), indices.getData().clone());
+            return copy;
+        }
+    }
+
+    /**
+     * An entity stored in the clipboard.
+     */
+    private class CompactEntity implements Entity {
+
+        private Location location;
+        private final BaseEntity state;
+
+        private CompactEntity(Location location, BaseEntity state) {
+            this.location = location;
+            this.state = state;
+        }
+
+        @Override
+        public BaseEntity getState() {
+            return state == null ? null : new BaseEntity(state);
+        }
+
+        @Override
+        public boolean remove() {
+            return entities.remove(this);
+        }
+
+        @Override
+        public <T> T getFacet(Class<? extends T> cls) {
+            return null;
+        }
+
+        @Override
+        public Location getLocation() {
+            return location;
+        }
+
+        @Override
+        public boolean setLocation(Location location) {
+            this.location = location;
+            return true;
+        }
+
+        @Override
+        public Extent getExtent() {
+            return CompactClipboard.this;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package me.illusion.cosmos.template.impl.worldedit;
+
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import me.illusion.cosmos.serialization.CosmosSerializer;
+
+/**
+ * A Delta Templated Area is a schematic area which remembers the template it originated from. When serialized with a delta serializer, only the blocks and
+ * entities which differ from the base template are stored.
+ * <p>
+ *
+ * @author Illusion
+ */
+public class DeltaTemplatedArea extends SchematicTemplatedArea {
+
+    private final String baseName;
+    private final SchematicTemplatedArea base;
+
+    public DeltaTemplatedArea(CosmosSerializer serializer, String baseName, SchematicTemplatedArea base, Clipboard clipboard) {
+        super(serializer, clipboard);
+
+        this.baseName = baseName;
+        this.base = base;
+    }
+
+    /**
+     * Obtains the name of the template this area originated from.
+     *
+     * @return The name of the base template
+     */
+    public String getBaseName() {
+        return baseName;
+    }
+
+    /**
+     * Obtains the template this area originated from.
+     *
+     * @return The base template
+     */
+    public SchematicTemplatedArea getBase() {
+        return base;
+    }
+}
@@ -5,15 +5,20 @@ import com.sk89q.worldedit.WorldEdit;
 import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.bukkit.BukkitAdapter;
 import com.sk89q.worldedit.bukkit.BukkitWorld;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
 import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
 import com.sk89q.worldedit.extent.clipboard.Clipboard;
 import com.sk89q.worldedit.function.operation.ForwardExtentCopy;
 import com.sk89q.worldedit.function.operation.Operations;
 import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.math.Vector3;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.world.World;
 import com.sk89q.worldedit.world.block.BlockState;
+import java.util.BitSet;
 import java.util.concurrent.CompletableFuture;
+import me.illusion.cosmos.CosmosPlugin;
 import me.illusion.cosmos.event.area.CosmosPasteAreaEvent;
 import me.illusion.cosmos.event.area.CosmosUnloadAreaEvent;
 import me.illusion.cosmos.template.PastedArea;
@@ -21,18 +26,40 @@ import me.illusion.cosmos.utilities.concurrency.MainThreadExecutor;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.plugin.java.JavaPlugin;
 
 /**
  * A schematic pasted area is an area that has already been pasted, and can be unloaded.
+ * <p>
+ * When the area was pasted from a {@link CompactClipboard} and change tracking is enabled, the sections changed in the world are reported through
+ * {@link #markChanged(int, int, int)}. Obtaining the clipboard then only re-reads those sections, on top of a copy-on-write view of the pasted clipboard,
+ * instead of reading the whole area from the world again. Changes which fire no event, such as edits made by other plugins, are only picked up by the full
+ * read done once every sessions.full-read-interval.
  */
 public class SchematicPastedArea extends SchematicTemplatedArea implements PastedArea {
 
     private final Location pasteLocation;
+    private final BlockVector3 offset; // added to a position of the clipboard to obtain its position in the world
+    private final boolean trackingChanges;
+    private final long fullReadInterval; // in milliseconds, 0 if the area is never read whole again
+
+    private long lastFullRead = System.currentTimeMillis(); // guarded by this
+
+    private final BitSet changedSections = new BitSet(); // guarded by this
+    private CompactClipboard view; // guarded by this, created on the first save
 
     public SchematicPastedArea(SchematicTemplatedArea original, Location pasteLocation) {
         super(original.getSerializer(), original.getClipboard());
 
         this.pasteLocation = pasteLocation;
+        this.offset = BlockVector3.at(pasteLocation.getBlockX(), pasteLocation.getBlockY(), pasteLocation.getBlockZ())
+            .subtract(original.getClipboard().getOrigin());
+
+        ConfigurationSection settings = JavaPlugin.getPlugin(CosmosPlugin.class).getDatabasesFile().getSessionSettings();
+        this.trackingChanges = original.getClipboard() instanceof CompactClipboard && settings != null && settings.getBoolean("track-changes", false);
+        this.fullReadInterval = settings == null ? 0 : Math.max(0, settings.getLong("full-read-interval", 600)) * 1000;
+
         Bukkit.getPluginManager().callEvent(new CosmosPasteAreaEvent(this));
     }
 
@@ -44,7 +71,7 @@ public class SchematicPastedArea extends SchematicTemplatedArea implements Paste
         }
 
         World worldEditWorld = new BukkitWorld(pasteLocation.getWorld());
-        CuboidRegion cuboidRegion = getCuboidRegion();
+        CuboidRegion cuboidRegion = getWorldRegion();
 
         BlockState air = BukkitAdapter.adapt(Material.AIR.createBlockData());
 
@@ -66,22 +93,148 @@ public class SchematicPastedArea extends SchematicTemplatedArea implements Paste
 
     @Override
     public Clipboard getClipboard() {
-        CuboidRegion cuboidRegion = getCuboidRegion();
+        World worldEditWorld = new BukkitWorld(pasteLocation.getWorld());
+
+        if (!trackingChanges) {
+            return readWorld(worldEditWorld);
+        }
+
+        synchronized (this) {
+            if (view == null) {
+                try {
+                    view = CompactClipboard.copyOf(super.getClipboard(), false); // shares every section with the pasted clipboard
+                } catch (WorldEditException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            long now = System.currentTimeMillis();
+
+            if (fullReadInterval > 0 && now - lastFullRead >= fullReadInterval) {
+                changedSections.set(0, view.getSectionCount());
+                lastFullRead = now;
+            }
+
+            if (!changedSections.isEmpty()) {
+                try (EditSession session = WorldEdit.getInstance().newEditSession(worldEditWorld)) {
+                    for (int index = changedSections.nextSetBit(0); index >= 0; index = changedSections.nextSetBit(index + 1)) {
+                        readSection(session, index);
+                    }
+                } catch (WorldEditException e) {
+                    throw new RuntimeException(e);
+                }
+
+                changedSections.clear();
+            }
+
+            // Entities move on their own, so they are always read again, which is cheap next to the blocks
+            CompactClipboard snapshot = view.snapshot();
+            Vector3 entityOffset = offset.toVector3();
+
+            for (Entity entity : worldEditWorld.getEntities(getWorldRegion())) {
+                BaseEntity state = entity.getState();
+
+                if (state == null) {
+                    continue; // players have no state, and are not copied
+                }
+
+                com.sk89q.worldedit.util.Location location = entity.getLocation();
+                Vector3 position = location.toVector().subtract(entityOffset);
+
+                snapshot.createEntity(new com.sk89q.worldedit.util.Location(snapshot, position, location.getYaw(), location.getPitch()), state);
+            }
+
+            return snapshot;
+        }
+    }
+
+    /**
+     * Marks the section holding a block as changed, so the next save reads it from the world again. Blocks outside of this area are ignored.
+     *
+     * @param x The x coordinate of the block in the world
+     * @param y The y coordinate of the block in the world
+     * @param z The z coordinate of the block in the world
+     */
+    public void markChanged(int x, int y, int z) {
+        if (!trackingChanges) {
+            return;
+        }
+
+        BlockVector3 min = super.getClipboard().getMinimumPoint();
+        BlockVector3 max = super.getClipboard().getMaximumPoint();
+
+        int relativeX = x - offset.getBlockX() - min.getBlockX();
+        int relativeY = y - offset.getBlockY() - min.getBlockY();
+        int relativeZ = z - offset.getBlockZ() - min.getBlockZ();
+
+        if (relativeX < 0 || relativeY < 0 || relativeZ < 0 || relativeX > max.getBlockX() - min.getBlockX() || relativeY > max.getBlockY() - min.getBlockY()
+            || relativeZ > max.getBlockZ() - min.getBlockZ()) {
+            return;
+        }
+
+        CompactClipboard clipboard = (CompactClipboard) super.getClipboard();
+        int index = ((relativeY >> 4) * clipboard.getSectionsZ() + (relativeZ >> 4)) * clipboard.getSectionsX() + (relativeX >> 4);
+
+        synchronized (this) {
+            changedSections.set(index);
+        }
+    }
+
+    /**
+     * Checks whether changes to this area are tracked, meaning saves only read the changed sections from the world.
+     *
+     * @return Whether changes are tracked
+     */
+    public boolean isTrackingChanges() {
+        return trackingChanges;
+    }
+
+    /**
+     * Obtains the region of the world this area was pasted to.
+     *
+     * @return The region, in world coordinates
+     */
+    public CuboidRegion getWorldRegion() {
+        CuboidRegion region = super.getClipboard().getRegion().getBoundingBox();
+        return new CuboidRegion(region.getMinimumPoint().add(offset), region.getMaximumPoint().add(offset));
+    }
+
+    /**
+     * Reads a section of the view from the world again.
+     */
+    private void readSection(EditSession session, int index) throws WorldEditException {
+        int sectionX = index % view.getSectionsX();
+        int sectionZ = (index / view.getSectionsX()) % view.getSectionsZ();
+        int sectionY = index / (view.getSectionsX() * view.getSectionsZ());
+
+        BlockVector3 min = view.getMinimumPoint().add(sectionX << 4, sectionY << 4, sectionZ << 4);
+        BlockVector3 max = BlockVector3.at(15, 15, 15).add(min).getMinimum(view.getMaximumPoint());
+
+        CuboidRegion region = new CuboidRegion(min.add(offset), max.add(offset));
+        ForwardExtentCopy copy = new ForwardExtentCopy(session, region, view, min);
+
+        copy.setCopyingEntities(false);
+        copy.setCopyingBiomes(view.hasBiomes()); // biomes are only kept if the pasted clipboard had them
+
+        Operations.complete(copy);
+    }
+
+    /**
+     * Reads the whole area from the world again.
+     */
+    private Clipboard readWorld(World worldEditWorld) {
+        CuboidRegion worldRegion = getWorldRegion();
+        CuboidRegion cuboidRegion = super.getClipboard().getRegion().getBoundingBox();
         // Given this is a pasted area, we'll need to re-make the clipboard, as the old one is no longer valid.
 
-        World worldEditWorld = new BukkitWorld(pasteLocation.getWorld());
         BlockArrayClipboard clipboard = new BlockArrayClipboard(cuboidRegion);
-        Location anchor = getPasteLocation().clone();
-
-        System.out.println("Getting clipboard between " + cuboidRegion.getMinimumPoint() + " and " + cuboidRegion.getMaximumPoint());
-        System.out.println("World: " + worldEditWorld.getName());
 
         try (EditSession session = WorldEdit.getInstance().newEditSession(worldEditWorld)) {
-            clipboard.setOrigin(BlockVector3.at(anchor.getX(), anchor.getY(), anchor.getZ()));
+            clipboard.setOrigin(super.getClipboard().getOrigin());
 
             ForwardExtentCopy forwardExtentCopy = new ForwardExtentCopy(
                 session,
-                cuboidRegion,
+                worldRegion,
                 clipboard,
                 cuboidRegion.getMinimumPoint()
             );
@@ -97,8 +250,4 @@ public class SchematicPastedArea extends SchematicTemplatedArea implements Paste
 
         return clipboard;
     }
-
-    private CuboidRegion getCuboidRegion() {
-        return super.getClipboard().getRegion().getBoundingBox();
-    }
-}
\ No newline at end of file
+}
@@ -1,7 +1,9 @@
 package me.illusion.cosmos.utilities.concurrency;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
 
@@ -18,6 +20,33 @@ public final class MainThreadExecutor implements Executor {
         MainThreadExecutor.plugin = main;
     }
 
+    /**
+     * Runs a task on the main thread without blocking the calling thread, unlike {@link #execute(Runnable)}, so it is safe to call from threads the main
+     * thread may be waiting on. Tasks called from the main thread run right away.
+     *
+     * @param supplier The task
+     * @param <T>      The type of the result
+     * @return A future which will be completed with the result of the task, on the main thread
+     */
+    public static <T> CompletableFuture<T> supply(Supplier<T> supplier) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Runnable task = () -> {
+            try {
+                future.complete(supplier.get());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        };
+
+        if (Bukkit.isPrimaryThread()) {
+            task.run();
+        } else {
+            Bukkit.getScheduler().runTask(plugin, task);
+        }
+
+        return future;
+    }
+
     @Override
     public void execute(Runnable runnable) {
         if (Bukkit.isPrimaryThread()) {
@@ -0,0 +1,72 @@
+package me.illusion.cosmos.utilities.concurrency;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Orders asynchronous operations by key. Operations submitted for the same key run one after another, in submission order, each starting once the previous
+ * one has completed, whether it succeeded or not. Operations for different keys are independent and run concurrently.
+ * <p>
+ * Operations must not submit to, and wait on, their own lane, as they would wait on themselves.
+ *
+ * @param <K> The type of the keys
+ * @author Illusion
+ */
+public class SerialLanes<K> {
+
+    private final Map<K, CompletableFuture<?>> tails = new ConcurrentHashMap<>();
+
+    /**
+     * Submits an operation to the lane of a key.
+     *
+     * @param key       The key
+     * @param operation The operation, called once every operation submitted before it for the same key has completed
+     * @param <T>       The type of the result
+     * @return A future which will be completed with the result of the operation
+     */
+    public <T> CompletableFuture<T> submit(K key, Supplier<CompletableFuture<T>> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        CompletableFuture<?> previous = tails.put(key, future);
+
+        if (previous == null) {
+            start(key, future, operation);
+        } else {
+            previous.whenComplete((irrelevant, throwable) -> start(key, future, operation));
+        }
+
+        return future;
+    }
+
+    private <T> void start(K key, CompletableFuture<T> future, Supplier<CompletableFuture<T>> operation) {
+        CompletableFuture<T> operationFuture;
+
+        try {
+            operationFuture = operation.get();
+        } catch (Exception e) {
+            operationFuture = CompletableFuture.failedFuture(e);
+        }
+
+        operationFuture.whenComplete((result, throwable) -> {
+            tails.remove(key, future); // only if nothing was submitted after it, so idle lanes don't pile up
+
+            if (throwable != null) {
+                future.completeExceptionally(throwable);
+            } else {
+                future.complete(result);
+            }
+        });
+    }
+
+    /**
+     * Checks whether a key has operations running or waiting.
+     *
+     * @param key The key
+     * @return Whether the lane of the key is busy
+     */
+    public boolean isBusy(K key) {
+        return tails.containsKey(key);
+    }
+}
@@ -0,0 +1,81 @@
+package me.illusion.cosmos.utilities.concurrency;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates concurrent asynchronous operations by key. While an operation for a key is in flight, every other caller asking for the same key receives the
+ * same future instead of starting the operation again. Once the operation completes, the next call starts a new one.
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the results
+ * @author Illusion
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Runs an operation, or joins the one already in flight for the same key.
+     *
+     * @param key       The key
+     * @param operation The operation, only called if no operation for the key is in flight
+     * @return The future of the operation
+     */
+    public CompletableFuture<V> run(K key, Supplier<CompletableFuture<V>> operation) {
+        CompletableFuture<V> existing = inFlight.get(key);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        CompletableFuture<V> future = new CompletableFuture<>();
+        existing = inFlight.putIfAbsent(key, future);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        CompletableFuture<V> operationFuture;
+
+        try {
+            operationFuture = operation.get();
+        } catch (Exception e) {
+            operationFuture = CompletableFuture.failedFuture(e);
+        }
+
+        // The entry is removed before the callers are completed, so a caller reacting to the result starts a fresh operation
+        operationFuture.whenComplete((result, throwable) -> {
+            inFlight.remove(key, future);
+
+            if (throwable != null) {
+                future.completeExceptionally(throwable);
+            } else {
+                future.complete(result);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Detaches the operation in flight for a key, if any, so the next call starts a new one. This is used when the result of the operation in flight may
+     * already be outdated, such as after a write.
+     *
+     * @param key The key
+     */
+    public void forget(K key) {
+        inFlight.remove(key);
+    }
+
+    /**
+     * Obtains the amount of operations in flight.
+     *
+     * @return The amount of operations in flight
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+}
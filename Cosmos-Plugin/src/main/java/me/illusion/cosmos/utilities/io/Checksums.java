@@ -0,0 +1,76 @@
+package me.illusion.cosmos.utilities.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Utility methods for computing checksums of stored data.
+ */
+public final class Checksums {
+
+    private Checksums() {
+    }
+
+    /**
+     * Creates a SHA-256 digest, to hash data as it is written or read. See {@link #format(MessageDigest)}.
+     *
+     * @return The digest
+     */
+    public static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Completes a digest, formatting its checksum the same way as the other methods do.
+     *
+     * @param digest The digest
+     * @return The checksum, as a lowercase hexadecimal string
+     */
+    public static String format(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Computes the SHA-256 checksum of data.
+     *
+     * @param data The data to hash
+     * @return The checksum, as a lowercase hexadecimal string
+     */
+    public static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 checksum of a stream, without holding its contents in memory. The stream is fully consumed, but not closed.
+     *
+     * @param stream The stream to hash
+     * @return The checksum, as a lowercase hexadecimal string
+     * @throws IOException If the stream could not be read
+     */
+    public static String sha256(InputStream stream) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = stream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
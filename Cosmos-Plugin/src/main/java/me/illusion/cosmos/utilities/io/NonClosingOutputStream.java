@@ -0,0 +1,26 @@
+package me.illusion.cosmos.utilities.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that flushes instead of closing the underlying stream. This is used when handing a stream we don't own to a library which closes
+ * everything it writes to (WorldEdit's clipboard writers, for example).
+ */
+public class NonClosingOutputStream extends FilterOutputStream {
+
+    public NonClosingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length); // FilterOutputStream writes byte by byte otherwise
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
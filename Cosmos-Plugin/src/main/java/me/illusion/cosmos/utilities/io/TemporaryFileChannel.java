@@ -0,0 +1,121 @@
+package me.illusion.cosmos.utilities.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * A channel which writes to a temporary file of its own, so concurrent writes to the same destination never share a file. The file is only created on the
+ * first write, so the thread which hands the channel to a serializer does no disk access. The written data is hashed as it is written, so it never needs to
+ * be read back to be checksummed.
+ */
+public class TemporaryFileChannel implements WritableByteChannel {
+
+    private final File folder;
+    private final String prefix;
+    private final MessageDigest digest = Checksums.sha256Digest(); // guarded by this
+
+    private Path path; // guarded by this, null until the file is created
+    private FileChannel channel; // guarded by this
+    private boolean closed; // guarded by this
+
+    /**
+     * Creates a channel which will write to a new temporary file.
+     *
+     * @param folder The folder to create the file in, created if it doesn't exist
+     * @param prefix The prefix of the name of the file
+     */
+    public TemporaryFileChannel(File folder, String prefix) {
+        this.folder = folder;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer source) throws IOException {
+        if (closed) {
+            throw new IOException("The channel is closed");
+        }
+
+        ByteBuffer written = source.duplicate();
+        int count = open().write(source);
+
+        written.limit(written.position() + count);
+        digest.update(written);
+        return count;
+    }
+
+    /**
+     * Obtains the temporary file, creating it if nothing was written.
+     *
+     * @return The path of the file
+     * @throws IOException If the file could not be created
+     */
+    public synchronized Path getPath() throws IOException {
+        if (path == null) {
+            path = createFile(); // the channel may already be closed, so only the file is created
+        }
+
+        return path;
+    }
+
+    /**
+     * Obtains the SHA-256 checksum of everything written, once writing is done.
+     *
+     * @return The checksum, as a lowercase hexadecimal string
+     */
+    public synchronized String getChecksum() {
+        return Checksums.format(digest);
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Closes the channel and deletes the temporary file, if it is still there.
+     */
+    public synchronized void discard() {
+        try {
+            close();
+
+            if (path != null) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException ignored) {
+            // We are already failing, there's nothing else to do
+        }
+    }
+
+    private FileChannel open() throws IOException {
+        if (channel == null) {
+            if (path == null) {
+                path = createFile();
+            }
+
+            channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        }
+
+        return channel;
+    }
+
+    private Path createFile() throws IOException {
+        Files.createDirectories(folder.toPath());
+        return Files.createTempFile(folder.toPath(), prefix, ".tmp");
+    }
+}
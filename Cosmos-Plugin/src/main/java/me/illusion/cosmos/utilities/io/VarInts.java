@@ -0,0 +1,129 @@
+package me.illusion.cosmos.utilities.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Utility methods for writing variable-length integers, which take a single byte for small values rather than four.
+ */
+public final class VarInts {
+
+    private VarInts() {
+    }
+
+    /**
+     * Writes an unsigned variable-length integer, 7 bits per byte.
+     *
+     * @param output The output to write to
+     * @param value  The value, which is treated as unsigned
+     * @throws IOException If the output could not be written to
+     */
+    public static void writeVarInt(DataOutput output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        output.writeByte(value);
+    }
+
+    /**
+     * Reads an unsigned variable-length integer written by {@link #writeVarInt(DataOutput, int)}.
+     *
+     * @param input The input to read from
+     * @return The value
+     * @throws IOException If the input could not be read, or the value is malformed
+     */
+    public static int readVarInt(DataInput input) throws IOException {
+        int value = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            int current = input.readUnsignedByte();
+            value |= (current & 0x7F) << shift;
+
+            if ((current & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    /**
+     * Writes a signed variable-length integer, zigzag encoded so small negative values stay small.
+     *
+     * @param output The output to write to
+     * @param value  The value
+     * @throws IOException If the output could not be written to
+     */
+    public static void writeSignedVarInt(DataOutput output, int value) throws IOException {
+        writeVarInt(output, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Reads a signed variable-length integer written by {@link #writeSignedVarInt(DataOutput, int)}.
+     *
+     * @param input The input to read from
+     * @return The value
+     * @throws IOException If the input could not be read, or the value is malformed
+     */
+    public static int readSignedVarInt(DataInput input) throws IOException {
+        int value = readVarInt(input);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes a UTF-8 string prefixed by its length. Unlike {@link DataOutput#writeUTF(String)}, strings are not limited to 65535 bytes.
+     *
+     * @param output The output to write to
+     * @param value  The string
+     * @throws IOException If the output could not be written to
+     */
+    public static void writeString(DataOutput output, String value) throws IOException {
+        writeBytes(output, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutput, String)}.
+     *
+     * @param input The input to read from
+     * @return The string
+     * @throws IOException If the input could not be read
+     */
+    public static String readString(DataInput input) throws IOException {
+        return new String(readBytes(input), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes bytes prefixed by their length.
+     *
+     * @param output The output to write to
+     * @param value  The bytes
+     * @throws IOException If the output could not be written to
+     */
+    public static void writeBytes(DataOutput output, byte[] value) throws IOException {
+        writeVarInt(output, value.length);
+        output.write(value);
+    }
+
+    /**
+     * Reads bytes written by {@link #writeBytes(DataOutput, byte[])}.
+     *
+     * @param input The input to read from
+     * @return The bytes
+     * @throws IOException If the input could not be read
+     */
+    public static byte[] readBytes(DataInput input) throws IOException {
+        int length = readVarInt(input);
+
+        if (length < 0) {
+            throw new IOException("Invalid length " + length);
+        }
+
+        byte[] value = new byte[length];
+        input.readFully(value);
+        return value;
+    }
+}
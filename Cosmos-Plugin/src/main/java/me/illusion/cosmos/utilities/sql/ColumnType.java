@@ -6,6 +6,7 @@ package me.illusion.cosmos.utilities.sql;
 public enum ColumnType {
     VARCHAR,
     INT,
+    BIGINT,
     DOUBLE,
     BOOLEAN,
     BLOB,
@@ -0,0 +1,25 @@
+package me.illusion.cosmos.utilities.sql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a result set into an object, without copying the row into an intermediate structure first.
+ *
+ * @param <T> The type of object rows are mapped into
+ * @author Illusion
+ * @see SQLTable#fetch(String, RowMapper, Object...)
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    /**
+     * Maps the current row. Implementations must not move the cursor.
+     *
+     * @param results The result set, positioned on the row to map
+     * @return The mapped object
+     * @throws SQLException If a column could not be read
+     */
+    T map(ResultSet results) throws SQLException;
+
+}
@@ -1,23 +1,44 @@
 package me.illusion.cosmos.utilities.sql;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetFactory;
+import javax.sql.rowset.RowSetProvider;
 import me.illusion.cosmos.utilities.sql.connection.SQLConnectionProvider;
 
 /**
  * Represents a table in a SQL database. Make sure to add columns before using the table.
+ * <p>
+ * Every operation borrows a connection from the provider and returns it as soon as it is done, so results are always read into memory before being handed
+ * out.
  *
  * @author Illusion
  * @see SQLColumn
  */
 public class SQLTable {
 
+    private static final RowSetFactory ROW_SETS = createRowSetFactory();
+
     private final String name;
     private final Map<String, SQLColumn> columns = new ConcurrentHashMap<>();
     private final SQLConnectionProvider provider;
@@ -43,10 +64,12 @@ public class SQLTable {
         }
 
         return provider.getConnection().thenAccept(connection -> {
-            try {
+            try (connection) {
                 // if the column already exists, don't add it
-                if (connection.getMetaData().getColumns(null, null, name, data.getName()).next()) {
-                    return;
+                try (ResultSet existing = connection.getMetaData().getColumns(null, null, name, data.getName())) {
+                    if (existing.next()) {
+                        return;
+                    }
                 }
 
                 Object value = data.getData();
@@ -60,8 +83,9 @@ public class SQLTable {
                     valueString += " PRIMARY KEY";
                 }
 
-                connection.createStatement()
-                    .executeUpdate("ALTER TABLE " + this.name + " ADD COLUMN " + data.getName() + " " + data.getType().name() + valueString);
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("ALTER TABLE " + this.name + " ADD COLUMN " + data.getName() + " " + data.getType().name() + valueString);
+                }
                 // mariadb is giving me a headache
             } catch (Exception e) {
                 e.printStackTrace();
@@ -78,13 +102,7 @@ public class SQLTable {
     public CompletableFuture<Void> removeColumn(String name) {
         columns.remove(name);
 
-        return provider.getConnection().thenAccept(connection -> {
-            try {
-                connection.createStatement().executeUpdate("ALTER TABLE " + this.name + " DROP COLUMN " + name);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        });
+        return provider.getConnection().thenAccept(connection -> update(connection, "ALTER TABLE " + this.name + " DROP COLUMN " + name));
     }
 
     /**
@@ -104,7 +122,7 @@ public class SQLTable {
      */
     public CompletableFuture<Void> createTable() {
         return provider.getConnection().thenAccept(connection -> {
-            try {
+            try (connection) {
                 StringBuilder builder = new StringBuilder();
                 builder.append("CREATE TABLE IF NOT EXISTS ").append(name).append(" (");
 
@@ -128,7 +146,11 @@ public class SQLTable {
                 builder.append(");");
 
                 System.err.println("query: " + builder);
-                connection.createStatement().executeUpdate(builder.toString());
+
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate(builder.toString());
+                }
+
                 created = true;
 
             } catch (Exception e) {
@@ -143,13 +165,7 @@ public class SQLTable {
      * @return A completable future that completes when the table is deleted
      */
     public CompletableFuture<Void> deleteTable() {
-        return provider.getConnection().thenAccept(connection -> {
-            try {
-                connection.createStatement().executeUpdate("DROP TABLE " + name);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        });
+        return provider.getConnection().thenAccept(connection -> update(connection, "DROP TABLE " + name));
     }
 
     /**
@@ -160,7 +176,7 @@ public class SQLTable {
      */
     public CompletableFuture<Void> insert(Map<String, Object> data) {
         return provider.getConnection().thenAccept(connection -> {
-            try {
+            try (connection) {
                 StringBuilder builder = new StringBuilder();
 
                 for (String key : data.keySet()) {
@@ -181,7 +197,9 @@ public class SQLTable {
 
                 String values = builder.substring(0, builder.length() - 2);
 
-                connection.createStatement().executeUpdate("INSERT INTO " + name + " (" + columns + ") VALUES (" + values + ")");
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("INSERT INTO " + name + " (" + columns + ") VALUES (" + values + ")");
+                }
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -189,30 +207,63 @@ public class SQLTable {
     }
 
     /**
-     * Deletes data from the table.
+     * Executes a query on the table. Results of a SELECT query are read into a disconnected result set, as the connection is returned once the query is done.
      *
      * @param query The query to execute
      * @param args  The arguments to replace in the query
-     * @return A completable future that completes when the data is deleted
+     * @return A completable future that completes with the results of a SELECT query, or null for any other query, or completes exceptionally if any other
+     * query failed
      */
     public CompletableFuture<ResultSet> executeQuery(String query, Object... args) {
-        return provider.getConnection().thenApply(connection -> {
-            try {
-                PreparedStatement statement = connection.prepareStatement(query);
+        if (!query.contains("SELECT")) {
+            return provider.getConnection().thenApply(connection -> {
+                if (connection == null) {
+                    throw new IllegalStateException("Could not connect to the database");
+                }
 
-                for (int index = 0; index < args.length; index++) {
-                    statement.setObject(index + 1, args[index]);
+                try (connection; PreparedStatement statement = prepare(connection, query, args)) {
+                    statement.executeUpdate();
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
                 }
 
-                if (query.contains("SELECT")) {
-                    return statement.executeQuery();
+                return null;
+            });
+        }
+
+        return select(query, args, results -> {
+            CachedRowSet cached = ROW_SETS.createCachedRowSet();
+            cached.populate(results);
+            return cached;
+        });
+    }
+
+    /**
+     * Executes an update query once for every set of arguments, as a single JDBC batch.
+     *
+     * @param query     The query to execute
+     * @param arguments The arguments of every execution
+     * @return A completable future that completes when the batch is executed, or completes exceptionally if any execution of it failed
+     */
+    public CompletableFuture<Void> executeBatch(String query, List<Object[]> arguments) {
+        return provider.getConnection().thenAccept(connection -> {
+            if (connection == null) {
+                throw new IllegalStateException("Could not connect to the database");
+            }
+
+            try (connection; PreparedStatement statement = connection.prepareStatement(query)) { // cached by pooled connections
+                for (Object[] args : arguments) {
+                    for (int index = 0; index < args.length; index++) {
+                        statement.setObject(index + 1, args[index]);
+                    }
+
+                    statement.addBatch();
                 }
 
-                statement.executeUpdate();
-            } catch (Exception e) {
-                e.printStackTrace();
+                statement.executeBatch();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
             }
-            return null;
         });
     }
 
@@ -224,31 +275,218 @@ public class SQLTable {
      * @return A completable future that completes when the data is fetched
      */
     public CompletableFuture<List<Map<String, Object>>> fetch(String query, Object... args) {
-        return executeQuery(query, args).thenApply(results -> {
-            try {
+        return select(query, args, results -> {
+            List<Map<String, Object>> data = new ArrayList<>();
 
-                List<Map<String, Object>> data = new ArrayList<>();
+            // The column names are resolved once, rather than for every cell
+            ResultSetMetaData metadata = results.getMetaData();
+            String[] columnNames = new String[metadata.getColumnCount()];
 
-                // No clue if all the tables are in the query
-                int columnCount = results.getMetaData().getColumnCount();
+            for (int index = 0; index < columnNames.length; index++) {
+                columnNames[index] = metadata.getColumnName(index + 1);
+            }
 
-                while (results.next()) {
-                    Map<String, Object> map = new HashMap<>();
+            while (results.next()) {
+                Map<String, Object> map = new HashMap<>(columnNames.length * 2);
 
-                    for (int index = 1; index <= columnCount; index++) {
-                        map.put(results.getMetaData().getColumnName(index), results.getObject(index));
-                    }
+                for (int index = 0; index < columnNames.length; index++) {
+                    map.put(columnNames[index], results.getObject(index + 1));
+                }
+
+                data.add(map);
+            }
+
+            return data;
+        });
+    }
+
+    /**
+     * Fetches data from the table, mapping every row as it is read.
+     *
+     * @param query  The query to execute
+     * @param mapper The mapper of every row
+     * @param args   The arguments to replace in the query
+     * @return A completable future that completes with the mapped rows, or null if the query failed
+     */
+    public <T> CompletableFuture<List<T>> fetch(String query, RowMapper<T> mapper, Object... args) {
+        return select(query, args, results -> {
+            List<T> data = new ArrayList<>();
 
-                    data.add(map);
+            while (results.next()) {
+                data.add(mapper.map(results));
+            }
+
+            return data;
+        });
+    }
+
+    /**
+     * Fetches data from the table as a lazily mapped stream, backed by a database cursor. The fetch size hints the driver to only hold that many rows in
+     * memory at once, instead of the whole result. MySQL only honors it with cursor fetching enabled, which the MySQL connection provider does.
+     * <p>
+     * The stream holds on to its connection until it is closed, so it must always be closed, preferably with try-with-resources. On a pool of a single
+     * connection, such as SQLite's, every other query waits for it meanwhile.
+     *
+     * @param query     The query to execute
+     * @param fetchSize The amount of rows to fetch at once
+     * @param mapper    The mapper of every row
+     * @param args      The arguments to replace in the query
+     * @return A completable future that completes with the stream of mapped rows, or completes exceptionally if the query failed
+     */
+    public <T> CompletableFuture<Stream<T>> stream(String query, int fetchSize, RowMapper<T> mapper, Object... args) {
+        return provider.getConnection().thenApply(connection -> {
+            if (connection == null) {
+                throw new IllegalStateException("Could not connect to the database");
+            }
+
+            PreparedStatement statement = null;
+            ResultSet results = null;
+
+            try {
+                // Some drivers (e.g. PostgreSQL) only use a cursor inside a transaction, which is rolled back once the connection is returned
+                connection.setAutoCommit(false);
+
+                statement = prepare(connection, query, args);
+                statement.setFetchSize(fetchSize);
+                results = statement.executeQuery();
+            } catch (SQLException e) {
+                closeAll(results, statement, connection);
+                throw new RuntimeException(e);
+            }
+
+            ResultSet cursor = results;
+            AutoCloseable[] resources = {results, statement, connection};
+
+            Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super T> action) {
+                    try {
+                        if (!cursor.next()) {
+                            return false;
+                        }
+
+                        action.accept(mapper.map(cursor));
+                        return true;
+                    } catch (SQLException e) {
+                        throw new RuntimeException(e);
+                    }
                 }
+            };
 
-                results.close();
+            return StreamSupport.stream(spliterator, false).onClose(() -> closeAll(resources));
+        });
+    }
 
-                return data;
+    /**
+     * Opens a binary column of the first row of a query as a stream, read from the database as the stream is read instead of being loaded into memory as a
+     * whole. How much the driver buffers depends on the driver and its cursor settings, see {@link #stream(String, int, RowMapper, Object...)}.
+     * <p>
+     * The stream holds on to its connection until it is closed, so it must always be closed. On a pool of a single connection, such as SQLite's, every other
+     * query waits for it meanwhile.
+     *
+     * @param query  The query to execute
+     * @param column The name of the binary column
+     * @param args   The arguments to replace in the query
+     * @return A completable future that completes with the stream, or null if there is no such row or the column is null
+     */
+    public CompletableFuture<InputStream> openBinaryStream(String query, String column, Object... args) {
+        return stream(query, 1, results -> results.getBinaryStream(column), args).thenApply(rows -> {
+            InputStream data;
+
+            try {
+                data = rows.filter(Objects::nonNull).findFirst().orElse(null);
+            } catch (RuntimeException e) {
+                rows.close();
+                throw e;
+            }
+
+            if (data == null) {
+                rows.close();
+                return null;
+            }
+
+            return new FilterInputStream(data) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        rows.close();
+                    }
+                }
+            };
+        });
+    }
+
+    /**
+     * Executes a SELECT query, and reads its results while the connection is still borrowed. The statement, results and connection are closed once the
+     * reader is done, whether it succeeds or not.
+     *
+     * @param query  The query to execute
+     * @param args   The arguments to replace in the query
+     * @param reader The reader of the results
+     * @return A completable future that completes with what the reader returned, or null if the query failed
+     */
+    private <T> CompletableFuture<T> select(String query, Object[] args, ResultReader<T> reader) {
+        return provider.getConnection().thenApply(connection -> {
+            try (connection; PreparedStatement statement = prepare(connection, query, args); ResultSet results = statement.executeQuery()) {
+                return reader.read(results);
             } catch (Exception e) {
                 e.printStackTrace();
             }
+
             return null;
         });
     }
+
+    private PreparedStatement prepare(Connection connection, String query, Object[] args) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(query); // cached by pooled connections
+
+        try {
+            for (int index = 0; index < args.length; index++) {
+                statement.setObject(index + 1, args[index]);
+            }
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+
+        return statement;
+    }
+
+    private static RowSetFactory createRowSetFactory() {
+        try {
+            return RowSetProvider.newFactory();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void closeAll(AutoCloseable... resources) {
+        for (AutoCloseable resource : resources) {
+            if (resource == null) {
+                continue;
+            }
+
+            try {
+                resource.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void update(Connection connection, String query) {
+        try (connection; Statement statement = connection.createStatement()) {
+            statement.executeUpdate(query);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @FunctionalInterface
+    private interface ResultReader<T> {
+
+        T read(ResultSet results) throws SQLException;
+    }
 }
@@ -0,0 +1,80 @@
+package me.illusion.cosmos.utilities.sql.connection;
+
+import java.sql.Connection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+import me.illusion.cosmos.utilities.sql.SQLTable;
+import me.illusion.cosmos.utilities.sql.connection.pool.ConnectionPool;
+import me.illusion.cosmos.utilities.sql.connection.pool.ConnectionPoolSettings;
+
+/**
+ * Represents a connection provider which hands out connections from a {@link ConnectionPool}. Implementations only need to open physical connections, the
+ * pool takes care of reusing, validating and closing them.
+ *
+ * @author Illusion
+ * @see SQLConnectionProvider
+ */
+public abstract class PooledConnectionProvider implements SQLConnectionProvider {
+
+    private final ConnectionPool pool;
+
+    protected PooledConnectionProvider(String name, ConnectionPoolSettings settings) {
+        this.pool = new ConnectionPool(name, this::createConnection, settings);
+    }
+
+    @Override
+    public CompletableFuture<Connection> getConnection() {
+        return pool.borrow().exceptionally(throwable -> {
+            pool.getLogger().warning("Could not obtain a connection from the " + pool.getName() + " pool: " + throwable.getMessage());
+            return null;
+        });
+    }
+
+    @Override
+    public SQLTable getOrCreateTable(String name) {
+        return new SQLTable(name, this);
+    }
+
+    /**
+     * Obtains the pool backing this provider.
+     *
+     * @return The pool
+     */
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Sets the executor the pool opens and validates connections on.
+     *
+     * @param executor The executor
+     */
+    public void setExecutor(Executor executor) {
+        pool.setExecutor(executor);
+    }
+
+    /**
+     * Sets the logger the pool reports to.
+     *
+     * @param logger The logger
+     */
+    public void setLogger(Logger logger) {
+        pool.setLogger(logger);
+    }
+
+    /**
+     * Closes the pool, and every connection in it.
+     */
+    public void close() {
+        pool.close();
+    }
+
+    /**
+     * Opens a new physical connection to the database.
+     *
+     * @return The connection, or null if the database could not be reached
+     * @throws Exception If the connection could not be opened
+     */
+    protected abstract Connection createConnection() throws Exception;
+}
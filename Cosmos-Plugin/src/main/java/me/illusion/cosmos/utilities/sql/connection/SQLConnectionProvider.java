@@ -10,9 +10,10 @@ import me.illusion.cosmos.utilities.sql.SQLTable;
 public interface SQLConnectionProvider {
 
     /**
-     * Gets a connection to the database. If the connection is not valid, a new one will be created.
+     * Gets a connection to the database. The connection must be closed once it is no longer needed, which returns it to the provider rather than closing
+     * it, so it is best used with try-with-resources.
      *
-     * @return a connection to the database
+     * @return a connection to the database, or null if the database could not be reached
      */
     CompletableFuture<Connection> getConnection();
 
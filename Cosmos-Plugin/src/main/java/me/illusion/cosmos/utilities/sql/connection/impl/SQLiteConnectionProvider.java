@@ -4,22 +4,23 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicReference;
-import me.illusion.cosmos.utilities.sql.SQLTable;
+import me.illusion.cosmos.utilities.sql.connection.PooledConnectionProvider;
 import me.illusion.cosmos.utilities.sql.connection.SQLConnectionProvider;
+import me.illusion.cosmos.utilities.sql.connection.pool.ConnectionPoolSettings;
 
 /**
- * Represents a connection provider for SQLite.
+ * Represents a connection provider for SQLite. SQLite only allows a single writer at a time, so the pool is limited to a single connection which is kept
+ * open.
  *
  * @see SQLConnectionProvider
  */
-public class SQLiteConnectionProvider implements SQLConnectionProvider {
+public class SQLiteConnectionProvider extends PooledConnectionProvider {
 
     private final File file;
-    private final AtomicReference<Connection> connection = new AtomicReference<>();
 
     public SQLiteConnectionProvider(File file) {
+        super("sqlite", ConnectionPoolSettings.builder().minIdle(1).maxSize(1).build());
+
         this.file = file;
 
         if (!file.exists()) {
@@ -33,49 +34,14 @@ public class SQLiteConnectionProvider implements SQLConnectionProvider {
     }
 
     @Override
-    public CompletableFuture<Connection> getConnection() {
-        Connection current = connection.get();
-
-        if (current == null) {
-            return createConnection();
+    protected Connection createConnection() {
+        try {
+            Class.forName("org.sqlite.JDBC");
+            return DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+        } catch (Exception e) {
+            e.printStackTrace();
         }
 
-        // if the current is not valid, create a new one
-        return validateConnection(current).thenCompose(valid -> {
-            if (valid) {
-                return CompletableFuture.completedFuture(current);
-            }
-
-            return createConnection();
-        });
-    }
-
-    public SQLTable getOrCreateTable(String name) {
-        return new SQLTable(name, this);
-    }
-
-    private CompletableFuture<Boolean> validateConnection(Connection connection) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                return connection.isValid(1);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            return false;
-        });
-    }
-
-    private CompletableFuture<Connection> createConnection() {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                Class.forName("org.sqlite.JDBC");
-                return DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            return null;
-        }).thenAccept(connection::set).thenApply(v -> connection.get());
+        return null;
     }
 }
@@ -0,0 +1,401 @@
+package me.illusion.cosmos.utilities.sql.connection.pool;
+
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded pool of JDBC connections. Borrowed connections are returned to the pool by closing them, which makes pooled connections work with
+ * try-with-resources like any other connection.
+ * <p>
+ * Idle connections are validated before being handed out if they haven't been used for a while, and closed once they stay idle for too long. When every
+ * connection is borrowed, borrowers wait in line for one to be released, and connections borrowed for too long are reported as potential leaks.
+ *
+ * @author Illusion
+ * @see ConnectionPoolSettings
+ */
+public class ConnectionPool {
+
+    private static final long HOUSEKEEPING_INTERVAL_SECONDS = 5;
+
+    private final String name;
+    private final ConnectionFactory factory;
+    private final ConnectionPoolSettings settings;
+
+    private final Object lock = new Object();
+    private final Deque<PooledConnection> idle = new ArrayDeque<>(); // most recently used first, guarded by lock
+    private final Deque<CompletableFuture<PooledConnection>> waiters = new ArrayDeque<>(); // guarded by lock
+    private final Set<PooledConnection> borrowed = Sets.newConcurrentHashSet();
+
+    private final AtomicLong leaks = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private final ScheduledExecutorService housekeeper;
+
+    private volatile Executor executor = ForkJoinPool.commonPool(); // connections are opened and validated on it
+    private volatile Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+
+    private int size; // open connections, including the ones being opened, guarded by lock
+    private boolean closed; // guarded by lock
+
+    public ConnectionPool(String name, ConnectionFactory factory, ConnectionPoolSettings settings) {
+        this.name = name;
+        this.factory = factory;
+        this.settings = settings;
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("cosmos-pool-" + name)
+            .setDaemon(true)
+            .build());
+
+        // The first run is delayed, as the factory may belong to an object which is still being constructed
+        housekeeper.scheduleWithFixedDelay(this::housekeep, HOUSEKEEPING_INTERVAL_SECONDS, HOUSEKEEPING_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool. The connection must be closed once it is no longer needed, which returns it to the pool.
+     *
+     * @return A future which will be completed with the connection, or completed exceptionally if no connection could be obtained in time
+     */
+    public CompletableFuture<Connection> borrow() {
+        return acquire().thenCompose(pooled -> {
+            if (System.currentTimeMillis() - pooled.getLastUsed() < settings.getValidationInterval().as(TimeUnit.MILLISECONDS)) {
+                return CompletableFuture.completedFuture(lease(pooled));
+            }
+
+            return CompletableFuture.supplyAsync(pooled::validate, executor).thenCompose(valid -> {
+                if (valid) {
+                    return CompletableFuture.completedFuture(lease(pooled));
+                }
+
+                discard(pooled);
+                return borrow();
+            });
+        });
+    }
+
+    /**
+     * Sets the executor connections are opened and validated on, which should be the executor of the container owning the pool.
+     *
+     * @param executor The executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the logger the pool reports potential leaks and failures to, which should be the logger of the plugin owning the pool.
+     *
+     * @param logger The logger
+     */
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    public Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Closes every idle connection, and fails every waiting borrower. Borrowed connections are closed once they are released.
+     */
+    public void close() {
+        List<PooledConnection> idleConnections;
+        List<CompletableFuture<PooledConnection>> pending;
+
+        synchronized (lock) {
+            closed = true;
+
+            idleConnections = new ArrayList<>(idle);
+            pending = new ArrayList<>(waiters);
+
+            idle.clear();
+            waiters.clear();
+            size -= idleConnections.size();
+        }
+
+        for (PooledConnection connection : idleConnections) {
+            connection.closeQuietly();
+        }
+
+        for (CompletableFuture<PooledConnection> waiter : pending) {
+            waiter.completeExceptionally(new SQLException("The " + name + " pool is closed"));
+        }
+
+        housekeeper.shutdownNow();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Obtains the amount of open connections, including the ones currently being opened.
+     *
+     * @return The size of the pool
+     */
+    public int getSize() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    public int getIdleCount() {
+        synchronized (lock) {
+            return idle.size();
+        }
+    }
+
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    public int getWaitingCount() {
+        synchronized (lock) {
+            return waiters.size();
+        }
+    }
+
+    /**
+     * Obtains the amount of connections which were reported as potential leaks since the pool was created.
+     *
+     * @return The amount of leaks
+     */
+    public long getLeakCount() {
+        return leaks.get();
+    }
+
+    /**
+     * Obtains the amount of borrowers which gave up waiting for a connection since the pool was created.
+     *
+     * @return The amount of timeouts
+     */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    /**
+     * Returns a connection to the pool, handing it to the first waiting borrower if there is one. Called when a borrowed connection is closed.
+     *
+     * @param pooled The connection
+     */
+    void release(PooledConnection pooled) {
+        borrowed.remove(pooled);
+
+        if (!pooled.reset()) {
+            discard(pooled);
+            return;
+        }
+
+        while (true) {
+            CompletableFuture<PooledConnection> waiter;
+
+            synchronized (lock) {
+                if (closed) {
+                    size--;
+                    pooled.closeQuietly();
+                    return;
+                }
+
+                waiter = waiters.pollFirst();
+
+                if (waiter == null) {
+                    pooled.markIdle();
+                    idle.addFirst(pooled);
+                    return;
+                }
+            }
+
+            // Waiters are completed outside the lock, as completing them runs their continuations. A waiter which already timed out is skipped.
+            if (waiter.complete(pooled)) {
+                return;
+            }
+        }
+    }
+
+    private CompletableFuture<PooledConnection> acquire() {
+        synchronized (lock) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new SQLException("The " + name + " pool is closed"));
+            }
+
+            PooledConnection connection = idle.pollFirst();
+
+            if (connection != null) {
+                return CompletableFuture.completedFuture(connection);
+            }
+
+            if (size < settings.getMaxSize()) {
+                size++;
+                return open();
+            }
+
+            CompletableFuture<PooledConnection> waiter = new CompletableFuture<>();
+            waiters.addLast(waiter);
+
+            waiter.orTimeout(settings.getBorrowTimeout().as(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS).whenComplete((connection1, throwable) -> {
+                if (throwable == null) {
+                    return;
+                }
+
+                synchronized (lock) {
+                    waiters.remove(waiter);
+                }
+
+                timeouts.incrementAndGet();
+            });
+
+            return waiter;
+        }
+    }
+
+    /**
+     * Opens a new connection. The caller must have already reserved a slot in the pool's size.
+     */
+    private CompletableFuture<PooledConnection> open() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Connection connection = factory.create();
+
+                if (connection == null) {
+                    throw new SQLException("Could not connect to " + name);
+                }
+
+                return new PooledConnection(this, connection, settings.getStatementCacheSize());
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor).whenComplete((connection, throwable) -> {
+            if (throwable != null) {
+                synchronized (lock) {
+                    size--;
+                }
+            }
+        });
+    }
+
+    private Connection lease(PooledConnection pooled) {
+        Connection connection = pooled.lease(settings.getLeakDetectionThreshold().as(TimeUnit.MILLISECONDS) > 0);
+        borrowed.add(pooled);
+        return connection;
+    }
+
+    private void discard(PooledConnection pooled) {
+        pooled.closeQuietly();
+
+        CompletableFuture<PooledConnection> waiter;
+
+        synchronized (lock) {
+            size--;
+            waiter = closed ? null : waiters.pollFirst();
+
+            if (waiter != null) {
+                size++; // the waiter takes over the slot of the discarded connection
+            }
+        }
+
+        if (waiter == null) {
+            return;
+        }
+
+        open().whenComplete((connection, throwable) -> {
+            if (throwable != null) {
+                waiter.completeExceptionally(throwable);
+            } else if (!waiter.complete(connection)) {
+                release(connection);
+            }
+        });
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        long idleTimeout = settings.getIdleTimeout().as(TimeUnit.MILLISECONDS);
+
+        List<PooledConnection> expired = new ArrayList<>();
+        int missing;
+
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+
+            // The least recently used connections are at the end of the queue
+            Iterator<PooledConnection> iterator = idle.descendingIterator();
+
+            while (iterator.hasNext() && size - expired.size() > settings.getMinIdle()) {
+                PooledConnection connection = iterator.next();
+
+                if (now - connection.getLastUsed() < idleTimeout) {
+                    break;
+                }
+
+                iterator.remove();
+                expired.add(connection);
+            }
+
+            size -= expired.size();
+            missing = Math.max(0, settings.getMinIdle() - size);
+            size += missing;
+        }
+
+        for (PooledConnection connection : expired) {
+            connection.closeQuietly();
+        }
+
+        for (int index = 0; index < missing; index++) {
+            open().thenAccept(this::release);
+        }
+
+        long leakThreshold = settings.getLeakDetectionThreshold().as(TimeUnit.MILLISECONDS);
+
+        if (leakThreshold <= 0) {
+            return;
+        }
+
+        for (PooledConnection connection : borrowed) {
+            if (connection.isLeakReported() || now - connection.getBorrowedAt() < leakThreshold) {
+                continue;
+            }
+
+            connection.setLeakReported(true);
+            leaks.incrementAndGet();
+
+            // The trace, when recorded, shows where the connection was borrowed
+            logger.log(Level.WARNING, "A connection of the " + name + " pool has been borrowed for over " + settings.getLeakDetectionThreshold()
+                + ", it may have leaked", connection.getBorrowTrace());
+        }
+    }
+
+    /**
+     * Opens physical connections for a pool.
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+
+        /**
+         * Opens a new connection to the database.
+         *
+         * @return The connection, or null if the database could not be reached
+         * @throws Exception If the connection could not be opened
+         */
+        Connection create() throws Exception;
+
+    }
+}
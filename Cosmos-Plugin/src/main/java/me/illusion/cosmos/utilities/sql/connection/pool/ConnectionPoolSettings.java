@@ -0,0 +1,82 @@
+package me.illusion.cosmos.utilities.sql.connection.pool;
+
+import java.util.concurrent.TimeUnit;
+import lombok.Builder;
+import lombok.Builder.Default;
+import lombok.Getter;
+import me.illusion.cosmos.utilities.time.Time;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * The settings of a {@link ConnectionPool}.
+ */
+@Builder
+@Getter
+public class ConnectionPoolSettings {
+
+    @Default
+    private int minIdle = 2; // We'll keep at least this many connections open, even when they're not used
+
+    @Default
+    private int maxSize = 10; // We'll never open more than this many connections, borrowers wait for one to be released instead
+
+    @Default
+    private Time idleTimeout = new Time(10, TimeUnit.MINUTES); // Connections above the minimum are closed after being idle for this long
+
+    @Default
+    private Time validationInterval = new Time(30, TimeUnit.SECONDS); // Connections idle for longer than this are validated before being handed out
+
+    @Default
+    private Time leakDetectionThreshold = new Time(60, TimeUnit.SECONDS); // Connections borrowed for longer than this are reported, zero disables it
+
+    @Default
+    private Time borrowTimeout = new Time(30, TimeUnit.SECONDS); // Borrowers waiting for longer than this fail
+
+    @Default
+    private int statementCacheSize = 64; // Prepared statements kept open per connection, zero disables caching
+
+    /**
+     * Reads the settings from the pool section of a database, falling back to the defaults for anything missing.
+     *
+     * @param section The section of the database, or null
+     * @return The settings
+     */
+    public static ConnectionPoolSettings fromConfig(ConfigurationSection section) {
+        ConnectionPoolSettingsBuilder builder = builder();
+        ConfigurationSection pool = section == null ? null : section.getConfigurationSection("pool");
+
+        if (pool == null) {
+            return builder.build();
+        }
+
+        if (pool.contains("min-idle")) {
+            builder.minIdle(pool.getInt("min-idle"));
+        }
+
+        if (pool.contains("max-size")) {
+            builder.maxSize(pool.getInt("max-size"));
+        }
+
+        if (pool.contains("idle-timeout")) {
+            builder.idleTimeout(new Time(pool.getInt("idle-timeout"), TimeUnit.SECONDS));
+        }
+
+        if (pool.contains("validation-interval")) {
+            builder.validationInterval(new Time(pool.getInt("validation-interval"), TimeUnit.SECONDS));
+        }
+
+        if (pool.contains("leak-detection-threshold")) {
+            builder.leakDetectionThreshold(new Time(pool.getInt("leak-detection-threshold"), TimeUnit.SECONDS));
+        }
+
+        if (pool.contains("borrow-timeout")) {
+            builder.borrowTimeout(new Time(pool.getInt("borrow-timeout"), TimeUnit.SECONDS));
+        }
+
+        if (pool.contains("statement-cache-size")) {
+            builder.statementCacheSize(pool.getInt("statement-cache-size"));
+        }
+
+        return builder.build();
+    }
+}
@@ -0,0 +1,169 @@
+package me.illusion.cosmos.utilities.sql.connection.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A physical connection owned by a {@link ConnectionPool}. Every time it is borrowed, a new proxy is handed out, closing the proxy returns the connection to
+ * the pool instead of closing it. A proxy can only be closed once, and cannot be used after being closed, even if the connection was borrowed again.
+ * <p>
+ * Statements prepared through the proxy are cached for the lifetime of the physical connection, see {@link StatementCache}.
+ */
+class PooledConnection {
+
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final StatementCache statements; // null if statement caching is disabled
+
+    private volatile long lastUsed = System.currentTimeMillis();
+    private volatile long borrowedAt;
+    private volatile Exception borrowTrace;
+    private volatile boolean leakReported;
+
+    PooledConnection(ConnectionPool pool, Connection connection, int statementCacheSize) {
+        this.pool = pool;
+        this.connection = connection;
+        this.statements = statementCacheSize > 0 ? new StatementCache(connection, statementCacheSize) : null;
+    }
+
+    /**
+     * Marks the connection as borrowed, and creates the proxy handed out to the borrower.
+     *
+     * @param traceBorrower Whether to remember where the connection was borrowed from, for leak reports
+     * @return The proxy
+     */
+    Connection lease(boolean traceBorrower) {
+        borrowedAt = System.currentTimeMillis();
+        borrowTrace = traceBorrower ? new Exception("Connection borrowed here") : null;
+        leakReported = false;
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, new Lease());
+    }
+
+    /**
+     * Validates the connection with a round trip to the database.
+     *
+     * @return Whether the connection is still usable
+     */
+    boolean validate() {
+        try {
+            return connection.isValid(1);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Restores the connection to its default state, so the next borrower does not inherit an open transaction.
+     *
+     * @return Whether the connection can be reused
+     */
+    boolean reset() {
+        try {
+            if (connection.isClosed()) {
+                return false;
+            }
+
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    void markIdle() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    void closeQuietly() {
+        if (statements != null) {
+            statements.closeAll();
+        }
+
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // The connection is being thrown away, there's nothing else to do
+        }
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    long getBorrowedAt() {
+        return borrowedAt;
+    }
+
+    Exception getBorrowTrace() {
+        return borrowTrace;
+    }
+
+    boolean isLeakReported() {
+        return leakReported;
+    }
+
+    void setLeakReported(boolean leakReported) {
+        this.leakReported = leakReported;
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    private class Lease implements InvocationHandler {
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (closed.compareAndSet(false, true)) {
+                        pool.release(PooledConnection.this);
+                    }
+
+                    return null;
+                }
+                case "isClosed" -> {
+                    return closed.get() || connection.isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "Pooled" + connection;
+                }
+                default -> {
+                    // handled below
+                }
+            }
+
+            if (closed.get()) {
+                throw new SQLException("Connection is closed");
+            }
+
+            if (statements != null && method.getName().equals("prepareStatement") && args.length == 1) {
+                return statements.prepare((String) args[0]);
+            }
+
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
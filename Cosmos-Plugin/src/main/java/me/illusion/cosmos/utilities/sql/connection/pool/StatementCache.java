@@ -0,0 +1,191 @@
+package me.illusion.cosmos.utilities.sql.connection.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A size-bounded cache of the prepared statements of a single physical connection, keyed by their SQL text. Closing a cached statement clears it and keeps
+ * it open for the next time the same query is prepared, which saves the database from parsing and planning the query again.
+ * <p>
+ * A cached statement is only handed out to a single user at a time. If the same query is prepared while its statement is in use, an uncached statement is
+ * prepared instead.
+ */
+class StatementCache {
+
+    private final Connection connection;
+    private final int maxSize;
+
+    private final Map<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true); // access ordered, guarded by itself
+
+    StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Prepares a statement, reusing a cached one if possible.
+     *
+     * @param sql The query
+     * @return The statement, which must be closed once it is no longer needed
+     * @throws SQLException If the statement could not be prepared
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        synchronized (statements) {
+            CachedStatement cached = statements.get(sql);
+
+            if (cached != null) {
+                if (cached.inUse) {
+                    return connection.prepareStatement(sql);
+                }
+
+                cached.inUse = true;
+                return cached.proxy;
+            }
+        }
+
+        PreparedStatement statement = connection.prepareStatement(sql);
+        CachedStatement cached = new CachedStatement(statement);
+        List<PreparedStatement> evicted = new ArrayList<>();
+
+        synchronized (statements) {
+            if (statements.containsKey(sql)) {
+                return statement; // prepared concurrently, we simply don't cache this one
+            }
+
+            statements.put(sql, cached);
+
+            Iterator<CachedStatement> iterator = statements.values().iterator();
+
+            while (statements.size() > maxSize && iterator.hasNext()) {
+                CachedStatement eldest = iterator.next();
+
+                if (eldest == cached) {
+                    break;
+                }
+
+                iterator.remove();
+
+                if (eldest.inUse) {
+                    eldest.evicted = true; // closed once its user is done with it
+                } else {
+                    evicted.add(eldest.statement);
+                }
+            }
+        }
+
+        for (PreparedStatement stale : evicted) {
+            closeQuietly(stale);
+        }
+
+        return cached.proxy;
+    }
+
+    /**
+     * Closes every cached statement. Called when the connection is closed.
+     */
+    void closeAll() {
+        List<CachedStatement> closed;
+
+        synchronized (statements) {
+            closed = new ArrayList<>(statements.values());
+            statements.clear();
+        }
+
+        for (CachedStatement cached : closed) {
+            closeQuietly(cached.statement);
+        }
+    }
+
+    private void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+            // The statement is being thrown away, there's nothing else to do
+        }
+    }
+
+    private class CachedStatement implements InvocationHandler {
+
+        private final PreparedStatement statement;
+        private final PreparedStatement proxy;
+
+        private boolean inUse = true; // guarded by statements
+        private boolean evicted; // guarded by statements
+
+        private CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    release();
+                    return null;
+                }
+                case "isClosed" -> {
+                    synchronized (statements) {
+                        return !inUse || statement.isClosed();
+                    }
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                default -> {
+                    // handled below
+                }
+            }
+
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void release() throws SQLException {
+            boolean close;
+
+            synchronized (statements) {
+                if (!inUse) {
+                    return;
+                }
+
+                inUse = false;
+                close = evicted;
+            }
+
+            if (close) {
+                statement.close();
+                return;
+            }
+
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+                statement.setFetchSize(0); // back to the driver default, for the next user
+            } catch (SQLException e) {
+                // The statement can't be reused, so we stop caching it
+                synchronized (statements) {
+                    statements.values().remove(this);
+                }
+
+                closeQuietly(statement);
+            }
+        }
+    }
+}
@@ -65,5 +65,39 @@ public class TextUtils {
     public static String removeFileExtension(String fileName) {
         return fileName.substring(0, fileName.lastIndexOf('.'));
     }
-}
 
+    /**
+     * Formats an amount of bytes in a human-readable way. (e.g. 1536 -> "1.5 KB")
+     *
+     * @param bytes The amount of bytes
+     * @return The formatted size
+     */
+    public static String formatSize(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+
+        int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format("%.1f %sB", bytes / (double) (1L << (unit * 10)), "KMGTPE".charAt(unit - 1));
+    }
+
+    /**
+     * Formats a duration in a human-readable way. (e.g. 3725000 -> "1h 2m 5s")
+     *
+     * @param millis The duration, in milliseconds
+     * @return The formatted duration
+     */
+    public static String formatDuration(long millis) {
+        long seconds = Math.max(0, millis / 1000);
+
+        if (seconds < 60) {
+            return seconds + "s";
+        }
+
+        if (seconds < 3600) {
+            return (seconds / 60) + "m " + (seconds % 60) + "s";
+        }
+
+        return (seconds / 3600) + "h " + (seconds % 3600 / 60) + "m " + (seconds % 60) + "s";
+    }
+}
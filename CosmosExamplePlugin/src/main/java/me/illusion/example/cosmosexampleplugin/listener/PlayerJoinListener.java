@@ -34,7 +34,7 @@ public class PlayerJoinListener implements Listener {
 
         // Let's attempt to load or create a session. Given we automatically unload sessions after 30 minutes, if the session is still valid it'll be instantly loaded.
         // Attempting to load or create a session with an automatic unload in the background will cause the unload to be cancelled, and the session to be considered active.
-        examplePlugin.getSessionHolder().loadOrCreateSession(sessionId, template).thenAcceptAsync((session) -> {
+        examplePlugin.getSessionHolder().loadOrCreateSession(sessionId, "skyblock", template).thenAcceptAsync((session) -> {
             System.out.println("Loaded session " + sessionId);
 
             // We'll teleport the player to the island's spawn point